@@ -0,0 +1,127 @@
+package com.zrh.record.screen;
+
+import static org.junit.Assert.assertTrue;
+
+import android.app.Instrumentation;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.localbroadcastmanager.content.LocalBroadcastManager;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the delivery latency of a duration event sent the old way, an Intent through
+ * {@link LocalBroadcastManager}, with the direct {@link ScreenRecordManager} dispatch. Both are
+ * sent from the main thread, the latency is measured until the callback runs.
+ */
+@RunWith(AndroidJUnit4.class)
+public class EventDeliveryBenchmark {
+    private static final String TAG = "EventDeliveryBenchmark";
+    private static final String ACTION = "EVENT_ACTION";
+    private static final int WARMUP = 200;
+    private static final int ITERATIONS = 2000;
+
+    private final Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+
+    private volatile long sentNanos;
+    private volatile long receivedNanos;
+    private volatile CountDownLatch delivered;
+
+    @Test
+    public void directDispatchIsFasterThanLocalBroadcast() throws Exception {
+        long[] broadcast = measureLocalBroadcast();
+        long[] direct = measureDirectDispatch();
+
+        Log.i(TAG, "LocalBroadcastManager " + describe(broadcast));
+        Log.i(TAG, "direct dispatch " + describe(direct));
+        assertTrue(percentile(direct, 50) < percentile(broadcast, 50));
+    }
+
+    private long[] measureLocalBroadcast() throws Exception {
+        Context context = instrumentation.getTargetContext();
+        LocalBroadcastManager manager = LocalBroadcastManager.getInstance(context);
+        BroadcastReceiver receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                intent.getLongExtra("DURATION", 0);
+                onDelivered();
+            }
+        };
+        manager.registerReceiver(receiver, new IntentFilter(ACTION));
+        try {
+            return measure(() -> {
+                Intent event = new Intent(ACTION);
+                event.putExtra("EVENT_TYPE", 0);
+                event.putExtra("DURATION", 100L);
+                manager.sendBroadcast(event);
+            });
+        } finally {
+            manager.unregisterReceiver(receiver);
+        }
+    }
+
+    private long[] measureDirectDispatch() throws Exception {
+        ScreenRecordCallback callback = new ScreenRecordCallback() {
+            @Override
+            public void onCompleted(@NonNull File file) {
+            }
+
+            @Override
+            public void onError(int code, @NonNull String msg) {
+            }
+
+            @Override
+            public void onDurationChanged(long duration) {
+                onDelivered();
+            }
+        };
+        ScreenRecordManager.addCallback(callback);
+        try {
+            return measure(() -> ScreenRecordManager.dispatchDuration(100L));
+        } finally {
+            ScreenRecordManager.removeCallback(callback);
+        }
+    }
+
+    private void onDelivered() {
+        receivedNanos = System.nanoTime();
+        delivered.countDown();
+    }
+
+    private long[] measure(Runnable send) throws Exception {
+        long[] samples = new long[ITERATIONS];
+        for (int i = -WARMUP; i < ITERATIONS; i++) {
+            delivered = new CountDownLatch(1);
+            instrumentation.runOnMainSync(() -> {
+                sentNanos = System.nanoTime();
+                send.run();
+            });
+            assertTrue(delivered.await(5, TimeUnit.SECONDS));
+            if (i >= 0) samples[i] = receivedNanos - sentNanos;
+        }
+        Arrays.sort(samples);
+        return samples;
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        return sorted[Math.min(sorted.length - 1, sorted.length * percentile / 100)];
+    }
+
+    private static String describe(long[] sorted) {
+        return "p50=" + percentile(sorted, 50) / 1000 + "us p90=" + percentile(sorted, 90) / 1000
+               + "us p99=" + percentile(sorted, 99) / 1000 + "us";
+    }
+}
@@ -0,0 +1,57 @@
+package com.zrh.record.screen;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Additive increase, multiplicative decrease:
+ * <ul>
+ * <li>the encoder falls behind, or the storage can not keep up: cut the bitrate.</li>
+ * <li>the screen is mostly static and the encoder uses a fraction of the budget: lower it
+ * slowly, keyframes of a static screen are still encoded at the full budget.</li>
+ * <li>the budget is used up without trouble: raise it by one step.</li>
+ * </ul>
+ *
+ * @author zrh
+ * @date 2023/7/30
+ */
+public class AimdBitratePolicy implements BitratePolicy {
+    private static final long DEFAULT_MAX_LATENCY_US = 200_000;
+    private static final float DECREASE_FACTOR = 0.75f;
+    private static final float IDLE_DECREASE_FACTOR = 0.9f;
+    private static final float IDLE_USAGE = 0.25f;
+    private static final float BUSY_USAGE = 0.8f;
+    // keep the storage this much faster than the encoder
+    private static final float WRITE_HEADROOM = 1.5f;
+    private static final int INCREASE_STEPS = 10;
+
+    private final long maxLatencyUs;
+
+    public AimdBitratePolicy() {
+        this(DEFAULT_MAX_LATENCY_US);
+    }
+
+    public AimdBitratePolicy(long maxLatencyUs) {
+        this.maxLatencyUs = maxLatencyUs;
+    }
+
+    @Override
+    public int evaluate(@NonNull BitrateStats stats, int currentBitrate, int minBitrate, int maxBitrate) {
+        long encodedBitrate = stats.getEncodedBitrate();
+        long writeBytesPerSec = stats.getWriteBytesPerSec();
+
+        if (writeBytesPerSec > 0 && writeBytesPerSec * 8 < encodedBitrate * WRITE_HEADROOM) {
+            long storageBitrate = (long) (writeBytesPerSec * 8 / WRITE_HEADROOM);
+            return (int) Math.min(currentBitrate * DECREASE_FACTOR, storageBitrate);
+        }
+        if (stats.getMaxLatencyUs() > maxLatencyUs) {
+            return (int) (currentBitrate * DECREASE_FACTOR);
+        }
+        if (encodedBitrate < currentBitrate * IDLE_USAGE) {
+            return (int) (currentBitrate * IDLE_DECREASE_FACTOR);
+        }
+        if (encodedBitrate >= currentBitrate * BUSY_USAGE) {
+            return currentBitrate + Math.max(1, (maxBitrate - minBitrate) / INCREASE_STEPS);
+        }
+        return currentBitrate;
+    }
+}
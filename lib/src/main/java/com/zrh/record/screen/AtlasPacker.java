@@ -0,0 +1,67 @@
+package com.zrh.record.screen;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Places rects into a texture atlas in shelves, left to right and then a row lower. Glyphs of one
+ * text size share a height, so little space is lost. Nothing is ever removed, the atlas is
+ * {@link #reset()} as a whole once it is full.
+ *
+ * @author zrh
+ * @date 2023/8/15
+ */
+final class AtlasPacker {
+    private final int width;
+    private final int height;
+    // kept free right and below every rect, linear filtering never reads a neighbour
+    private final int padding;
+
+    private int shelfX;
+    private int shelfY;
+    private int shelfHeight;
+
+    AtlasPacker(int width, int height, int padding) {
+        this.width = width;
+        this.height = height;
+        this.padding = padding;
+    }
+
+    /**
+     * @param out receives the left and top of the rect.
+     * @return false if the rect does not fit anymore.
+     */
+    boolean insert(int rectWidth, int rectHeight, @NonNull int[] out) {
+        int w = rectWidth + padding;
+        int h = rectHeight + padding;
+        if (rectWidth <= 0 || rectHeight <= 0 || w > width) return false;
+        int x = shelfX;
+        int y = shelfY;
+        int rowHeight = shelfHeight;
+        if (x + w > width) {
+            // a new shelf below the current one
+            x = 0;
+            y += rowHeight;
+            rowHeight = 0;
+        }
+        if (y + h > height) return false;
+        out[0] = x;
+        out[1] = y;
+        shelfX = x + w;
+        shelfY = y;
+        shelfHeight = Math.max(rowHeight, h);
+        return true;
+    }
+
+    void reset() {
+        shelfX = 0;
+        shelfY = 0;
+        shelfHeight = 0;
+    }
+
+    /**
+     * @return the rows in use, from the top.
+     */
+    int getUsedHeight() {
+        return shelfY + shelfHeight;
+    }
+}
@@ -0,0 +1,223 @@
+package com.zrh.record.screen;
+
+import android.annotation.SuppressLint;
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioPlaybackCaptureConfiguration;
+import android.media.AudioRecord;
+import android.media.AudioTimestamp;
+import android.media.MediaRecorder;
+import android.media.projection.MediaProjection;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+import java.io.IOException;
+
+/**
+ * Reads 16 bit stereo PCM from {@link AudioRecord} on a dedicated thread into a {@link PcmRingBuffer}.
+ * Chunks are stamped on the {@link System#nanoTime()} clock the surface input of the video encoder
+ * uses, through {@link AvSyncCorrector} so the audio track does not drift away from the video.
+ * With {@link AudioSource#PLAYBACK_AND_MIC} the mono microphone is mixed into the playback capture.
+ *
+ * @author zrh
+ * @date 2023/8/5
+ */
+public class AudioCapture {
+    public static final int SAMPLE_RATE = 44100;
+    public static final int CHANNEL_COUNT = 2;
+    private static final int CHUNK_FRAMES = 1024;
+    // about 1.5s of audio before chunks get dropped
+    private static final int RING_CHUNKS = 64;
+    private static final long SYNC_TOLERANCE_US = 20_000;
+    private static final long RESYNC_US = 500_000;
+
+    private final MediaProjection projection;
+    private final int source;
+    private final PcmRingBuffer buffer = new PcmRingBuffer(CHUNK_FRAMES * CHANNEL_COUNT * RING_CHUNKS, SAMPLE_RATE,
+                                                           CHANNEL_COUNT, RING_CHUNKS * 2);
+    private final PcmMixer mixer = new PcmMixer(1f, 1f);
+    private final AvSyncCorrector corrector = new AvSyncCorrector(SAMPLE_RATE, SYNC_TOLERANCE_US, RESYNC_US);
+
+    private AudioRecord playbackRecord;
+    private AudioRecord micRecord;
+    private Thread thread;
+    private volatile boolean running;
+    private volatile boolean paused;
+
+    /**
+     * @param projection only needed for the playback sources.
+     * @param source     one of {@link AudioSource}, see {@link #resolveSource(int)}.
+     */
+    public AudioCapture(@Nullable MediaProjection projection, int source) {
+        this.projection = projection;
+        this.source = source;
+    }
+
+    /**
+     * Playback capture needs Android 10, below that {@link AudioSource#PLAYBACK_AND_MIC} falls back
+     * to the microphone and {@link AudioSource#PLAYBACK} to no audio.
+     */
+    public static int resolveSource(int source) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) return source;
+        if (source == AudioSource.PLAYBACK_AND_MIC) return AudioSource.MIC;
+        if (source == AudioSource.PLAYBACK) return AudioSource.NONE;
+        return source;
+    }
+
+    @NonNull
+    public PcmRingBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Capture time minus presentation time of the last chunk.
+     */
+    public long getDriftUs() {
+        return corrector.getDriftUs();
+    }
+
+    @SuppressLint("MissingPermission")
+    public void prepare() throws IOException {
+        int resolved = resolveSource(source);
+        if (resolved == AudioSource.PLAYBACK || resolved == AudioSource.PLAYBACK_AND_MIC) {
+            playbackRecord = createPlaybackRecord();
+            checkState(playbackRecord);
+        }
+        if (resolved == AudioSource.MIC || resolved == AudioSource.PLAYBACK_AND_MIC) {
+            int minSize = AudioRecord.getMinBufferSize(SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO,
+                                                       AudioFormat.ENCODING_PCM_16BIT);
+            micRecord = new AudioRecord(MediaRecorder.AudioSource.MIC, SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO,
+                                        AudioFormat.ENCODING_PCM_16BIT, Math.max(minSize, CHUNK_FRAMES * 2 * 4));
+            checkState(micRecord);
+        }
+        if (playbackRecord == null && micRecord == null) throw new IOException("no audio source");
+    }
+
+    @SuppressLint("MissingPermission")
+    @RequiresApi(Build.VERSION_CODES.Q)
+    private AudioRecord createPlaybackRecord() {
+        AudioPlaybackCaptureConfiguration config = new AudioPlaybackCaptureConfiguration.Builder(projection)
+                .addMatchingUsage(AudioAttributes.USAGE_MEDIA)
+                .addMatchingUsage(AudioAttributes.USAGE_GAME)
+                .addMatchingUsage(AudioAttributes.USAGE_UNKNOWN)
+                .build();
+        AudioFormat format = new AudioFormat.Builder()
+                .setEncoding(AudioFormat.ENCODING_PCM_16BIT)
+                .setSampleRate(SAMPLE_RATE)
+                .setChannelMask(AudioFormat.CHANNEL_IN_STEREO)
+                .build();
+        int minSize = AudioRecord.getMinBufferSize(SAMPLE_RATE, AudioFormat.CHANNEL_IN_STEREO,
+                                                   AudioFormat.ENCODING_PCM_16BIT);
+        return new AudioRecord.Builder()
+                .setAudioFormat(format)
+                .setBufferSizeInBytes(Math.max(minSize, CHUNK_FRAMES * CHANNEL_COUNT * 2 * 4))
+                .setAudioPlaybackCaptureConfig(config)
+                .build();
+    }
+
+    private static void checkState(AudioRecord record) throws IOException {
+        if (record.getState() != AudioRecord.STATE_INITIALIZED) {
+            record.release();
+            throw new IOException("AudioRecord init failed");
+        }
+    }
+
+    /**
+     * Keeps reading while paused so the clock stays in sync, but nothing reaches the ring.
+     */
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+    }
+
+    public void start() {
+        if (playbackRecord != null) playbackRecord.startRecording();
+        if (micRecord != null) micRecord.startRecording();
+        running = true;
+        thread = new Thread(this::capture, "ScreenRecorder-Audio");
+        thread.start();
+    }
+
+    private void capture() {
+        short[] chunk = new short[CHUNK_FRAMES * CHANNEL_COUNT];
+        short[] mic = playbackRecord != null && micRecord != null ? new short[CHUNK_FRAMES * CHANNEL_COUNT] : null;
+        AudioRecord clock = playbackRecord != null ? playbackRecord : micRecord;
+        AudioTimestamp timestamp = new AudioTimestamp();
+        long framePosition = 0;
+        while (running) {
+            int frames;
+            if (playbackRecord == null) {
+                frames = micRecord.read(chunk, 0, CHUNK_FRAMES);
+                if (frames <= 0) break;
+                PcmMixer.monoToStereo(chunk, frames, chunk);
+            } else {
+                int samples = playbackRecord.read(chunk, 0, chunk.length);
+                if (samples <= 0) break;
+                frames = samples / CHANNEL_COUNT;
+                if (mic != null) mixMic(mic, chunk, frames);
+            }
+            long captureTimeUs = captureTimeUs(clock, timestamp, framePosition, frames);
+            long presentationTimeUs = corrector.onChunk(framePosition, frames, captureTimeUs);
+            if (!paused) buffer.write(chunk, 0, frames * CHANNEL_COUNT, presentationTimeUs);
+            framePosition += frames;
+        }
+    }
+
+    private void mixMic(short[] mic, short[] chunk, int frames) {
+        int micFrames = Math.max(0, micRecord.read(mic, 0, frames));
+        PcmMixer.monoToStereo(mic, micFrames, mic);
+        for (int i = micFrames * CHANNEL_COUNT; i < frames * CHANNEL_COUNT; i++) {
+            mic[i] = 0;
+        }
+        mixer.mix(chunk, mic, chunk, frames * CHANNEL_COUNT);
+    }
+
+    private static long captureTimeUs(AudioRecord record, AudioTimestamp timestamp, long framePosition, int frames) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+                && record.getTimestamp(timestamp, AudioTimestamp.TIMEBASE_MONOTONIC) == AudioRecord.SUCCESS) {
+            long offsetNanos = (framePosition - timestamp.framePosition) * 1_000_000_000L / SAMPLE_RATE;
+            return (timestamp.nanoTime + offsetNanos) / 1000;
+        }
+        // the chunk just finished, so its first frame was captured one chunk ago
+        return System.nanoTime() / 1000 - frames * 1_000_000L / SAMPLE_RATE;
+    }
+
+    /**
+     * Ends capturing without waiting for the reader thread, samples already read stay in the ring.
+     */
+    public void stop() {
+        running = false;
+        stopRecord(playbackRecord);
+        stopRecord(micRecord);
+    }
+
+    private static void stopRecord(AudioRecord record) {
+        if (record == null) return;
+        try {
+            record.stop();
+        } catch (IllegalStateException ignore) {
+        }
+    }
+
+    public void release() {
+        stop();
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+        if (playbackRecord != null) {
+            playbackRecord.release();
+            playbackRecord = null;
+        }
+        if (micRecord != null) {
+            micRecord.release();
+            micRecord = null;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.zrh.record.screen;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * AAC encoder fed from a {@link PcmRingBuffer} on a dedicated thread. Its output is drained like the
+ * video encoder through {@link #getOutput()}.
+ *
+ * @author zrh
+ * @date 2023/8/5
+ */
+class AudioEncoder {
+    private static final String MIME_TYPE = MediaFormat.MIMETYPE_AUDIO_AAC;
+    private static final long INPUT_TIMEOUT_US = 10_000;
+    private static final long WAIT_MS = 10;
+    private static final int MAX_INPUT_SAMPLES = 4096;
+
+    private final PcmRingBuffer buffer;
+    private final int sampleRate;
+    private final int channelCount;
+    private final int bitrate;
+
+    private MediaCodec codec;
+    private Thread feedThread;
+    private volatile boolean running;
+    private volatile boolean endOfStream;
+
+    AudioEncoder(@NonNull PcmRingBuffer buffer, int sampleRate, int channelCount, int bitrate) {
+        this.buffer = buffer;
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        this.bitrate = bitrate;
+    }
+
+    void prepare() throws IOException {
+        MediaFormat format = MediaFormat.createAudioFormat(MIME_TYPE, sampleRate, channelCount);
+        format.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, bitrate);
+        format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, MAX_INPUT_SAMPLES * 2);
+        codec = MediaCodec.createEncoderByType(MIME_TYPE);
+        codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+    }
+
+    @NonNull
+    EncoderOutput getOutput() {
+        return new MediaCodecEncoder.CodecOutput(codec);
+    }
+
+    void start() {
+        codec.start();
+        running = true;
+        feedThread = new Thread(this::feed, "ScreenRecorder-AudioFeed");
+        feedThread.start();
+    }
+
+    /**
+     * Queues end of stream once the ring is empty.
+     */
+    void signalEndOfStream() {
+        endOfStream = true;
+    }
+
+    private void feed() {
+        short[] samples = new short[MAX_INPUT_SAMPLES];
+        long lastPresentationTimeUs = -1;
+        try {
+            while (running) {
+                int index = codec.dequeueInputBuffer(INPUT_TIMEOUT_US);
+                if (index < 0) continue;
+
+                boolean last = false;
+                while (running && buffer.await(WAIT_MS) == 0) {
+                    if (endOfStream) {
+                        last = true;
+                        break;
+                    }
+                }
+                if (!running) return;
+
+                ByteBuffer input = codec.getInputBuffer(index);
+                input.clear();
+                input.order(ByteOrder.LITTLE_ENDIAN);
+                int max = Math.min(input.remaining() / 2, samples.length);
+                max -= max % channelCount;
+                long presentationTimeUs = buffer.nextPresentationTimeUs();
+                int count = last ? 0 : buffer.read(samples, 0, max);
+                input.asShortBuffer().put(samples, 0, count);
+                // the muxer rejects timestamps going backwards
+                if (presentationTimeUs <= lastPresentationTimeUs) presentationTimeUs = lastPresentationTimeUs + 1;
+                lastPresentationTimeUs = presentationTimeUs;
+                codec.queueInputBuffer(index, 0, count * 2, presentationTimeUs,
+                                       last ? MediaCodec.BUFFER_FLAG_END_OF_STREAM : 0);
+                if (last) return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IllegalStateException e) {
+            // released while feeding
+            e.printStackTrace();
+        }
+    }
+
+    void release() {
+        running = false;
+        if (feedThread != null) {
+            try {
+                feedThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            feedThread = null;
+        }
+        if (codec != null) {
+            try {
+                codec.stop();
+            } catch (Exception ignore) {
+            }
+            codec.release();
+            codec = null;
+        }
+    }
+}
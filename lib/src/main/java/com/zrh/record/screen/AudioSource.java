@@ -0,0 +1,20 @@
+package com.zrh.record.screen;
+
+/**
+ * Audio captured by {@link EncoderType#MEDIA_CODEC}.
+ *
+ * @author zrh
+ * @date 2023/8/5
+ */
+public interface AudioSource {
+    int NONE = 0;
+    int MIC = 1;
+    /**
+     * Audio played by other apps, Android 10 and above, apps may opt out of being captured.
+     */
+    int PLAYBACK = 2;
+    /**
+     * {@link #PLAYBACK} mixed with the microphone.
+     */
+    int PLAYBACK_AND_MIC = 3;
+}
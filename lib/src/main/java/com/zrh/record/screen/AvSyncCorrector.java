@@ -0,0 +1,78 @@
+package com.zrh.record.screen;
+
+/**
+ * Turns the frame count of an audio stream into presentation times that stay on the video clock.
+ * Audio timestamps derived from the frame count alone drift away from the capture clock, because
+ * the audio clock runs slightly off and the reader may lose frames.
+ * <ul>
+ * <li>drift under {@code toleranceUs}: ignored, it is jitter of the capture time.</li>
+ * <li>drift up to {@code resyncUs}: the timestamps are slewed by at most {@link #MAX_SLEW}
+ * of each chunk's duration, so playback speed changes inaudibly.</li>
+ * <li>larger drift, e.g. after frames were lost: the timestamps jump to the capture clock.</li>
+ * </ul>
+ * Presentation times always move forward.
+ *
+ * @author zrh
+ * @date 2023/8/5
+ */
+public class AvSyncCorrector {
+    static final float MAX_SLEW = 0.05f;
+
+    private final int sampleRate;
+    private final long toleranceUs;
+    private final long resyncUs;
+
+    private long baseFrame = -1;
+    private long basePtsUs;
+    private long correctionUs;
+    private long nextMinPtsUs = Long.MIN_VALUE;
+    private long driftUs;
+
+    public AvSyncCorrector(int sampleRate, long toleranceUs, long resyncUs) {
+        this.sampleRate = sampleRate;
+        this.toleranceUs = toleranceUs;
+        this.resyncUs = resyncUs;
+    }
+
+    /**
+     * @param framePosition  frames read before this chunk.
+     * @param frames         frames in this chunk.
+     * @param captureTimeUs  capture time of the first frame of this chunk on the video clock.
+     * @return the presentation time of the first frame of this chunk.
+     */
+    public long onChunk(long framePosition, int frames, long captureTimeUs) {
+        if (baseFrame < 0) {
+            baseFrame = framePosition;
+            basePtsUs = captureTimeUs;
+        }
+        long predicted = basePtsUs + framesToUs(framePosition - baseFrame) + correctionUs;
+        long drift = captureTimeUs - predicted;
+        long chunkUs = framesToUs(frames);
+        if (Math.abs(drift) >= resyncUs) {
+            correctionUs += drift;
+        } else if (Math.abs(drift) > toleranceUs) {
+            long maxSlew = Math.max(1, (long) (chunkUs * MAX_SLEW));
+            correctionUs += Math.max(-maxSlew, Math.min(maxSlew, drift));
+        }
+        long pts = basePtsUs + framesToUs(framePosition - baseFrame) + correctionUs;
+        if (pts < nextMinPtsUs) {
+            // a backwards resync must not overlap the previous chunk
+            correctionUs += nextMinPtsUs - pts;
+            pts = nextMinPtsUs;
+        }
+        driftUs = captureTimeUs - pts;
+        nextMinPtsUs = pts + chunkUs;
+        return pts;
+    }
+
+    /**
+     * Capture time minus presentation time of the last chunk.
+     */
+    public long getDriftUs() {
+        return driftUs;
+    }
+
+    private long framesToUs(long frames) {
+        return frames * 1_000_000L / sampleRate;
+    }
+}
@@ -0,0 +1,122 @@
+package com.zrh.record.screen;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Adapts the encoder bitrate to the feedback of the drain loop. Samples are collected into
+ * windows of {@code windowUs}, each closed window is handed to a {@link BitratePolicy}.
+ * <ul>
+ * <li>{@link #STATE_STEADY}: decreases apply at once, increases only after
+ * {@link #PROBE_WINDOWS} windows in a row asked for one.</li>
+ * <li>{@link #STATE_BACKOFF}: entered after a decrease, further decreases still apply but
+ * increases are ignored for {@link #HOLD_WINDOWS} windows.</li>
+ * </ul>
+ * Not thread safe, meant to be driven by the drain thread only.
+ *
+ * @author zrh
+ * @date 2023/7/30
+ */
+public class BitrateController {
+    public static final int STATE_STEADY = 0;
+    public static final int STATE_BACKOFF = 1;
+
+    static final int PROBE_WINDOWS = 3;
+    static final int HOLD_WINDOWS = 5;
+    // smaller changes are not worth a codec parameter update
+    private static final float MIN_CHANGE = 0.05f;
+
+    private final int minBitrate;
+    private final int maxBitrate;
+    private final long windowUs;
+    private final BitratePolicy policy;
+    private final BitrateStats stats = new BitrateStats();
+
+    private int bitrate;
+    private int state = STATE_STEADY;
+    private int stateWindows;
+    private int increaseRequests;
+    private long windowStartUs = -1;
+
+    public BitrateController(int initialBitrate, int minBitrate, int maxBitrate, long windowUs,
+                             @NonNull BitratePolicy policy) {
+        this.minBitrate = Math.min(minBitrate, maxBitrate);
+        this.maxBitrate = maxBitrate;
+        this.windowUs = windowUs;
+        this.policy = policy;
+        this.bitrate = clamp(initialBitrate);
+    }
+
+    /**
+     * @param latencyUs  time between capture and encoder output of this frame.
+     * @param writeNanos time spent writing to storage since the previous frame, on the write thread
+     *                   when the writer has one.
+     */
+    public void onFrameEncoded(int bytes, long latencyUs, long writeNanos) {
+        stats.frames++;
+        stats.encodedBytes += bytes;
+        stats.maxLatencyUs = Math.max(stats.maxLatencyUs, latencyUs);
+        stats.writeNanos += writeNanos;
+    }
+
+    /**
+     * Closes the window once it is {@code windowUs} long.
+     *
+     * @return the new bitrate, or -1 if it did not change.
+     */
+    public int update(long nowUs) {
+        if (windowStartUs < 0) {
+            windowStartUs = nowUs;
+            return -1;
+        }
+        if (nowUs - windowStartUs < windowUs) return -1;
+
+        stats.windowUs = nowUs - windowStartUs;
+        int wanted = clamp(policy.evaluate(stats, bitrate, minBitrate, maxBitrate));
+        stats.reset();
+        windowStartUs = nowUs;
+        stateWindows++;
+
+        if (state == STATE_BACKOFF && stateWindows >= HOLD_WINDOWS) {
+            enter(STATE_STEADY);
+        }
+
+        if (wanted < bitrate) {
+            increaseRequests = 0;
+            enter(STATE_BACKOFF);
+            return apply(wanted);
+        }
+        if (wanted > bitrate && state == STATE_STEADY) {
+            if (++increaseRequests < PROBE_WINDOWS) return -1;
+            increaseRequests = 0;
+            return apply(wanted);
+        }
+        increaseRequests = 0;
+        return -1;
+    }
+
+    private void enter(int state) {
+        this.state = state;
+        this.stateWindows = 0;
+    }
+
+    private int apply(int wanted) {
+        if (wanted == bitrate) return -1;
+        if (Math.abs(wanted - bitrate) < bitrate * MIN_CHANGE && wanted != minBitrate && wanted != maxBitrate) {
+            return -1;
+        }
+        bitrate = wanted;
+        return bitrate;
+    }
+
+    private int clamp(int value) {
+        return Math.max(minBitrate, Math.min(maxBitrate, value));
+    }
+
+    public int getBitrate() {
+        return bitrate;
+    }
+
+    public int getState() {
+        return state;
+    }
+}
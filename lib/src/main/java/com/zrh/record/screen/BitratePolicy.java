@@ -0,0 +1,17 @@
+package com.zrh.record.screen;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Decides the bitrate of the next {@link BitrateController} window. The controller clamps the
+ * result and takes care of hysteresis, so a policy only has to look at one window.
+ *
+ * @author zrh
+ * @date 2023/7/30
+ */
+public interface BitratePolicy {
+    /**
+     * @return the wanted bitrate, {@code currentBitrate} to keep it.
+     */
+    int evaluate(@NonNull BitrateStats stats, int currentBitrate, int minBitrate, int maxBitrate);
+}
@@ -0,0 +1,57 @@
+package com.zrh.record.screen;
+
+/**
+ * Encoder and storage feedback collected over one {@link BitrateController} window.
+ *
+ * @author zrh
+ * @date 2023/7/30
+ */
+public final class BitrateStats {
+    long windowUs;
+    int frames;
+    long encodedBytes;
+    long maxLatencyUs;
+    long writeNanos;
+
+    void reset() {
+        windowUs = 0;
+        frames = 0;
+        encodedBytes = 0;
+        maxLatencyUs = 0;
+        writeNanos = 0;
+    }
+
+    public long getWindowUs() {
+        return windowUs;
+    }
+
+    public int getFrames() {
+        return frames;
+    }
+
+    public float getFrameRate() {
+        return windowUs <= 0 ? 0 : frames * 1_000_000f / windowUs;
+    }
+
+    /**
+     * Bits per second actually produced by the encoder.
+     */
+    public long getEncodedBitrate() {
+        return windowUs <= 0 ? 0 : encodedBytes * 8_000_000L / windowUs;
+    }
+
+    /**
+     * Longest delay between capture and encoder output, grows when the encoder falls behind.
+     */
+    public long getMaxLatencyUs() {
+        return maxLatencyUs;
+    }
+
+    /**
+     * Bytes per second the storage accepted while the writer was busy, -1 if nothing was written.
+     */
+    public long getWriteBytesPerSec() {
+        if (writeNanos <= 0) return -1;
+        return encodedBytes * 1_000_000_000L / writeNanos;
+    }
+}
@@ -0,0 +1,88 @@
+package com.zrh.record.screen;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Hashes every block of a 4 byte per pixel frame, e.g. an {@link android.graphics.PixelFormat#RGBA_8888}
+ * image plane, and counts the blocks that differ from the previous frame. The plane is read with
+ * absolute gets, two pixels at a time, rows top to bottom, and nothing is allocated per frame.
+ *
+ * @author zrh
+ * @date 2023/8/6
+ */
+public class BlockChecksum {
+    private static final long SEED = 0xCBF29CE484222325L;
+    private static final long PRIME = 0x100000001B3L;
+
+    private final int width;
+    private final int height;
+    private final int blockSize;
+    private final int blocksX;
+    private final int blocksY;
+    private final long[] checksums;
+    // checksums of the block row being hashed
+    private final long[] row;
+    private boolean primed;
+
+    public BlockChecksum(int width, int height, int blockSize) {
+        this.width = width;
+        this.height = height;
+        this.blockSize = blockSize;
+        this.blocksX = (width + blockSize - 1) / blockSize;
+        this.blocksY = (height + blockSize - 1) / blockSize;
+        this.checksums = new long[blocksX * blocksY];
+        this.row = new long[blocksX];
+    }
+
+    public int getBlockCount() {
+        return checksums.length;
+    }
+
+    /**
+     * @param rowStride bytes between the starts of two rows, at least {@code width * 4}.
+     * @return the number of changed blocks, every block for the first frame.
+     */
+    public int update(@NonNull ByteBuffer plane, int rowStride) {
+        int changed = 0;
+        for (int by = 0; by < blocksY; by++) {
+            Arrays.fill(row, SEED);
+            int yEnd = Math.min(height, (by + 1) * blockSize);
+            for (int y = by * blockSize; y < yEnd; y++) {
+                hashRow(plane, y * rowStride);
+            }
+            int slot = by * blocksX;
+            for (int bx = 0; bx < blocksX; bx++, slot++) {
+                if (!primed || checksums[slot] != row[bx]) changed++;
+                checksums[slot] = row[bx];
+            }
+        }
+        primed = true;
+        return changed;
+    }
+
+    private void hashRow(ByteBuffer plane, int rowOffset) {
+        for (int bx = 0; bx < blocksX; bx++) {
+            long hash = row[bx];
+            int x = bx * blockSize;
+            int xEnd = Math.min(width, x + blockSize);
+            int offset = rowOffset + x * 4;
+            for (; x + 1 < xEnd; x += 2, offset += 8) {
+                hash = (hash ^ plane.getLong(offset)) * PRIME;
+            }
+            if (x < xEnd) {
+                hash = (hash ^ plane.getInt(offset)) * PRIME;
+            }
+            row[bx] = hash;
+        }
+    }
+
+    /**
+     * The next frame counts every block as changed.
+     */
+    public void reset() {
+        primed = false;
+    }
+}
@@ -0,0 +1,59 @@
+package com.zrh.record.screen;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+
+/**
+ * Pool that creates at most {@code maxCount} objects. Once all of them are handed out,
+ * {@link #acquire(long)} waits for one to be released, so memory stays flat no matter how fast
+ * objects are requested.
+ *
+ * @author zrh
+ * @date 2023/8/7
+ */
+public class BlockingPool<T> {
+    private final int maxCount;
+    private final Factory<T> factory;
+    private final ArrayDeque<T> pool;
+    private int created;
+
+    public BlockingPool(int maxCount, @NonNull Factory<T> factory) {
+        this.maxCount = maxCount;
+        this.factory = factory;
+        this.pool = new ArrayDeque<>(maxCount);
+    }
+
+    /**
+     * @return null if none was released within {@code timeoutMs}.
+     */
+    @Nullable
+    public synchronized T acquire(long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutMs * 1_000_000L;
+        while (pool.isEmpty()) {
+            if (created < maxCount) {
+                created++;
+                return factory.create();
+            }
+            long waitMs = (deadline - System.nanoTime()) / 1_000_000L;
+            if (waitMs <= 0) return null;
+            wait(waitMs);
+        }
+        return pool.pollLast();
+    }
+
+    public synchronized void release(@NonNull T item) {
+        pool.addLast(item);
+        notify();
+    }
+
+    public synchronized int getCreatedCount() {
+        return created;
+    }
+
+    public interface Factory<T> {
+        @NonNull
+        T create();
+    }
+}
@@ -0,0 +1,110 @@
+package com.zrh.record.screen;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes nested ISO BMFF boxes into a {@link ByteBuffer}, sizes are patched when a box ends.
+ *
+ * @author zrh
+ * @date 2023/7/26
+ */
+final class BoxBuffer {
+    private static final int MAX_DEPTH = 16;
+
+    private final int[] starts = new int[MAX_DEPTH];
+    private ByteBuffer buffer;
+    private int depth;
+
+    BoxBuffer(@NonNull ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    void reset(@NonNull ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.depth = 0;
+    }
+
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    int position() {
+        return buffer.position();
+    }
+
+    BoxBuffer start(@NonNull String type) {
+        starts[depth++] = buffer.position();
+        buffer.putInt(0);
+        putType(type);
+        return this;
+    }
+
+    BoxBuffer startFull(@NonNull String type, int version, int flags) {
+        start(type);
+        buffer.putInt((version << 24) | flags);
+        return this;
+    }
+
+    BoxBuffer end() {
+        int start = starts[--depth];
+        buffer.putInt(start, buffer.position() - start);
+        return this;
+    }
+
+    BoxBuffer putType(@NonNull String type) {
+        for (int i = 0; i < 4; i++) {
+            buffer.put((byte) type.charAt(i));
+        }
+        return this;
+    }
+
+    BoxBuffer putByte(int value) {
+        buffer.put((byte) value);
+        return this;
+    }
+
+    BoxBuffer putShort(int value) {
+        buffer.putShort((short) value);
+        return this;
+    }
+
+    BoxBuffer putInt(int value) {
+        buffer.putInt(value);
+        return this;
+    }
+
+    BoxBuffer putLong(long value) {
+        buffer.putLong(value);
+        return this;
+    }
+
+    BoxBuffer put(@NonNull byte[] bytes) {
+        buffer.put(bytes);
+        return this;
+    }
+
+    BoxBuffer put(@NonNull byte[] bytes, int offset, int length) {
+        buffer.put(bytes, offset, length);
+        return this;
+    }
+
+    BoxBuffer putZeros(int count) {
+        for (int i = 0; i < count; i++) {
+            buffer.put((byte) 0);
+        }
+        return this;
+    }
+
+    BoxBuffer putMatrix() {
+        buffer.putInt(0x00010000).putInt(0).putInt(0);
+        buffer.putInt(0).putInt(0x00010000).putInt(0);
+        buffer.putInt(0).putInt(0).putInt(0x40000000);
+        return this;
+    }
+
+    static int typeOf(@NonNull String type) {
+        return (type.charAt(0) << 24) | (type.charAt(1) << 16) | (type.charAt(2) << 8) | type.charAt(3);
+    }
+}
@@ -0,0 +1,125 @@
+package com.zrh.record.screen;
+
+import android.content.Context;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.os.Build;
+import android.util.Range;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads the {@link EncoderProfile} of an encoder, by default the one
+ * {@code MediaCodec.createEncoderByType} picks. The codec list is only queried the first time on a
+ * device and OS build, the profile is kept in memory and in a small file per encoder in the cache
+ * dir after that.
+ *
+ * @author zrh
+ * @date 2023/8/11
+ */
+public final class CapabilityProbe {
+    private static final String CACHE_FILE = "encoder_profile";
+
+    // by key, a null profile is kept too so a missing encoder is not probed again
+    private static final Map<String, EncoderProfile> cachedProfiles = new HashMap<>();
+
+    private CapabilityProbe() {
+    }
+
+    /**
+     * @return null if no encoder supports {@code mime}.
+     */
+    @Nullable
+    public static EncoderProfile getProfile(@NonNull Context context, @NonNull String mime) {
+        return getProfile(context, mime, null);
+    }
+
+    /**
+     * @param codecName the encoder to read, the first one for {@code mime} if null.
+     * @return null if that encoder does not support {@code mime}.
+     */
+    @Nullable
+    public static synchronized EncoderProfile getProfile(@NonNull Context context, @NonNull String mime,
+                                                         @Nullable String codecName) {
+        String encoder = mime + (codecName != null ? "|" + codecName : "");
+        String key = encoder + "|" + Build.FINGERPRINT;
+        if (cachedProfiles.containsKey(key)) return cachedProfiles.get(key);
+
+        // one file per encoder, the default H.264 one and the picked one do not evict each other
+        File file = new File(context.getCacheDir(), CACHE_FILE + "_" + Integer.toHexString(encoder.hashCode()));
+        EncoderProfile profile = EncoderProfileCache.read(file, key);
+        if (profile == null) {
+            profile = probe(mime, codecName);
+            if (profile != null) {
+                try {
+                    EncoderProfileCache.write(file, key, profile);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        cachedProfiles.put(key, profile);
+        return profile;
+    }
+
+    @Nullable
+    static EncoderProfile probe(@NonNull String mime, @Nullable String codecName) {
+        MediaCodecList list = new MediaCodecList(MediaCodecList.REGULAR_CODECS);
+        for (MediaCodecInfo info : list.getCodecInfos()) {
+            if (!info.isEncoder() || !supports(info, mime)) continue;
+            if (codecName != null && !codecName.equals(info.getName())) continue;
+            MediaCodecInfo.CodecCapabilities capabilities;
+            try {
+                capabilities = info.getCapabilitiesForType(mime);
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            MediaCodecInfo.VideoCapabilities video = capabilities.getVideoCapabilities();
+            if (video == null) continue;
+            // the instance limit can only be queried since Android 6.0
+            int instances = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ? capabilities.getMaxSupportedInstances() : 0;
+            return profileOf(info.getName(), video, instances);
+        }
+        return null;
+    }
+
+    private static boolean supports(MediaCodecInfo info, String mime) {
+        for (String type : info.getSupportedTypes()) {
+            if (type.equalsIgnoreCase(mime)) return true;
+        }
+        return false;
+    }
+
+    private static EncoderProfile profileOf(String name, MediaCodecInfo.VideoCapabilities video, int maxInstances) {
+        Range<Integer> widths = video.getSupportedWidths();
+        Range<Integer> heights = video.getSupportedHeights();
+        // the widest frame tells the pixel limit of the level, its frame rate the pixel rate
+        int width = widths.getUpper();
+        int height = heights.getUpper();
+        try {
+            height = Math.min(height, video.getSupportedHeightsFor(width).getUpper());
+        } catch (IllegalArgumentException e) {
+            width = Math.min(width, video.getSupportedWidthsFor(height).getUpper());
+        }
+        width = width / video.getWidthAlignment() * video.getWidthAlignment();
+        height = height / video.getHeightAlignment() * video.getHeightAlignment();
+        long maxPixels = (long) width * height;
+        long maxPixelRate = 0;
+        try {
+            maxPixelRate = (long) (video.getSupportedFrameRatesFor(width, height).getUpper() * maxPixels);
+        } catch (IllegalArgumentException e) {
+            // only the plain frame rate limit then
+        }
+        Range<Integer> bitrates = video.getBitrateRange();
+        return new EncoderProfile(name, video.getWidthAlignment(), video.getHeightAlignment(),
+                                  widths.getLower(), widths.getUpper(), heights.getLower(), heights.getUpper(),
+                                  maxPixels, maxPixelRate, video.getSupportedFrameRates().getUpper(),
+                                  bitrates.getLower(), bitrates.getUpper(), maxInstances);
+    }
+}
@@ -0,0 +1,54 @@
+package com.zrh.record.screen;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Moves requested encoder settings to the nearest ones an {@link EncoderProfile} supports. The
+ * size keeps its aspect ratio while it is scaled under the size and pixel limits, then it is
+ * aligned down. The frame rate is lowered to what the pixel rate allows at that size and the
+ * bitrate clamped to its range. Settings already supported come back unchanged.
+ *
+ * @author zrh
+ * @date 2023/8/11
+ */
+public class CapabilityResolver {
+    private final EncoderProfile profile;
+
+    public CapabilityResolver(@NonNull EncoderProfile profile) {
+        this.profile = profile;
+    }
+
+    @NonNull
+    public EncoderSettings resolve(int width, int height, int fps, int bitrate) {
+        double scale = 1;
+        if (width > profile.maxWidth) scale = Math.min(scale, (double) profile.maxWidth / width);
+        if (height > profile.maxHeight) scale = Math.min(scale, (double) profile.maxHeight / height);
+        long pixels = (long) width * height;
+        if (profile.maxPixels > 0 && pixels > profile.maxPixels) {
+            scale = Math.min(scale, Math.sqrt((double) profile.maxPixels / pixels));
+        }
+        // the epsilon keeps e.g. 2340 * (1920 / 2340) from landing just under 1920
+        int resolvedWidth = align((int) (width * scale + 1e-6), profile.widthAlignment, profile.minWidth);
+        int resolvedHeight = align((int) (height * scale + 1e-6), profile.heightAlignment, profile.minHeight);
+
+        int resolvedFps = fps;
+        if (profile.maxFrameRate > 0) resolvedFps = Math.min(resolvedFps, profile.maxFrameRate);
+        if (profile.maxPixelRate > 0) {
+            long rate = profile.maxPixelRate / ((long) resolvedWidth * resolvedHeight);
+            resolvedFps = (int) Math.min(resolvedFps, rate);
+        }
+        resolvedFps = Math.max(1, resolvedFps);
+
+        int resolvedBitrate = bitrate;
+        if (profile.maxBitrate > 0) resolvedBitrate = Math.min(resolvedBitrate, profile.maxBitrate);
+        resolvedBitrate = Math.max(resolvedBitrate, profile.minBitrate);
+        return new EncoderSettings(resolvedWidth, resolvedHeight, resolvedFps, resolvedBitrate);
+    }
+
+    private static int align(int size, int alignment, int min) {
+        int aligned = size / alignment * alignment;
+        if (aligned >= min) return aligned;
+        // the smallest aligned size in range
+        return (min + alignment - 1) / alignment * alignment;
+    }
+}
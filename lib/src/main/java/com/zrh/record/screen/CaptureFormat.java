@@ -0,0 +1,13 @@
+package com.zrh.record.screen;
+
+/**
+ * Image format of {@link ScreenRecordManager#captureFrame()}.
+ *
+ * @author zrh
+ * @date 2023/8/7
+ */
+public interface CaptureFormat {
+    int JPEG = 0;
+    int PNG = 1;
+    int WEBP = 2;
+}
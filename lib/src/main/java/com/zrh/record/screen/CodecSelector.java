@@ -0,0 +1,114 @@
+package com.zrh.record.screen;
+
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Orders the encoders of a device into the chain a recording tries one after another: the
+ * hardware encoders of every preferred {@link VideoCodec} in preference order, then their software
+ * encoders. H.264 always closes the chain, so a recording falls back to it when nothing else
+ * configures.
+ *
+ * @author zrh
+ * @date 2023/8/12
+ */
+public class CodecSelector {
+    public static final String MIME_H264 = "video/avc";
+    public static final String MIME_HEVC = "video/hevc";
+    public static final String MIME_AV1 = "video/av01";
+
+    /**
+     * @return the mime of a {@link VideoCodec}, null if unknown.
+     */
+    @Nullable
+    public static String mimeOf(int codec) {
+        switch (codec) {
+            case VideoCodec.H264:
+                return MIME_H264;
+            case VideoCodec.HEVC:
+                return MIME_HEVC;
+            case VideoCodec.AV1:
+                return MIME_AV1;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @param encoders    the encoders of the device in codec list order.
+     * @param preferences {@link VideoCodec}s, most preferred first.
+     */
+    @NonNull
+    public static List<Encoder> select(@NonNull List<Encoder> encoders, @NonNull int[] preferences) {
+        List<String> mimes = new ArrayList<>();
+        for (int codec : preferences) {
+            String mime = mimeOf(codec);
+            if (mime != null && !mimes.contains(mime)) mimes.add(mime);
+        }
+        if (!mimes.contains(MIME_H264)) mimes.add(MIME_H264);
+
+        List<Encoder> chain = new ArrayList<>();
+        for (int pass = 0; pass < 2; pass++) {
+            boolean hardware = pass == 0;
+            for (String mime : mimes) {
+                for (Encoder encoder : encoders) {
+                    if (encoder.hardware == hardware && encoder.mime.equals(mime)) chain.add(encoder);
+                }
+            }
+        }
+        return chain;
+    }
+
+    /**
+     * @return the video encoders of this device in codec list order.
+     */
+    @NonNull
+    public static List<Encoder> deviceEncoders() {
+        List<Encoder> encoders = new ArrayList<>();
+        MediaCodecList list = new MediaCodecList(MediaCodecList.REGULAR_CODECS);
+        for (MediaCodecInfo info : list.getCodecInfos()) {
+            if (!info.isEncoder()) continue;
+            for (String type : info.getSupportedTypes()) {
+                if (!type.startsWith("video/")) continue;
+                encoders.add(new Encoder(info.getName(), type.toLowerCase(), isHardware(info)));
+            }
+        }
+        return encoders;
+    }
+
+    private static boolean isHardware(MediaCodecInfo info) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            return info.isHardwareAccelerated() && !info.isAlias();
+        }
+        // the naming of the platform software codecs before the flag existed
+        String name = info.getName().toLowerCase();
+        return !name.startsWith("omx.google.") && !name.startsWith("c2.android.") && !name.contains(".sw.");
+    }
+
+    public static final class Encoder {
+        @NonNull
+        public final String name;
+        @NonNull
+        public final String mime;
+        public final boolean hardware;
+
+        public Encoder(@NonNull String name, @NonNull String mime, boolean hardware) {
+            this.name = name;
+            this.mime = mime;
+            this.hardware = hardware;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return name + (hardware ? "" : " (software)");
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.zrh.record.screen;
+
+/**
+ * @author zrh
+ * @date 2023/7/26
+ */
+public interface ContainerFormat {
+    int MP4 = 0;
+    int FRAGMENTED_MP4 = 1;
+}
@@ -0,0 +1,264 @@
+package com.zrh.record.screen;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Where a region of the screen ends up in the recording. The crop rect is given in screen pixels,
+ * the output is the rect rotated clockwise by {@code rotation} and scaled down to fit the max
+ * size like {@code ScreenRecorder} scales the whole screen. The display is scaled by the same
+ * factor, so the cropped region reaches the compositor at about the output resolution and no
+ * detail is lost or wasted.
+ * <p>
+ * {@link #getTextureMatrix(float[])} maps output texture coordinates, origin bottom left, to the
+ * texture coordinates of the display frame. {@link #mapToOutput(float, float, float[])} maps
+ * screen pixels to output pixels, origin top left.
+ *
+ * @author zrh
+ * @date 2023/8/13
+ */
+public final class CropGeometry {
+    private final int screenWidth;
+    private final int screenHeight;
+    private final int left;
+    private final int top;
+    private final int right;
+    private final int bottom;
+    private final int rotation;
+    private final int outputWidth;
+    private final int outputHeight;
+    private final int displayWidth;
+    private final int displayHeight;
+
+    /**
+     * @param right    not above {@code left} for the whole screen, the rect is clipped to the screen.
+     * @param rotation clockwise degrees, one of 0, 90, 180 and 270.
+     */
+    public CropGeometry(int screenWidth, int screenHeight, int left, int top, int right, int bottom,
+                        int rotation, int maxWidth, int maxHeight) {
+        if (rotation % 90 != 0) throw new IllegalArgumentException("rotation must be a multiple of 90: " + rotation);
+        this.screenWidth = screenWidth;
+        this.screenHeight = screenHeight;
+        left = clamp(left, 0, screenWidth);
+        top = clamp(top, 0, screenHeight);
+        right = clamp(right, 0, screenWidth);
+        bottom = clamp(bottom, 0, screenHeight);
+        if (right <= left || bottom <= top) {
+            left = 0;
+            top = 0;
+            right = screenWidth;
+            bottom = screenHeight;
+        }
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+        this.rotation = (rotation % 360 + 360) % 360;
+
+        boolean swap = this.rotation == 90 || this.rotation == 270;
+        int cropWidth = right - left;
+        int cropHeight = bottom - top;
+        int rotatedWidth = swap ? cropHeight : cropWidth;
+        int rotatedHeight = swap ? cropWidth : cropHeight;
+        float scale = Math.min(1f, Math.min(1f * maxWidth / rotatedWidth, 1f * maxHeight / rotatedHeight));
+        this.outputWidth = Math.max(2, Math.round(rotatedWidth * scale) & ~1);
+        this.outputHeight = Math.max(2, Math.round(rotatedHeight * scale) & ~1);
+        this.displayWidth = Math.max(1, Math.round(screenWidth * scale));
+        this.displayHeight = Math.max(1, Math.round(screenHeight * scale));
+    }
+
+    private CropGeometry(CropGeometry geometry, int outputWidth, int outputHeight) {
+        this.screenWidth = geometry.screenWidth;
+        this.screenHeight = geometry.screenHeight;
+        this.left = geometry.left;
+        this.top = geometry.top;
+        this.right = geometry.right;
+        this.bottom = geometry.bottom;
+        this.rotation = geometry.rotation;
+        this.outputWidth = outputWidth;
+        this.outputHeight = outputHeight;
+        this.displayWidth = geometry.displayWidth;
+        this.displayHeight = geometry.displayHeight;
+    }
+
+    /**
+     * The same region rendered at another output size, once the encoder has aligned the size.
+     */
+    @NonNull
+    public CropGeometry withOutputSize(int width, int height) {
+        if (width == outputWidth && height == outputHeight) return this;
+        return new CropGeometry(this, width, height);
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    /**
+     * @return true if the output shows the whole screen upright, no compositing is needed then.
+     */
+    public boolean isFullScreen() {
+        return rotation == 0 && left == 0 && top == 0 && right == screenWidth && bottom == screenHeight;
+    }
+
+    public int getOutputWidth() {
+        return outputWidth;
+    }
+
+    public int getOutputHeight() {
+        return outputHeight;
+    }
+
+    /**
+     * Size of the display frames fed to the compositor, the screen scaled like the crop.
+     */
+    public int getDisplayWidth() {
+        return displayWidth;
+    }
+
+    public int getDisplayHeight() {
+        return displayHeight;
+    }
+
+    public int getRotation() {
+        return rotation;
+    }
+
+    /**
+     * Fills the column major 4x4 {@code out} with the affine map from output to display texture
+     * coordinates. Display texture coordinates have the origin at the bottom left of the screen, as
+     * they are after the {@code SurfaceTexture} transform.
+     */
+    public void getTextureMatrix(@NonNull float[] out) {
+        float[] uv = new float[2];
+        sourceUv(0, 0, uv);
+        float u0 = uv[0];
+        float v0 = uv[1];
+        sourceUv(1, 0, uv);
+        float uS = uv[0] - u0;
+        float vS = uv[1] - v0;
+        sourceUv(0, 1, uv);
+        float uT = uv[0] - u0;
+        float vT = uv[1] - v0;
+        for (int i = 0; i < 16; i++) {
+            out[i] = 0;
+        }
+        out[0] = uS;
+        out[1] = vS;
+        out[4] = uT;
+        out[5] = vT;
+        out[10] = 1;
+        out[12] = u0;
+        out[13] = v0;
+        out[15] = 1;
+    }
+
+    private void sourceUv(float s, float t, float[] out) {
+        // output position, origin top left
+        float x = s;
+        float y = 1 - t;
+        // undo the rotation to get the position in the crop rect, origin top left
+        float a;
+        float b;
+        switch (rotation) {
+            case 90:
+                a = y;
+                b = 1 - x;
+                break;
+            case 180:
+                a = 1 - x;
+                b = 1 - y;
+                break;
+            case 270:
+                a = 1 - y;
+                b = x;
+                break;
+            default:
+                a = x;
+                b = y;
+                break;
+        }
+        out[0] = (left + a * (right - left)) / screenWidth;
+        out[1] = 1 - (top + b * (bottom - top)) / screenHeight;
+    }
+
+    /**
+     * Maps the screen pixel {@code x, y} to output pixels, points outside the crop rect map outside the output.
+     *
+     * @param out receives x and y.
+     */
+    public void mapToOutput(float x, float y, @NonNull float[] out) {
+        float a = (x - left) / (right - left);
+        float b = (y - top) / (bottom - top);
+        float outX;
+        float outY;
+        switch (rotation) {
+            case 90:
+                outX = 1 - b;
+                outY = a;
+                break;
+            case 180:
+                outX = 1 - a;
+                outY = 1 - b;
+                break;
+            case 270:
+                outX = b;
+                outY = 1 - a;
+                break;
+            default:
+                outX = a;
+                outY = b;
+                break;
+        }
+        out[0] = outX * outputWidth;
+        out[1] = outY * outputHeight;
+    }
+
+    /**
+     * Maps a rect in screen pixels to the output pixels it covers, rounded outwards and clipped.
+     *
+     * @param out receives left, top, right and bottom, origin top left.
+     * @return false if nothing of the rect is visible.
+     */
+    public boolean mapRectToOutput(float left, float top, float right, float bottom, @NonNull int[] out) {
+        float a0 = (Math.min(left, right) - this.left) / (this.right - this.left);
+        float a1 = (Math.max(left, right) - this.left) / (this.right - this.left);
+        float b0 = (Math.min(top, bottom) - this.top) / (this.bottom - this.top);
+        float b1 = (Math.max(top, bottom) - this.top) / (this.bottom - this.top);
+        // the same turn as mapToOutput, on both edges at once
+        float x0;
+        float x1;
+        float y0;
+        float y1;
+        switch (rotation) {
+            case 90:
+                x0 = 1 - b1;
+                x1 = 1 - b0;
+                y0 = a0;
+                y1 = a1;
+                break;
+            case 180:
+                x0 = 1 - a1;
+                x1 = 1 - a0;
+                y0 = 1 - b1;
+                y1 = 1 - b0;
+                break;
+            case 270:
+                x0 = b0;
+                x1 = b1;
+                y0 = 1 - a1;
+                y1 = 1 - a0;
+                break;
+            default:
+                x0 = a0;
+                x1 = a1;
+                y0 = b0;
+                y1 = b1;
+                break;
+        }
+        out[0] = Math.max(0, (int) Math.floor(x0 * outputWidth));
+        out[1] = Math.max(0, (int) Math.floor(y0 * outputHeight));
+        out[2] = Math.min(outputWidth, (int) Math.ceil(x1 * outputWidth));
+        out[3] = Math.min(outputHeight, (int) Math.ceil(y1 * outputHeight));
+        return out[2] > out[0] && out[3] > out[1];
+    }
+}
@@ -0,0 +1,56 @@
+package com.zrh.record.screen;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Pool of equally sized direct buffers. Buffers are allocated on demand and kept for reuse, at
+ * most {@code maxPooled} idle buffers are retained.
+ *
+ * @author zrh
+ * @date 2023/7/26
+ */
+public class DirectBufferPool {
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ArrayDeque<ByteBuffer> pool;
+
+    public DirectBufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+        this.pool = new ArrayDeque<>(maxPooled);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    @NonNull
+    public ByteBuffer acquire() {
+        ByteBuffer buffer;
+        synchronized (pool) {
+            buffer = pool.pollLast();
+        }
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    public void release(@NonNull ByteBuffer buffer) {
+        synchronized (pool) {
+            if (pool.size() < maxPooled) {
+                pool.addLast(buffer);
+            }
+        }
+    }
+
+    public int getPooledCount() {
+        synchronized (pool) {
+            return pool.size();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.zrh.record.screen;
+
+import android.media.MediaCodec;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Moves encoded samples from an {@link EncoderOutput} into a {@link SampleWriter}. One instance
+ * is driven by one dedicated thread and reuses a single {@link SampleInfo} for every sample.
+ *
+ * @author zrh
+ * @date 2023/7/20
+ */
+public class EncoderDrainer {
+    private static final long WRITER_WAIT_MS = 5;
+
+    private final EncoderOutput output;
+    private final SampleWriter writer;
+    private final SampleInfo info = new SampleInfo();
+
+    private Callback callback;
+    private PauseTimeline pauseTimeline;
+    private int track = -1;
+    private boolean video;
+    private boolean waitForKeyFrame;
+    private long lastWriteNanos;
+    private long lastOffsetUs;
+    private volatile boolean cancelled;
+
+    public EncoderDrainer(@NonNull EncoderOutput output, @NonNull SampleWriter writer) {
+        this.output = output;
+        this.writer = writer;
+    }
+
+    public void setCallback(Callback callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * Drops samples stamped while paused and moves later ones back by the paused time. Video
+     * restarts at the first keyframe after a pause, the dropped frames may be referenced.
+     */
+    public void setPauseTimeline(PauseTimeline timeline) {
+        this.pauseTimeline = timeline;
+    }
+
+    public int getTrack() {
+        return track;
+    }
+
+    /**
+     * Time the writer spent on the last sample, for {@link Callback#onSampleWritten(int, SampleInfo)}.
+     */
+    public long getLastWriteNanos() {
+        return lastWriteNanos;
+    }
+
+    /**
+     * How far the last sample was moved back by {@link #setPauseTimeline(PauseTimeline)}.
+     */
+    public long getLastOffsetUs() {
+        return lastOffsetUs;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Blocks until the encoder signals end of stream or {@link #cancel()} is called.
+     *
+     * @return true if end of stream was reached.
+     */
+    public boolean drain(long timeoutUs) throws IOException, InterruptedException {
+        while (!cancelled) {
+            if (track >= 0 && !writer.isStarted()) {
+                // other tracks are not ready yet, keep the samples inside the encoder
+                Thread.sleep(WRITER_WAIT_MS);
+                continue;
+            }
+
+            int index = output.dequeueOutputBuffer(info, timeoutUs);
+            if (index == MediaCodec.INFO_TRY_AGAIN_LATER || index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                continue;
+            }
+            if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                if (track >= 0) throw new IOException("output format changed twice");
+                TrackFormat format = output.getOutputFormat();
+                video = format.isVideo();
+                track = writer.addTrack(format);
+                continue;
+            }
+            if (index < 0) continue;
+
+            boolean endOfStream = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+            try {
+                writeSample(output.getOutputBuffer(index));
+            } finally {
+                output.releaseOutputBuffer(index);
+            }
+            if (endOfStream) return true;
+        }
+        return false;
+    }
+
+    private void writeSample(ByteBuffer buffer) throws IOException {
+        // codec specific data already travels with the track format
+        if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) return;
+        if (info.size <= 0) return;
+        if (track < 0) throw new IOException("sample before output format");
+        if (pauseTimeline != null && !rebase()) return;
+
+        buffer.position(info.offset);
+        buffer.limit(info.offset + info.size);
+        long writeStart = System.nanoTime();
+        writer.writeSampleData(track, buffer, info);
+        lastWriteNanos = System.nanoTime() - writeStart;
+        if (callback != null) callback.onSampleWritten(track, info);
+    }
+
+    private boolean rebase() {
+        long offsetUs = pauseTimeline.getOffsetUs(info.presentationTimeUs);
+        if (offsetUs < 0) {
+            waitForKeyFrame = video;
+            return false;
+        }
+        if (waitForKeyFrame) {
+            if ((info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) == 0) return false;
+            waitForKeyFrame = false;
+        }
+        lastOffsetUs = offsetUs;
+        info.presentationTimeUs -= offsetUs;
+        return true;
+    }
+
+    public interface Callback {
+        void onSampleWritten(int track, @NonNull SampleInfo info);
+    }
+}
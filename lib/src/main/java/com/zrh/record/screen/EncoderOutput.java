@@ -0,0 +1,27 @@
+package com.zrh.record.screen;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Output side of an encoder, shaped after {@link android.media.MediaCodec} so the drain loop can
+ * run against a real codec or a fake one.
+ *
+ * @author zrh
+ * @date 2023/7/20
+ */
+public interface EncoderOutput {
+    /**
+     * @return a buffer index, or one of the {@code MediaCodec.INFO_*} constants.
+     */
+    int dequeueOutputBuffer(@NonNull SampleInfo info, long timeoutUs);
+
+    @NonNull
+    ByteBuffer getOutputBuffer(int index);
+
+    @NonNull
+    TrackFormat getOutputFormat();
+
+    void releaseOutputBuffer(int index);
+}
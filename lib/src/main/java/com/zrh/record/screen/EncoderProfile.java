@@ -0,0 +1,65 @@
+package com.zrh.record.screen;
+
+import androidx.annotation.NonNull;
+
+/**
+ * What one video encoder accepts, reduced from its {@code VideoCapabilities} to the limits
+ * {@link CapabilityResolver} needs: the size ranges and alignments, the largest frame in pixels
+ * and the pixel rate, which is how codec levels bound frame size and frame rate together. It also
+ * keeps how many instances of the encoder may exist at once.
+ *
+ * @author zrh
+ * @date 2023/8/11
+ */
+public final class EncoderProfile {
+    @NonNull
+    public final String codecName;
+    public final int widthAlignment;
+    public final int heightAlignment;
+    public final int minWidth;
+    public final int maxWidth;
+    public final int minHeight;
+    public final int maxHeight;
+    public final long maxPixels;
+    // pixels per second
+    public final long maxPixelRate;
+    public final int maxFrameRate;
+    public final int minBitrate;
+    public final int maxBitrate;
+    // counting those of other apps, 0 if unknown
+    public final int maxInstances;
+
+    public EncoderProfile(@NonNull String codecName, int widthAlignment, int heightAlignment,
+                          int minWidth, int maxWidth, int minHeight, int maxHeight, long maxPixels,
+                          long maxPixelRate, int maxFrameRate, int minBitrate, int maxBitrate) {
+        this(codecName, widthAlignment, heightAlignment, minWidth, maxWidth, minHeight, maxHeight, maxPixels,
+             maxPixelRate, maxFrameRate, minBitrate, maxBitrate, 0);
+    }
+
+    public EncoderProfile(@NonNull String codecName, int widthAlignment, int heightAlignment,
+                          int minWidth, int maxWidth, int minHeight, int maxHeight, long maxPixels,
+                          long maxPixelRate, int maxFrameRate, int minBitrate, int maxBitrate, int maxInstances) {
+        this.codecName = codecName;
+        this.widthAlignment = Math.max(1, widthAlignment);
+        this.heightAlignment = Math.max(1, heightAlignment);
+        this.minWidth = minWidth;
+        this.maxWidth = maxWidth;
+        this.minHeight = minHeight;
+        this.maxHeight = maxHeight;
+        this.maxPixels = maxPixels;
+        this.maxPixelRate = maxPixelRate;
+        this.maxFrameRate = maxFrameRate;
+        this.minBitrate = minBitrate;
+        this.maxBitrate = maxBitrate;
+        this.maxInstances = maxInstances;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "EncoderProfile{" + codecName + ", align=" + widthAlignment + "x" + heightAlignment
+               + ", width=" + minWidth + "-" + maxWidth + ", height=" + minHeight + "-" + maxHeight
+               + ", maxPixels=" + maxPixels + ", maxPixelRate=" + maxPixelRate + ", maxFrameRate=" + maxFrameRate
+               + ", bitrate=" + minBitrate + "-" + maxBitrate + ", maxInstances=" + maxInstances + "}";
+    }
+}
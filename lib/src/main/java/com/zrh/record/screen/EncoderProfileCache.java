@@ -0,0 +1,67 @@
+package com.zrh.record.screen;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * One {@link EncoderProfile} saved under a key naming the device and OS build it was probed on.
+ * An OS update or a copied file changes the key, the profile is then read as missing.
+ *
+ * @author zrh
+ * @date 2023/8/11
+ */
+final class EncoderProfileCache {
+    // changed with the layout, older files read as missing
+    private static final int MAGIC = 0x53524351;
+
+    private EncoderProfileCache() {
+    }
+
+    @Nullable
+    static EncoderProfile read(@NonNull File file, @NonNull String key) {
+        if (!file.exists()) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || !key.equals(in.readUTF())) return null;
+            return new EncoderProfile(in.readUTF(), in.readInt(), in.readInt(), in.readInt(), in.readInt(),
+                                      in.readInt(), in.readInt(), in.readLong(), in.readLong(), in.readInt(),
+                                      in.readInt(), in.readInt(), in.readInt());
+        } catch (IOException e) {
+            // truncated or from an older version, probe again
+            return null;
+        }
+    }
+
+    static void write(@NonNull File file, @NonNull String key, @NonNull EncoderProfile profile) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(key);
+            out.writeUTF(profile.codecName);
+            out.writeInt(profile.widthAlignment);
+            out.writeInt(profile.heightAlignment);
+            out.writeInt(profile.minWidth);
+            out.writeInt(profile.maxWidth);
+            out.writeInt(profile.minHeight);
+            out.writeInt(profile.maxHeight);
+            out.writeLong(profile.maxPixels);
+            out.writeLong(profile.maxPixelRate);
+            out.writeInt(profile.maxFrameRate);
+            out.writeInt(profile.minBitrate);
+            out.writeInt(profile.maxBitrate);
+            out.writeInt(profile.maxInstances);
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("can not replace " + file);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.zrh.record.screen;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Size, frame rate and bitrate an encoder is configured with.
+ *
+ * @author zrh
+ * @date 2023/8/11
+ */
+public final class EncoderSettings {
+    public final int width;
+    public final int height;
+    public final int fps;
+    public final int bitrate;
+
+    public EncoderSettings(int width, int height, int fps, int bitrate) {
+        this.width = width;
+        this.height = height;
+        this.fps = fps;
+        this.bitrate = bitrate;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof EncoderSettings)) return false;
+        EncoderSettings other = (EncoderSettings) o;
+        return width == other.width && height == other.height && fps == other.fps && bitrate == other.bitrate;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((width * 31 + height) * 31 + fps) * 31 + bitrate;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return width + "x" + height + "@" + fps + " " + bitrate + "bps";
+    }
+}
@@ -0,0 +1,10 @@
+package com.zrh.record.screen;
+
+/**
+ * @author zrh
+ * @date 2023/7/20
+ */
+public interface EncoderType {
+    int MEDIA_RECORDER = 0;
+    int MEDIA_CODEC = 1;
+}
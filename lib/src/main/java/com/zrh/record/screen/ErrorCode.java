@@ -8,4 +8,27 @@ public interface ErrorCode {
     int RECORD_ERROR = 1;
     int RECORD_NOT_SUPPORT = 2;
     int PROJECTION_REQUEST_ERROR = 3;
+    int REPLAY_ERROR = 4;
+    int CAPTURE_ERROR = 5;
+    int PAUSE_ERROR = 6;
+    /**
+     * Not enough free storage to start, or the recording was stopped early to keep the storage
+     * margin free. A stopped recording is still delivered to onCompleted.
+     */
+    int STORAGE_FULL = 7;
+    /**
+     * More sessions than the encoder allows are running and waiting already, see
+     * {@link ScreenRecordManager#startSession(androidx.fragment.app.FragmentActivity, RecordConfig, ScreenRecordCallback)}.
+     */
+    int SESSION_LIMIT = 8;
+    /**
+     * Since Android 14 a new projection stops the running one, a screen session is refused while
+     * another screen session records or waits for consent.
+     */
+    int PROJECTION_BUSY = 9;
+    /**
+     * A finished segment could not be completed while recording continues into the next one. The
+     * segment is left as a .temp file for {@link RecordConfig#setRecoverTempFiles(boolean)}.
+     */
+    int SEGMENT_ERROR = 10;
 }
@@ -0,0 +1,87 @@
+package com.zrh.record.screen;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Writes every sample to the primary writer on the calling thread and hands a copy to each
+ * {@link QueuedSink}, so sinks never slow the file down unless they use {@link SinkPolicy#BLOCK},
+ * and then only for a bounded time.
+ *
+ * @author zrh
+ * @date 2023/8/8
+ */
+public class FanOutSampleWriter implements SampleWriter {
+    private final SampleWriter primary;
+    private final QueuedSink[] sinks;
+
+    public FanOutSampleWriter(@NonNull SampleWriter primary, @NonNull List<QueuedSink> sinks) {
+        this.primary = primary;
+        this.sinks = sinks.toArray(new QueuedSink[0]);
+        for (QueuedSink sink : this.sinks) {
+            sink.start();
+        }
+    }
+
+    @Override
+    public synchronized int addTrack(@NonNull TrackFormat format) throws IOException {
+        int track = primary.addTrack(format);
+        for (QueuedSink sink : sinks) {
+            sink.addTrack(track, format);
+        }
+        return track;
+    }
+
+    @Override
+    public boolean isStarted() {
+        return primary.isStarted();
+    }
+
+    @Override
+    public void writeSampleData(int track, @NonNull ByteBuffer buffer, @NonNull SampleInfo info) throws IOException {
+        int position = buffer.position();
+        int limit = buffer.limit();
+        for (QueuedSink sink : sinks) {
+            sink.write(track, buffer, info);
+            buffer.limit(limit);
+            buffer.position(position);
+        }
+        primary.writeSampleData(track, buffer, info);
+    }
+
+    @Override
+    public void stop() throws IOException {
+        try {
+            primary.stop();
+        } finally {
+            for (QueuedSink sink : sinks) {
+                sink.stop();
+            }
+        }
+    }
+
+    /**
+     * Wakes a producer waiting for a {@link SinkPolicy#BLOCK} sink, the sinks take no more samples.
+     */
+    public void closeSinks() {
+        for (QueuedSink sink : sinks) {
+            sink.getQueue().close();
+        }
+    }
+
+    @Override
+    public void release() {
+        for (QueuedSink sink : sinks) {
+            sink.stop();
+        }
+        primary.release();
+    }
+
+    @Override
+    public long getBackgroundWriteNanos() {
+        return primary.getBackgroundWriteNanos();
+    }
+}
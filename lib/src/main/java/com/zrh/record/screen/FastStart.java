@@ -0,0 +1,151 @@
+package com.zrh.record.screen;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Moves the {@code moov} box of an MP4 in front of the first {@code mdat} box. Only {@code moov} is
+ * read into memory, its chunk offsets are shifted and everything else is streamed with
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}.
+ *
+ * @author zrh
+ * @date 2023/8/3
+ */
+public class FastStart {
+    private static final int MAX_MOOV_SIZE = 64 * 1024 * 1024;
+    private static final long COPY_CHUNK = 1024 * 1024;
+
+    private static final int MOOV = BoxBuffer.typeOf("moov");
+    private static final int MDAT = BoxBuffer.typeOf("mdat");
+    private static final int[] CONTAINERS = {
+            MOOV, BoxBuffer.typeOf("trak"), BoxBuffer.typeOf("mdia"), BoxBuffer.typeOf("minf"), BoxBuffer.typeOf("stbl")
+    };
+    private static final int STCO = BoxBuffer.typeOf("stco");
+    private static final int CO64 = BoxBuffer.typeOf("co64");
+
+    private final IoThrottle throttle;
+    private final ByteBuffer header = ByteBuffer.allocate(16);
+
+    public FastStart(@Nullable IoThrottle throttle) {
+        this.throttle = throttle;
+    }
+
+    /**
+     * Writes the relocated file to {@code temp} and renames it over {@code file}.
+     *
+     * @return false if {@code moov} is in front already, or the file is no MP4 that can be relocated.
+     */
+    public boolean process(@NonNull File file, @NonNull File temp) throws IOException, InterruptedException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            long moovStart = -1;
+            long moovSize = 0;
+            long firstMdat = -1;
+            long position = 0;
+            while (position + 8 <= size) {
+                header.clear();
+                header.limit(16);
+                readFully(channel, header, position);
+                long boxSize = header.getInt(0) & 0xFFFFFFFFL;
+                int type = header.getInt(4);
+                if (boxSize == 1) {
+                    boxSize = header.getLong(8);
+                } else if (boxSize == 0) {
+                    boxSize = size - position;
+                }
+                if (boxSize < 8 || position + boxSize > size) return false;
+                if (type == MDAT && firstMdat < 0) firstMdat = position;
+                if (type == MOOV) {
+                    moovStart = position;
+                    moovSize = boxSize;
+                }
+                position += boxSize;
+            }
+            if (moovStart < 0 || firstMdat < 0 || moovStart < firstMdat) return false;
+            if (moovSize > MAX_MOOV_SIZE) return false;
+
+            ByteBuffer moov = ByteBuffer.allocate((int) moovSize);
+            readFully(channel, moov, moovStart);
+            if (!shiftChunkOffsets(moov, 0, (int) moovSize, moovSize)) return false;
+            moov.clear();
+
+            try (RandomAccessFile out = new RandomAccessFile(temp, "rw")) {
+                FileChannel target = out.getChannel();
+                target.truncate(0);
+                copy(channel, 0, firstMdat, target);
+                while (moov.hasRemaining()) target.write(moov);
+                copy(channel, firstMdat, moovStart - firstMdat, target);
+                copy(channel, moovStart + moovSize, size - moovStart - moovSize, target);
+                target.force(false);
+            }
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("rename " + temp + " failed");
+        }
+        return true;
+    }
+
+    /**
+     * @return false if an offset does not fit into {@code stco} any more.
+     */
+    private static boolean shiftChunkOffsets(ByteBuffer moov, int from, int to, long shift) {
+        int position = from;
+        while (position + 8 <= to) {
+            int size = moov.getInt(position);
+            int type = moov.getInt(position + 4);
+            if (size < 8 || position + size > to) return true;
+            if (isContainer(type)) {
+                if (!shiftChunkOffsets(moov, position + 8, position + size, shift)) return false;
+            } else if (type == STCO) {
+                int count = moov.getInt(position + 12);
+                for (int i = 0; i < count; i++) {
+                    int entry = position + 16 + i * 4;
+                    long offset = (moov.getInt(entry) & 0xFFFFFFFFL) + shift;
+                    if (offset > 0xFFFFFFFFL) return false;
+                    moov.putInt(entry, (int) offset);
+                }
+            } else if (type == CO64) {
+                int count = moov.getInt(position + 12);
+                for (int i = 0; i < count; i++) {
+                    int entry = position + 16 + i * 8;
+                    moov.putLong(entry, moov.getLong(entry) + shift);
+                }
+            }
+            position += size;
+        }
+        return true;
+    }
+
+    private static boolean isContainer(int type) {
+        for (int container : CONTAINERS) {
+            if (container == type) return true;
+        }
+        return false;
+    }
+
+    private void copy(FileChannel source, long position, long count, FileChannel target)
+            throws IOException, InterruptedException {
+        long end = position + count;
+        while (position < end) {
+            long transferred = source.transferTo(position, Math.min(COPY_CHUNK, end - position), target);
+            if (transferred <= 0) throw new IOException("unexpected end of file");
+            position += transferred;
+            if (throttle != null) throttle.pace(transferred);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) break;
+        }
+    }
+}
@@ -0,0 +1,415 @@
+package com.zrh.record.screen;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Writes H.264/AAC samples as a fragmented MP4: {@code ftyp} and {@code moov} first, then a
+ * {@code moof}/{@code mdat} pair roughly every {@code fragmentDurationUs}, aligned to video
+ * keyframes. Every completed fragment is playable, so a killed process leaves a usable file.
+ * <p>
+ * Sample data is copied once into pooled direct buffers, converting Annex-B start codes to
+ * length prefixes, and at the end of a fragment handed to a {@link WriteBehindFile} as they are.
+ *
+ * @author zrh
+ * @date 2023/7/26
+ */
+public class FragmentedMp4Writer implements SampleWriter {
+    private static final int VIDEO_TIMESCALE = 90_000;
+    private static final int SAMPLE_FLAGS_SYNC = 0x02000000;
+    private static final int SAMPLE_FLAGS_NON_SYNC = 0x01010000;
+    private static final int TRUN_FLAGS = 0x000001 | 0x000100 | 0x000200 | 0x000400;
+    private static final int TFHD_DEFAULT_BASE_IS_MOOF = 0x020000;
+    // keyframes follow the fragment duration with some timestamp jitter
+    private static final long FRAGMENT_TOLERANCE_US = 10_000;
+    private static final int WRITE_QUEUE_BUFFERS = 128;
+
+    private final WriteBehindFile output;
+    private final Track[] tracks;
+    private final long fragmentDurationUs;
+    private final DirectBufferPool pool;
+    private final int syncPolicy;
+
+    private final ByteBuffer mdatHeader = ByteBuffer.allocateDirect(8);
+    private final BoxBuffer moof = new BoxBuffer(ByteBuffer.allocateDirect(4096));
+
+    private int addedTracks;
+    private int videoTrack = -1;
+    private int sequence;
+    private long startUs = -1;
+    private long fragmentStartUs = -1;
+    private long bytesWritten;
+    private volatile boolean started;
+
+    public FragmentedMp4Writer(@NonNull File file, int trackCount, long fragmentDurationUs,
+                               @NonNull DirectBufferPool pool) throws IOException {
+        this(file, trackCount, fragmentDurationUs, pool, 0, SyncPolicy.ON_FINISH);
+    }
+
+    /**
+     * @param preallocateBytes storage reserved for the file up front, 0 for none.
+     * @param syncPolicy       see {@link SyncPolicy}.
+     */
+    public FragmentedMp4Writer(@NonNull File file, int trackCount, long fragmentDurationUs,
+                               @NonNull DirectBufferPool pool, long preallocateBytes, int syncPolicy) throws IOException {
+        this.output = new WriteBehindFile(file, pool, WRITE_QUEUE_BUFFERS);
+        this.tracks = new Track[trackCount];
+        this.fragmentDurationUs = fragmentDurationUs;
+        this.pool = pool;
+        this.syncPolicy = syncPolicy;
+        try {
+            output.preallocate(preallocateBytes);
+        } catch (IOException e) {
+            output.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized int addTrack(@NonNull TrackFormat format) throws IOException {
+        if (!MediaFormat.MIMETYPE_VIDEO_AVC.equals(format.mime) && !MediaFormat.MIMETYPE_AUDIO_AAC.equals(format.mime)) {
+            throw new IOException("unsupported mime " + format.mime);
+        }
+        int index = addedTracks++;
+        tracks[index] = new Track(index + 1, format);
+        if (videoTrack < 0 && format.isVideo()) {
+            videoTrack = index;
+        }
+        if (addedTracks == tracks.length) {
+            writeHeader();
+            started = true;
+        }
+        return index;
+    }
+
+    @Override
+    public boolean isStarted() {
+        return started;
+    }
+
+    public synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public synchronized void writeSampleData(int index, @NonNull ByteBuffer buffer, @NonNull SampleInfo info) throws IOException {
+        long pts = info.presentationTimeUs;
+        if (startUs < 0) {
+            startUs = pts;
+            fragmentStartUs = pts;
+        }
+        boolean cutsFragment = index == videoTrack ? (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0 : videoTrack < 0;
+        if (cutsFragment && pts - fragmentStartUs >= fragmentDurationUs - FRAGMENT_TOLERANCE_US
+                && hasPendingSamples()) {
+            flushFragment(pts);
+            fragmentStartUs = pts;
+        }
+
+        Track track = tracks[index];
+        int size = track.video ? track.appendNalUnits(buffer) : track.append(buffer);
+        track.addSample(pts, size, (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0 || !track.video);
+    }
+
+    private boolean hasPendingSamples() {
+        for (Track track : tracks) {
+            if (track.count > 0) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized void stop() throws IOException {
+        if (!started) throw new IOException("writer not started");
+        started = false;
+        if (hasPendingSamples()) {
+            flushFragment(-1);
+        }
+        output.finish();
+    }
+
+    @Override
+    public synchronized void release() {
+        for (Track track : tracks) {
+            if (track != null) track.recycle();
+        }
+        output.close();
+    }
+
+    @Override
+    public long getBackgroundWriteNanos() {
+        return output.getBusyNanos();
+    }
+
+    private void writeHeader() throws IOException {
+        BoxBuffer box = new BoxBuffer(ByteBuffer.allocate(4096));
+        Mp4Boxes.writeFtyp(box);
+
+        box.start("moov");
+        Mp4Boxes.writeMvhd(box, 0, tracks.length + 1);
+        for (Track track : tracks) {
+            writeTrak(box, track);
+        }
+        box.start("mvex");
+        for (Track track : tracks) {
+            box.startFull("trex", 0, 0).putInt(track.id).putInt(1).putInt(0).putInt(0).putInt(0).end();
+        }
+        box.end();
+        box.end();
+
+        ByteBuffer header = box.buffer();
+        header.flip();
+        bytesWritten += header.remaining();
+        output.write(header);
+    }
+
+    private void writeTrak(BoxBuffer box, Track track) {
+        Mp4Boxes.startTrak(box, track.id, track.timescale, track.format, 0, 0);
+        box.startFull("stts", 0, 0).putInt(0).end();
+        box.startFull("stsc", 0, 0).putInt(0).end();
+        box.startFull("stsz", 0, 0).putInt(0).putInt(0).end();
+        box.startFull("stco", 0, 0).putInt(0).end();
+        Mp4Boxes.endTrak(box);
+    }
+
+    /**
+     * @param nextPts presentation time following the fragment, or -1 at end of stream.
+     */
+    private void flushFragment(long nextPts) throws IOException {
+        int sampleCount = 0;
+        for (Track track : tracks) {
+            track.finishDurations(nextPts, startUs);
+            sampleCount += track.count;
+        }
+        ByteBuffer moofBuffer = moof.buffer();
+        int needed = 256 + tracks.length * 64 + sampleCount * 12;
+        if (moofBuffer.capacity() < needed) {
+            moofBuffer = ByteBuffer.allocateDirect(needed * 2);
+        }
+        moofBuffer.clear();
+        moof.reset(moofBuffer);
+
+        sequence++;
+        moof.start("moof");
+        moof.startFull("mfhd", 0, 0).putInt(sequence).end();
+        for (Track track : tracks) {
+            if (track.count == 0) continue;
+            moof.start("traf");
+            moof.startFull("tfhd", 0, TFHD_DEFAULT_BASE_IS_MOOF).putInt(track.id).end();
+            moof.startFull("tfdt", 1, 0).putLong(track.baseDecodeTime).end();
+            moof.startFull("trun", 0, TRUN_FLAGS).putInt(track.count);
+            track.dataOffsetPosition = moof.position();
+            moof.putInt(0);
+            for (int i = 0; i < track.count; i++) {
+                moof.putInt(track.durations[i]).putInt(track.sizes[i])
+                    .putInt(track.syncs[i] ? SAMPLE_FLAGS_SYNC : SAMPLE_FLAGS_NON_SYNC);
+            }
+            moof.end();
+            moof.end();
+        }
+        moof.end();
+
+        int moofSize = moofBuffer.position();
+        long mdatSize = 8;
+        for (Track track : tracks) {
+            if (track.count == 0) continue;
+            moofBuffer.putInt(track.dataOffsetPosition, (int) (moofSize + mdatSize));
+            mdatSize += track.dataSize;
+        }
+        moofBuffer.flip();
+        mdatHeader.clear();
+        mdatHeader.putInt((int) mdatSize).putInt(BoxBuffer.typeOf("mdat"));
+        mdatHeader.flip();
+
+        output.write(moofBuffer);
+        output.write(mdatHeader);
+        for (Track track : tracks) {
+            // the chunks belong to the output once submitted, it releases them after writing
+            ByteBuffer chunk;
+            while ((chunk = track.chunks.pollFirst()) != null) {
+                chunk.flip();
+                output.submit(chunk);
+            }
+            track.startFragment();
+        }
+        bytesWritten += moofSize + mdatSize;
+        if (syncPolicy == SyncPolicy.PER_FRAGMENT) {
+            output.sync();
+        }
+    }
+
+    private final class Track {
+        final int id;
+        final TrackFormat format;
+        final boolean video;
+        final int timescale;
+        final ArrayDeque<ByteBuffer> chunks = new ArrayDeque<>();
+
+        int count;
+        long[] timestamps = new long[64];
+        int[] sizes = new int[64];
+        int[] durations = new int[64];
+        boolean[] syncs = new boolean[64];
+        long dataSize;
+        long baseDecodeTime;
+        long lastDecodeTime = -1;
+        int lastDuration;
+        int dataOffsetPosition;
+        ByteBuffer current;
+
+        Track(int id, TrackFormat format) {
+            this.id = id;
+            this.format = format;
+            this.video = format.isVideo();
+            this.timescale = video ? VIDEO_TIMESCALE : format.sampleRate;
+        }
+
+        void addSample(long pts, int size, boolean sync) {
+            if (count == sizes.length) {
+                int capacity = count * 2;
+                long[] t = new long[capacity];
+                int[] s = new int[capacity];
+                int[] d = new int[capacity];
+                boolean[] k = new boolean[capacity];
+                System.arraycopy(timestamps, 0, t, 0, count);
+                System.arraycopy(sizes, 0, s, 0, count);
+                System.arraycopy(syncs, 0, k, 0, count);
+                timestamps = t;
+                sizes = s;
+                durations = d;
+                syncs = k;
+            }
+            timestamps[count] = pts;
+            sizes[count] = size;
+            syncs[count] = sync;
+            count++;
+            dataSize += size;
+        }
+
+        long decodeTime(long pts, long startUs) {
+            return ((pts - startUs) * timescale + 500_000L) / 1_000_000L;
+        }
+
+        void finishDurations(long nextPts, long startUs) {
+            if (count == 0) return;
+            long first = Math.max(0, decodeTime(timestamps[0], startUs));
+            // keep the timeline continuous across fragments
+            baseDecodeTime = lastDecodeTime < 0 ? first : Math.max(first, lastDecodeTime);
+            long time = baseDecodeTime;
+            for (int i = 0; i < count; i++) {
+                long next;
+                if (i + 1 < count) {
+                    next = decodeTime(timestamps[i + 1], startUs);
+                } else if (video && nextPts >= 0) {
+                    next = decodeTime(nextPts, startUs);
+                } else {
+                    next = time + lastDuration;
+                }
+                int duration = (int) Math.max(0, next - time);
+                durations[i] = duration;
+                if (duration > 0) lastDuration = duration;
+                time += duration;
+            }
+            lastDecodeTime = time;
+        }
+
+        int append(ByteBuffer src) {
+            int size = src.remaining();
+            copy(src, src.position(), src.limit());
+            return size;
+        }
+
+        /**
+         * Copies Annex-B NAL units as 4 byte length prefixed units.
+         */
+        int appendNalUnits(ByteBuffer src) {
+            int start = src.position();
+            int end = src.limit();
+            int nal = findStartCode(src, start, end);
+            if (nal < 0) {
+                putInt(end - start);
+                copy(src, start, end);
+                return end - start + 4;
+            }
+            int written = 0;
+            nal = skipStartCode(src, nal);
+            while (nal < end) {
+                int next = findStartCode(src, nal, end);
+                int nalEnd = next < 0 ? end : next;
+                putInt(nalEnd - nal);
+                copy(src, nal, nalEnd);
+                written += nalEnd - nal + 4;
+                if (next < 0) break;
+                nal = skipStartCode(src, next);
+            }
+            return written;
+        }
+
+        private int findStartCode(ByteBuffer src, int from, int end) {
+            for (int i = from; i + 2 < end; i++) {
+                if (src.get(i) == 0 && src.get(i + 1) == 0 && src.get(i + 2) == 1) {
+                    return i > from && src.get(i - 1) == 0 ? i - 1 : i;
+                }
+            }
+            return -1;
+        }
+
+        private int skipStartCode(ByteBuffer src, int position) {
+            return src.get(position + 2) == 1 ? position + 3 : position + 4;
+        }
+
+        private void putInt(int value) {
+            ensureChunk();
+            if (current.remaining() >= 4) {
+                current.putInt(value);
+                return;
+            }
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                ensureChunk();
+                current.put((byte) (value >>> shift));
+            }
+        }
+
+        private void copy(ByteBuffer src, int from, int to) {
+            int limit = src.limit();
+            int position = from;
+            while (position < to) {
+                ensureChunk();
+                int length = Math.min(to - position, current.remaining());
+                src.limit(position + length);
+                src.position(position);
+                current.put(src);
+                position += length;
+                src.limit(limit);
+            }
+            src.position(to);
+        }
+
+        private void ensureChunk() {
+            if (current == null || !current.hasRemaining()) {
+                current = pool.acquire();
+                chunks.addLast(current);
+            }
+        }
+
+        void startFragment() {
+            recycle();
+            count = 0;
+            dataSize = 0;
+        }
+
+        void recycle() {
+            ByteBuffer chunk;
+            while ((chunk = chunks.pollFirst()) != null) {
+                pool.release(chunk);
+            }
+            current = null;
+        }
+    }
+}
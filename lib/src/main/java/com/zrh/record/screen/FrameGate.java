@@ -0,0 +1,53 @@
+package com.zrh.record.screen;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Decides from the changed block counts of consecutive frames whether the screen is idle. The
+ * screen turns idle once frames keep arriving without a change for {@code idleNanos}, and active
+ * again with the first changed frame.
+ *
+ * @author zrh
+ * @date 2023/8/6
+ */
+public class FrameGate {
+    private final long idleNanos;
+    private final int minChangedBlocks;
+    private final Listener listener;
+
+    private long lastChangeNanos = -1;
+    private boolean idle;
+
+    /**
+     * @param minChangedBlocks fewer changed blocks are ignored, e.g. a blinking cursor.
+     */
+    public FrameGate(long idleNanos, int minChangedBlocks, @NonNull Listener listener) {
+        this.idleNanos = idleNanos;
+        this.minChangedBlocks = Math.max(1, minChangedBlocks);
+        this.listener = listener;
+    }
+
+    public void onFrame(int changedBlocks, long nowNanos) {
+        if (lastChangeNanos < 0 || changedBlocks >= minChangedBlocks) {
+            lastChangeNanos = nowNanos;
+            if (idle) {
+                idle = false;
+                listener.onIdleChanged(false);
+            }
+        } else if (!idle && nowNanos - lastChangeNanos >= idleNanos) {
+            idle = true;
+            listener.onIdleChanged(true);
+        }
+    }
+
+    public boolean isIdle() {
+        return idle;
+    }
+
+    public interface Listener {
+        /**
+         * Called on the thread feeding {@link #onFrame(int, long)}.
+         */
+        void onIdleChanged(boolean idle);
+    }
+}
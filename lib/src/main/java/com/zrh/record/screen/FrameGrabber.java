@@ -0,0 +1,223 @@
+package com.zrh.record.screen;
+
+import android.graphics.Bitmap;
+import android.graphics.PixelFormat;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Grabs stills of the recording. For every still the latest frame sent to the encoder is drawn into
+ * an {@link ImageReader} as well, the pixels are copied into a pooled {@link Bitmap} on the grab
+ * thread and compressed to a file on a separate thread. The encoder keeps getting every frame.
+ * The pool holds {@link #POOL_SIZE} bitmaps, a burst outrunning the compression waits for one to
+ * be free.
+ *
+ * @author zrh
+ * @date 2023/8/7
+ */
+class FrameGrabber implements ImageReader.OnImageAvailableListener {
+    private static final int POOL_SIZE = 3;
+    private static final long FRAME_TIMEOUT_MS = 1000;
+    private static final long POOL_TIMEOUT_MS = 5000;
+
+    private final int width;
+    private final int height;
+    private final File outputDir;
+    private final int format;
+    private final int quality;
+    private final Display display;
+    private final Listener listener;
+    private final BlockingPool<Bitmap> pool;
+    private final Runnable frameTimeout = this::onFrameTimeout;
+    private final Runnable grabNext = this::grabNext;
+
+    private HandlerThread thread;
+    private Handler handler;
+    private ImageReader reader;
+    private ExecutorService compressor;
+    // repacks rows when the image rows are padded
+    private ByteBuffer packed;
+
+    // grab thread only
+    private int remaining;
+    private long intervalMs;
+    private Bitmap pending;
+    private int sequence;
+
+    /**
+     * @param format  one of {@link CaptureFormat}.
+     * @param quality 0 - 100, ignored by {@link CaptureFormat#PNG}.
+     */
+    FrameGrabber(int width, int height, @NonNull File outputDir, int format, int quality,
+                 @NonNull Display display, @NonNull Listener listener) {
+        this.width = width;
+        this.height = height;
+        this.outputDir = outputDir;
+        this.format = format;
+        this.quality = quality;
+        this.display = display;
+        this.listener = listener;
+        this.pool = new BlockingPool<>(POOL_SIZE, () -> Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888));
+    }
+
+    void start() {
+        thread = new HandlerThread("ScreenRecorder-Grab");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        reader = ImageReader.newInstance(width, height, PixelFormat.RGBA_8888, 2);
+        reader.setOnImageAvailableListener(this, handler);
+        compressor = Executors.newSingleThreadExecutor();
+    }
+
+    /**
+     * Grabs {@code count} frames {@code intervalMs} apart, after the frames already requested.
+     */
+    void capture(int count, long intervalMs) {
+        handler.post(() -> {
+            boolean idle = remaining == 0 && pending == null;
+            remaining += count;
+            this.intervalMs = intervalMs;
+            if (idle) grabNext();
+        });
+    }
+
+    private void grabNext() {
+        if (remaining == 0 || pending != null) return;
+        Bitmap bitmap;
+        try {
+            bitmap = pool.acquire(POOL_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            return;
+        }
+        if (bitmap == null) {
+            fail(new IOException("capture buffers busy"));
+            return;
+        }
+        pending = bitmap;
+        display.requestFrame(reader.getSurface());
+        handler.postDelayed(frameTimeout, FRAME_TIMEOUT_MS);
+    }
+
+    @Override
+    public void onImageAvailable(ImageReader reader) {
+        Image image = reader.acquireLatestImage();
+        if (image == null) return;
+        Bitmap bitmap = pending;
+        if (bitmap == null) {
+            image.close();
+            return;
+        }
+        pending = null;
+        handler.removeCallbacks(frameTimeout);
+        try {
+            copy(image, bitmap);
+        } finally {
+            image.close();
+        }
+
+        File file = new File(outputDir, System.currentTimeMillis() + "_" + sequence++ + extension());
+        compressor.execute(() -> save(bitmap, file));
+        if (--remaining > 0) handler.postDelayed(grabNext, intervalMs);
+    }
+
+    private void copy(Image image, Bitmap bitmap) {
+        Image.Plane plane = image.getPlanes()[0];
+        ByteBuffer buffer = plane.getBuffer();
+        int rowBytes = width * 4;
+        if (plane.getRowStride() == rowBytes) {
+            bitmap.copyPixelsFromBuffer(buffer);
+            return;
+        }
+        if (packed == null) packed = ByteBuffer.allocateDirect(rowBytes * height);
+        packed.clear();
+        for (int y = 0; y < height; y++) {
+            int offset = y * plane.getRowStride();
+            buffer.limit(offset + rowBytes);
+            buffer.position(offset);
+            packed.put(buffer);
+        }
+        packed.flip();
+        bitmap.copyPixelsFromBuffer(packed);
+    }
+
+    private void save(Bitmap bitmap, File file) {
+        Exception error = null;
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            if (!bitmap.compress(compressFormat(), quality, out)) throw new IOException("compress failed");
+        } catch (Exception e) {
+            error = e;
+            file.delete();
+        } finally {
+            pool.release(bitmap);
+        }
+        listener.onFrameCaptured(file, error);
+    }
+
+    private void onFrameTimeout() {
+        if (pending == null) return;
+        pool.release(pending);
+        pending = null;
+        fail(new IOException("no frame from the recording"));
+    }
+
+    private void fail(Exception error) {
+        remaining = 0;
+        listener.onFrameCaptured(null, error);
+    }
+
+    @SuppressWarnings("deprecation")
+    private Bitmap.CompressFormat compressFormat() {
+        if (format == CaptureFormat.PNG) return Bitmap.CompressFormat.PNG;
+        if (format != CaptureFormat.WEBP) return Bitmap.CompressFormat.JPEG;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            return quality >= 100 ? Bitmap.CompressFormat.WEBP_LOSSLESS : Bitmap.CompressFormat.WEBP_LOSSY;
+        }
+        return Bitmap.CompressFormat.WEBP;
+    }
+
+    private String extension() {
+        if (format == CaptureFormat.PNG) return ".png";
+        if (format == CaptureFormat.WEBP) return ".webp";
+        return ".jpg";
+    }
+
+    void release() {
+        if (thread == null) return;
+        ImageReader closing = reader;
+        handler.removeCallbacksAndMessages(null);
+        handler.post(closing::close);
+        thread.quitSafely();
+        thread = null;
+        reader = null;
+        // pending compressions still finish
+        compressor.shutdown();
+    }
+
+    interface Display {
+        /**
+         * Called on the grab thread, draws the next recorded frame into {@code surface} once.
+         */
+        void requestFrame(@NonNull Surface surface);
+    }
+
+    interface Listener {
+        /**
+         * Called on a background thread, {@code file} is null if the frame could not be grabbed.
+         */
+        void onFrameCaptured(@Nullable File file, @Nullable Exception error);
+    }
+}
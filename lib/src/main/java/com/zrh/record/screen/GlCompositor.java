@@ -0,0 +1,421 @@
+package com.zrh.record.screen;
+
+import android.graphics.SurfaceTexture;
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sits between the virtual display and the encoder input surface. The display renders into a
+ * {@link SurfaceTexture}, every frame is drawn onto the encoder surface through EGL with the crop,
+ * scale and rotation of a {@link CropGeometry}, keeping the display's timestamp. {@link Stage}s
+ * draw on top of it, in the order they were added. A snapshot surface gets the latest frame sent to
+ * the encoder drawn again, the encoder does not miss it. Everything GL runs on one thread that owns
+ * the EGL context.
+ *
+ * @author zrh
+ * @date 2023/8/13
+ */
+class GlCompositor implements SurfaceTexture.OnFrameAvailableListener {
+    private static final long SETUP_TIMEOUT_MS = 3000;
+    // EGL_RECORDABLE_ANDROID, the config must be usable with an encoder surface
+    private static final int EGL_RECORDABLE_ANDROID = 0x3142;
+
+    private static final String VERTEX_SHADER =
+            "uniform mat4 uTexMatrix;\n"
+            + "attribute vec4 aPosition;\n"
+            + "attribute vec4 aTexCoord;\n"
+            + "varying vec2 vTexCoord;\n"
+            + "void main() {\n"
+            + "    gl_Position = aPosition;\n"
+            + "    vTexCoord = (uTexMatrix * aTexCoord).xy;\n"
+            + "}\n";
+    private static final String FRAGMENT_SHADER =
+            "#extension GL_OES_EGL_image_external : require\n"
+            + "precision mediump float;\n"
+            + "varying vec2 vTexCoord;\n"
+            + "uniform samplerExternalOES sTexture;\n"
+            + "void main() {\n"
+            + "    gl_FragColor = texture2D(sTexture, vTexCoord);\n"
+            + "}\n";
+    // full viewport quad as a triangle strip, x y s t per vertex
+    private static final float[] QUAD = {
+            -1, -1, 0, 0,
+            1, -1, 1, 0,
+            -1, 1, 0, 1,
+            1, 1, 1, 1,
+    };
+
+    private final Surface output;
+    private final int width;
+    private final int height;
+    private final CropGeometry geometry;
+    private final FloatBuffer quad;
+    private final float[] cropMatrix = new float[16];
+    private final float[] surfaceMatrix = new float[16];
+    private final float[] texMatrix = new float[16];
+    private final List<Stage> stages = new ArrayList<>();
+
+    private HandlerThread thread;
+    private Handler handler;
+    private volatile Surface inputSurface;
+    private volatile Surface snapshotRequest;
+
+    // GL thread only
+    private EGLDisplay eglDisplay = EGL14.EGL_NO_DISPLAY;
+    private EGLConfig eglConfig;
+    private EGLContext eglContext = EGL14.EGL_NO_CONTEXT;
+    private EGLSurface eglSurface = EGL14.EGL_NO_SURFACE;
+    private Surface snapshotSurface;
+    private EGLSurface snapshotEglSurface = EGL14.EGL_NO_SURFACE;
+    // the texture holds a frame the encoder got
+    private boolean frameSent;
+    private SurfaceTexture surfaceTexture;
+    private int texture;
+    private int program;
+    private int positionLocation;
+    private int texCoordLocation;
+    private int texMatrixLocation;
+
+    /**
+     * @param output the encoder input surface, {@code width x height} pixels.
+     */
+    GlCompositor(@NonNull Surface output, int width, int height, @NonNull CropGeometry geometry) {
+        this.output = output;
+        this.width = width;
+        this.height = height;
+        this.geometry = geometry;
+        this.quad = ByteBuffer.allocateDirect(QUAD.length * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        quad.put(QUAD).position(0);
+        geometry.getTextureMatrix(cropMatrix);
+    }
+
+    /**
+     * Must be called before {@link #start()}.
+     */
+    void addStage(@NonNull Stage stage) {
+        stages.add(stage);
+    }
+
+    /**
+     * Sets up EGL on the GL thread and waits for it.
+     *
+     * @return the surface the virtual display should render into.
+     */
+    @NonNull
+    Surface start() {
+        thread = new HandlerThread("ScreenRecorder-GL");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        CountDownLatch ready = new CountDownLatch(1);
+        RuntimeException[] error = new RuntimeException[1];
+        handler.post(() -> {
+            try {
+                setUp();
+            } catch (RuntimeException e) {
+                error[0] = e;
+                tearDown();
+            }
+            ready.countDown();
+        });
+        try {
+            if (!ready.await(SETUP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                error[0] = new IllegalStateException("GL setup timed out");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error[0] = new IllegalStateException("GL setup interrupted");
+        }
+        if (error[0] != null) {
+            release();
+            throw error[0];
+        }
+        return inputSurface;
+    }
+
+    Surface getInputSurface() {
+        return inputSurface;
+    }
+
+    /**
+     * Draws the latest frame the encoder got into {@code surface} as well, once, the first one if
+     * none was sent yet. A paused or idle display still gets the frame it stopped at. The surface
+     * must be {@code width x height} pixels and stays connected until another one is requested.
+     */
+    void requestSnapshot(@NonNull Surface surface) {
+        snapshotRequest = surface;
+        handler.post(this::drawRequestedSnapshot);
+    }
+
+    private void setUp() {
+        eglDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        int[] version = new int[2];
+        if (!EGL14.eglInitialize(eglDisplay, version, 0, version, 1)) {
+            throw new IllegalStateException("eglInitialize failed");
+        }
+        int[] configAttributes = {
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_ALPHA_SIZE, 8,
+                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                EGL_RECORDABLE_ANDROID, 1,
+                EGL14.EGL_NONE
+        };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] count = new int[1];
+        if (!EGL14.eglChooseConfig(eglDisplay, configAttributes, 0, configs, 0, 1, count, 0) || count[0] == 0) {
+            throw new IllegalStateException("no recordable EGL config");
+        }
+        eglConfig = configs[0];
+        int[] contextAttributes = {EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE};
+        eglContext = EGL14.eglCreateContext(eglDisplay, eglConfig, EGL14.EGL_NO_CONTEXT, contextAttributes, 0);
+        checkEgl("eglCreateContext");
+        eglSurface = EGL14.eglCreateWindowSurface(eglDisplay, eglConfig, output, new int[]{EGL14.EGL_NONE}, 0);
+        checkEgl("eglCreateWindowSurface");
+        if (!EGL14.eglMakeCurrent(eglDisplay, eglSurface, eglSurface, eglContext)) {
+            throw new IllegalStateException("eglMakeCurrent failed");
+        }
+
+        program = createProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+        positionLocation = GLES20.glGetAttribLocation(program, "aPosition");
+        texCoordLocation = GLES20.glGetAttribLocation(program, "aTexCoord");
+        texMatrixLocation = GLES20.glGetUniformLocation(program, "uTexMatrix");
+
+        int[] textures = new int[1];
+        GLES20.glGenTextures(1, textures, 0);
+        texture = textures[0];
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, texture);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        checkGl("texture setup");
+
+        for (int i = 0; i < stages.size(); i++) {
+            stages.get(i).onSetUp(width, height);
+        }
+
+        surfaceTexture = new SurfaceTexture(texture);
+        surfaceTexture.setDefaultBufferSize(geometry.getDisplayWidth(), geometry.getDisplayHeight());
+        surfaceTexture.setOnFrameAvailableListener(this, handler);
+        inputSurface = new Surface(surfaceTexture);
+    }
+
+    @Override
+    public void onFrameAvailable(SurfaceTexture surfaceTexture) {
+        if (this.surfaceTexture == null) return;
+        surfaceTexture.updateTexImage();
+        surfaceTexture.getTransformMatrix(surfaceMatrix);
+        Matrix.multiplyMM(texMatrix, 0, surfaceMatrix, 0, cropMatrix, 0);
+        // a withheld frame never reaches the encoder surface
+        if (!drawFrame()) return;
+
+        // the encoder takes the display's timestamp, pause and sync logic stay unchanged
+        EGLExt.eglPresentationTimeANDROID(eglDisplay, eglSurface, surfaceTexture.getTimestamp());
+        EGL14.eglSwapBuffers(eglDisplay, eglSurface);
+        frameSent = true;
+        drawRequestedSnapshot();
+    }
+
+    private void drawRequestedSnapshot() {
+        Surface snapshot = snapshotRequest;
+        if (snapshot == null || !frameSent || surfaceTexture == null) return;
+        // a frame blocked meanwhile keeps the request for the next one
+        if (drawSnapshot(snapshot) && snapshotRequest == snapshot) snapshotRequest = null;
+    }
+
+    /**
+     * Draws the display frame and the stages into the current surface.
+     *
+     * @return false if a stage withheld the frame.
+     */
+    private boolean drawFrame() {
+        GLES20.glViewport(0, 0, width, height);
+        GLES20.glUseProgram(program);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, texture);
+        GLES20.glUniformMatrix4fv(texMatrixLocation, 1, false, texMatrix, 0);
+        quad.position(0);
+        GLES20.glVertexAttribPointer(positionLocation, 2, GLES20.GL_FLOAT, false, 16, quad);
+        GLES20.glEnableVertexAttribArray(positionLocation);
+        quad.position(2);
+        GLES20.glVertexAttribPointer(texCoordLocation, 2, GLES20.GL_FLOAT, false, 16, quad);
+        GLES20.glEnableVertexAttribArray(texCoordLocation);
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+        GLES20.glDisableVertexAttribArray(positionLocation);
+        GLES20.glDisableVertexAttribArray(texCoordLocation);
+
+        for (int i = 0; i < stages.size(); i++) {
+            if (!stages.get(i).onDraw(texture, texMatrix)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Draws the frame in the texture again into {@code surface}.
+     *
+     * @return false if the frame is withheld now.
+     */
+    private boolean drawSnapshot(Surface surface) {
+        if (surface != snapshotSurface) {
+            destroySnapshotSurface();
+            snapshotEglSurface = EGL14.eglCreateWindowSurface(eglDisplay, eglConfig, surface,
+                                                              new int[]{EGL14.EGL_NONE}, 0);
+            if (EGL14.eglGetError() != EGL14.EGL_SUCCESS || snapshotEglSurface == EGL14.EGL_NO_SURFACE) {
+                // e.g. the reader was closed, the grabber times out
+                snapshotEglSurface = EGL14.EGL_NO_SURFACE;
+                return true;
+            }
+            snapshotSurface = surface;
+        }
+        boolean drawn = false;
+        if (EGL14.eglMakeCurrent(eglDisplay, snapshotEglSurface, snapshotEglSurface, eglContext)) {
+            drawn = drawFrame();
+            if (drawn) EGL14.eglSwapBuffers(eglDisplay, snapshotEglSurface);
+        }
+        EGL14.eglMakeCurrent(eglDisplay, eglSurface, eglSurface, eglContext);
+        return drawn;
+    }
+
+    private void destroySnapshotSurface() {
+        if (snapshotEglSurface != EGL14.EGL_NO_SURFACE) EGL14.eglDestroySurface(eglDisplay, snapshotEglSurface);
+        snapshotEglSurface = EGL14.EGL_NO_SURFACE;
+        snapshotSurface = null;
+    }
+
+    /**
+     * Releases the GL thread and waits for it, the encoder surface may be released after this.
+     */
+    void release() {
+        if (thread == null) return;
+        CountDownLatch done = new CountDownLatch(1);
+        handler.post(() -> {
+            tearDown();
+            done.countDown();
+        });
+        try {
+            done.await(SETUP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread.quitSafely();
+        thread = null;
+    }
+
+    private void tearDown() {
+        if (surfaceTexture != null) {
+            surfaceTexture.setOnFrameAvailableListener(null, null);
+            surfaceTexture.release();
+            surfaceTexture = null;
+        }
+        if (inputSurface != null) {
+            inputSurface.release();
+            inputSurface = null;
+        }
+        if (eglDisplay != EGL14.EGL_NO_DISPLAY) {
+            for (int i = 0; i < stages.size(); i++) {
+                stages.get(i).onRelease();
+            }
+            if (program != 0) GLES20.glDeleteProgram(program);
+            if (texture != 0) GLES20.glDeleteTextures(1, new int[]{texture}, 0);
+            EGL14.eglMakeCurrent(eglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+            destroySnapshotSurface();
+            if (eglSurface != EGL14.EGL_NO_SURFACE) EGL14.eglDestroySurface(eglDisplay, eglSurface);
+            if (eglContext != EGL14.EGL_NO_CONTEXT) EGL14.eglDestroyContext(eglDisplay, eglContext);
+            EGL14.eglReleaseThread();
+            EGL14.eglTerminate(eglDisplay);
+        }
+        program = 0;
+        texture = 0;
+        eglSurface = EGL14.EGL_NO_SURFACE;
+        eglContext = EGL14.EGL_NO_CONTEXT;
+        eglDisplay = EGL14.EGL_NO_DISPLAY;
+        eglConfig = null;
+    }
+
+    static int createProgram(String vertexSource, String fragmentSource) {
+        int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, vertexSource);
+        int fragmentShader = loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource);
+        int program = GLES20.glCreateProgram();
+        GLES20.glAttachShader(program, vertexShader);
+        GLES20.glAttachShader(program, fragmentShader);
+        GLES20.glLinkProgram(program);
+        GLES20.glDeleteShader(vertexShader);
+        GLES20.glDeleteShader(fragmentShader);
+        int[] status = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0);
+        if (status[0] == 0) {
+            String log = GLES20.glGetProgramInfoLog(program);
+            GLES20.glDeleteProgram(program);
+            throw new IllegalStateException("link failed: " + log);
+        }
+        return program;
+    }
+
+    private static int loadShader(int type, String source) {
+        int shader = GLES20.glCreateShader(type);
+        GLES20.glShaderSource(shader, source);
+        GLES20.glCompileShader(shader);
+        int[] status = new int[1];
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, status, 0);
+        if (status[0] == 0) {
+            String log = GLES20.glGetShaderInfoLog(shader);
+            GLES20.glDeleteShader(shader);
+            throw new IllegalStateException("compile failed: " + log);
+        }
+        return shader;
+    }
+
+    private static void checkEgl(String op) {
+        int error = EGL14.eglGetError();
+        if (error != EGL14.EGL_SUCCESS) {
+            throw new IllegalStateException(op + " failed: 0x" + Integer.toHexString(error));
+        }
+    }
+
+    static void checkGl(String op) {
+        int error = GLES20.glGetError();
+        if (error != GLES20.GL_NO_ERROR) {
+            throw new IllegalStateException(op + " failed: 0x" + Integer.toHexString(error));
+        }
+    }
+
+    /**
+     * Draws on top of every frame, all calls run on the GL thread with the context current.
+     */
+    interface Stage {
+        /**
+         * @param width  output size in pixels, the viewport.
+         */
+        void onSetUp(int width, int height);
+
+        /**
+         * @param texture   the display frame, a {@code GL_TEXTURE_EXTERNAL_OES} texture.
+         * @param texMatrix maps output texture coordinates to the display frame.
+         * @return false to withhold this frame from the encoder.
+         */
+        boolean onDraw(int texture, @NonNull float[] texMatrix);
+
+        void onRelease();
+    }
+}
@@ -0,0 +1,97 @@
+package com.zrh.record.screen;
+
+import android.graphics.PixelFormat;
+import android.hardware.display.DisplayManager;
+import android.hardware.display.VirtualDisplay;
+import android.media.Image;
+import android.media.ImageReader;
+import android.media.projection.MediaProjection;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Mirrors the screen at a quarter of the recording size into an {@link ImageReader} and feeds the
+ * {@link BlockChecksum} of every frame to a {@link FrameGate}, on its own thread.
+ *
+ * @author zrh
+ * @date 2023/8/6
+ */
+class IdleScreenDetector implements ImageReader.OnImageAvailableListener {
+    private static final int SCALE = 4;
+    private static final int BLOCK_SIZE = 16;
+    private static final long IDLE_NANOS = 500_000_000L;
+
+    private final MediaProjection projection;
+    private final int width;
+    private final int height;
+    private final int densityDpi;
+    private final FrameGate gate;
+    private final BlockChecksum checksum;
+
+    private HandlerThread thread;
+    private Handler handler;
+    private ImageReader reader;
+    private VirtualDisplay display;
+
+    IdleScreenDetector(@NonNull MediaProjection projection, int width, int height, int densityDpi,
+                       @NonNull FrameGate.Listener listener) {
+        this.projection = projection;
+        this.width = Math.max(2, width / SCALE);
+        this.height = Math.max(2, height / SCALE);
+        this.densityDpi = Math.max(1, densityDpi / SCALE);
+        this.gate = new FrameGate(IDLE_NANOS, 1, listener);
+        this.checksum = new BlockChecksum(this.width, this.height, BLOCK_SIZE);
+    }
+
+    /**
+     * @return false if the projection refuses a second virtual display, as it does since Android 14.
+     */
+    boolean start() {
+        thread = new HandlerThread("ScreenRecorder-Gate");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        reader = ImageReader.newInstance(width, height, PixelFormat.RGBA_8888, 2);
+        reader.setOnImageAvailableListener(this, handler);
+        try {
+            display = projection.createVirtualDisplay("ScreenRecord-Gate", width, height, densityDpi,
+                                                      DisplayManager.VIRTUAL_DISPLAY_FLAG_AUTO_MIRROR,
+                                                      reader.getSurface(), null, handler);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            release();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void onImageAvailable(ImageReader reader) {
+        Image image = reader.acquireLatestImage();
+        if (image == null) return;
+        int changed;
+        try {
+            Image.Plane plane = image.getPlanes()[0];
+            changed = checksum.update(plane.getBuffer(), plane.getRowStride());
+        } finally {
+            image.close();
+        }
+        gate.onFrame(changed, System.nanoTime());
+    }
+
+    void release() {
+        if (display != null) {
+            display.release();
+            display = null;
+        }
+        if (thread != null) {
+            // close the reader on its own thread, an image may still be in use there
+            ImageReader closing = reader;
+            handler.post(closing::close);
+            thread.quitSafely();
+            thread = null;
+            reader = null;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.zrh.record.screen;
+
+/**
+ * Paces bulk file copies while a recording is running, so post-processing does not compete with
+ * the recording for storage bandwidth. Without a running recording it does not wait at all.
+ *
+ * @author zrh
+ * @date 2023/8/3
+ */
+public class IoThrottle {
+    private final long limitedBytesPerSec;
+
+    private volatile boolean limited;
+    private long windowStartNanos = -1;
+    private long windowBytes;
+
+    public IoThrottle(long limitedBytesPerSec) {
+        this.limitedBytesPerSec = limitedBytesPerSec;
+    }
+
+    public void setLimited(boolean limited) {
+        this.limited = limited;
+    }
+
+    public boolean isLimited() {
+        return limited;
+    }
+
+    /**
+     * Accounts {@code bytes} just copied, sleeps until the average rate is back under the limit.
+     */
+    public synchronized void pace(long bytes) throws InterruptedException {
+        if (!limited) {
+            windowStartNanos = -1;
+            return;
+        }
+        long now = System.nanoTime();
+        if (windowStartNanos < 0) {
+            windowStartNanos = now;
+            windowBytes = 0;
+        }
+        windowBytes += bytes;
+        long dueNanos = windowStartNanos + windowBytes * 1_000_000_000L / limitedBytesPerSec;
+        long waitMs = (dueNanos - now) / 1_000_000L;
+        if (waitMs > 0) Thread.sleep(waitMs);
+    }
+}
@@ -0,0 +1,84 @@
+package com.zrh.record.screen;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size log-linear histogram in the spirit of HdrHistogram: every power of two range is split
+ * into {@code 2^SUB_BUCKET_BITS} linear buckets, which keeps the relative error under 2% from 1us
+ * up to {@link #MAX_VALUE}. Recording is one atomic increment, any thread may record while another
+ * one drains the counts.
+ *
+ * @author zrh
+ * @date 2023/8/1
+ */
+public final class LatencyHistogram {
+    static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_BIT = 24;
+    /**
+     * Larger values are counted as this value, about 16.7s in microseconds.
+     */
+    public static final long MAX_VALUE = (1L << MAX_BIT) - 1;
+    public static final int BUCKET_COUNT = (MAX_BIT - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    public void record(long value) {
+        counts.incrementAndGet(indexOf(value));
+    }
+
+    /**
+     * Adds the counts recorded since the last call to {@code window} and resets them, no sample is
+     * lost to a concurrent {@link #record(long)}.
+     */
+    public void drainTo(@NonNull long[] window) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (counts.get(i) != 0) window[i] += counts.getAndSet(i, 0);
+        }
+    }
+
+    static int indexOf(long value) {
+        if (value <= 0) return 0;
+        if (value > MAX_VALUE) value = MAX_VALUE;
+        if (value < SUB_BUCKET_COUNT) return (int) value;
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int shift = msb - SUB_BUCKET_BITS;
+        int sub = (int) (value >> shift) - SUB_BUCKET_COUNT;
+        return ((shift + 1) << SUB_BUCKET_BITS) | sub;
+    }
+
+    /**
+     * Highest value counted in bucket {@code index}.
+     */
+    static long highestValueOf(int index) {
+        if (index < SUB_BUCKET_COUNT) return index;
+        int shift = (index >> SUB_BUCKET_BITS) - 1;
+        long low = (long) (SUB_BUCKET_COUNT + (index & (SUB_BUCKET_COUNT - 1))) << shift;
+        return low + (1L << shift) - 1;
+    }
+
+    public static long totalCount(@NonNull long[] window) {
+        long total = 0;
+        for (long count : window) total += count;
+        return total;
+    }
+
+    /**
+     * @param percentile 0 to 100.
+     * @return the value at or below which {@code percentile} of the counts in {@code window} fall,
+     * 0 if it is empty.
+     */
+    public static long valueAtPercentile(@NonNull long[] window, double percentile) {
+        long total = totalCount(window);
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, percentile) / 100));
+        long seen = 0;
+        for (int i = 0; i < window.length; i++) {
+            seen += window[i];
+            if (seen >= rank) return highestValueOf(i);
+        }
+        return highestValueOf(window.length - 1);
+    }
+}
@@ -0,0 +1,68 @@
+package com.zrh.record.screen;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Copy on write listener set. Adding and removing swap the whole array with a CAS, dispatching
+ * reads one volatile reference and iterates a plain array, so it takes no lock and allocates
+ * nothing. Listeners are compared by identity.
+ *
+ * @author zrh
+ * @date 2023/8/1
+ */
+public final class ListenerRegistry<T> {
+    private final AtomicReference<T[]> listeners;
+
+    /**
+     * @param empty an empty array of the listener type, copies keep its component type.
+     */
+    public ListenerRegistry(@NonNull T[] empty) {
+        this.listeners = new AtomicReference<>(Arrays.copyOf(empty, 0));
+    }
+
+    /**
+     * @return false if the listener was registered already.
+     */
+    public boolean add(@NonNull T listener) {
+        while (true) {
+            T[] current = listeners.get();
+            if (indexOf(current, listener) >= 0) return false;
+            T[] next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = listener;
+            if (listeners.compareAndSet(current, next)) return true;
+        }
+    }
+
+    public boolean remove(@NonNull T listener) {
+        while (true) {
+            T[] current = listeners.get();
+            int index = indexOf(current, listener);
+            if (index < 0) return false;
+            T[] next = Arrays.copyOf(current, current.length - 1);
+            System.arraycopy(current, index + 1, next, index, current.length - index - 1);
+            if (listeners.compareAndSet(current, next)) return true;
+        }
+    }
+
+    /**
+     * The registered listeners at the time of the call, must not be modified.
+     */
+    @NonNull
+    public T[] snapshot() {
+        return listeners.get();
+    }
+
+    public boolean isEmpty() {
+        return listeners.get().length == 0;
+    }
+
+    private static int indexOf(Object[] array, Object listener) {
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] == listener) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,679 @@
+package com.zrh.record.screen;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Bundle;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Surface input video encoder drained on a dedicated thread into a {@link SampleWriter}, optionally
+ * muxed with an AAC track from an {@link AudioCapture} drained on a second thread. The codec, H.264,
+ * HEVC, VP9 or AV1, is the first one of {@link #setVideoCodecs(int[])} that {@link CodecSelector}
+ * finds an encoder for that configures, H.264 is the last resort.
+ *
+ * @author zrh
+ * @date 2023/7/20
+ */
+public class MediaCodecEncoder implements RecordEncoder {
+    private static final long DRAIN_TIMEOUT_US = 10_000;
+    private static final int FRAGMENT_BUFFER_SIZE = 64 * 1024;
+    // a fragment being collected plus the write-behind queue of the file
+    private static final int FRAGMENT_POOL_SIZE = 256;
+    private static final long BITRATE_WINDOW_US = 1_000_000;
+    private static final int AUDIO_BITRATE = 128_000;
+    private static final long AUDIO_STOP_TIMEOUT_MS = 1000;
+    private static final int SINK_BUFFER_SEC = 2;
+    private static final int MIN_SINK_BUFFER_BYTES = 1024 * 1024;
+
+    // requested until prepare() resolves them for the encoder it configures
+    private int bitrate;
+    private int fps;
+    private final int keyFrameIntervalSec;
+    private final long maxDurationUs;
+
+    private MediaCodec codec;
+    private int[] videoCodecs = {VideoCodec.H264};
+    private SettingsResolver settingsResolver;
+    private EncoderSettings settings;
+    private volatile String videoMime;
+    private volatile String codecName;
+    private Surface inputSurface;
+    private SampleWriter writer;
+    private SampleWriter fileWriter;
+    private final List<SampleSink> sinks = new ArrayList<>();
+    private final List<Integer> sinkPolicies = new ArrayList<>();
+    private EncoderDrainer drainer;
+    private Thread drainThread;
+    private Listener listener;
+
+    private long segmentDurationUs;
+    private long segmentMaxBytes;
+    private int containerFormat = ContainerFormat.MP4;
+    private long fragmentDurationUs;
+    private DirectBufferPool bufferPool;
+    private boolean preallocateOutput;
+    private int syncPolicy = SyncPolicy.ON_FINISH;
+    private int replayBufferBytes;
+    private long replayDurationUs;
+    private ExecutorService replayExecutor;
+    private int minBitrate;
+    private BitratePolicy bitratePolicy;
+    private BitrateController bitrateController;
+    private Bundle bitrateParams;
+    // drain thread only, the background write time already fed to the controller
+    private long lastBackgroundWriteNanos;
+    private RecordMetrics metrics;
+    private long repeatFrameIntervalUs;
+    private AudioCapture audioCapture;
+    private AudioEncoder audioEncoder;
+    private EncoderDrainer audioDrainer;
+    private Thread audioDrainThread;
+    private int trackCount = 1;
+    private final PauseTimeline pauseTimeline = new PauseTimeline();
+    private Bundle suspendParams;
+
+    private long firstPresentationTimeUs = -1;
+    private boolean maxDurationReached;
+
+    public MediaCodecEncoder(int bitrate, int fps, int keyFrameIntervalSec, long maxDuration) {
+        this.bitrate = bitrate;
+        this.fps = fps;
+        this.keyFrameIntervalSec = keyFrameIntervalSec;
+        this.maxDurationUs = maxDuration * 1000L;
+    }
+
+    /**
+     * Rolls to a new file at the next keyframe once a segment reaches either limit, 0 means no limit.
+     */
+    public void setSegmentLimits(long durationUs, long maxBytes) {
+        this.segmentDurationUs = durationUs;
+        this.segmentMaxBytes = maxBytes;
+    }
+
+    /**
+     * @param fragmentDurationUs fragment length for {@link ContainerFormat#FRAGMENTED_MP4}.
+     */
+    public void setContainerFormat(int containerFormat, long fragmentDurationUs) {
+        this.containerFormat = containerFormat;
+        this.fragmentDurationUs = fragmentDurationUs;
+    }
+
+    /**
+     * Options of the files written for {@link ContainerFormat#FRAGMENTED_MP4}, MediaMuxer manages
+     * its files itself.
+     *
+     * @param preallocate reserves bitrate x max duration, or one segment, for every file.
+     * @param syncPolicy  see {@link SyncPolicy}.
+     */
+    public void setFileStorage(boolean preallocate, int syncPolicy) {
+        this.preallocateOutput = preallocate;
+        this.syncPolicy = syncPolicy;
+    }
+
+    /**
+     * {@link VideoCodec}s to try in order, hardware encoders first, H.264 is the last resort.
+     */
+    public void setVideoCodecs(@NonNull int[] codecs) {
+        this.videoCodecs = codecs;
+    }
+
+    /**
+     * Keeps only the last {@code durationUs} of samples in memory, capped at {@code bufferBytes},
+     * instead of writing every sample to disk.
+     */
+    public void setReplayBuffer(int bufferBytes, long durationUs) {
+        this.replayBufferBytes = bufferBytes;
+        this.replayDurationUs = durationUs;
+    }
+
+    /**
+     * Lets a {@link BitrateController} move the bitrate between {@code minBitrate} and the initial
+     * bitrate while recording.
+     *
+     * @param policy {@link AimdBitratePolicy} if null.
+     */
+    public void setAdaptiveBitrate(int minBitrate, @Nullable BitratePolicy policy) {
+        this.minBitrate = minBitrate;
+        this.bitratePolicy = policy != null ? policy : new AimdBitratePolicy();
+    }
+
+    /**
+     * Adds an AAC track encoded from {@code capture}, which is released along with this encoder.
+     */
+    public void setAudioCapture(@Nullable AudioCapture capture) {
+        this.audioCapture = capture;
+    }
+
+    /**
+     * Repeats the previous frame when no new frame arrives within {@code intervalUs}, so the video
+     * keeps a minimum frame rate while the input surface is detached.
+     */
+    public void setRepeatFrameInterval(long intervalUs) {
+        this.repeatFrameIntervalUs = intervalUs;
+    }
+
+    /**
+     * Hands a copy of every sample to {@code sink} on its own thread, see {@link SinkPolicy}.
+     */
+    public void addSampleSink(@NonNull SampleSink sink, int policy) {
+        sinks.add(sink);
+        sinkPolicies.add(policy);
+    }
+
+    @Override
+    public void setListener(@Nullable Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void setSettingsResolver(@Nullable SettingsResolver resolver) {
+        this.settingsResolver = resolver;
+    }
+
+    @Override
+    public void prepare(@NonNull File output, int width, int height) throws IOException {
+        EncoderSettings requested = new EncoderSettings(width, height, fps, bitrate);
+        Exception failure = null;
+        for (CodecSelector.Encoder candidate : CodecSelector.select(CodecSelector.deviceEncoders(), usableCodecs())) {
+            // every encoder has its own alignment and limits
+            EncoderSettings resolved = settingsResolver != null
+                    ? settingsResolver.resolve(candidate.mime, candidate.name, requested) : requested;
+            try {
+                configureCodec(candidate, resolved);
+                settings = resolved;
+                bitrate = resolved.bitrate;
+                fps = resolved.fps;
+                break;
+            } catch (Exception e) {
+                // e.g. the size or profile is not supported, try the next one
+                e.printStackTrace();
+                failure = e;
+                releaseCodec();
+            }
+        }
+        if (codec == null) throw new IOException("no video encoder could be configured", failure);
+        if (audioCapture != null) prepareAudio();
+        fileWriter = createWriter(output);
+        writer = sinks.isEmpty() ? fileWriter : new FanOutSampleWriter(fileWriter, createQueuedSinks());
+        lastBackgroundWriteNanos = 0;
+    }
+
+    private int[] usableCodecs() {
+        int[] usable = new int[videoCodecs.length];
+        int count = 0;
+        for (int videoCodec : videoCodecs) {
+            // the fragmented writer only packs H.264
+            if (videoCodec != VideoCodec.H264 && containerFormat == ContainerFormat.FRAGMENTED_MP4) continue;
+            if (videoCodec == VideoCodec.HEVC && Build.VERSION.SDK_INT < Build.VERSION_CODES.N) continue;
+            if (videoCodec == VideoCodec.AV1 && Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) continue;
+            usable[count++] = videoCodec;
+        }
+        return Arrays.copyOf(usable, count);
+    }
+
+    private void configureCodec(CodecSelector.Encoder candidate, EncoderSettings settings) throws IOException {
+        MediaFormat format = MediaFormat.createVideoFormat(candidate.mime, settings.width, settings.height);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, settings.bitrate);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, settings.fps);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, keyFrameIntervalSec);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            format.setInteger(MediaFormat.KEY_MAX_B_FRAMES, 0);
+        }
+        if (repeatFrameIntervalUs > 0) {
+            format.setLong(MediaFormat.KEY_REPEAT_PREVIOUS_FRAME_AFTER, repeatFrameIntervalUs);
+        }
+
+        codec = MediaCodec.createByCodecName(candidate.name);
+        codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        inputSurface = codec.createInputSurface();
+        videoMime = candidate.mime;
+        codecName = candidate.name;
+    }
+
+    private void releaseCodec() {
+        if (inputSurface != null) {
+            inputSurface.release();
+            inputSurface = null;
+        }
+        if (codec != null) {
+            codec.release();
+            codec = null;
+        }
+    }
+
+    @Nullable
+    @Override
+    public String getVideoMime() {
+        return videoMime;
+    }
+
+    @Nullable
+    @Override
+    public String getCodecName() {
+        return codecName;
+    }
+
+    @Nullable
+    @Override
+    public EncoderSettings getSettings() {
+        return settings;
+    }
+
+    private void prepareAudio() {
+        try {
+            audioCapture.prepare();
+            audioEncoder = new AudioEncoder(audioCapture.getBuffer(), AudioCapture.SAMPLE_RATE,
+                                            AudioCapture.CHANNEL_COUNT, AUDIO_BITRATE);
+            audioEncoder.prepare();
+            trackCount = 2;
+        } catch (Exception e) {
+            // e.g. the microphone is busy, record the video alone
+            e.printStackTrace();
+            if (audioEncoder != null) audioEncoder.release();
+            audioEncoder = null;
+            audioCapture.release();
+            audioCapture = null;
+        }
+    }
+
+    @NonNull
+    protected SampleWriter createWriter(@NonNull File output) throws IOException {
+        if (replayBufferBytes > 0) {
+            ReplayBuffer buffer = new ReplayBuffer(replayBufferBytes, replaySampleCount(), replayDurationUs);
+            return new ReplaySampleWriter(output, trackCount, buffer, fileWriterFactory());
+        }
+        if (segmentDurationUs <= 0 && segmentMaxBytes <= 0) {
+            return fileWriterFactory().create(output, trackCount);
+        }
+        SegmentedSampleWriter segmentedWriter = new SegmentedSampleWriter(output, trackCount, segmentDurationUs,
+                                                                          segmentMaxBytes, fileWriterFactory());
+        segmentedWriter.setListener(new SegmentedSampleWriter.Listener() {
+            @Override
+            public void onSegmentCompleted(@NonNull File segment, @NonNull File next) {
+                if (listener != null) listener.onSegmentCompleted(segment, next);
+            }
+
+            @Override
+            public void onSegmentFailed(@NonNull File segment, @NonNull File next, @NonNull Exception error) {
+                if (listener != null) listener.onSegmentFailed(segment, next, error);
+            }
+        });
+        return segmentedWriter;
+    }
+
+    private List<QueuedSink> createQueuedSinks() {
+        // room for a few seconds of samples, audio frames included
+        int capacity = Math.max(MIN_SINK_BUFFER_BYTES, bitrate / 8 * SINK_BUFFER_SEC);
+        int maxSamples = (fps + 50) * SINK_BUFFER_SEC * 2;
+        List<QueuedSink> queuedSinks = new ArrayList<>(sinks.size());
+        for (int i = 0; i < sinks.size(); i++) {
+            queuedSinks.add(new QueuedSink(sinks.get(i), sinkPolicies.get(i), capacity, maxSamples));
+        }
+        return queuedSinks;
+    }
+
+    private SampleWriterFactory fileWriterFactory() {
+        if (containerFormat != ContainerFormat.FRAGMENTED_MP4) {
+            return MediaMuxerWriter::new;
+        }
+        if (bufferPool == null) {
+            bufferPool = new DirectBufferPool(FRAGMENT_BUFFER_SIZE, FRAGMENT_POOL_SIZE);
+        }
+        long preallocateBytes = preallocateBytes();
+        return (file, trackCount) -> new FragmentedMp4Writer(file, trackCount, fragmentDurationUs, bufferPool,
+                                                             preallocateBytes, syncPolicy);
+    }
+
+    private long preallocateBytes() {
+        // a replay save only holds the buffered window
+        if (!preallocateOutput || replayBufferBytes > 0) return 0;
+        long durationUs = maxDurationUs;
+        if (segmentDurationUs > 0 && (durationUs <= 0 || segmentDurationUs < durationUs)) {
+            durationUs = segmentDurationUs;
+        }
+        if (durationUs <= 0) return 0;
+        int totalBitrate = bitrate + (audioEncoder != null ? AUDIO_BITRATE : 0);
+        // plus a little for the moof boxes
+        long bytes = totalBitrate / 8 * (durationUs / 1000L) / 1000L * 33 / 32;
+        if (segmentMaxBytes > 0) bytes = Math.min(bytes, segmentMaxBytes);
+        return bytes;
+    }
+
+    private int replaySampleCount() {
+        if (replayDurationUs <= 0) return Math.max(256, replayBufferBytes / 1024);
+        // twice the frames of the window, the window may start up to one GOP earlier
+        return (int) (fps * (replayDurationUs / 1_000_000L + keyFrameIntervalSec) * 2 + fps);
+    }
+
+    @NonNull
+    @Override
+    public Surface getInputSurface() {
+        return inputSurface;
+    }
+
+    @Override
+    public void start() {
+        codec.start();
+        EncoderDrainer drainer = new EncoderDrainer(new CodecOutput(codec), writer);
+        drainer.setPauseTimeline(pauseTimeline);
+        this.drainer = drainer;
+        metrics = new RecordMetrics(fps, bitrate);
+        if (repeatFrameIntervalUs > 0) {
+            // repeated frames may arrive a little early
+            metrics.setIdleGapUs(repeatFrameIntervalUs * 9 / 10);
+        }
+        if (bitratePolicy != null) {
+            bitrateController = new BitrateController(bitrate, minBitrate, bitrate, BITRATE_WINDOW_US, bitratePolicy);
+            bitrateParams = new Bundle();
+        }
+        drainer.setCallback((track, info) -> {
+            checkMaxDuration(info.presentationTimeUs);
+            // surface input timestamps share the System.nanoTime() clock
+            long nowUs = System.nanoTime() / 1000;
+            long latencyUs = nowUs - info.presentationTimeUs - drainer.getLastOffsetUs();
+            metrics.onFrameEncoded(info.size, info.presentationTimeUs, latencyUs);
+            if (bitrateController != null) updateBitrate(info.size, nowUs, latencyUs, takeWriteNanos());
+        });
+        if (audioEncoder != null) startAudio();
+        drainThread = new Thread(this::drain, "ScreenRecorder-Drain");
+        drainThread.start();
+    }
+
+    private void startAudio() {
+        audioEncoder.start();
+        audioCapture.start();
+        EncoderDrainer audioDrainer = new EncoderDrainer(audioEncoder.getOutput(), writer);
+        audioDrainer.setPauseTimeline(pauseTimeline);
+        this.audioDrainer = audioDrainer;
+        audioDrainThread = new Thread(() -> {
+            try {
+                audioDrainer.drain(DRAIN_TIMEOUT_US);
+            } catch (Exception e) {
+                if (listener != null) listener.onError(e);
+            }
+        }, "ScreenRecorder-AudioDrain");
+        audioDrainThread.start();
+    }
+
+    private void drain() {
+        boolean endOfStream;
+        try {
+            endOfStream = drainer.drain(DRAIN_TIMEOUT_US);
+        } catch (Exception e) {
+            if (listener != null) listener.onError(e);
+            return;
+        }
+        // cancelled by release()
+        if (!endOfStream) return;
+        awaitAudioEndOfStream();
+
+        Exception error = null;
+        try {
+            writer.stop();
+        } catch (Exception e) {
+            error = e;
+        }
+        if (listener != null) listener.onStopped(error);
+    }
+
+    private void awaitAudioEndOfStream() {
+        Thread thread = audioDrainThread;
+        EncoderDrainer drainer = audioDrainer;
+        if (thread == null || drainer == null) return;
+        try {
+            thread.join(AUDIO_STOP_TIMEOUT_MS);
+            if (thread.isAlive()) {
+                // keep the video rather than wait for a stuck audio encoder
+                drainer.cancel();
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void checkMaxDuration(long presentationTimeUs) {
+        if (maxDurationUs <= 0 || maxDurationReached || replayBufferBytes > 0) return;
+        if (firstPresentationTimeUs < 0) {
+            firstPresentationTimeUs = presentationTimeUs;
+            return;
+        }
+        if (presentationTimeUs - firstPresentationTimeUs >= maxDurationUs) {
+            maxDurationReached = true;
+            if (listener != null) listener.onMaxDurationReached();
+        }
+    }
+
+    /**
+     * Storage time of the latest sample. A writer with its own write thread returns at once, the
+     * time its thread spent since the last sample is what tracks the storage then.
+     */
+    private long takeWriteNanos() {
+        long backgroundNanos = writer.getBackgroundWriteNanos();
+        if (backgroundNanos < 0) return drainer.getLastWriteNanos();
+        long nanos = backgroundNanos - lastBackgroundWriteNanos;
+        lastBackgroundWriteNanos = backgroundNanos;
+        return nanos;
+    }
+
+    private void updateBitrate(int size, long nowUs, long latencyUs, long writeNanos) {
+        bitrateController.onFrameEncoded(size, latencyUs, writeNanos);
+        int next = bitrateController.update(nowUs);
+        if (next <= 0) return;
+        metrics.setBitrate(next);
+        bitrateParams.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, next);
+        try {
+            codec.setParameters(bitrateParams);
+        } catch (IllegalStateException e) {
+            // the codec is stopping, keep draining
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public boolean pause() {
+        if (!pauseTimeline.pause(System.nanoTime() / 1000)) return true;
+        if (audioCapture != null) audioCapture.setPaused(true);
+        // repeated frames would still be encoded only to be dropped
+        setSuspended(true);
+        return true;
+    }
+
+    @Override
+    public void resume() {
+        setSuspended(false);
+        if (!pauseTimeline.resume(System.nanoTime() / 1000)) return;
+        if (audioCapture != null) audioCapture.setPaused(false);
+        // frames around the pause are dropped, restart the picture from a keyframe
+        Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+        setParameters(params);
+    }
+
+    private void setSuspended(boolean suspended) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) return;
+        if (suspendParams == null) suspendParams = new Bundle();
+        suspendParams.putInt(MediaCodec.PARAMETER_KEY_SUSPEND, suspended ? 1 : 0);
+        setParameters(suspendParams);
+    }
+
+    private void setParameters(Bundle params) {
+        if (codec == null) return;
+        try {
+            codec.setParameters(params);
+        } catch (IllegalStateException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void stop() {
+        // a suspended codec may hold back the end of stream, the timeline still drops the pause
+        if (pauseTimeline.isPaused()) setSuspended(false);
+        if (audioEncoder != null) {
+            audioCapture.stop();
+            audioEncoder.signalEndOfStream();
+        }
+        try {
+            codec.signalEndOfInputStream();
+        } catch (Exception e) {
+            if (listener != null) listener.onStopped(e);
+        }
+    }
+
+    @Nullable
+    @Override
+    public RecordMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public boolean saveReplay(@NonNull File output) {
+        if (!(fileWriter instanceof ReplaySampleWriter)) return false;
+        ReplaySampleWriter replayWriter = (ReplaySampleWriter) fileWriter;
+        if (replayExecutor == null) {
+            replayExecutor = Executors.newSingleThreadExecutor();
+        }
+        replayExecutor.execute(() -> {
+            Exception error = null;
+            try {
+                replayWriter.save(output);
+            } catch (Exception e) {
+                error = e;
+            }
+            if (listener != null) listener.onReplaySaved(output, error);
+        });
+        return true;
+    }
+
+    @Override
+    public void release() {
+        if (replayExecutor != null) {
+            replayExecutor.shutdown();
+            replayExecutor = null;
+        }
+        if (drainer != null) {
+            drainer.cancel();
+            drainer = null;
+        }
+        if (audioDrainer != null) {
+            audioDrainer.cancel();
+            audioDrainer = null;
+        }
+        // a blocking sink must not keep the drain thread from ending
+        if (writer instanceof FanOutSampleWriter) ((FanOutSampleWriter) writer).closeSinks();
+        if (drainThread != null) {
+            try {
+                drainThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            drainThread = null;
+        }
+        if (audioDrainThread != null) {
+            try {
+                audioDrainThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            audioDrainThread = null;
+        }
+        if (audioCapture != null) {
+            audioCapture.release();
+            audioCapture = null;
+        }
+        if (audioEncoder != null) {
+            audioEncoder.release();
+            audioEncoder = null;
+        }
+        if (codec != null) {
+            try {
+                codec.stop();
+            } catch (Exception ignore) {
+            }
+            codec.release();
+            codec = null;
+        }
+        if (inputSurface != null) {
+            inputSurface.release();
+            inputSurface = null;
+        }
+        if (writer != null) {
+            writer.release();
+            writer = null;
+            fileWriter = null;
+        }
+    }
+
+    /**
+     * Adapts {@link MediaCodec} to {@link EncoderOutput} with a single reused {@link MediaCodec.BufferInfo}.
+     */
+    static class CodecOutput implements EncoderOutput {
+        private final MediaCodec codec;
+        private final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+
+        CodecOutput(MediaCodec codec) {
+            this.codec = codec;
+        }
+
+        @Override
+        public int dequeueOutputBuffer(@NonNull SampleInfo info, long timeoutUs) {
+            int index = codec.dequeueOutputBuffer(bufferInfo, timeoutUs);
+            if (index >= 0) {
+                info.set(bufferInfo.offset, bufferInfo.size, bufferInfo.presentationTimeUs, bufferInfo.flags);
+            }
+            return index;
+        }
+
+        @NonNull
+        @Override
+        public ByteBuffer getOutputBuffer(int index) {
+            return codec.getOutputBuffer(index);
+        }
+
+        @NonNull
+        @Override
+        public TrackFormat getOutputFormat() {
+            return toTrackFormat(codec.getOutputFormat());
+        }
+
+        @Override
+        public void releaseOutputBuffer(int index) {
+            codec.releaseOutputBuffer(index, false);
+        }
+    }
+
+    static TrackFormat toTrackFormat(MediaFormat format) {
+        String mime = format.getString(MediaFormat.KEY_MIME);
+        boolean video = mime.startsWith("video/");
+        int width = video ? format.getInteger(MediaFormat.KEY_WIDTH) : 0;
+        int height = video ? format.getInteger(MediaFormat.KEY_HEIGHT) : 0;
+        int sampleRate = video ? 0 : format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+        int channelCount = video ? 0 : format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+        return new TrackFormat(mime, width, height, sampleRate, channelCount,
+                               readBytes(format, "csd-0"), readBytes(format, "csd-1"), format);
+    }
+
+    private static byte[] readBytes(MediaFormat format, String key) {
+        if (!format.containsKey(key)) return null;
+        ByteBuffer buffer = format.getByteBuffer(key).duplicate();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
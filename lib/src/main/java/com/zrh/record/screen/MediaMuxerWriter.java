@@ -0,0 +1,78 @@
+package com.zrh.record.screen;
+
+import android.media.MediaCodec;
+import android.media.MediaMuxer;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link SampleWriter} backed by {@link MediaMuxer}.
+ *
+ * @author zrh
+ * @date 2023/7/20
+ */
+public class MediaMuxerWriter implements SampleWriter {
+    private final MediaMuxer muxer;
+    private final File file;
+    private final TrackFormat[] formats;
+    private final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+
+    private int addedTracks;
+    private volatile boolean started;
+
+    public MediaMuxerWriter(@NonNull File file, int trackCount) throws IOException {
+        this.muxer = new MediaMuxer(file.getAbsolutePath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        this.file = file;
+        this.formats = new TrackFormat[trackCount];
+    }
+
+    @Override
+    public synchronized int addTrack(@NonNull TrackFormat format) throws IOException {
+        if (format.mediaFormat == null) throw new IOException("MediaMuxer requires a MediaFormat");
+        int track = muxer.addTrack(format.mediaFormat);
+        formats[addedTracks++] = format;
+        if (addedTracks == formats.length) {
+            muxer.start();
+            started = true;
+            writeRecoveryInfo();
+        }
+        return track;
+    }
+
+    private void writeRecoveryInfo() {
+        try {
+            RecoveryInfo.write(file, formats);
+        } catch (IOException e) {
+            // only needed to salvage the file after a crash
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public boolean isStarted() {
+        return started;
+    }
+
+    @Override
+    public synchronized void writeSampleData(int track, @NonNull ByteBuffer buffer, @NonNull SampleInfo info) {
+        bufferInfo.set(info.offset, info.size, info.presentationTimeUs, info.flags);
+        muxer.writeSampleData(track, buffer, bufferInfo);
+    }
+
+    @Override
+    public synchronized void stop() throws IOException {
+        if (!started) throw new IOException("muxer not started");
+        started = false;
+        muxer.stop();
+        RecoveryInfo.sidecarOf(file).delete();
+    }
+
+    @Override
+    public void release() {
+        muxer.release();
+    }
+}
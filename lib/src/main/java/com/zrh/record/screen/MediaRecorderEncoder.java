@@ -0,0 +1,189 @@
+package com.zrh.record.screen;
+
+import static android.media.MediaRecorder.MEDIA_RECORDER_INFO_MAX_DURATION_REACHED;
+import static android.media.MediaRecorder.MEDIA_RECORDER_INFO_MAX_FILESIZE_REACHED;
+
+import android.content.Context;
+import android.media.MediaRecorder;
+import android.os.Build;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author zrh
+ * @date 2023/7/20
+ */
+public class MediaRecorderEncoder implements RecordEncoder {
+    private final Context context;
+    private final int bitrate;
+    private final int fps;
+    private final boolean recordAudio;
+    private final long maxDuration;
+
+    private MediaRecorder mediaRecorder;
+    private Listener listener;
+    private int[] videoCodecs = {VideoCodec.H264};
+    private SettingsResolver settingsResolver;
+    private EncoderSettings settings;
+    private volatile String videoMime;
+
+    public MediaRecorderEncoder(@NonNull Context context, int bitrate, int fps, boolean recordAudio, long maxDuration) {
+        this.context = context;
+        this.bitrate = bitrate;
+        this.fps = fps;
+        this.recordAudio = recordAudio;
+        this.maxDuration = maxDuration;
+    }
+
+    @Override
+    public void setListener(@Nullable Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * {@link VideoCodec}s to try in order, only H.264 and HEVC. MediaRecorder picks the encoder
+     * itself, so a codec is only tried if the device has a hardware encoder for it.
+     */
+    public void setVideoCodecs(@NonNull int[] codecs) {
+        this.videoCodecs = codecs;
+    }
+
+    @Override
+    public void setSettingsResolver(@Nullable SettingsResolver resolver) {
+        this.settingsResolver = resolver;
+    }
+
+    @Override
+    public void prepare(@NonNull File output, int width, int height) throws IOException {
+        EncoderSettings requested = new EncoderSettings(width, height, fps, bitrate);
+        Exception failure = null;
+        for (String mime : recorderMimes()) {
+            // MediaRecorder takes the first encoder of the mime, like createEncoderByType
+            EncoderSettings resolved = settingsResolver != null
+                    ? settingsResolver.resolve(mime, null, requested) : requested;
+            try {
+                prepareRecorder(output, resolved, mime);
+                videoMime = mime;
+                settings = resolved;
+                return;
+            } catch (Exception e) {
+                e.printStackTrace();
+                failure = e;
+                release();
+            }
+        }
+        throw new IOException("no video encoder could be configured", failure);
+    }
+
+    private List<String> recorderMimes() {
+        List<String> mimes = new ArrayList<>();
+        for (CodecSelector.Encoder encoder : CodecSelector.select(CodecSelector.deviceEncoders(), videoCodecs)) {
+            if (!encoder.hardware || mimes.contains(encoder.mime)) continue;
+            if (encoder.mime.equals(CodecSelector.MIME_H264)
+                    || encoder.mime.equals(CodecSelector.MIME_HEVC) && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                mimes.add(encoder.mime);
+            }
+        }
+        if (!mimes.contains(CodecSelector.MIME_H264)) mimes.add(CodecSelector.MIME_H264);
+        return mimes;
+    }
+
+    private void prepareRecorder(File output, EncoderSettings settings, String mime) throws IOException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            mediaRecorder = new MediaRecorder(context);
+        } else {
+            mediaRecorder = new MediaRecorder();
+        }
+
+        if (recordAudio) {
+            mediaRecorder.setAudioSource(MediaRecorder.AudioSource.MIC);
+        }
+        mediaRecorder.setVideoSource(MediaRecorder.VideoSource.SURFACE);
+        mediaRecorder.setOutputFormat(MediaRecorder.OutputFormat.MPEG_4);
+        mediaRecorder.setVideoEncoder(mime.equals(CodecSelector.MIME_HEVC) ? MediaRecorder.VideoEncoder.HEVC
+                                                                          : MediaRecorder.VideoEncoder.H264);
+        if (recordAudio) {
+            mediaRecorder.setAudioEncoder(MediaRecorder.AudioEncoder.AAC);
+        }
+        mediaRecorder.setOutputFile(output.getAbsolutePath());
+        mediaRecorder.setVideoEncodingBitRate(settings.bitrate);
+        mediaRecorder.setVideoSize(settings.width, settings.height);
+        mediaRecorder.setVideoFrameRate(settings.fps);
+        mediaRecorder.setMaxDuration((int) maxDuration);
+
+        mediaRecorder.setOnInfoListener((mr, what, extra) -> {
+            if (what == MEDIA_RECORDER_INFO_MAX_DURATION_REACHED ||
+                    what == MEDIA_RECORDER_INFO_MAX_FILESIZE_REACHED) {
+                if (listener != null) listener.onMaxDurationReached();
+            }
+        });
+        mediaRecorder.prepare();
+    }
+
+    @NonNull
+    @Override
+    public Surface getInputSurface() {
+        return mediaRecorder.getSurface();
+    }
+
+    @Override
+    public void start() {
+        mediaRecorder.start();
+    }
+
+    @Override
+    public void stop() {
+        Exception error = null;
+        try {
+            mediaRecorder.stop();
+        } catch (Exception e) {
+            error = e;
+        }
+        if (listener != null) listener.onStopped(error);
+    }
+
+    @Override
+    public boolean pause() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) return false;
+        mediaRecorder.pause();
+        return true;
+    }
+
+    @Override
+    public void resume() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) return;
+        mediaRecorder.resume();
+    }
+
+    @Override
+    public boolean saveReplay(@NonNull File output) {
+        return false;
+    }
+
+    @Nullable
+    @Override
+    public String getVideoMime() {
+        return videoMime;
+    }
+
+    @Nullable
+    @Override
+    public EncoderSettings getSettings() {
+        return settings;
+    }
+
+    @Override
+    public void release() {
+        if (mediaRecorder != null) {
+            mediaRecorder.release();
+            mediaRecorder = null;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.zrh.record.screen;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Recording stats filled in by {@link RecordMetrics}. Rates and latencies cover the window since the
+ * previous snapshot, counters the whole recording. Reused between snapshots, copy it to keep it.
+ *
+ * @author zrh
+ * @date 2023/8/1
+ */
+public final class MetricsSnapshot {
+    public long elapsedMs;
+    public float fps;
+    public int targetFps;
+    public long framesEncoded;
+    public long droppedFrames;
+    public long duplicatedFrames;
+    // encoder input to output latency
+    public long latencyP50Us;
+    public long latencyP90Us;
+    public long latencyP99Us;
+    public long latencyMaxUs;
+    public long bytesPerSec;
+    public long bytesWritten;
+    public long fileSize;
+    public int bitrate;
+    // from ScreenRecorder#start() to the first encoded frame, -1 until then
+    public long timeToFirstFrameMs = -1;
+    // storage the recording takes per minute so far, to compare codecs and bitrates
+    public long bytesPerMinute;
+    public String videoMime;
+    // null with MediaRecorder, it picks the encoder itself
+    public String codecName;
+
+    public void set(@NonNull MetricsSnapshot other) {
+        elapsedMs = other.elapsedMs;
+        fps = other.fps;
+        targetFps = other.targetFps;
+        framesEncoded = other.framesEncoded;
+        droppedFrames = other.droppedFrames;
+        duplicatedFrames = other.duplicatedFrames;
+        latencyP50Us = other.latencyP50Us;
+        latencyP90Us = other.latencyP90Us;
+        latencyP99Us = other.latencyP99Us;
+        latencyMaxUs = other.latencyMaxUs;
+        bytesPerSec = other.bytesPerSec;
+        bytesWritten = other.bytesWritten;
+        fileSize = other.fileSize;
+        bitrate = other.bitrate;
+        timeToFirstFrameMs = other.timeToFirstFrameMs;
+        bytesPerMinute = other.bytesPerMinute;
+        videoMime = other.videoMime;
+        codecName = other.codecName;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "MetricsSnapshot{elapsedMs=" + elapsedMs + ", fps=" + fps + "/" + targetFps
+               + ", frames=" + framesEncoded + ", dropped=" + droppedFrames + ", duplicated=" + duplicatedFrames
+               + ", latencyUs=" + latencyP50Us + "/" + latencyP90Us + "/" + latencyP99Us + "/" + latencyMaxUs
+               + ", bytesPerSec=" + bytesPerSec + ", bytesWritten=" + bytesWritten + ", fileSize=" + fileSize
+               + ", bitrate=" + bitrate + ", timeToFirstFrameMs=" + timeToFirstFrameMs
+               + ", bytesPerMinute=" + bytesPerMinute + ", codec=" + videoMime + " " + codecName + "}";
+    }
+}
@@ -0,0 +1,110 @@
+package com.zrh.record.screen;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Box layouts shared by the library-owned MP4 writers.
+ *
+ * @author zrh
+ * @date 2023/7/28
+ */
+final class Mp4Boxes {
+    static final int MOVIE_TIMESCALE = 1000;
+
+    private Mp4Boxes() {
+    }
+
+    static void writeFtyp(@NonNull BoxBuffer box) {
+        box.start("ftyp").putType("isom").putInt(0x200).putType("isom").putType("iso6").putType("mp41").end();
+    }
+
+    static void writeMvhd(@NonNull BoxBuffer box, long durationMs, int nextTrackId) {
+        box.startFull("mvhd", 0, 0).putInt(0).putInt(0).putInt(MOVIE_TIMESCALE).putInt((int) durationMs)
+           .putInt(0x00010000).putShort(0x0100).putZeros(10).putMatrix().putZeros(24)
+           .putInt(nextTrackId).end();
+    }
+
+    /**
+     * Writes a track up to its sample description and leaves {@code stbl} open for the sample tables.
+     */
+    static void startTrak(@NonNull BoxBuffer box, int trackId, int timescale, @NonNull TrackFormat format,
+                          long durationMs, long duration) {
+        boolean video = format.isVideo();
+        box.start("trak");
+        box.startFull("tkhd", 0, 0x3).putInt(0).putInt(0).putInt(trackId).putInt(0).putInt((int) durationMs)
+           .putZeros(8).putShort(0).putShort(0).putShort(video ? 0 : 0x0100).putShort(0).putMatrix()
+           .putInt(format.width << 16).putInt(format.height << 16).end();
+
+        box.start("mdia");
+        box.startFull("mdhd", 0, 0).putInt(0).putInt(0).putInt(timescale).putInt((int) duration)
+           .putShort(0x55C4).putShort(0).end();
+        box.startFull("hdlr", 0, 0).putInt(0).putType(video ? "vide" : "soun").putZeros(12);
+        box.put(video ? "VideoHandler".getBytes() : "SoundHandler".getBytes()).putByte(0).end();
+
+        box.start("minf");
+        if (video) {
+            box.startFull("vmhd", 0, 1).putShort(0).putZeros(6).end();
+        } else {
+            box.startFull("smhd", 0, 0).putShort(0).putShort(0).end();
+        }
+        box.start("dinf").startFull("dref", 0, 0).putInt(1).startFull("url ", 0, 1).end().end().end();
+
+        box.start("stbl");
+        box.startFull("stsd", 0, 0).putInt(1);
+        if (video) {
+            writeAvc1(box, format);
+        } else {
+            writeMp4a(box, format, trackId);
+        }
+        box.end();
+    }
+
+    static void endTrak(@NonNull BoxBuffer box) {
+        // stbl, minf, mdia, trak
+        box.end().end().end().end();
+    }
+
+    private static void writeAvc1(BoxBuffer box, TrackFormat format) {
+        byte[] sps = stripStartCode(format.csd0);
+        byte[] pps = stripStartCode(format.csd1);
+        box.start("avc1").putZeros(6).putShort(1).putZeros(16)
+           .putShort(format.width).putShort(format.height)
+           .putInt(0x00480000).putInt(0x00480000).putInt(0).putShort(1).putZeros(32)
+           .putShort(0x0018).putShort(0xFFFF);
+        box.start("avcC").putByte(1).putByte(sps[1]).putByte(sps[2]).putByte(sps[3])
+           .putByte(0xFF).putByte(0xE1).putShort(sps.length).put(sps)
+           .putByte(1).putShort(pps.length).put(pps).end();
+        box.end();
+    }
+
+    private static void writeMp4a(BoxBuffer box, TrackFormat format, int trackId) {
+        byte[] config = format.csd0 == null ? new byte[0] : format.csd0;
+        box.start("mp4a").putZeros(6).putShort(1).putZeros(8)
+           .putShort(format.channelCount).putShort(16).putShort(0).putShort(0)
+           .putInt(format.sampleRate << 16);
+        int decoderSpecificLength = config.length;
+        int decoderConfigLength = 13 + 2 + decoderSpecificLength;
+        int esLength = 3 + 2 + decoderConfigLength + 3;
+        box.startFull("esds", 0, 0)
+           .putByte(0x03).putByte(esLength).putShort(trackId).putByte(0)
+           .putByte(0x04).putByte(decoderConfigLength).putByte(0x40).putByte(0x15)
+           .putByte(0).putShort(0).putInt(0).putInt(0)
+           .putByte(0x05).putByte(decoderSpecificLength).put(config)
+           .putByte(0x06).putByte(1).putByte(0x02)
+           .end();
+        box.end();
+    }
+
+    static byte[] stripStartCode(byte[] nal) {
+        if (nal == null) return new byte[4];
+        int offset = 0;
+        if (nal.length > 4 && nal[0] == 0 && nal[1] == 0 && nal[2] == 0 && nal[3] == 1) {
+            offset = 4;
+        } else if (nal.length > 3 && nal[0] == 0 && nal[1] == 0 && nal[2] == 1) {
+            offset = 3;
+        }
+        byte[] result = new byte[nal.length - offset];
+        System.arraycopy(nal, offset, result, 0, result.length);
+        return result;
+    }
+}
@@ -0,0 +1,81 @@
+package com.zrh.record.screen;
+
+import android.annotation.SuppressLint;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Cuts the start of an MP4 without re-encoding. The output starts at the first video keyframe at
+ * or after the requested time, so it stays decodable.
+ *
+ * @author zrh
+ * @date 2023/8/3
+ */
+public class Mp4Trimmer {
+    private static final int DEFAULT_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * @return false if the file is shorter than {@code startUs}, nothing is written then.
+     */
+    @SuppressLint("WrongConstant")
+    public boolean trimStart(@NonNull File input, @NonNull File output, long startUs) throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        MediaMuxer muxer = null;
+        boolean muxerStarted = false;
+        try {
+            extractor.setDataSource(input.getAbsolutePath());
+            int trackCount = extractor.getTrackCount();
+            int bufferSize = DEFAULT_BUFFER_SIZE;
+            for (int i = 0; i < trackCount; i++) {
+                extractor.selectTrack(i);
+                MediaFormat format = extractor.getTrackFormat(i);
+                if (format.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)) {
+                    bufferSize = Math.max(bufferSize, format.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE));
+                }
+            }
+            extractor.seekTo(startUs, MediaExtractor.SEEK_TO_NEXT_SYNC);
+            if (extractor.getSampleTime() < 0) return false;
+
+            muxer = new MediaMuxer(output.getAbsolutePath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            int[] trackMap = new int[trackCount];
+            for (int i = 0; i < trackCount; i++) {
+                trackMap[i] = muxer.addTrack(extractor.getTrackFormat(i));
+            }
+            muxer.start();
+            muxerStarted = true;
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            long baseUs = extractor.getSampleTime();
+            while (true) {
+                int size = extractor.readSampleData(buffer, 0);
+                if (size < 0) break;
+                long timeUs = extractor.getSampleTime();
+                // samples of other tracks that start before the keyframe are dropped
+                if (timeUs >= baseUs) {
+                    info.set(0, size, timeUs - baseUs, extractor.getSampleFlags());
+                    muxer.writeSampleData(trackMap[extractor.getSampleTrackIndex()], buffer, info);
+                }
+                extractor.advance();
+            }
+            return true;
+        } finally {
+            extractor.release();
+            if (muxer != null) {
+                try {
+                    if (muxerStarted) muxer.stop();
+                } finally {
+                    muxer.release();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.zrh.record.screen;
+
+/**
+ * Where {@link RecordOverlay} items sit in the recording. Items with the same gravity are stacked,
+ * away from the edge in the order they were added.
+ *
+ * @author zrh
+ * @date 2023/8/15
+ */
+public interface OverlayGravity {
+    int TOP_LEFT = 0;
+    int TOP_RIGHT = 1;
+    int BOTTOM_LEFT = 2;
+    int BOTTOM_RIGHT = 3;
+    int CENTER = 4;
+}
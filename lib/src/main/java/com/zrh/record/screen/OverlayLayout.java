@@ -0,0 +1,117 @@
+package com.zrh.record.screen;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Places overlay items in the output, in output pixels with the origin at the top left. One
+ * instance lays out one frame, items with the same {@link OverlayGravity} are stacked away from
+ * their edge, centered ones downwards from the middle.
+ *
+ * @author zrh
+ * @date 2023/8/15
+ */
+final class OverlayLayout {
+    private static final int GRAVITY_COUNT = 5;
+
+    private final int outputWidth;
+    private final int outputHeight;
+    private final int margin;
+    // space taken so far by every gravity
+    private final int[] offsets = new int[GRAVITY_COUNT];
+
+    OverlayLayout(int outputWidth, int outputHeight, int margin) {
+        this.outputWidth = outputWidth;
+        this.outputHeight = outputHeight;
+        this.margin = margin;
+    }
+
+    /**
+     * Starts a new frame.
+     */
+    void reset() {
+        for (int i = 0; i < GRAVITY_COUNT; i++) {
+            offsets[i] = 0;
+        }
+    }
+
+    /**
+     * @param gravity one of {@link OverlayGravity}, anything else is {@link OverlayGravity#TOP_LEFT}.
+     * @param out     receives the left and top of the item.
+     */
+    void place(int gravity, int width, int height, @NonNull int[] out) {
+        if (gravity < 0 || gravity >= GRAVITY_COUNT) gravity = OverlayGravity.TOP_LEFT;
+        int offset = offsets[gravity];
+        offsets[gravity] += height + margin;
+        switch (gravity) {
+            case OverlayGravity.TOP_RIGHT:
+                out[0] = outputWidth - margin - width;
+                out[1] = margin + offset;
+                break;
+            case OverlayGravity.BOTTOM_LEFT:
+                out[0] = margin;
+                out[1] = outputHeight - margin - offset - height;
+                break;
+            case OverlayGravity.BOTTOM_RIGHT:
+                out[0] = outputWidth - margin - width;
+                out[1] = outputHeight - margin - offset - height;
+                break;
+            case OverlayGravity.CENTER:
+                out[0] = (outputWidth - width) / 2;
+                out[1] = (outputHeight - height) / 2 + offset;
+                break;
+            default:
+                out[0] = margin;
+                out[1] = margin + offset;
+                break;
+        }
+    }
+
+    /**
+     * Text height for an output that did not set one, readable when the recording is watched
+     * scaled down.
+     */
+    static int defaultTextSize(int outputWidth, int outputHeight) {
+        return Math.max(12, Math.min(outputWidth, outputHeight) / 30);
+    }
+
+    /**
+     * Diameter of a touch marker.
+     */
+    static int markerSize(int outputWidth, int outputHeight) {
+        return Math.max(16, Math.min(outputWidth, outputHeight) / 12);
+    }
+
+    /**
+     * Touch markers stay opaque for the first half of {@code durationMs} and then fade out.
+     *
+     * @return 0 once the marker is gone.
+     */
+    static float touchAlpha(long ageMs, long durationMs) {
+        if (ageMs < 0 || ageMs >= durationMs) return 0;
+        long half = durationMs / 2;
+        if (ageMs <= half) return 1;
+        return 1f - 1f * (ageMs - half) / (durationMs - half);
+    }
+
+    /**
+     * Lays out one line of text glyph by glyph.
+     *
+     * @param outX receives the left of every char, at least {@code text.length()} long.
+     * @return the width of the line.
+     */
+    static float layoutLine(@NonNull CharSequence text, @NonNull Glyphs glyphs, @NonNull float[] outX) {
+        float x = 0;
+        for (int i = 0; i < text.length(); i++) {
+            outX[i] = x;
+            x += glyphs.getAdvance(text.charAt(i));
+        }
+        return x;
+    }
+
+    interface Glyphs {
+        /**
+         * @return how far the next glyph starts after {@code c}.
+         */
+        float getAdvance(char c);
+    }
+}
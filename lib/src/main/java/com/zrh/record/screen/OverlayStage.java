@@ -0,0 +1,413 @@
+package com.zrh.record.screen;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+import android.os.SystemClock;
+import android.util.SparseArray;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Draws the items and touches of a {@link RecordOverlay} on every frame. Glyphs, bitmaps and the
+ * touch marker are drawn once into a texture atlas and stay there across frames, a frame only
+ * rasterizes chars it has not seen and draws everything as quads in one call. A full atlas is
+ * cleared and filled again on the next frame.
+ *
+ * @author zrh
+ * @date 2023/8/15
+ */
+class OverlayStage implements GlCompositor.Stage, OverlayLayout.Glyphs {
+    private static final String VERTEX_SHADER =
+            "attribute vec4 aPosition;\n"
+            + "attribute vec2 aTexCoord;\n"
+            + "attribute vec4 aColor;\n"
+            + "varying vec2 vTexCoord;\n"
+            + "varying vec4 vColor;\n"
+            + "void main() {\n"
+            + "    gl_Position = aPosition;\n"
+            + "    vTexCoord = aTexCoord;\n"
+            + "    vColor = aColor;\n"
+            + "}\n";
+    // atlas and colors are premultiplied
+    private static final String FRAGMENT_SHADER =
+            "precision mediump float;\n"
+            + "uniform sampler2D sAtlas;\n"
+            + "varying vec2 vTexCoord;\n"
+            + "varying vec4 vColor;\n"
+            + "void main() {\n"
+            + "    gl_FragColor = texture2D(sAtlas, vTexCoord) * vColor;\n"
+            + "}\n";
+    private static final int ATLAS_SIZE = 1024;
+    private static final int ATLAS_PADDING = 1;
+    private static final int MAX_QUADS = 512;
+    // x y s t r g b a
+    private static final int VERTEX_FLOATS = 8;
+    private static final int MARKER_BITMAP_SIZE = 64;
+    private static final int MARKER_COLOR = 0x99FFFFFF;
+    // glyph cells are wider than the advance so antialiased edges are kept
+    private static final int GLYPH_INSET = 1;
+
+    private final RecordOverlay overlay;
+    private final CropGeometry geometry;
+    private final FloatBuffer vertexBuffer;
+    private final float[] vertices = new float[MAX_QUADS * 6 * VERTEX_FLOATS];
+    private final int[] position = new int[2];
+    private final int[] atlasPosition = new int[2];
+    private final float[] point = new float[2];
+    private final float[] touchPositions = new float[RecordOverlay.MAX_TOUCHES * 2];
+    private final long[] touchAges = new long[RecordOverlay.MAX_TOUCHES];
+    private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    private int width;
+    private int height;
+    private OverlayLayout layout;
+    private int program;
+    private int positionLocation;
+    private int texCoordLocation;
+    private int colorLocation;
+    private int atlasLocation;
+    private int atlasTexture;
+    private int framebuffer;
+
+    private AtlasPacker packer;
+    private boolean atlasFull;
+    private final SparseArray<Region> glyphs = new SparseArray<>();
+    private final SparseArray<Region> bitmaps = new SparseArray<>();
+    private Region solid;
+    private Region marker;
+    private float textSize;
+    private int lineHeight;
+    private float baseline;
+    private float[] glyphX = new float[64];
+    private int quadCount;
+
+    // timestamps are formatted once a second
+    private final SparseArray<String> timestamps = new SparseArray<>();
+    private final SparseArray<RecordOverlay.Item> timestampItems = new SparseArray<>();
+    private long timestampSecond = -1;
+
+    OverlayStage(@NonNull RecordOverlay overlay, @NonNull CropGeometry geometry) {
+        this.overlay = overlay;
+        this.geometry = geometry;
+        this.vertexBuffer = ByteBuffer.allocateDirect(vertices.length * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    @Override
+    public void onSetUp(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.layout = new OverlayLayout(width, height, Math.max(4, Math.min(width, height) / 60));
+        program = GlCompositor.createProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+        positionLocation = GLES20.glGetAttribLocation(program, "aPosition");
+        texCoordLocation = GLES20.glGetAttribLocation(program, "aTexCoord");
+        colorLocation = GLES20.glGetAttribLocation(program, "aColor");
+        atlasLocation = GLES20.glGetUniformLocation(program, "sAtlas");
+
+        int[] ids = new int[1];
+        GLES20.glGenTextures(1, ids, 0);
+        atlasTexture = ids[0];
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, atlasTexture);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, ATLAS_SIZE, ATLAS_SIZE, 0,
+                            GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glGenFramebuffers(1, ids, 0);
+        framebuffer = ids[0];
+        packer = new AtlasPacker(ATLAS_SIZE, ATLAS_SIZE, ATLAS_PADDING);
+        updateTextSize();
+        GlCompositor.checkGl("overlay setup");
+    }
+
+    /**
+     * Clears the atlas to transparent, padding never shows stale pixels, and adds the fixed entries.
+     */
+    private void resetAtlas() {
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebuffer);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0, GLES20.GL_TEXTURE_2D,
+                                      atlasTexture, 0);
+        GLES20.glViewport(0, 0, ATLAS_SIZE, ATLAS_SIZE);
+        GLES20.glClearColor(0, 0, 0, 0);
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        GLES20.glViewport(0, 0, width, height);
+
+        packer.reset();
+        glyphs.clear();
+        bitmaps.clear();
+        atlasFull = false;
+
+        // backgrounds sample the middle of a white patch, away from its filtered edges
+        Bitmap white = Bitmap.createBitmap(4, 4, Bitmap.Config.ARGB_8888);
+        white.eraseColor(Color.WHITE);
+        solid = upload(white);
+        if (solid != null) {
+            solid.x += 1;
+            solid.y += 1;
+            solid.width = 2;
+            solid.height = 2;
+        }
+        white.recycle();
+
+        Bitmap circle = Bitmap.createBitmap(MARKER_BITMAP_SIZE, MARKER_BITMAP_SIZE, Bitmap.Config.ARGB_8888);
+        Paint circlePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        circlePaint.setColor(Color.WHITE);
+        float radius = MARKER_BITMAP_SIZE / 2f;
+        new Canvas(circle).drawCircle(radius, radius, radius - 1, circlePaint);
+        marker = upload(circle);
+        circle.recycle();
+    }
+
+    @Nullable
+    private Region upload(@NonNull Bitmap bitmap) {
+        int[] at = atlasPosition;
+        if (!packer.insert(bitmap.getWidth(), bitmap.getHeight(), at)) {
+            atlasFull = true;
+            return null;
+        }
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, atlasTexture);
+        GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, at[0], at[1], bitmap);
+        return new Region(at[0], at[1], bitmap.getWidth(), bitmap.getHeight());
+    }
+
+    private void updateTextSize() {
+        float size = overlay.getTextSize();
+        if (size <= 0) size = OverlayLayout.defaultTextSize(width, height);
+        if (size == textSize) return;
+        textSize = size;
+        paint.setTextSize(size);
+        paint.setColor(Color.WHITE);
+        Paint.FontMetrics metrics = paint.getFontMetrics();
+        baseline = -metrics.ascent;
+        lineHeight = (int) Math.ceil(metrics.descent - metrics.ascent);
+        // glyphs of the old size are useless
+        resetAtlas();
+    }
+
+    @Override
+    public float getAdvance(char c) {
+        Region glyph = glyphs.get(c);
+        if (glyph == null) {
+            glyph = drawGlyph(c);
+            if (glyph == null) return 0;
+        }
+        return glyph.advance;
+    }
+
+    @Nullable
+    private Region drawGlyph(char c) {
+        String text = String.valueOf(c);
+        float advance = paint.measureText(text);
+        Region glyph;
+        if (Character.isWhitespace(c)) {
+            glyph = new Region(0, 0, 0, 0);
+        } else {
+            int cellWidth = (int) Math.ceil(advance) + GLYPH_INSET * 2;
+            Bitmap bitmap = Bitmap.createBitmap(Math.max(1, cellWidth), Math.max(1, lineHeight), Bitmap.Config.ARGB_8888);
+            new Canvas(bitmap).drawText(text, GLYPH_INSET, baseline, paint);
+            glyph = upload(bitmap);
+            bitmap.recycle();
+            if (glyph == null) return null;
+        }
+        glyph.advance = advance;
+        glyphs.put(c, glyph);
+        return glyph;
+    }
+
+    @Override
+    public boolean onDraw(int texture, @NonNull float[] texMatrix) {
+        if (atlasFull) resetAtlas();
+        updateTextSize();
+        layout.reset();
+        quadCount = 0;
+
+        RecordOverlay.Item[] items = overlay.getItems();
+        for (RecordOverlay.Item item : items) {
+            if (item.type == RecordOverlay.TYPE_BITMAP) {
+                addBitmap(item);
+            } else {
+                String text = item.type == RecordOverlay.TYPE_TIMESTAMP ? formatTimestamp(item) : item.text;
+                if (text != null && !text.isEmpty()) addText(text, item.gravity);
+            }
+        }
+        addTouches();
+        if (quadCount == 0) return true;
+
+        vertexBuffer.clear();
+        vertexBuffer.put(vertices, 0, quadCount * 6 * VERTEX_FLOATS);
+        GLES20.glViewport(0, 0, width, height);
+        GLES20.glUseProgram(program);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, atlasTexture);
+        GLES20.glUniform1i(atlasLocation, 0);
+        int stride = VERTEX_FLOATS * 4;
+        vertexBuffer.position(0);
+        GLES20.glVertexAttribPointer(positionLocation, 2, GLES20.GL_FLOAT, false, stride, vertexBuffer);
+        GLES20.glEnableVertexAttribArray(positionLocation);
+        vertexBuffer.position(2);
+        GLES20.glVertexAttribPointer(texCoordLocation, 2, GLES20.GL_FLOAT, false, stride, vertexBuffer);
+        GLES20.glEnableVertexAttribArray(texCoordLocation);
+        vertexBuffer.position(4);
+        GLES20.glVertexAttribPointer(colorLocation, 4, GLES20.GL_FLOAT, false, stride, vertexBuffer);
+        GLES20.glEnableVertexAttribArray(colorLocation);
+        GLES20.glEnable(GLES20.GL_BLEND);
+        GLES20.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, quadCount * 6);
+        GLES20.glDisable(GLES20.GL_BLEND);
+        GLES20.glDisableVertexAttribArray(positionLocation);
+        GLES20.glDisableVertexAttribArray(texCoordLocation);
+        GLES20.glDisableVertexAttribArray(colorLocation);
+        return true;
+    }
+
+    private String formatTimestamp(RecordOverlay.Item item) {
+        long now = System.currentTimeMillis();
+        long second = now / 1000;
+        if (second != timestampSecond) {
+            timestampSecond = second;
+            timestamps.clear();
+            timestampItems.clear();
+        }
+        String text = timestamps.get(item.id);
+        // a changed pattern replaces the item
+        if (text == null || timestampItems.get(item.id) != item) {
+            try {
+                text = new SimpleDateFormat(item.text, Locale.getDefault()).format(new Date(now));
+            } catch (IllegalArgumentException e) {
+                text = item.text;
+            }
+            timestamps.put(item.id, text);
+            timestampItems.put(item.id, item);
+        }
+        return text;
+    }
+
+    private void addText(String text, int gravity) {
+        if (glyphX.length < text.length()) glyphX = new float[text.length() * 2];
+        float lineWidth = OverlayLayout.layoutLine(text, this, glyphX);
+        int padding = lineHeight / 4;
+        int boxWidth = (int) Math.ceil(lineWidth) + padding * 2;
+        int boxHeight = lineHeight + padding * 2;
+        layout.place(gravity, boxWidth, boxHeight, position);
+        int left = position[0];
+        int top = position[1];
+        addQuad(left, top, boxWidth, boxHeight, solid, overlay.getBackgroundColor(), 1f);
+        int color = overlay.getTextColor();
+        for (int i = 0; i < text.length(); i++) {
+            Region glyph = glyphs.get(text.charAt(i));
+            if (glyph == null || glyph.width == 0) continue;
+            // whole pixels, the atlas is sampled 1:1
+            float x = left + padding + Math.round(glyphX[i]) - GLYPH_INSET;
+            addQuad(x, top + padding, glyph.width, glyph.height, glyph, color, 1f);
+        }
+    }
+
+    private void addBitmap(RecordOverlay.Item item) {
+        Bitmap bitmap = item.bitmap;
+        if (bitmap == null || bitmap.isRecycled()) return;
+        if (bitmap.getWidth() > ATLAS_SIZE / 2 || bitmap.getHeight() > ATLAS_SIZE / 2) return;
+        Region region = bitmaps.get(item.id);
+        if (region == null) {
+            region = upload(bitmap);
+            if (region == null) return;
+            bitmaps.put(item.id, region);
+        }
+        layout.place(item.gravity, region.width, region.height, position);
+        addQuad(position[0], position[1], region.width, region.height, region, Color.WHITE, 1f);
+    }
+
+    private void addTouches() {
+        int count = overlay.copyTouches(SystemClock.uptimeMillis(), touchPositions, touchAges);
+        if (count == 0) return;
+        float size = OverlayLayout.markerSize(width, height);
+        for (int i = 0; i < count; i++) {
+            float alpha = OverlayLayout.touchAlpha(touchAges[i], RecordOverlay.TOUCH_DURATION_MS);
+            if (alpha <= 0) continue;
+            geometry.mapToOutput(touchPositions[i * 2], touchPositions[i * 2 + 1], point);
+            addQuad(point[0] - size / 2, point[1] - size / 2, size, size, marker, MARKER_COLOR, alpha);
+        }
+    }
+
+    /**
+     * Adds two triangles, {@code left, top} in output pixels.
+     */
+    private void addQuad(float left, float top, float quadWidth, float quadHeight, @Nullable Region region,
+                         int color, float alpha) {
+        if (region == null || quadCount >= MAX_QUADS) return;
+        float x0 = left / width * 2 - 1;
+        float x1 = (left + quadWidth) / width * 2 - 1;
+        float y0 = 1 - top / height * 2;
+        float y1 = 1 - (top + quadHeight) / height * 2;
+        float s0 = (float) region.x / ATLAS_SIZE;
+        float s1 = (float) (region.x + region.width) / ATLAS_SIZE;
+        float t0 = (float) region.y / ATLAS_SIZE;
+        float t1 = (float) (region.y + region.height) / ATLAS_SIZE;
+        float a = (color >>> 24) / 255f * alpha;
+        float r = ((color >> 16) & 0xFF) / 255f * a;
+        float g = ((color >> 8) & 0xFF) / 255f * a;
+        float b = (color & 0xFF) / 255f * a;
+        int offset = quadCount * 6 * VERTEX_FLOATS;
+        offset = putVertex(offset, x0, y0, s0, t0, r, g, b, a);
+        offset = putVertex(offset, x1, y0, s1, t0, r, g, b, a);
+        offset = putVertex(offset, x0, y1, s0, t1, r, g, b, a);
+        offset = putVertex(offset, x1, y0, s1, t0, r, g, b, a);
+        offset = putVertex(offset, x1, y1, s1, t1, r, g, b, a);
+        putVertex(offset, x0, y1, s0, t1, r, g, b, a);
+        quadCount++;
+    }
+
+    private int putVertex(int offset, float x, float y, float s, float t, float r, float g, float b, float a) {
+        vertices[offset] = x;
+        vertices[offset + 1] = y;
+        vertices[offset + 2] = s;
+        vertices[offset + 3] = t;
+        vertices[offset + 4] = r;
+        vertices[offset + 5] = g;
+        vertices[offset + 6] = b;
+        vertices[offset + 7] = a;
+        return offset + VERTEX_FLOATS;
+    }
+
+    @Override
+    public void onRelease() {
+        if (program != 0) GLES20.glDeleteProgram(program);
+        if (atlasTexture != 0) GLES20.glDeleteTextures(1, new int[]{atlasTexture}, 0);
+        if (framebuffer != 0) GLES20.glDeleteFramebuffers(1, new int[]{framebuffer}, 0);
+        program = 0;
+        atlasTexture = 0;
+        framebuffer = 0;
+        glyphs.clear();
+        bitmaps.clear();
+    }
+
+    /**
+     * A rect of the atlas in pixels.
+     */
+    private static final class Region {
+        int x;
+        int y;
+        int width;
+        int height;
+        float advance;
+
+        Region(int x, int y, int width, int height) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+    }
+}
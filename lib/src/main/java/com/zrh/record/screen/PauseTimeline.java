@@ -0,0 +1,76 @@
+package com.zrh.record.screen;
+
+/**
+ * Pauses of a recording on the {@link System#nanoTime()} clock of the encoder timestamps. Samples
+ * stamped inside a pause are dropped and later samples are moved back by the paused time before
+ * them, so the output plays through without a gap. Lookups start at the newest pause, where the
+ * drain threads almost always are.
+ *
+ * @author zrh
+ * @date 2023/8/9
+ */
+public class PauseTimeline {
+    private long[] starts = new long[8];
+    private long[] ends = new long[8];
+    private int count;
+    private long closedPausesUs;
+    private boolean paused;
+
+    /**
+     * @return false if already paused.
+     */
+    public synchronized boolean pause(long nowUs) {
+        if (paused) return false;
+        if (count == starts.length) {
+            long[] grownStarts = new long[count * 2];
+            long[] grownEnds = new long[count * 2];
+            System.arraycopy(starts, 0, grownStarts, 0, count);
+            System.arraycopy(ends, 0, grownEnds, 0, count);
+            starts = grownStarts;
+            ends = grownEnds;
+        }
+        starts[count] = nowUs;
+        ends[count] = Long.MAX_VALUE;
+        count++;
+        paused = true;
+        return true;
+    }
+
+    /**
+     * @return false if not paused.
+     */
+    public synchronized boolean resume(long nowUs) {
+        if (!paused) return false;
+        int last = count - 1;
+        ends[last] = Math.max(nowUs, starts[last]);
+        closedPausesUs += ends[last] - starts[last];
+        paused = false;
+        return true;
+    }
+
+    public synchronized boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * @return the length of all pauses that ended already.
+     */
+    public synchronized long getPausedUs() {
+        return closedPausesUs;
+    }
+
+    /**
+     * @return how far to move a sample stamped {@code presentationTimeUs} back, or -1 if it was
+     * stamped while paused.
+     */
+    public synchronized long getOffsetUs(long presentationTimeUs) {
+        long offset = closedPausesUs;
+        for (int i = count - 1; i >= 0; i--) {
+            if (presentationTimeUs >= ends[i]) return offset;
+            if (presentationTimeUs >= starts[i]) return -1;
+            // the open pause is not part of the offset yet
+            if (ends[i] != Long.MAX_VALUE) offset -= ends[i] - starts[i];
+        }
+        return offset;
+    }
+}
@@ -0,0 +1,47 @@
+package com.zrh.record.screen;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Mixes two 16 bit PCM streams of the same layout, clipping instead of wrapping around.
+ *
+ * @author zrh
+ * @date 2023/8/5
+ */
+public class PcmMixer {
+    private final float primaryGain;
+    private final float secondaryGain;
+
+    public PcmMixer(float primaryGain, float secondaryGain) {
+        this.primaryGain = primaryGain;
+        this.secondaryGain = secondaryGain;
+    }
+
+    /**
+     * {@code out} may be one of the inputs.
+     */
+    public void mix(@NonNull short[] primary, @NonNull short[] secondary, @NonNull short[] out, int samples) {
+        for (int i = 0; i < samples; i++) {
+            int mixed = Math.round(primary[i] * primaryGain + secondary[i] * secondaryGain);
+            if (mixed > Short.MAX_VALUE) {
+                mixed = Short.MAX_VALUE;
+            } else if (mixed < Short.MIN_VALUE) {
+                mixed = Short.MIN_VALUE;
+            }
+            out[i] = (short) mixed;
+        }
+    }
+
+    /**
+     * Duplicates every mono sample into both channels, {@code stereo} may be {@code mono} if it is
+     * large enough.
+     */
+    public static void monoToStereo(@NonNull short[] mono, int frames, @NonNull short[] stereo) {
+        // backwards so that converting in place does not overwrite unread samples
+        for (int i = frames - 1; i >= 0; i--) {
+            short sample = mono[i];
+            stereo[i * 2] = sample;
+            stereo[i * 2 + 1] = sample;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.zrh.record.screen;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Preallocated single producer, single consumer ring of 16 bit PCM between the capture thread and
+ * the audio encoder. Every write carries the presentation time of its first sample, a read position
+ * is mapped back to a presentation time through the chunk it falls into. Neither side locks or
+ * allocates, a full ring drops the incoming chunk.
+ * <p>
+ * Writes and reads should cover whole frames, i.e. multiples of the channel count.
+ *
+ * @author zrh
+ * @date 2023/8/5
+ */
+public class PcmRingBuffer {
+    private final short[] data;
+    private final int capacity;
+    private final int samplesPerSecond;
+
+    private final long[] chunkStarts;
+    private final long[] chunkPts;
+    private final int chunkCapacity;
+
+    private final AtomicLong writePosition = new AtomicLong();
+    private final AtomicLong readPosition = new AtomicLong();
+    private volatile long chunksWritten;
+    // chunk holding the read position, the writer must not overwrite it
+    private volatile long readChunk;
+    private volatile long overruns;
+
+    private final Object signal = new Object();
+
+    public PcmRingBuffer(int capacitySamples, int sampleRate, int channelCount, int maxChunks) {
+        this.data = new short[capacitySamples];
+        this.capacity = capacitySamples;
+        this.samplesPerSecond = sampleRate * channelCount;
+        this.chunkCapacity = maxChunks;
+        this.chunkStarts = new long[maxChunks];
+        this.chunkPts = new long[maxChunks];
+    }
+
+    /**
+     * Producer side.
+     *
+     * @return false if the chunk was dropped because the reader fell behind.
+     */
+    public boolean write(@NonNull short[] src, int offset, int count, long presentationTimeUs) {
+        long write = writePosition.get();
+        long chunks = chunksWritten;
+        if (capacity - (write - readPosition.get()) < count || chunks - readChunk >= chunkCapacity) {
+            overruns++;
+            return false;
+        }
+        int start = (int) (write % capacity);
+        int first = Math.min(count, capacity - start);
+        System.arraycopy(src, offset, data, start, first);
+        if (first < count) {
+            System.arraycopy(src, offset + first, data, 0, count - first);
+        }
+        int slot = (int) (chunks % chunkCapacity);
+        chunkStarts[slot] = write;
+        chunkPts[slot] = presentationTimeUs;
+        chunksWritten = chunks + 1;
+        writePosition.set(write + count);
+        synchronized (signal) {
+            signal.notify();
+        }
+        return true;
+    }
+
+    /**
+     * Consumer side, waits up to {@code timeoutMs} for data.
+     *
+     * @return the number of samples available.
+     */
+    public int await(long timeoutMs) throws InterruptedException {
+        int available = available();
+        if (available > 0 || timeoutMs <= 0) return available;
+        synchronized (signal) {
+            available = available();
+            if (available == 0) signal.wait(timeoutMs);
+        }
+        return available();
+    }
+
+    public int available() {
+        return (int) (writePosition.get() - readPosition.get());
+    }
+
+    /**
+     * Consumer side, the presentation time of the next sample {@link #read(short[], int, int)} returns.
+     *
+     * @return -1 if nothing was written yet.
+     */
+    public long nextPresentationTimeUs() {
+        if (chunksWritten == 0) return -1;
+        long read = readPosition.get();
+        int slot = (int) (advanceChunk(read) % chunkCapacity);
+        return chunkPts[slot] + (read - chunkStarts[slot]) * 1_000_000L / samplesPerSecond;
+    }
+
+    private long advanceChunk(long read) {
+        long chunks = chunksWritten;
+        long chunk = readChunk;
+        while (chunk + 1 < chunks && chunkStarts[(int) ((chunk + 1) % chunkCapacity)] <= read) {
+            chunk++;
+        }
+        readChunk = chunk;
+        return chunk;
+    }
+
+    /**
+     * Consumer side.
+     *
+     * @return the number of samples copied into {@code dst}.
+     */
+    public int read(@NonNull short[] dst, int offset, int maxCount) {
+        long read = readPosition.get();
+        int count = (int) Math.min(maxCount, writePosition.get() - read);
+        if (count <= 0) return 0;
+        int start = (int) (read % capacity);
+        int first = Math.min(count, capacity - start);
+        System.arraycopy(data, start, dst, offset, first);
+        if (first < count) {
+            System.arraycopy(data, 0, dst, offset + first, count - first);
+        }
+        readPosition.set(read + count);
+        advanceChunk(read + count);
+        return count;
+    }
+
+    /**
+     * Chunks dropped because the ring was full.
+     */
+    public long getOverruns() {
+        return overruns;
+    }
+}
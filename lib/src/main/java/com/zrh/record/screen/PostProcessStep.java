@@ -0,0 +1,22 @@
+package com.zrh.record.screen;
+
+/**
+ * Steps run on a completed recording, combine them as flags.
+ *
+ * @author zrh
+ * @date 2023/8/3
+ */
+public interface PostProcessStep {
+    /**
+     * Move {@code moov} in front of {@code mdat} so the file can be played while downloading.
+     */
+    int FASTSTART = 1;
+    /**
+     * Save the first frame next to the recording, see {@link PostProcessor#thumbnailOf(java.io.File)}.
+     */
+    int THUMBNAIL = 1 << 1;
+    /**
+     * Cut the start of the recording, see {@link RecordConfig#setTrimStartMs(int)}.
+     */
+    int TRIM_START = 1 << 2;
+}
@@ -0,0 +1,145 @@
+package com.zrh.record.screen;
+
+import android.graphics.Bitmap;
+import android.media.MediaMetadataRetriever;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the {@link PostProcessStep}s on completed recordings, one job at a time on a background
+ * priority thread with a bounded queue. While a recording is running, file copies are paced by an
+ * {@link IoThrottle} so they do not compete with it.
+ *
+ * @author zrh
+ * @date 2023/8/3
+ */
+public class PostProcessor {
+    private static final int MAX_PENDING_JOBS = 8;
+    private static final long KEEP_ALIVE_SEC = 30;
+    private static final long THROTTLED_BYTES_PER_SEC = 8 * 1024 * 1024;
+    private static final int THUMBNAIL_QUALITY = 85;
+
+    private static PostProcessor instance;
+
+    private final ThreadPoolExecutor executor;
+    private final IoThrottle throttle = new IoThrottle(THROTTLED_BYTES_PER_SEC);
+    private final AtomicInteger activeRecordings = new AtomicInteger();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    @NonNull
+    public static synchronized PostProcessor getDefault() {
+        if (instance == null) {
+            instance = new PostProcessor();
+        }
+        return instance;
+    }
+
+    private PostProcessor() {
+        executor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SEC, TimeUnit.SECONDS,
+                                          new LinkedBlockingQueue<>(MAX_PENDING_JOBS), runnable -> {
+            Thread thread = new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, "ScreenRecord-PostProcess");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @NonNull
+    public static File thumbnailOf(@NonNull File video) {
+        String name = video.getName();
+        int dot = name.lastIndexOf('.');
+        return new File(video.getParentFile(), (dot < 0 ? name : name.substring(0, dot)) + ".jpg");
+    }
+
+    void onRecordingStarted() {
+        throttle.setLimited(activeRecordings.incrementAndGet() > 0);
+    }
+
+    void onRecordingStopped() {
+        throttle.setLimited(activeRecordings.decrementAndGet() > 0);
+    }
+
+    /**
+     * Runs {@code steps} on {@code file}, {@code callback} is called on the main thread. A failed
+     * step leaves the file as it was before that step, the recording itself is always delivered.
+     */
+    public void process(@NonNull File file, int steps, long trimStartUs, @NonNull Callback callback) {
+        try {
+            executor.execute(() -> {
+                Exception error = null;
+                try {
+                    runSteps(file, steps, trimStartUs);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    error = e;
+                }
+                Exception result = error;
+                mainHandler.post(() -> callback.onProcessed(file, result));
+            });
+        } catch (RejectedExecutionException e) {
+            // too many recordings waiting, deliver this one as it is
+            mainHandler.post(() -> callback.onProcessed(file, e));
+        }
+    }
+
+    private void runSteps(File file, int steps, long trimStartUs) throws IOException, InterruptedException {
+        File temp = new File(file.getParentFile(), file.getName() + ".post");
+        try {
+            if ((steps & PostProcessStep.TRIM_START) != 0 && trimStartUs > 0
+                && new Mp4Trimmer().trimStart(file, temp, trimStartUs) && !temp.renameTo(file)) {
+                throw new IOException("rename " + temp + " failed");
+            }
+            if ((steps & PostProcessStep.FASTSTART) != 0) {
+                new FastStart(throttle).process(file, temp);
+            }
+        } finally {
+            temp.delete();
+        }
+        if ((steps & PostProcessStep.THUMBNAIL) != 0) {
+            saveThumbnail(file, thumbnailOf(file));
+        }
+    }
+
+    private static void saveThumbnail(File video, File thumbnail) throws IOException {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(video.getAbsolutePath());
+            Bitmap bitmap = retriever.getFrameAtTime(0, MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+            if (bitmap == null) throw new IOException("no frame in " + video);
+            try (OutputStream out = new FileOutputStream(thumbnail)) {
+                bitmap.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_QUALITY, out);
+            } finally {
+                bitmap.recycle();
+            }
+        } finally {
+            try {
+                retriever.release();
+            } catch (Exception ignore) {
+            }
+        }
+    }
+
+    public interface Callback {
+        /**
+         * @param error the first failed step, null if all steps succeeded.
+         */
+        void onProcessed(@NonNull File file, @Nullable Exception error);
+    }
+}
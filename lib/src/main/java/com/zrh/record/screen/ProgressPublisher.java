@@ -0,0 +1,90 @@
+package com.zrh.record.screen;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Publishes the recording duration on the handler thread. The duration is read from
+ * {@link SystemClock#elapsedRealtimeNanos()} on every tick, so late ticks never add up to drift,
+ * and ticks are aligned to the interval so a busy looper coalesces missed ticks into one.
+ * Paused time is left out of the duration. A tick reuses the same {@link Runnable} and allocates nothing.
+ *
+ * @author zrh
+ * @date 2023/7/30
+ */
+public class ProgressPublisher {
+    private final Handler handler;
+    private final long intervalMs;
+    private final Listener listener;
+    private final Runnable tick = this::tick;
+
+    // read by getElapsedMs() on any thread
+    private volatile long startNanos;
+    private volatile long pausedAtNanos;
+    private long lastPublishedMs = -1;
+    private boolean running;
+    private volatile boolean paused;
+
+    public ProgressPublisher(@NonNull Handler handler, long intervalMs, @NonNull Listener listener) {
+        this.handler = handler;
+        this.intervalMs = Math.max(1, intervalMs);
+        this.listener = listener;
+    }
+
+    public void start() {
+        if (running) return;
+        running = true;
+        paused = false;
+        startNanos = SystemClock.elapsedRealtimeNanos();
+        lastPublishedMs = -1;
+        handler.postDelayed(tick, intervalMs);
+    }
+
+    public void stop() {
+        running = false;
+        paused = false;
+        handler.removeCallbacks(tick);
+    }
+
+    /**
+     * Freezes the duration until {@link #resume()}.
+     */
+    public void pause() {
+        if (!running || paused) return;
+        paused = true;
+        pausedAtNanos = SystemClock.elapsedRealtimeNanos();
+        handler.removeCallbacks(tick);
+    }
+
+    public void resume() {
+        if (!running || !paused) return;
+        paused = false;
+        startNanos += SystemClock.elapsedRealtimeNanos() - pausedAtNanos;
+        handler.postDelayed(tick, intervalMs - getElapsedMs() % intervalMs);
+    }
+
+    public long getElapsedMs() {
+        long nowNanos = paused ? pausedAtNanos : SystemClock.elapsedRealtimeNanos();
+        return (nowNanos - startNanos) / 1_000_000L;
+    }
+
+    private void tick() {
+        if (!running) return;
+        long elapsedMs = getElapsedMs();
+        // publish whole intervals like a steady ticker would, but read from the clock
+        long durationMs = elapsedMs - elapsedMs % intervalMs;
+        if (durationMs != lastPublishedMs) {
+            lastPublishedMs = durationMs;
+            listener.onProgress(durationMs);
+        }
+        if (running) {
+            handler.postDelayed(tick, intervalMs - getElapsedMs() % intervalMs);
+        }
+    }
+
+    public interface Listener {
+        void onProgress(long durationMs);
+    }
+}
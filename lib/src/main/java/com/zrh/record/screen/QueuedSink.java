@@ -0,0 +1,104 @@
+package com.zrh.record.screen;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Runs one {@link SampleSink} on its own thread behind a {@link SinkQueue}. A sink that throws is
+ * stopped and its queue closed, so it never holds up the recording afterwards.
+ *
+ * @author zrh
+ * @date 2023/8/8
+ */
+public class QueuedSink {
+    private static final long POLL_TIMEOUT_MS = 100;
+    private static final long STOP_TIMEOUT_MS = 2000;
+    private static final int MAX_TRACKS = 4;
+
+    private final SampleSink sink;
+    private final SinkQueue queue;
+    private final TrackFormat[] formats = new TrackFormat[MAX_TRACKS];
+    private volatile int trackCount;
+    private Thread thread;
+
+    public QueuedSink(@NonNull SampleSink sink, int policy, int capacityBytes, int maxSamples) {
+        this.sink = sink;
+        this.queue = new SinkQueue(capacityBytes, maxSamples, policy);
+    }
+
+    @NonNull
+    public SinkQueue getQueue() {
+        return queue;
+    }
+
+    /**
+     * Producer side, tracks must be added in the order of their indices.
+     */
+    public void addTrack(int track, @NonNull TrackFormat format) {
+        if (track != trackCount || track >= MAX_TRACKS) return;
+        formats[track] = format;
+        if (format.isVideo()) queue.setVideoTrack(track);
+        trackCount = track + 1;
+    }
+
+    public void start() {
+        thread = new Thread(this::run, "ScreenRecorder-Sink");
+        thread.start();
+    }
+
+    /**
+     * Producer side.
+     */
+    public void write(int track, @NonNull ByteBuffer buffer, @NonNull SampleInfo info) {
+        try {
+            queue.offer(track, buffer, info);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        SampleInfo info = new SampleInfo();
+        int announced = 0;
+        Exception error = null;
+        try {
+            while (true) {
+                int track = queue.poll(buffer, info, POLL_TIMEOUT_MS);
+                if (track == SinkQueue.TOO_SMALL) {
+                    int size = queue.peekSize(0);
+                    if (size > buffer.capacity()) buffer = ByteBuffer.allocateDirect(Integer.highestOneBit(size) * 2);
+                    continue;
+                }
+                for (int count = trackCount; announced < count; announced++) {
+                    sink.onTrackAdded(announced, formats[announced]);
+                }
+                if (track >= 0) {
+                    sink.onSample(track, buffer, info);
+                } else if (queue.isClosed() && queue.size() == 0) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            error = e;
+        } finally {
+            queue.close();
+        }
+        sink.onStopped(error);
+    }
+
+    /**
+     * Lets the sink finish the queued samples, a sink still busy after a while is abandoned.
+     */
+    public void stop() {
+        queue.close();
+        if (thread == null) return;
+        try {
+            thread.join(STOP_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+}
@@ -1,5 +1,7 @@
 package com.zrh.record.screen;
 
+import android.content.Context;
+
 import java.io.File;
 import java.io.Serializable;
 
@@ -15,6 +17,33 @@ public class RecordConfig implements Serializable {
     private Boolean recordAudio;
     private Integer maxDurationSec;
     private File outputDir;
+    private Integer encoderType;
+    private Integer keyFrameIntervalSec;
+    private Integer segmentDurationSec;
+    private Long segmentMaxBytes;
+    private Integer containerFormat;
+    private Integer fragmentDurationMs;
+    private Boolean preallocateOutput;
+    private Long storageMarginBytes;
+    private Boolean resolveCapabilities;
+    private int[] videoCodecs;
+    private Integer syncPolicy;
+    private Integer replayBufferBytes;
+    private Integer replayDurationSec;
+    private Boolean recoverTempFiles;
+    private Boolean adaptiveBitrate;
+    private Integer minBitrate;
+    private Integer progressIntervalMs;
+    private Integer metricsIntervalMs;
+    private Integer postProcessSteps;
+    private Integer trimStartMs;
+    private Integer audioSource;
+    private Integer idleFrameRate;
+    private Boolean frameCapture;
+    private Integer captureFormat;
+    private Integer captureQuality;
+    private int[] cropRect;
+    private Integer outputRotation;
 
     private int notificationIcon;
     private String notificationContent;
@@ -43,6 +72,21 @@ public class RecordConfig implements Serializable {
         this.maxHeight = maxHeight;
     }
 
+    /**
+     * Records only this rect of the screen, in screen pixels. The region is composited on the GPU
+     * at up to its full resolution, within the max width and height.
+     */
+    public void setCropRect(int left, int top, int right, int bottom) {
+        this.cropRect = new int[]{left, top, right, bottom};
+    }
+
+    /**
+     * Rotates the recording clockwise by 0, 90, 180 or 270 degrees, composited like {@link #setCropRect(int, int, int, int)}.
+     */
+    public void setOutputRotation(int outputRotation) {
+        this.outputRotation = outputRotation;
+    }
+
     public void setBitrate(int bitrate) {
         this.bitrate = bitrate;
     }
@@ -51,6 +95,15 @@ public class RecordConfig implements Serializable {
         this.fps = fps;
     }
 
+    /**
+     * Encode at this frame rate while the screen is unchanged, 0 keeps the full fps. With
+     * {@link EncoderType#MEDIA_RECORDER} the idle screen is not encoded at all. Not available
+     * since Android 14, where a projection allows only one virtual display.
+     */
+    public void setIdleFrameRate(int idleFrameRate) {
+        this.idleFrameRate = idleFrameRate;
+    }
+
     public void setRecordAudio(boolean recordAudio) {
         this.recordAudio = recordAudio;
     }
@@ -63,6 +116,184 @@ public class RecordConfig implements Serializable {
         this.outputDir = outputDir;
     }
 
+    /**
+     * {@link EncoderType#MEDIA_RECORDER} by default, {@link EncoderType#MEDIA_CODEC} records the
+     * microphone with recordAudio, or any {@link #setAudioSource(int)}.
+     */
+    public void setEncoderType(int encoderType) {
+        this.encoderType = encoderType;
+    }
+
+    /**
+     * One of {@link AudioSource}, only with {@link EncoderType#MEDIA_CODEC}, needs the RECORD_AUDIO permission.
+     */
+    public void setAudioSource(int audioSource) {
+        this.audioSource = audioSource;
+    }
+
+    public void setKeyFrameIntervalSec(int keyFrameIntervalSec) {
+        this.keyFrameIntervalSec = keyFrameIntervalSec;
+    }
+
+    /**
+     * Split the recording into segments of at most this duration, only with {@link EncoderType#MEDIA_CODEC}.
+     */
+    public void setSegmentDurationSec(int segmentDurationSec) {
+        this.segmentDurationSec = segmentDurationSec;
+    }
+
+    /**
+     * Split the recording into segments of about this size, only with {@link EncoderType#MEDIA_CODEC}.
+     */
+    public void setSegmentMaxBytes(long segmentMaxBytes) {
+        this.segmentMaxBytes = segmentMaxBytes;
+    }
+
+    /**
+     * {@link ContainerFormat#FRAGMENTED_MP4} stays playable if the process dies while recording,
+     * only with {@link EncoderType#MEDIA_CODEC}.
+     */
+    public void setContainerFormat(int containerFormat) {
+        this.containerFormat = containerFormat;
+    }
+
+    public void setFragmentDurationMs(int fragmentDurationMs) {
+        this.fragmentDurationMs = fragmentDurationMs;
+    }
+
+    /**
+     * Reserves bitrate x maxDurationSec on storage before a {@link ContainerFormat#FRAGMENTED_MP4}
+     * recording starts, the unused part is given back when it stops.
+     */
+    public void setPreallocateOutput(boolean preallocateOutput) {
+        this.preallocateOutput = preallocateOutput;
+    }
+
+    /**
+     * See {@link SyncPolicy}, only for {@link ContainerFormat#FRAGMENTED_MP4}.
+     */
+    public void setSyncPolicy(int syncPolicy) {
+        this.syncPolicy = syncPolicy;
+    }
+
+    /**
+     * Free space left on the output volume. Recording does not start when less than a few seconds
+     * fit above it and stops once the measured write rate reaches it soon, both reported as
+     * {@link ErrorCode#STORAGE_FULL}. 0, the default, turns the check off.
+     */
+    public void setStorageMarginBytes(long storageMarginBytes) {
+        this.storageMarginBytes = storageMarginBytes;
+    }
+
+    /**
+     * Moves size, fps and bitrate to the nearest values the video encoder supports, true by default.
+     * Each encoder tried for the {@link #setVideoCodecs(int...) codecs} is resolved for on its own,
+     * the picked one is probed once per OS build.
+     */
+    public void setResolveCapabilities(boolean resolveCapabilities) {
+        this.resolveCapabilities = resolveCapabilities;
+    }
+
+    /**
+     * {@link VideoCodec}s in order of preference, e.g. HEVC, AV1, H264. The first one with a hardware
+     * encoder that configures is used, H.264 is the last resort. Only H.264 by default.
+     * {@link ContainerFormat#FRAGMENTED_MP4} skips every codec but H.264. A recording of another codec
+     * that was killed can not be repaired by {@link #setRecoverTempFiles(boolean)}.
+     */
+    public void setVideoCodecs(int... videoCodecs) {
+        this.videoCodecs = videoCodecs;
+    }
+
+    /**
+     * Enables the replay mode of {@link EncoderType#MEDIA_CODEC}: only the last
+     * {@link #setReplayDurationSec(int)} seconds are kept in a memory buffer of this size, saved by
+     * {@link ScreenRecordManager#saveReplay()} and when recording stops. maxDurationSec is ignored.
+     */
+    public void setReplayBufferBytes(int replayBufferBytes) {
+        this.replayBufferBytes = replayBufferBytes;
+    }
+
+    public void setReplayDurationSec(int replayDurationSec) {
+        this.replayDurationSec = replayDurationSec;
+    }
+
+    /**
+     * Lets {@link ScreenRecordManager#captureFrame()} save stills, false by default. Frames pass the
+     * GL compositor then, a still is drawn from the frame the encoder got, which keeps every frame.
+     */
+    public void setFrameCapture(boolean frameCapture) {
+        this.frameCapture = frameCapture;
+    }
+
+    /**
+     * One of {@link CaptureFormat} for {@link ScreenRecordManager#captureFrame()}, JPEG by default.
+     */
+    public void setCaptureFormat(int captureFormat) {
+        this.captureFormat = captureFormat;
+    }
+
+    /**
+     * 0 - 100, 90 by default, ignored by {@link CaptureFormat#PNG}.
+     */
+    public void setCaptureQuality(int captureQuality) {
+        this.captureQuality = captureQuality;
+    }
+
+    /**
+     * Salvage the .temp files a killed recording left in the output dir when
+     * {@link ScreenRecordManager#init(Context, RecordConfig)} is called, see {@link ScreenRecordCallback#onRecovered(File)}.
+     * Without {@code moov} only a single H.264 track can be repaired, HEVC, VP9, AV1 and recordings
+     * with audio are left in place as .temp files.
+     */
+    public void setRecoverTempFiles(boolean recoverTempFiles) {
+        this.recoverTempFiles = recoverTempFiles;
+    }
+
+    /**
+     * Lower the bitrate while the encoder or the storage can not keep up and on static screens, raise
+     * it back up to {@link #setBitrate(int)} afterwards, only with {@link EncoderType#MEDIA_CODEC}.
+     */
+    public void setAdaptiveBitrate(boolean adaptiveBitrate) {
+        this.adaptiveBitrate = adaptiveBitrate;
+    }
+
+    /**
+     * Lower bound of the adaptive bitrate, a quarter of the bitrate by default.
+     */
+    public void setMinBitrate(int minBitrate) {
+        this.minBitrate = minBitrate;
+    }
+
+    /**
+     * How often {@link ScreenRecordCallback#onDurationChanged(long)} is called, 100ms by default.
+     */
+    public void setProgressIntervalMs(int progressIntervalMs) {
+        this.progressIntervalMs = progressIntervalMs;
+    }
+
+    /**
+     * How often {@link ScreenRecordCallback#onMetrics(MetricsSnapshot)} is called, 0 by default which
+     * turns the callback off. Frame level stats need {@link EncoderType#MEDIA_CODEC}.
+     */
+    public void setMetricsIntervalMs(int metricsIntervalMs) {
+        this.metricsIntervalMs = metricsIntervalMs;
+    }
+
+    /**
+     * {@link PostProcessStep} flags run on the recording before
+     * {@link ScreenRecordCallback#onCompleted(File)} is called, none by default.
+     */
+    public void setPostProcessSteps(int postProcessSteps) {
+        this.postProcessSteps = postProcessSteps;
+    }
+
+    /**
+     * Length cut by {@link PostProcessStep#TRIM_START}, 1000ms by default.
+     */
+    public void setTrimStartMs(int trimStartMs) {
+        this.trimStartMs = trimStartMs;
+    }
+
     public Integer getMaxWidth() {
         return maxWidth;
     }
@@ -90,4 +321,112 @@ public class RecordConfig implements Serializable {
     public File getOutputDir() {
         return outputDir;
     }
+
+    public Integer getEncoderType() {
+        return encoderType;
+    }
+
+    public Integer getKeyFrameIntervalSec() {
+        return keyFrameIntervalSec;
+    }
+
+    public Integer getSegmentDurationSec() {
+        return segmentDurationSec;
+    }
+
+    public Long getSegmentMaxBytes() {
+        return segmentMaxBytes;
+    }
+
+    public Integer getReplayBufferBytes() {
+        return replayBufferBytes;
+    }
+
+    public Integer getReplayDurationSec() {
+        return replayDurationSec;
+    }
+
+    public Integer getContainerFormat() {
+        return containerFormat;
+    }
+
+    public Integer getFragmentDurationMs() {
+        return fragmentDurationMs;
+    }
+
+    public Boolean getRecoverTempFiles() {
+        return recoverTempFiles;
+    }
+
+    public Boolean getAdaptiveBitrate() {
+        return adaptiveBitrate;
+    }
+
+    public Integer getMinBitrate() {
+        return minBitrate;
+    }
+
+    public Integer getProgressIntervalMs() {
+        return progressIntervalMs;
+    }
+
+    public Integer getMetricsIntervalMs() {
+        return metricsIntervalMs;
+    }
+
+    public Integer getPostProcessSteps() {
+        return postProcessSteps;
+    }
+
+    public Integer getTrimStartMs() {
+        return trimStartMs;
+    }
+
+    public Integer getAudioSource() {
+        return audioSource;
+    }
+
+    public Integer getIdleFrameRate() {
+        return idleFrameRate;
+    }
+
+    public Boolean getFrameCapture() {
+        return frameCapture;
+    }
+
+    public Integer getCaptureFormat() {
+        return captureFormat;
+    }
+
+    public Integer getCaptureQuality() {
+        return captureQuality;
+    }
+
+    public Boolean getPreallocateOutput() {
+        return preallocateOutput;
+    }
+
+    public Integer getSyncPolicy() {
+        return syncPolicy;
+    }
+
+    public Long getStorageMarginBytes() {
+        return storageMarginBytes;
+    }
+
+    public Boolean getResolveCapabilities() {
+        return resolveCapabilities;
+    }
+
+    public int[] getVideoCodecs() {
+        return videoCodecs;
+    }
+
+    public int[] getCropRect() {
+        return cropRect;
+    }
+
+    public Integer getOutputRotation() {
+        return outputRotation;
+    }
 }
@@ -0,0 +1,121 @@
+package com.zrh.record.screen;
+
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Encoder backend used by {@link ScreenRecorder}. Listener methods may be called on any thread.
+ *
+ * @author zrh
+ * @date 2023/7/20
+ */
+public interface RecordEncoder {
+    void setListener(@Nullable Listener listener);
+
+    void prepare(@NonNull File output, int width, int height) throws IOException;
+
+    @NonNull
+    Surface getInputSurface();
+
+    void start();
+
+    /**
+     * Finishes the output file, completion is reported through {@link Listener#onStopped(Exception)}.
+     */
+    void stop();
+
+    void release();
+
+    /**
+     * Saves the buffered replay window into {@code output} without stopping, completion is reported
+     * through {@link Listener#onReplaySaved(File, Exception)}.
+     *
+     * @return false if this encoder keeps no replay buffer.
+     */
+    boolean saveReplay(@NonNull File output);
+
+    /**
+     * Stops writing until {@link #resume()}, the paused time is cut out of the output.
+     *
+     * @return false if this encoder can not pause.
+     */
+    default boolean pause() {
+        return false;
+    }
+
+    default void resume() {
+    }
+
+    /**
+     * @return frame level stats of the running recording, null if this encoder has none.
+     */
+    @Nullable
+    default RecordMetrics getMetrics() {
+        return null;
+    }
+
+    /**
+     * @return mime of the video track once prepared, null if unknown.
+     */
+    @Nullable
+    default String getVideoMime() {
+        return null;
+    }
+
+    /**
+     * @return name of the video encoder once prepared, null if unknown.
+     */
+    @Nullable
+    default String getCodecName() {
+        return null;
+    }
+
+    /**
+     * Lets {@code resolver} move size, fps and bitrate to what each encoder tried in
+     * {@link #prepare(File, int, int)} supports, before it is configured.
+     */
+    default void setSettingsResolver(@Nullable SettingsResolver resolver) {
+    }
+
+    /**
+     * @return the settings the video encoder was configured with once prepared, null if unknown.
+     */
+    @Nullable
+    default EncoderSettings getSettings() {
+        return null;
+    }
+
+    interface SettingsResolver {
+        /**
+         * @param codecName the encoder about to be configured, null if the platform picks it for
+         *                  {@code mime}.
+         */
+        @NonNull
+        EncoderSettings resolve(@NonNull String mime, @Nullable String codecName, @NonNull EncoderSettings requested);
+    }
+
+    interface Listener {
+        void onMaxDurationReached();
+
+        void onStopped(@Nullable Exception error);
+
+        /**
+         * A segment was finalized while recording continues into {@code next}.
+         */
+        void onSegmentCompleted(@NonNull File segment, @NonNull File next);
+
+        /**
+         * A segment could not be finalized, it is left unfinished while recording continues into {@code next}.
+         */
+        void onSegmentFailed(@NonNull File segment, @NonNull File next, @NonNull Exception error);
+
+        void onReplaySaved(@NonNull File file, @Nullable Exception error);
+
+        void onError(@NonNull Exception error);
+    }
+}
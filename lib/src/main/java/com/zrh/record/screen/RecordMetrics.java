@@ -0,0 +1,129 @@
+package com.zrh.record.screen;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Frame level counters of one recording. The drain thread records with plain atomic updates and no
+ * allocation, any other thread may take snapshots.
+ * <p>
+ * A gap between two frames of more than 1.5 frame intervals counts its missing frames as dropped.
+ * Gaps of {@link #IDLE_GAP_US} or more are not counted, a mirrored display sends no frames while the
+ * screen is static. A frame that does not move the presentation time forward counts as duplicated.
+ *
+ * @author zrh
+ * @date 2023/8/1
+ */
+public class RecordMetrics {
+    static final long IDLE_GAP_US = 1_000_000;
+
+    private final int fps;
+    private final long frameIntervalUs;
+
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong duplicated = new AtomicLong();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private volatile int bitrate;
+    private volatile long idleGapUs = IDLE_GAP_US;
+    private volatile long startNanos = -1;
+    private volatile long firstFrameNanos = -1;
+
+    // drain thread only
+    private long lastPresentationTimeUs = -1;
+
+    // snapshot thread only
+    private final long[] latencyWindow = new long[LatencyHistogram.BUCKET_COUNT];
+    private long lastSnapshotNanos = -1;
+    private long lastSnapshotFrames;
+    private long lastSnapshotBytes;
+
+    public RecordMetrics(int fps, int bitrate) {
+        this.fps = fps;
+        this.frameIntervalUs = 1_000_000L / Math.max(1, fps);
+        this.bitrate = bitrate;
+    }
+
+    public void onFrameEncoded(int size, long presentationTimeUs, long latencyUs) {
+        if (firstFrameNanos < 0) firstFrameNanos = System.nanoTime();
+        frames.incrementAndGet();
+        bytes.addAndGet(size);
+        latency.record(latencyUs);
+
+        if (lastPresentationTimeUs >= 0) {
+            long gap = presentationTimeUs - lastPresentationTimeUs;
+            if (gap <= 0) {
+                duplicated.incrementAndGet();
+                return;
+            }
+            if (gap < idleGapUs && gap * 2 > frameIntervalUs * 3) {
+                dropped.addAndGet((gap + frameIntervalUs / 2) / frameIntervalUs - 1);
+            }
+        }
+        lastPresentationTimeUs = presentationTimeUs;
+    }
+
+    /**
+     * Gaps of this length or more are idle rather than dropped frames, e.g. when the encoder
+     * repeats the previous frame at a lower rate.
+     */
+    public void setIdleGapUs(long idleGapUs) {
+        this.idleGapUs = Math.min(IDLE_GAP_US, idleGapUs);
+    }
+
+    /**
+     * When the recording was requested on the {@link System#nanoTime()} clock, time to first frame
+     * is measured from here.
+     */
+    public void setStartNanos(long startNanos) {
+        this.startNanos = startNanos;
+    }
+
+    public void setBitrate(int bitrate) {
+        this.bitrate = bitrate;
+    }
+
+    public long getBytesWritten() {
+        return bytes.get();
+    }
+
+    /**
+     * Fills {@code out} and starts the next window. elapsedMs, fileSize, bytesPerMinute and the codec
+     * are left to the caller.
+     */
+    public synchronized void snapshot(long nowNanos, @NonNull MetricsSnapshot out) {
+        long totalFrames = frames.get();
+        long totalBytes = bytes.get();
+        out.targetFps = fps;
+        out.framesEncoded = totalFrames;
+        out.bytesWritten = totalBytes;
+        out.droppedFrames = dropped.get();
+        out.duplicatedFrames = duplicated.get();
+        out.bitrate = bitrate;
+        long first = firstFrameNanos;
+        out.timeToFirstFrameMs = first >= 0 && startNanos >= 0 ? (first - startNanos) / 1_000_000L : -1;
+
+        long windowNanos = lastSnapshotNanos < 0 ? 0 : nowNanos - lastSnapshotNanos;
+        if (windowNanos > 0) {
+            out.fps = (totalFrames - lastSnapshotFrames) * 1e9f / windowNanos;
+            out.bytesPerSec = (totalBytes - lastSnapshotBytes) * 1_000_000_000L / windowNanos;
+        } else {
+            out.fps = 0;
+            out.bytesPerSec = 0;
+        }
+
+        latency.drainTo(latencyWindow);
+        out.latencyP50Us = LatencyHistogram.valueAtPercentile(latencyWindow, 50);
+        out.latencyP90Us = LatencyHistogram.valueAtPercentile(latencyWindow, 90);
+        out.latencyP99Us = LatencyHistogram.valueAtPercentile(latencyWindow, 99);
+        out.latencyMaxUs = LatencyHistogram.valueAtPercentile(latencyWindow, 100);
+        Arrays.fill(latencyWindow, 0);
+
+        lastSnapshotNanos = nowNanos;
+        lastSnapshotFrames = totalFrames;
+        lastSnapshotBytes = totalBytes;
+    }
+}
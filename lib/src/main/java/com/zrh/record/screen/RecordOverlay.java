@@ -0,0 +1,191 @@
+package com.zrh.record.screen;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Text, bitmaps and touch markers drawn onto the recording before encoding, see
+ * {@link ScreenRecorder.Builder#setOverlay(RecordOverlay)}. Items are placed in the recording by
+ * {@link OverlayGravity}, sizes are in output pixels. Touches are in screen pixels, as
+ * {@code MotionEvent.getRawX()} reports them, and follow the crop and rotation of the recording.
+ * <p>
+ * Every method may be called from any thread. The render thread reads the items without locking,
+ * glyphs are drawn once and kept in a texture atlas, so changing text only draws new chars.
+ *
+ * @author zrh
+ * @date 2023/8/15
+ */
+public final class RecordOverlay {
+    public static final long TOUCH_DURATION_MS = 600;
+    // the latest touches kept, enough for a short trail
+    static final int MAX_TOUCHES = 16;
+
+    static final int TYPE_TEXT = 0;
+    static final int TYPE_TIMESTAMP = 1;
+    static final int TYPE_BITMAP = 2;
+
+    // replaced on every change, the render thread only reads it
+    private volatile Item[] items = new Item[0];
+    private volatile float textSize;
+    private volatile int textColor = 0xFFFFFFFF;
+    private volatile int backgroundColor = 0x80000000;
+    private int nextId = 1;
+
+    // touch ring, x y and time of every touch
+    private final float[] touchPositions = new float[MAX_TOUCHES * 2];
+    private final long[] touchTimes = new long[MAX_TOUCHES];
+    private int touchCount;
+    private int touchHead;
+
+    /**
+     * @param gravity one of {@link OverlayGravity}.
+     * @return the id for {@link #setText(int, String)} and {@link #remove(int)}.
+     */
+    public int addText(@NonNull String text, int gravity) {
+        return add(TYPE_TEXT, text, null, gravity);
+    }
+
+    /**
+     * The wall clock, formatted by {@code pattern} of {@link java.text.SimpleDateFormat}, updated
+     * on the render thread.
+     */
+    public int addTimestamp(@NonNull String pattern, int gravity) {
+        return add(TYPE_TIMESTAMP, pattern, null, gravity);
+    }
+
+    /**
+     * Drawn at its own size, it must not change or be recycled while added and should be small,
+     * larger than a quarter of the atlas it is left out.
+     */
+    public int addBitmap(@NonNull Bitmap bitmap, int gravity) {
+        return add(TYPE_BITMAP, null, bitmap, gravity);
+    }
+
+    private synchronized int add(int type, String text, Bitmap bitmap, int gravity) {
+        int id = nextId++;
+        Item[] current = items;
+        Item[] next = new Item[current.length + 1];
+        System.arraycopy(current, 0, next, 0, current.length);
+        next[current.length] = new Item(id, type, text, bitmap, gravity);
+        items = next;
+        return id;
+    }
+
+    /**
+     * Replaces the text of a text item, the pattern of a timestamp.
+     */
+    public synchronized void setText(int id, @NonNull String text) {
+        Item[] current = items;
+        for (int i = 0; i < current.length; i++) {
+            Item item = current[i];
+            if (item.id != id || item.type == TYPE_BITMAP) continue;
+            Item[] next = current.clone();
+            next[i] = new Item(id, item.type, text, null, item.gravity);
+            items = next;
+            return;
+        }
+    }
+
+    public synchronized void remove(int id) {
+        Item[] current = items;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].id != id) continue;
+            Item[] next = new Item[current.length - 1];
+            System.arraycopy(current, 0, next, 0, i);
+            System.arraycopy(current, i + 1, next, i, next.length - i);
+            items = next;
+            return;
+        }
+    }
+
+    /**
+     * @param size text height in output pixels, 0 scales it with the output.
+     */
+    public void setTextSize(float size) {
+        this.textSize = size;
+    }
+
+    /**
+     * @param color ARGB, drawn on {@code background} behind every text.
+     */
+    public void setTextColor(int color, int background) {
+        this.textColor = color;
+        this.backgroundColor = background;
+    }
+
+    /**
+     * Shows a marker at {@code x, y} for {@link #TOUCH_DURATION_MS}, call it for the down and
+     * move events to show a trail.
+     */
+    public void addTouch(float x, float y) {
+        addTouch(x, y, SystemClock.uptimeMillis());
+    }
+
+    synchronized void addTouch(float x, float y, long timeMs) {
+        touchPositions[touchHead * 2] = x;
+        touchPositions[touchHead * 2 + 1] = y;
+        touchTimes[touchHead] = timeMs;
+        touchHead = (touchHead + 1) % MAX_TOUCHES;
+        touchCount = Math.min(touchCount + 1, MAX_TOUCHES);
+    }
+
+    /**
+     * Render thread, copies the touches still shown at {@code nowMs}, oldest first.
+     *
+     * @param positions receives x and y, {@code MAX_TOUCHES * 2} long.
+     * @param ages      receives the age in ms.
+     * @return how many were copied.
+     */
+    synchronized int copyTouches(long nowMs, @NonNull float[] positions, @NonNull long[] ages) {
+        int count = 0;
+        for (int i = 0; i < touchCount; i++) {
+            int index = (touchHead - touchCount + i + MAX_TOUCHES) % MAX_TOUCHES;
+            long age = nowMs - touchTimes[index];
+            if (age < 0 || age >= TOUCH_DURATION_MS) continue;
+            positions[count * 2] = touchPositions[index * 2];
+            positions[count * 2 + 1] = touchPositions[index * 2 + 1];
+            ages[count] = age;
+            count++;
+        }
+        return count;
+    }
+
+    @NonNull
+    Item[] getItems() {
+        return items;
+    }
+
+    float getTextSize() {
+        return textSize;
+    }
+
+    int getTextColor() {
+        return textColor;
+    }
+
+    int getBackgroundColor() {
+        return backgroundColor;
+    }
+
+    static final class Item {
+        final int id;
+        final int type;
+        // the text, or the pattern of a timestamp
+        @Nullable
+        final String text;
+        @Nullable
+        final Bitmap bitmap;
+        final int gravity;
+
+        Item(int id, int type, @Nullable String text, @Nullable Bitmap bitmap, int gravity) {
+            this.id = id;
+            this.type = type;
+            this.text = text;
+            this.bitmap = bitmap;
+            this.gravity = gravity;
+        }
+    }
+}
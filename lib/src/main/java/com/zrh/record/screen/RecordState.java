@@ -0,0 +1,16 @@
+package com.zrh.record.screen;
+
+/**
+ * Lifecycle of a {@link ScreenRecorder}, see {@link ScreenRecorder#getState()}.
+ *
+ * @author zrh
+ * @date 2023/8/10
+ */
+public interface RecordState {
+    int IDLE = 0;
+    // encoder and display are being prepared, or prepared and waiting for start
+    int PREPARING = 1;
+    int RECORDING = 2;
+    // the encoder is finishing the file
+    int STOPPING = 3;
+}
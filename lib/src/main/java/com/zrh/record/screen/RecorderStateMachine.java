@@ -0,0 +1,176 @@
+package com.zrh.record.screen;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Serializes the lifecycle of one recorder on a looper thread. Commands may be sent from any
+ * thread and are handled in the order they were sent, the {@link Actions} always run on the
+ * looper thread so a slow prepare or stop never blocks the caller.
+ * <ul>
+ * <li>start() prepares first unless {@link #prepare()} was called before.</li>
+ * <li>start() while stopping records again once the stop has finished, stop() or cancel() drop it.</li>
+ * <li>stop() before recording releases what was prepared and reports an error.</li>
+ * </ul>
+ *
+ * @author zrh
+ * @date 2023/8/10
+ */
+public class RecorderStateMachine {
+    private final Handler handler;
+    private final Actions actions;
+
+    private volatile int state = RecordState.IDLE;
+    // looper thread only
+    private boolean restartPending;
+    private StateListener stateListener;
+
+    public RecorderStateMachine(@NonNull Looper looper, @NonNull Actions actions) {
+        this.handler = new Handler(looper);
+        this.actions = actions;
+    }
+
+    /**
+     * @return one of {@link RecordState}, may lag behind commands still queued.
+     */
+    public int getState() {
+        return state;
+    }
+
+    /**
+     * Called on the looper thread after every change of {@link #getState()}.
+     */
+    public void setStateListener(@Nullable StateListener listener) {
+        handler.post(() -> stateListener = listener);
+    }
+
+    public void prepare() {
+        handler.post(this::handlePrepare);
+    }
+
+    public void start() {
+        handler.post(this::handleStart);
+    }
+
+    public void stop() {
+        handler.post(this::handleStop);
+    }
+
+    public void cancel() {
+        handler.post(this::handleCancel);
+    }
+
+    /**
+     * The encoder finished the file, or failed while recording.
+     */
+    public void onStopped(@Nullable Exception error) {
+        handler.post(() -> handleStopped(error));
+    }
+
+    private void handlePrepare() {
+        if (state != RecordState.IDLE) return;
+        setState(RecordState.PREPARING);
+        if (!actions.prepare()) setState(RecordState.IDLE);
+    }
+
+    private void handleStart() {
+        switch (state) {
+            case RecordState.IDLE:
+                handlePrepare();
+                if (state == RecordState.PREPARING) handleStart();
+                break;
+            case RecordState.PREPARING:
+                setState(actions.start() ? RecordState.RECORDING : RecordState.IDLE);
+                break;
+            case RecordState.STOPPING:
+                restartPending = true;
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void handleStop() {
+        switch (state) {
+            case RecordState.RECORDING:
+                setState(RecordState.STOPPING);
+                actions.stop();
+                break;
+            case RecordState.STOPPING:
+                restartPending = false;
+                break;
+            case RecordState.PREPARING:
+                actions.cancel();
+                actions.finish(new IllegalStateException("recorder not started"));
+                setState(RecordState.IDLE);
+                break;
+            default:
+                actions.finish(new IllegalStateException("recorder not started"));
+                break;
+        }
+    }
+
+    private void handleStopped(Exception error) {
+        // a cancelled recording has nothing left to finish
+        if (state != RecordState.RECORDING && state != RecordState.STOPPING) return;
+        // listeners see IDLE once the result is out
+        actions.finish(error);
+        setState(RecordState.IDLE);
+        if (restartPending) {
+            restartPending = false;
+            handleStart();
+        }
+    }
+
+    private void handleCancel() {
+        restartPending = false;
+        actions.cancel();
+        setState(RecordState.IDLE);
+    }
+
+    private void setState(int state) {
+        if (this.state == state) return;
+        this.state = state;
+        if (stateListener != null) stateListener.onStateChanged(state);
+    }
+
+    /**
+     * Work of one recording, called on the looper thread.
+     */
+    public interface Actions {
+        /**
+         * @return false if preparing failed, the error is reported by the implementation.
+         */
+        boolean prepare();
+
+        /**
+         * @return false if starting failed, the error is reported by the implementation.
+         */
+        boolean start();
+
+        /**
+         * Asks the encoder to finish the file, completion arrives through {@link #onStopped(Exception)}.
+         */
+        void stop();
+
+        /**
+         * Releases the recording and delivers the file, or reports {@code error}.
+         */
+        void finish(@Nullable Exception error);
+
+        /**
+         * Releases the recording and deletes its file.
+         */
+        void cancel();
+    }
+
+    public interface StateListener {
+        /**
+         * @param state one of {@link RecordState}.
+         */
+        void onStateChanged(int state);
+    }
+}
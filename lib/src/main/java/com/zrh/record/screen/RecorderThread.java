@@ -0,0 +1,30 @@
+package com.zrh.record.screen;
+
+import android.os.HandlerThread;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The looper thread shared by all {@link ScreenRecorder}s for their lifecycle work, so preparing
+ * and finishing a recording never blocks the main thread. Started on first use and kept for the
+ * life of the process.
+ *
+ * @author zrh
+ * @date 2023/8/10
+ */
+public final class RecorderThread {
+    private static HandlerThread thread;
+
+    private RecorderThread() {
+    }
+
+    @NonNull
+    public static synchronized Looper getLooper() {
+        if (thread == null) {
+            thread = new HandlerThread("ScreenRecorder");
+            thread.start();
+        }
+        return thread.getLooper();
+    }
+}
@@ -0,0 +1,84 @@
+package com.zrh.record.screen;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Sidecar written next to a {@code .temp} recording with the track formats, which a plain MP4
+ * only stores in its {@code moov} at the very end. Used by {@link TempFileRecovery}.
+ *
+ * @author zrh
+ * @date 2023/7/28
+ */
+final class RecoveryInfo {
+    static final String SUFFIX = ".meta";
+    private static final int MAGIC = 0x53524D31;
+
+    private RecoveryInfo() {
+    }
+
+    @NonNull
+    static File sidecarOf(@NonNull File file) {
+        return new File(file.getPath() + SUFFIX);
+    }
+
+    static void write(@NonNull File file, @NonNull TrackFormat[] formats) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(sidecarOf(file))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(formats.length);
+            for (TrackFormat format : formats) {
+                out.writeUTF(format.mime);
+                out.writeInt(format.width);
+                out.writeInt(format.height);
+                out.writeInt(format.sampleRate);
+                out.writeInt(format.channelCount);
+                writeBytes(out, format.csd0);
+                writeBytes(out, format.csd1);
+            }
+        }
+    }
+
+    @Nullable
+    static TrackFormat[] read(@NonNull File file) throws IOException {
+        File sidecar = sidecarOf(file);
+        if (!sidecar.exists()) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar)))) {
+            if (in.readInt() != MAGIC) return null;
+            TrackFormat[] formats = new TrackFormat[in.readInt()];
+            for (int i = 0; i < formats.length; i++) {
+                String mime = in.readUTF();
+                int width = in.readInt();
+                int height = in.readInt();
+                int sampleRate = in.readInt();
+                int channelCount = in.readInt();
+                byte[] csd0 = readBytes(in);
+                byte[] csd1 = readBytes(in);
+                formats[i] = new TrackFormat(mime, width, height, sampleRate, channelCount, csd0, csd1, null);
+            }
+            return formats;
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes == null ? -1 : bytes.length);
+        if (bytes != null) out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
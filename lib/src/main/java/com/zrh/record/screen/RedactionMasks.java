@@ -0,0 +1,130 @@
+package com.zrh.record.screen;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Rects hidden from the recording before encoding, and a switch that withholds frames entirely,
+ * see {@link ScreenRecorder.Builder#setRedactionMasks(RedactionMasks)}. Rects are in screen
+ * pixels, as {@code View.getLocationOnScreen} reports them.
+ * <p>
+ * One thread, usually the UI thread, writes and the render thread reads. Writes go into a frame
+ * only the writer touches and are handed over by swapping it with the shared frame, the reader
+ * swaps its own frame for the shared one when that is newer. Neither side locks or waits, and
+ * no frame is written while the other side reads it. Publish from an {@code OnPreDrawListener}
+ * so the masks are in place before the frame that needs them is drawn. Masks apply from the
+ * next display frame on, a still screen keeps its last frame.
+ *
+ * @author zrh
+ * @date 2023/8/14
+ */
+public final class RedactionMasks {
+    public static final int MAX_RECTS = 32;
+
+    private final AtomicReference<Frame> shared = new AtomicReference<>(new Frame());
+
+    // writer only
+    private Frame back = new Frame();
+    private final float[] rects = new float[MAX_RECTS * 4];
+    private int rectCount;
+    private boolean overflow;
+    private boolean blocked;
+    private int style = RedactionStyle.BLACK;
+    private long sequence;
+
+    // reader only
+    private Frame front = new Frame();
+
+    /**
+     * Replaces all rects, {@code rects} holds left, top, right and bottom of each. More than
+     * {@link #MAX_RECTS} rects block frames instead of leaving some uncovered.
+     */
+    public void setRects(@NonNull float[] rects, int count) {
+        overflow = count > MAX_RECTS;
+        rectCount = Math.min(count, MAX_RECTS);
+        System.arraycopy(rects, 0, this.rects, 0, rectCount * 4);
+        publish();
+    }
+
+    public void clear() {
+        rectCount = 0;
+        overflow = false;
+        publish();
+    }
+
+    /**
+     * Withholds every frame while {@code blocked}, for screens that must not be recorded at all.
+     * The recording continues with the last frame sent before.
+     */
+    public void setBlocked(boolean blocked) {
+        this.blocked = blocked;
+        publish();
+    }
+
+    /**
+     * @param style one of {@link RedactionStyle}.
+     */
+    public void setStyle(int style) {
+        this.style = style;
+        publish();
+    }
+
+    private void publish() {
+        Frame frame = back;
+        System.arraycopy(rects, 0, frame.rects, 0, rectCount * 4);
+        frame.rectCount = rectCount;
+        frame.blocked = blocked || overflow;
+        frame.style = style;
+        frame.sequence = ++sequence;
+        back = shared.getAndSet(frame);
+    }
+
+    /**
+     * Render thread only. The frame stays valid until the next call.
+     *
+     * @return the newest published frame.
+     */
+    @NonNull
+    public Frame acquire() {
+        if (shared.get().sequence > front.sequence) {
+            front = shared.getAndSet(front);
+        }
+        return front;
+    }
+
+    public static final class Frame {
+        final float[] rects = new float[MAX_RECTS * 4];
+        int rectCount;
+        boolean blocked;
+        int style = RedactionStyle.BLACK;
+        // read by the reader to compare with its frame, also while the writer rewrites it
+        volatile long sequence;
+
+        public int getRectCount() {
+            return rectCount;
+        }
+
+        /**
+         * @param out receives left, top, right and bottom.
+         */
+        public void getRect(int index, @NonNull float[] out) {
+            System.arraycopy(rects, index * 4, out, 0, 4);
+        }
+
+        public boolean isBlocked() {
+            return blocked;
+        }
+
+        /**
+         * @return one of {@link RedactionStyle}.
+         */
+        public int getStyle() {
+            return style;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.zrh.record.screen;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Covers the rects of {@link RedactionMasks} on every frame and withholds blocked frames. Rects
+ * are mapped from screen to output pixels with the recording's {@link CropGeometry} and drawn
+ * with the scissor test, black by a clear and blurred by a mosaic shader that reads the display
+ * frame again.
+ *
+ * @author zrh
+ * @date 2023/8/14
+ */
+class RedactionStage implements GlCompositor.Stage {
+    private static final String VERTEX_SHADER =
+            "attribute vec4 aPosition;\n"
+            + "void main() {\n"
+            + "    gl_Position = aPosition;\n"
+            + "}\n";
+    // every block takes the average of four samples around its center
+    private static final String MOSAIC_SHADER =
+            "#extension GL_OES_EGL_image_external : require\n"
+            + "#ifdef GL_FRAGMENT_PRECISION_HIGH\n"
+            + "precision highp float;\n"
+            + "#else\n"
+            + "precision mediump float;\n"
+            + "#endif\n"
+            + "uniform samplerExternalOES sTexture;\n"
+            + "uniform mat4 uTexMatrix;\n"
+            + "uniform vec2 uOutputSize;\n"
+            + "uniform float uBlockSize;\n"
+            + "vec4 tap(vec2 position) {\n"
+            + "    return texture2D(sTexture, (uTexMatrix * vec4(position / uOutputSize, 0.0, 1.0)).xy);\n"
+            + "}\n"
+            + "void main() {\n"
+            + "    vec2 center = (floor(gl_FragCoord.xy / uBlockSize) + 0.5) * uBlockSize;\n"
+            + "    float d = uBlockSize * 0.25;\n"
+            + "    gl_FragColor = (tap(center + vec2(-d, -d)) + tap(center + vec2(d, -d))\n"
+            + "            + tap(center + vec2(-d, d)) + tap(center + vec2(d, d))) * 0.25;\n"
+            + "}\n";
+    private static final float[] QUAD = {-1, -1, 1, -1, -1, 1, 1, 1};
+    // blocks span this part of the shorter output side, at least MIN_BLOCK_SIZE pixels
+    private static final int BLOCKS_PER_SIDE = 40;
+    private static final int MIN_BLOCK_SIZE = 8;
+
+    private final RedactionMasks masks;
+    private final CropGeometry geometry;
+    private final FloatBuffer quad;
+    private final float[] rect = new float[4];
+    private final int[] outputRect = new int[4];
+
+    private int width;
+    private int height;
+    private int program;
+    private int positionLocation;
+    private int texMatrixLocation;
+    private int outputSizeLocation;
+    private int blockSizeLocation;
+
+    RedactionStage(@NonNull RedactionMasks masks, @NonNull CropGeometry geometry) {
+        this.masks = masks;
+        this.geometry = geometry;
+        this.quad = ByteBuffer.allocateDirect(QUAD.length * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        quad.put(QUAD).position(0);
+    }
+
+    @Override
+    public void onSetUp(int width, int height) {
+        this.width = width;
+        this.height = height;
+        program = GlCompositor.createProgram(VERTEX_SHADER, MOSAIC_SHADER);
+        positionLocation = GLES20.glGetAttribLocation(program, "aPosition");
+        texMatrixLocation = GLES20.glGetUniformLocation(program, "uTexMatrix");
+        outputSizeLocation = GLES20.glGetUniformLocation(program, "uOutputSize");
+        blockSizeLocation = GLES20.glGetUniformLocation(program, "uBlockSize");
+        GlCompositor.checkGl("mosaic setup");
+    }
+
+    @Override
+    public boolean onDraw(int texture, @NonNull float[] texMatrix) {
+        RedactionMasks.Frame frame = masks.acquire();
+        if (frame.isBlocked()) return false;
+        int count = frame.getRectCount();
+        if (count == 0) return true;
+
+        boolean mosaic = frame.getStyle() == RedactionStyle.BLUR;
+        if (mosaic) {
+            GLES20.glUseProgram(program);
+            GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+            GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, texture);
+            GLES20.glUniformMatrix4fv(texMatrixLocation, 1, false, texMatrix, 0);
+            GLES20.glUniform2f(outputSizeLocation, width, height);
+            GLES20.glUniform1f(blockSizeLocation, Math.max(MIN_BLOCK_SIZE, Math.min(width, height) / BLOCKS_PER_SIDE));
+            GLES20.glVertexAttribPointer(positionLocation, 2, GLES20.GL_FLOAT, false, 8, quad);
+            GLES20.glEnableVertexAttribArray(positionLocation);
+        } else {
+            GLES20.glClearColor(0, 0, 0, 1);
+        }
+        GLES20.glEnable(GLES20.GL_SCISSOR_TEST);
+        for (int i = 0; i < count; i++) {
+            frame.getRect(i, rect);
+            if (!geometry.mapRectToOutput(rect[0], rect[1], rect[2], rect[3], outputRect)) continue;
+            // the scissor box has its origin at the bottom left
+            GLES20.glScissor(outputRect[0], height - outputRect[3],
+                    outputRect[2] - outputRect[0], outputRect[3] - outputRect[1]);
+            if (mosaic) {
+                GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+            } else {
+                GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+            }
+        }
+        GLES20.glDisable(GLES20.GL_SCISSOR_TEST);
+        if (mosaic) GLES20.glDisableVertexAttribArray(positionLocation);
+        return true;
+    }
+
+    @Override
+    public void onRelease() {
+        if (program != 0) GLES20.glDeleteProgram(program);
+        program = 0;
+    }
+}
@@ -0,0 +1,15 @@
+package com.zrh.record.screen;
+
+/**
+ * How {@link RedactionMasks} hide their rects.
+ *
+ * @author zrh
+ * @date 2023/8/14
+ */
+public interface RedactionStyle {
+    int BLACK = 0;
+    /**
+     * A coarse mosaic, every block is the average of a few samples, text can not be read back.
+     */
+    int BLUR = 1;
+}
@@ -0,0 +1,193 @@
+package com.zrh.record.screen;
+
+import android.media.MediaCodec;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bounded ring of encoded samples kept in one preallocated direct {@link ByteBuffer}. Sample
+ * metadata lives in parallel primitive arrays, so appending a sample allocates nothing. When the
+ * ring is full, or the window gets longer than {@code maxDurationUs}, the oldest GOP is evicted as
+ * a whole so the buffered window always starts with a video keyframe.
+ *
+ * @author zrh
+ * @date 2023/7/24
+ */
+public class ReplayBuffer {
+    private final ByteBuffer data;
+    private final ByteBuffer readView;
+    private final int capacity;
+    private final int maxSamples;
+    private final long maxDurationUs;
+
+    private final int[] offsets;
+    private final int[] sizes;
+    private final int[] flags;
+    private final int[] tracks;
+    private final long[] timestamps;
+
+    // ring of the sequence numbers of buffered video keyframes, one per GOP
+    private final long[] keyFrames;
+    private int keyHead;
+    private int keyCount;
+
+    private int videoTrack = -1;
+    private long firstSeq;
+    private long nextSeq;
+    private int writePos;
+    private int maxSampleSize;
+    private boolean waitForKeyFrame = true;
+
+    public ReplayBuffer(int capacityBytes, int maxSamples, long maxDurationUs) {
+        this.data = ByteBuffer.allocateDirect(capacityBytes);
+        this.readView = data.duplicate();
+        this.capacity = capacityBytes;
+        this.maxSamples = maxSamples;
+        this.maxDurationUs = maxDurationUs;
+        this.offsets = new int[maxSamples];
+        this.sizes = new int[maxSamples];
+        this.flags = new int[maxSamples];
+        this.tracks = new int[maxSamples];
+        this.timestamps = new long[maxSamples];
+        this.keyFrames = new long[maxSamples];
+    }
+
+    /**
+     * Only keyframes of this track start a new GOP, samples of other tracks are evicted along with it.
+     */
+    public synchronized void setVideoTrack(int track) {
+        this.videoTrack = track;
+    }
+
+    /**
+     * Appends a sample, evicting old GOPs as needed.
+     *
+     * @return false if the sample was dropped because no decodable GOP is being buffered.
+     */
+    public synchronized boolean write(int track, @NonNull ByteBuffer src, @NonNull SampleInfo info) {
+        int size = src.remaining();
+        boolean video = track == videoTrack;
+        boolean keyFrame = video && (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+        if (size > capacity) {
+            clear();
+            return false;
+        }
+
+        if (keyFrame) {
+            waitForKeyFrame = false;
+            evictExpired(info.presentationTimeUs);
+        } else if (waitForKeyFrame) {
+            return false;
+        }
+
+        int offset = allocate(size);
+        while (offset < 0 || size() == maxSamples) {
+            if (!evictOldestGop()) {
+                // the GOP being written does not fit, start over at the next keyframe
+                clear();
+                if (!keyFrame) return false;
+                waitForKeyFrame = false;
+            }
+            offset = allocate(size);
+        }
+
+        int slot = (int) (nextSeq % maxSamples);
+        data.limit(offset + size);
+        data.position(offset);
+        data.put(src);
+        offsets[slot] = offset;
+        sizes[slot] = size;
+        flags[slot] = info.flags;
+        tracks[slot] = track;
+        timestamps[slot] = info.presentationTimeUs;
+        if (keyFrame) {
+            keyFrames[(keyHead + keyCount) % maxSamples] = nextSeq;
+            keyCount++;
+        }
+        writePos = offset + size;
+        maxSampleSize = Math.max(maxSampleSize, size);
+        nextSeq++;
+        return true;
+    }
+
+    private int allocate(int size) {
+        if (size() == 0) {
+            return size <= capacity ? 0 : -1;
+        }
+        int oldest = offsets[(int) (firstSeq % maxSamples)];
+        int newest = offsets[(int) ((nextSeq - 1) % maxSamples)];
+        if (newest >= oldest) {
+            if (capacity - writePos >= size) return writePos;
+            if (oldest >= size) return 0;
+            return -1;
+        }
+        return oldest - writePos >= size ? writePos : -1;
+    }
+
+    private void evictExpired(long presentationTimeUs) {
+        if (maxDurationUs <= 0) return;
+        // keep the newest GOP that still covers the whole window
+        while (keyCount > 1) {
+            long secondGop = keyFrames[(keyHead + 1) % maxSamples];
+            long secondStart = timestamps[(int) (secondGop % maxSamples)];
+            if (presentationTimeUs - secondStart < maxDurationUs) break;
+            evictOldestGop();
+        }
+    }
+
+    private boolean evictOldestGop() {
+        if (keyCount <= 1) return false;
+        keyHead = (keyHead + 1) % maxSamples;
+        keyCount--;
+        firstSeq = keyFrames[keyHead];
+        return true;
+    }
+
+    public synchronized void clear() {
+        firstSeq = nextSeq;
+        keyHead = 0;
+        keyCount = 0;
+        writePos = 0;
+        waitForKeyFrame = true;
+    }
+
+    public synchronized int size() {
+        return (int) (nextSeq - firstSeq);
+    }
+
+    public synchronized long getFirstSequence() {
+        return firstSeq;
+    }
+
+    public synchronized long getNextSequence() {
+        return nextSeq;
+    }
+
+    public synchronized int getMaxSampleSize() {
+        return maxSampleSize;
+    }
+
+    public synchronized long getBufferedDurationUs() {
+        if (size() == 0) return 0;
+        return timestamps[(int) ((nextSeq - 1) % maxSamples)] - timestamps[(int) (firstSeq % maxSamples)];
+    }
+
+    /**
+     * Copies sample {@code seq} into {@code dst}, which is flipped for reading.
+     *
+     * @return the track of the sample, or -1 if it has been evicted already.
+     */
+    public synchronized int read(long seq, @NonNull ByteBuffer dst, @NonNull SampleInfo info) {
+        if (seq < firstSeq || seq >= nextSeq) return -1;
+        int slot = (int) (seq % maxSamples);
+        readView.limit(offsets[slot] + sizes[slot]);
+        readView.position(offsets[slot]);
+        dst.clear();
+        dst.put(readView);
+        dst.flip();
+        info.set(0, sizes[slot], timestamps[slot], flags[slot]);
+        return tracks[slot];
+    }
+}
@@ -0,0 +1,99 @@
+package com.zrh.record.screen;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps the most recent samples in a {@link ReplayBuffer} instead of writing them to disk. The
+ * buffered window can be saved at any time without interrupting the encoder, {@link #stop()}
+ * saves it to the recorder output.
+ *
+ * @author zrh
+ * @date 2023/7/24
+ */
+public class ReplaySampleWriter implements SampleWriter {
+    private final File output;
+    private final ReplayBuffer buffer;
+    private final TrackFormat[] formats;
+    private final SampleWriterFactory factory;
+    private final SampleInfo saveInfo = new SampleInfo();
+
+    private int addedTracks;
+    private volatile boolean started;
+
+    public ReplaySampleWriter(@NonNull File output, int trackCount, @NonNull ReplayBuffer buffer,
+                              @NonNull SampleWriterFactory factory) {
+        this.output = output;
+        this.buffer = buffer;
+        this.formats = new TrackFormat[trackCount];
+        this.factory = factory;
+    }
+
+    @Override
+    public synchronized int addTrack(@NonNull TrackFormat format) {
+        int track = addedTracks++;
+        formats[track] = format;
+        if (format.isVideo()) {
+            buffer.setVideoTrack(track);
+        }
+        if (addedTracks == formats.length) {
+            started = true;
+        }
+        return track;
+    }
+
+    @Override
+    public boolean isStarted() {
+        return started;
+    }
+
+    @Override
+    public void writeSampleData(int track, @NonNull ByteBuffer src, @NonNull SampleInfo info) {
+        buffer.write(track, src, info);
+    }
+
+    /**
+     * Muxes the samples buffered right now into {@code file}. Runs on the calling thread while the
+     * encoder keeps appending, only one save should run at a time.
+     */
+    public void save(@NonNull File file) throws IOException {
+        if (!started) throw new IOException("replay buffer is empty");
+        long seq = buffer.getFirstSequence();
+        long end = buffer.getNextSequence();
+        if (seq == end) throw new IOException("replay buffer is empty");
+
+        ByteBuffer sample = ByteBuffer.allocateDirect(buffer.getMaxSampleSize());
+        SampleWriter writer = factory.create(file, formats.length);
+        try {
+            for (TrackFormat format : formats) {
+                writer.addTrack(format);
+            }
+            while (seq < end) {
+                int track = buffer.read(seq, sample, saveInfo);
+                if (track < 0) {
+                    // overtaken by the encoder, continue from the oldest GOP still buffered
+                    seq = buffer.getFirstSequence();
+                    continue;
+                }
+                writer.writeSampleData(track, sample, saveInfo);
+                seq++;
+            }
+            writer.stop();
+        } finally {
+            writer.release();
+        }
+    }
+
+    @Override
+    public void stop() throws IOException {
+        save(output);
+    }
+
+    @Override
+    public void release() {
+        buffer.clear();
+    }
+}
@@ -0,0 +1,26 @@
+package com.zrh.record.screen;
+
+/**
+ * Mutable counterpart of {@link android.media.MediaCodec.BufferInfo}, reused for every
+ * encoded sample so that the drain and write path stays free of allocations.
+ *
+ * @author zrh
+ * @date 2023/7/20
+ */
+public final class SampleInfo {
+    public int offset;
+    public int size;
+    public long presentationTimeUs;
+    public int flags;
+
+    public void set(int offset, int size, long presentationTimeUs, int flags) {
+        this.offset = offset;
+        this.size = size;
+        this.presentationTimeUs = presentationTimeUs;
+        this.flags = flags;
+    }
+
+    public void set(SampleInfo other) {
+        set(other.offset, other.size, other.presentationTimeUs, other.flags);
+    }
+}
@@ -0,0 +1,31 @@
+package com.zrh.record.screen;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives a copy of the encoded samples next to the recorded file, e.g. for a live preview or an
+ * upload. Every sink is called on its own thread behind a bounded queue, see {@link SinkPolicy}.
+ *
+ * @author zrh
+ * @date 2023/8/8
+ */
+public interface SampleSink {
+    /**
+     * Called for every track before its first sample.
+     */
+    void onTrackAdded(int track, @NonNull TrackFormat format) throws IOException;
+
+    /**
+     * {@code data} holds the sample from position to limit and is reused after the call.
+     */
+    void onSample(int track, @NonNull ByteBuffer data, @NonNull SampleInfo info) throws IOException;
+
+    /**
+     * Called once, after the last sample or with the error that ended this sink early.
+     */
+    void onStopped(@Nullable Exception error);
+}
@@ -0,0 +1,34 @@
+package com.zrh.record.screen;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Destination of encoded samples, shaped after {@link android.media.MediaMuxer}. A writer starts
+ * by itself once every expected track has been added.
+ *
+ * @author zrh
+ * @date 2023/7/20
+ */
+public interface SampleWriter {
+    int addTrack(@NonNull TrackFormat format) throws IOException;
+
+    boolean isStarted();
+
+    void writeSampleData(int track, @NonNull ByteBuffer buffer, @NonNull SampleInfo info) throws IOException;
+
+    void stop() throws IOException;
+
+    void release();
+
+    /**
+     * Time spent so far writing to storage on a thread of the writer's own, which the caller
+     * cannot see in its {@link #writeSampleData} calls. -1 if samples are written on the calling
+     * thread.
+     */
+    default long getBackgroundWriteNanos() {
+        return -1;
+    }
+}
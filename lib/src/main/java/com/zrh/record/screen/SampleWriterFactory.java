@@ -0,0 +1,15 @@
+package com.zrh.record.screen;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * @author zrh
+ * @date 2023/7/26
+ */
+public interface SampleWriterFactory {
+    @NonNull
+    SampleWriter create(@NonNull File file, int trackCount) throws IOException;
+}
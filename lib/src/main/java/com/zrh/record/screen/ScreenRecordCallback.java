@@ -14,4 +14,49 @@ public interface ScreenRecordCallback {
     void onError(int code, @NonNull String msg);
 
     void onDurationChanged(long duration);
+
+    /**
+     * A segment was closed while recording continues, see {@link RecordConfig#setSegmentDurationSec(int)}.
+     */
+    default void onSegmentCompleted(@NonNull File file) {
+    }
+
+    /**
+     * The replay window requested by {@link ScreenRecordManager#saveReplay()} was saved.
+     */
+    default void onReplaySaved(@NonNull File file) {
+    }
+
+    /**
+     * A still requested by {@link ScreenRecordManager#captureFrame()} was saved.
+     */
+    default void onFrameCaptured(@NonNull File file) {
+    }
+
+    /**
+     * A recording interrupted by a crash was salvaged, see {@link RecordConfig#setRecoverTempFiles(boolean)}.
+     */
+    default void onRecovered(@NonNull File file) {
+    }
+
+    /**
+     * The recording was paused or resumed by {@link ScreenRecordManager#pause()} and {@link ScreenRecordManager#resume()}.
+     */
+    default void onPauseChanged(boolean paused) {
+    }
+
+    /**
+     * Called every {@link RecordConfig#setMetricsIntervalMs(int)} while recording, {@code snapshot}
+     * is reused for the next call.
+     */
+    default void onMetrics(@NonNull MetricsSnapshot snapshot) {
+    }
+
+    /**
+     * @param state one of {@link RecordState}. {@link RecordState#IDLE} comes after the
+     *              {@link #onCompleted(File)} or {@link #onError(int, String)} of the recording, the
+     *              recorder has delivered everything and released its encoder by then.
+     */
+    default void onStateChanged(int state) {
+    }
 }
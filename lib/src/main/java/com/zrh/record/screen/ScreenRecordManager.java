@@ -2,71 +2,101 @@ package com.zrh.record.screen;
 
 import android.annotation.SuppressLint;
 import android.app.Activity;
-import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
+import android.hardware.display.VirtualDisplay;
 import android.media.projection.MediaProjectionManager;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.SparseArray;
 
 import androidx.activity.result.ActivityResult;
 import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
 import androidx.fragment.app.FragmentActivity;
 import androidx.fragment.app.FragmentManager;
-import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
 import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
+ * Recordings run as sessions. {@link #start(FragmentActivity)} and the other commands without a
+ * session id drive {@link #DEFAULT_SESSION}, whose events go to the callbacks added by
+ * {@link #addCallback(ScreenRecordCallback)}. Further sessions are started with
+ * {@code startSession} and report to their own callback. A {@link SessionScheduler} caps how many
+ * sessions encode at once, the others wait for a slot.
+ *
  * @author zrh
  * @date 2023/7/14
  */
 public class ScreenRecordManager {
+    public static final int DEFAULT_SESSION = 0;
+    private static final int MAX_QUEUED_SESSIONS = 4;
+
     @SuppressLint("StaticFieldLeak")
     private static Context context;
-    private static final Set<ScreenRecordCallback> callbacks = new HashSet<>();
+    private static final ListenerRegistry<ScreenRecordCallback> callbacks =
+            new ListenerRegistry<>(new ScreenRecordCallback[0]);
     private static RecordConfig config;
+    // recovered before any callback was added
+    private static final List<File> pendingRecovered = new ArrayList<>();
+    private static final MetricsSnapshot latestMetrics = new MetricsSnapshot();
+    private static boolean hasMetrics;
+    private static final List<SampleSink> sampleSinks = new ArrayList<>();
+    private static final List<Integer> sinkPolicies = new ArrayList<>();
+    private static RedactionMasks redactionMasks;
+    private static RecordOverlay overlay;
+
+    // sessions are managed on the main thread
+    private static int nextSessionId = DEFAULT_SESSION + 1;
+    private static SessionScheduler scheduler;
+    private static final SparseArray<ScreenRecordCallback> sessionCallbacks = new SparseArray<>();
+    // screen sessions from the consent request until they end
+    private static final Set<Integer> projectionSessions = new HashSet<>();
+    // sessions waiting for a slot
+    private static final SparseArray<Runnable> pendingStarts = new SparseArray<>();
+    // app display sessions record in this process, without the service
+    private static final SparseArray<ScreenRecorder> displaySessions = new SparseArray<>();
 
     public static void init(Context context, RecordConfig config) {
         ScreenRecordManager.context = context.getApplicationContext();
         ScreenRecordManager.config = config;
 
-        BroadcastReceiver receiver = new BroadcastReceiver() {
-            @Override
-            public void onReceive(Context context, Intent intent) {
-                String action = intent.getAction();
-                if (!ScreenRecordService.EVENT_ACTION.equals(action)) return;
-                int eventType = intent.getIntExtra(ScreenRecordService.EVENT_TYPE, -1);
-                switch (eventType) {
-                    case ScreenRecordService.EVENT_COMPLETED: {
-                        String path = intent.getStringExtra(ScreenRecordService.OUTPUT_PATH);
-                        notifyCompleted(new File(path));
-                        break;
-                    }
-                    case ScreenRecordService.EVENT_DURATION_CHANGED: {
-                        long duration = intent.getLongExtra(ScreenRecordService.DURATION, 0);
-                        notifyDuration(duration);
-                        break;
-                    }
-                    case ScreenRecordService.EVENT_ERROR: {
-                        int code = intent.getIntExtra(ScreenRecordService.ERROR_CODE, 0);
-                        String msg = intent.getStringExtra(ScreenRecordService.ERROR_MSG);
-                        notifyError(code, msg);
-                        break;
-                    }
-                }
-            }
-        };
-        IntentFilter filter = new IntentFilter(ScreenRecordService.EVENT_ACTION);
-        LocalBroadcastManager.getInstance(context).registerReceiver(receiver, filter);
+        if (config != null && Boolean.TRUE.equals(config.getRecoverTempFiles())) {
+            recoverTempFiles();
+        }
+        // the first session start reads the encoder limits, a cold codec list query takes a while
+        Context appContext = ScreenRecordManager.context;
+        new Thread(() -> CapabilityProbe.getProfile(appContext, CodecSelector.MIME_H264),
+                   "ScreenRecord-Probe").start();
+    }
+
+    private static void recoverTempFiles() {
+        File outputDir = config.getOutputDir() != null ? config.getOutputDir() : ScreenRecorder.getDefaultOutputDir(context);
+        int fps = config.getFps() != null ? config.getFps() : ScreenRecorder.DEFAULT_FPS;
+        Handler handler = new Handler(Looper.getMainLooper());
+        new Thread(() -> {
+            List<File> files = new TempFileRecovery(fps).recoverAll(outputDir);
+            if (!files.isEmpty()) handler.post(() -> notifyRecovered(files));
+        }, "ScreenRecord-Recovery").start();
     }
 
     public static void addCallback(ScreenRecordCallback callback) {
         callbacks.add(callback);
+        if (!pendingRecovered.isEmpty()) {
+            List<File> files = new ArrayList<>(pendingRecovered);
+            pendingRecovered.clear();
+            notifyRecovered(files);
+        }
     }
 
     public static void removeCallback(ScreenRecordCallback callback) {
@@ -74,43 +104,344 @@ public class ScreenRecordManager {
     }
 
     public static void start(FragmentActivity activity) {
+        startProjectionSession(activity, DEFAULT_SESSION, config);
+    }
+
+    /**
+     * Records the screen in another session next to the running ones. Below Android 14 a running
+     * session's projection is shared and no consent is asked again. Since Android 14 a projection
+     * allows only one virtual display and a new one stops the running one, so only one screen
+     * session records at a time, others are refused with {@link ErrorCode#PROJECTION_BUSY}.
+     *
+     * @param config   null for the config of {@link #init(Context, RecordConfig)}.
+     * @param callback receives the events of this session only.
+     * @return the session id for {@link #stopSession(int)}.
+     */
+    public static int startSession(@NonNull FragmentActivity activity, @Nullable RecordConfig config,
+                                   @NonNull ScreenRecordCallback callback) {
+        int session = nextSessionId++;
+        sessionCallbacks.put(session, callback);
+        startProjectionSession(activity, session, config != null ? config : ScreenRecordManager.config);
+        return session;
+    }
+
+    /**
+     * Records a display the app created itself, a secondary {@code Presentation} for example, see
+     * {@link ScreenRecorder.Builder#setVirtualDisplay(VirtualDisplay)}. Needs no projection, the
+     * session records in the app process and the display is left alive when it ends.
+     *
+     * @param config   null for the config of {@link #init(Context, RecordConfig)}.
+     * @param callback receives the events of this session only.
+     * @return the session id for {@link #stopSession(int)}.
+     */
+    public static int startSession(@NonNull VirtualDisplay display, @Nullable RecordConfig config,
+                                   @NonNull ScreenRecordCallback callback) {
+        int session = nextSessionId++;
+        sessionCallbacks.put(session, callback);
+        RecordConfig sessionConfig = config != null ? config : ScreenRecordManager.config;
+        schedule(session, () -> startDisplaySession(session, display, sessionConfig));
+        return session;
+    }
+
+    private static void startProjectionSession(FragmentActivity activity, int session, RecordConfig config) {
+        if (isActive(session) || projectionSessions.contains(session)) return;
+        // Build.VERSION_CODES.UPSIDE_DOWN_CAKE, newer than compileSdk
+        if (Build.VERSION.SDK_INT >= 34 && !projectionSessions.isEmpty()) {
+            dispatchError(session, ErrorCode.PROJECTION_BUSY, "another session records the screen");
+            forgetSession(session);
+            return;
+        }
+        projectionSessions.add(session);
+        if (ScreenRecordService.canShareProjection()) {
+            schedule(session, () -> ScreenRecordService.start(context, session, 0, null, config));
+            return;
+        }
         requestMediaProjection(activity, new MediaProjectionCallback() {
             @Override
             public void onResult(ActivityResult result) {
-                internalStart(result);
+                schedule(session, () -> ScreenRecordService.start(context, session, result.getResultCode(),
+                                                                  result.getData(), config));
+            }
+
+            @Override
+            public void onCancel() {
+                dispatchStateChanged(session, RecordState.IDLE);
             }
 
             @Override
             public void onError(Exception e) {
-                notifyError(ErrorCode.PROJECTION_REQUEST_ERROR, "request MediaProjection error");
+                dispatchError(session, ErrorCode.PROJECTION_REQUEST_ERROR, "request MediaProjection error");
+                projectionSessions.remove(session);
+                forgetSession(session);
             }
         });
     }
 
+    private static void startDisplaySession(int session, VirtualDisplay display, RecordConfig config) {
+        ScreenRecorder.Builder builder = new ScreenRecorder.Builder(context).setVirtualDisplay(display);
+        if (config != null) builder.setConfig(config);
+        builder.setCallback(new SessionCallback(session));
+        ScreenRecorder recorder = builder.build();
+        displaySessions.put(session, recorder);
+        recorder.start();
+    }
+
+    private static boolean isActive(int session) {
+        SessionScheduler scheduler = getScheduler();
+        return scheduler.isRunning(session) || scheduler.isQueued(session);
+    }
+
+    private static void schedule(int session, Runnable start) {
+        int result = getScheduler().submit(session);
+        if (result == SessionScheduler.ADMITTED) {
+            start.run();
+        } else if (result == SessionScheduler.QUEUED) {
+            pendingStarts.put(session, start);
+        } else {
+            dispatchError(session, ErrorCode.SESSION_LIMIT, "too many sessions");
+            forgetSession(session);
+        }
+    }
+
+    private static SessionScheduler getScheduler() {
+        if (scheduler == null) {
+            // every session holds one video encoder, H.264 is what all of them can fall back to,
+            // its profile is probed in init() and cached with the device build
+            EncoderProfile profile = CapabilityProbe.getProfile(context, CodecSelector.MIME_H264);
+            int instances = profile != null ? profile.maxInstances : 0;
+            scheduler = new SessionScheduler(SessionScheduler.capacityOf(instances), MAX_QUEUED_SESSIONS);
+        }
+        return scheduler;
+    }
+
+    /**
+     * The session released its encoder, its slot goes to the next waiting session.
+     */
+    private static void endSession(int session) {
+        displaySessions.remove(session);
+        projectionSessions.remove(session);
+        pendingStarts.remove(session);
+        int next = getScheduler().release(session);
+        forgetSession(session);
+        if (next >= 0) {
+            Runnable start = pendingStarts.get(next);
+            pendingStarts.remove(next);
+            if (start != null) start.run();
+        }
+    }
+
+    private static void forgetSession(int session) {
+        if (session != DEFAULT_SESSION) sessionCallbacks.remove(session);
+    }
+
     public static void stop() {
-        ScreenRecordService.stop(context);
+        stopSession(DEFAULT_SESSION);
     }
 
-    private static void notifyError(int code, String msg) {
-        for (ScreenRecordCallback callback : callbacks) {
-            callback.onError(code, msg);
+    /**
+     * Finishes the recording of {@code session}, a session still waiting for a slot is dropped.
+     */
+    public static void stopSession(int session) {
+        if (getScheduler().isQueued(session)) {
+            endSession(session);
+            return;
+        }
+        ScreenRecorder recorder = displaySessions.get(session);
+        if (recorder != null) {
+            recorder.stop();
+        } else {
+            ScreenRecordService.stop(context, session);
         }
     }
 
-    private static void notifyCompleted(File file) {
-        for (ScreenRecordCallback callback : callbacks) {
-            callback.onCompleted(file);
+    /**
+     * Pauses the running recording without finishing the file, see {@link ScreenRecordCallback#onPauseChanged(boolean)}.
+     * With {@link EncoderType#MEDIA_RECORDER} this needs Android 7.0.
+     */
+    public static void pause() {
+        pauseSession(DEFAULT_SESSION);
+    }
+
+    public static void resume() {
+        resumeSession(DEFAULT_SESSION);
+    }
+
+    public static void pauseSession(int session) {
+        ScreenRecorder recorder = displaySessions.get(session);
+        if (recorder != null) {
+            recorder.pause();
+        } else {
+            ScreenRecordService.pause(context, session);
         }
     }
 
-    private static void notifyDuration(long duration) {
-        for (ScreenRecordCallback callback : callbacks) {
-            callback.onDurationChanged(duration);
+    public static void resumeSession(int session) {
+        ScreenRecorder recorder = displaySessions.get(session);
+        if (recorder != null) {
+            recorder.resume();
+        } else {
+            ScreenRecordService.resume(context, session);
         }
     }
 
-    private static void internalStart(ActivityResult result) {
-        ScreenRecordService.start(context, result.getResultCode(), result.getData(), config);
+    /**
+     * Saves the last seconds of the running recording, requires {@link RecordConfig#setReplayBufferBytes(int)}.
+     */
+    public static void saveReplay() {
+        ScreenRecordService.saveReplay(context);
+    }
+
+    /**
+     * Streams a copy of the encoded samples of the next recording to {@code sink}, only with
+     * {@link EncoderType#MEDIA_CODEC}. A sink serves one recording, add it again for the next one.
+     *
+     * @param policy one of {@link SinkPolicy}.
+     */
+    public static void addSampleSink(@NonNull SampleSink sink, int policy) {
+        sampleSinks.add(sink);
+        sinkPolicies.add(policy);
+    }
+
+    static void applySampleSinks(ScreenRecorder.Builder builder) {
+        for (int i = 0; i < sampleSinks.size(); i++) {
+            builder.addSampleSink(sampleSinks.get(i), sinkPolicies.get(i));
+        }
+        sampleSinks.clear();
+        sinkPolicies.clear();
+    }
+
+    /**
+     * Masks for the screen recordings started after the first call, rects are in screen pixels.
+     * Stills from {@link #captureFrame()} are drawn by the GL compositor with the masks applied.
+     */
+    @NonNull
+    public static RedactionMasks getRedactionMasks() {
+        if (redactionMasks == null) redactionMasks = new RedactionMasks();
+        return redactionMasks;
+    }
+
+    static void applyRedactionMasks(ScreenRecorder.Builder builder) {
+        if (redactionMasks != null) builder.setRedactionMasks(redactionMasks);
+    }
+
+    /**
+     * Watermark and touch markers for the screen recordings started after the first call, feed it
+     * the touches with {@link RecordOverlay#addTouch(float, float)}.
+     */
+    @NonNull
+    public static RecordOverlay getOverlay() {
+        if (overlay == null) overlay = new RecordOverlay();
+        return overlay;
+    }
+
+    static void applyOverlay(ScreenRecorder.Builder builder) {
+        if (overlay != null) builder.setOverlay(overlay);
+    }
+
+    /**
+     * Saves a still of the recording, see {@link ScreenRecordCallback#onFrameCaptured(File)},
+     * {@link RecordConfig#setFrameCapture(boolean)} and {@link RecordConfig#setCaptureFormat(int)}.
+     */
+    public static void captureFrame() {
+        captureBurst(1, 0);
+    }
+
+    /**
+     * Saves {@code count} stills {@code intervalMs} apart while recording.
+     */
+    public static void captureBurst(int count, int intervalMs) {
+        ScreenRecordService.captureFrames(context, count, intervalMs);
+    }
+
+    // dispatch methods are called on the main thread, in the app process
+
+    static void dispatchError(int session, int code, String msg) {
+        dispatch(session, callback -> callback.onError(code, msg));
+    }
+
+    static void dispatchCompleted(int session, File file) {
+        dispatch(session, callback -> callback.onCompleted(file));
+    }
+
+    static void dispatchSegmentCompleted(int session, File file) {
+        dispatch(session, callback -> callback.onSegmentCompleted(file));
+    }
+
+    static void dispatchReplaySaved(int session, File file) {
+        dispatch(session, callback -> callback.onReplaySaved(file));
+    }
+
+    static void dispatchPauseChanged(int session, boolean paused) {
+        dispatch(session, callback -> callback.onPauseChanged(paused));
+    }
+
+    static void dispatchFrameCaptured(int session, File file) {
+        dispatch(session, callback -> callback.onFrameCaptured(file));
+    }
+
+    static void dispatchStateChanged(int session, int state) {
+        dispatch(session, callback -> callback.onStateChanged(state));
+        if (state == RecordState.IDLE) endSession(session);
+    }
+
+    private static void dispatch(int session, CallbackEvent event) {
+        if (session != DEFAULT_SESSION) {
+            ScreenRecordCallback callback = sessionCallbacks.get(session);
+            if (callback != null) event.dispatch(callback);
+            return;
+        }
+        for (ScreenRecordCallback callback : callbacks.snapshot()) {
+            event.dispatch(callback);
+        }
+    }
+
+    private static void notifyRecovered(List<File> files) {
+        if (callbacks.isEmpty()) {
+            pendingRecovered.addAll(files);
+            return;
+        }
+        for (File file : files) {
+            for (ScreenRecordCallback callback : callbacks.snapshot()) {
+                callback.onRecovered(file);
+            }
+        }
+    }
+
+    /**
+     * Copies the latest stats published while recording, see {@link RecordConfig#setMetricsIntervalMs(int)}.
+     *
+     * @return false if none were published yet.
+     */
+    public static boolean getMetrics(@NonNull MetricsSnapshot out) {
+        if (!hasMetrics) return false;
+        out.set(latestMetrics);
+        return true;
+    }
+
+    static void dispatchMetrics(int session, MetricsSnapshot snapshot) {
+        if (session != DEFAULT_SESSION) {
+            ScreenRecordCallback callback = sessionCallbacks.get(session);
+            if (callback != null) callback.onMetrics(snapshot);
+            return;
+        }
+        latestMetrics.set(snapshot);
+        hasMetrics = true;
+        ScreenRecordCallback[] snapshotCallbacks = callbacks.snapshot();
+        for (int i = 0; i < snapshotCallbacks.length; i++) {
+            snapshotCallbacks[i].onMetrics(snapshot);
+        }
+    }
+
+    static void dispatchDuration(int session, long duration) {
+        if (session != DEFAULT_SESSION) {
+            ScreenRecordCallback callback = sessionCallbacks.get(session);
+            if (callback != null) callback.onDurationChanged(duration);
+            return;
+        }
+        ScreenRecordCallback[] snapshot = callbacks.snapshot();
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i].onDurationChanged(duration);
+        }
     }
 
     private static void requestMediaProjection(FragmentActivity activity, MediaProjectionCallback callback) {
@@ -123,41 +454,134 @@ public class ScreenRecordManager {
         } else {
             requestFragment = (MediaProjectionFragment) fragment;
         }
-        requestFragment.setCallback(callback);
         MediaProjectionManager manager = (MediaProjectionManager) activity.getSystemService(Context.MEDIA_PROJECTION_SERVICE);
-        requestFragment.request(manager.createScreenCaptureIntent());
+        requestFragment.request(callback, manager.createScreenCaptureIntent());
     }
 
+    /**
+     * Asks for consent one session at a time, a request made while the dialog is open waits for
+     * its result instead of taking it over.
+     */
     public static class MediaProjectionFragment extends Fragment {
+        private final ArrayDeque<MediaProjectionCallback> waiting = new ArrayDeque<>();
+        // the session whose consent dialog is open
         private MediaProjectionCallback callback;
+        private Intent intent;
 
         private ActivityResultLauncher<Intent> launcher =
                 registerForActivityResult(new ActivityResultContracts.StartActivityForResult(), result -> {
-                    if (result.getResultCode() == Activity.RESULT_OK) {
-                        notifyCallback(result);
+                    MediaProjectionCallback answered = callback;
+                    callback = null;
+                    if (answered != null) {
+                        if (result.getResultCode() == Activity.RESULT_OK) {
+                            answered.onResult(result);
+                        } else {
+                            answered.onCancel();
+                        }
                     }
+                    launchNext();
                 });
 
-        public void setCallback(MediaProjectionCallback callback) {
-            this.callback = callback;
+        void request(MediaProjectionCallback callback, Intent intent) {
+            this.intent = intent;
+            waiting.add(callback);
+            launchNext();
         }
 
-        private void notifyCallback(ActivityResult result) {
-            if (callback != null) callback.onResult(result);
+        private void launchNext() {
+            while (callback == null && !waiting.isEmpty()) {
+                callback = waiting.poll();
+                try {
+                    launcher.launch(intent);
+                } catch (Exception e) {
+                    MediaProjectionCallback failed = callback;
+                    callback = null;
+                    failed.onError(e);
+                }
+            }
         }
 
-        public void request(Intent intent) {
-            try {
-                launcher.launch(intent);
-            } catch (Exception e) {
-                if (callback != null) callback.onError(e);
+        @Override
+        public void onDestroy() {
+            super.onDestroy();
+            // results of this instance are never delivered, end the sessions still asking
+            Exception error = new IllegalStateException("activity destroyed");
+            if (callback != null) callback.onError(error);
+            callback = null;
+            while (!waiting.isEmpty()) {
+                waiting.poll().onError(error);
             }
         }
     }
 
+    private interface CallbackEvent {
+        void dispatch(@NonNull ScreenRecordCallback callback);
+    }
+
+    /**
+     * Forwards the events of one session's recorder to the dispatch methods.
+     */
+    static class SessionCallback implements ScreenRecordCallback {
+        private final int session;
+
+        SessionCallback(int session) {
+            this.session = session;
+        }
+
+        @Override
+        public void onCompleted(@NonNull File file) {
+            dispatchCompleted(session, file);
+        }
+
+        @Override
+        public void onError(int code, @NonNull String msg) {
+            dispatchError(session, code, msg);
+        }
+
+        @Override
+        public void onDurationChanged(long duration) {
+            dispatchDuration(session, duration);
+        }
+
+        @Override
+        public void onSegmentCompleted(@NonNull File file) {
+            dispatchSegmentCompleted(session, file);
+        }
+
+        @Override
+        public void onReplaySaved(@NonNull File file) {
+            dispatchReplaySaved(session, file);
+        }
+
+        @Override
+        public void onFrameCaptured(@NonNull File file) {
+            dispatchFrameCaptured(session, file);
+        }
+
+        @Override
+        public void onPauseChanged(boolean paused) {
+            dispatchPauseChanged(session, paused);
+        }
+
+        @Override
+        public void onMetrics(@NonNull MetricsSnapshot snapshot) {
+            dispatchMetrics(session, snapshot);
+        }
+
+        @Override
+        public void onStateChanged(int state) {
+            dispatchStateChanged(session, state);
+        }
+    }
+
     private interface MediaProjectionCallback {
         void onResult(ActivityResult result);
 
+        /**
+         * The user declined the consent.
+         */
+        void onCancel();
+
         void onError(Exception e);
     }
 }
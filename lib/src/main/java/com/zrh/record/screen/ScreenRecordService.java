@@ -12,12 +12,9 @@ import android.media.projection.MediaProjection;
 import android.media.projection.MediaProjectionManager;
 import android.os.Build;
 import android.os.IBinder;
+import android.util.SparseArray;
 
-import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import androidx.localbroadcastmanager.content.LocalBroadcastManager;
-
-import java.io.File;
 
 /**
  * @author zrh
@@ -27,28 +24,39 @@ public class ScreenRecordService extends Service {
 
     private static final String RESULT_CODE = "RESULT_CODE";
     private static final String RESULT_DATA = "RESULT_DATA";
+    private static final String SESSION_ID = "SESSION_ID";
 
     private static final String ACTION_START = "ACTION_START";
     private static final String ACTION_STOP = "ACTION_STOP";
-
-    public static final String EVENT_ACTION = "EVENT_ACTION";
-    public static final String EVENT_TYPE = "EVENT_TYPE";
-    public static final int EVENT_DURATION_CHANGED = 0;
-    public static final int EVENT_COMPLETED = 1;
-    public static final int EVENT_ERROR = 2;
-
-    public static final String DURATION = "DURATION";
-    public static final String OUTPUT_PATH = "OUTPUT_PATH";
-    public static final String ERROR_CODE = "ERROR_CODE";
-    public static final String ERROR_MSG = "ERROR_MSG";
+    private static final String ACTION_PAUSE = "ACTION_PAUSE";
+    private static final String ACTION_RESUME = "ACTION_RESUME";
+    private static final String ACTION_SAVE_REPLAY = "ACTION_SAVE_REPLAY";
+    private static final String ACTION_CAPTURE_FRAME = "ACTION_CAPTURE_FRAME";
+    private static final String CAPTURE_COUNT = "CAPTURE_COUNT";
+    private static final String CAPTURE_INTERVAL = "CAPTURE_INTERVAL";
 
     public static final String RECORD_CONFIG = "RECORD_CONFIG";
 
+    // the projection of the latest session, main thread only
+    private static MediaProjection sharedProjection;
+
     public static void start(Context context,
                              int resultCode,
                              Intent resultData,
                              RecordConfig config) {
+        start(context, ScreenRecordManager.DEFAULT_SESSION, resultCode, resultData, config);
+    }
+
+    /**
+     * @param resultData null to share the projection of a running session, see {@link #canShareProjection()}.
+     */
+    public static void start(Context context,
+                             int session,
+                             int resultCode,
+                             @Nullable Intent resultData,
+                             RecordConfig config) {
         Intent intent = new Intent(context, ScreenRecordService.class);
+        intent.putExtra(SESSION_ID, session);
         intent.putExtra(RESULT_CODE, resultCode);
         intent.putExtra(RESULT_DATA, resultData);
         intent.putExtra(RECORD_CONFIG, config);
@@ -56,9 +64,59 @@ public class ScreenRecordService extends Service {
         sendCommand(context, intent);
     }
 
+    /**
+     * A new session may record through the projection of a running one. Since Android 14 a
+     * projection creates only one virtual display, so every session needs its own consent.
+     */
+    public static boolean canShareProjection() {
+        // Build.VERSION_CODES.UPSIDE_DOWN_CAKE, newer than compileSdk
+        return Build.VERSION.SDK_INT < 34 && sharedProjection != null;
+    }
+
     public static void stop(Context context) {
+        stop(context, ScreenRecordManager.DEFAULT_SESSION);
+    }
+
+    public static void stop(Context context, int session) {
         Intent intent = new Intent(context, ScreenRecordService.class);
         intent.setAction(ACTION_STOP);
+        intent.putExtra(SESSION_ID, session);
+        sendCommand(context, intent);
+    }
+
+    public static void pause(Context context) {
+        pause(context, ScreenRecordManager.DEFAULT_SESSION);
+    }
+
+    public static void pause(Context context, int session) {
+        Intent intent = new Intent(context, ScreenRecordService.class);
+        intent.setAction(ACTION_PAUSE);
+        intent.putExtra(SESSION_ID, session);
+        sendCommand(context, intent);
+    }
+
+    public static void resume(Context context) {
+        resume(context, ScreenRecordManager.DEFAULT_SESSION);
+    }
+
+    public static void resume(Context context, int session) {
+        Intent intent = new Intent(context, ScreenRecordService.class);
+        intent.setAction(ACTION_RESUME);
+        intent.putExtra(SESSION_ID, session);
+        sendCommand(context, intent);
+    }
+
+    public static void saveReplay(Context context) {
+        Intent intent = new Intent(context, ScreenRecordService.class);
+        intent.setAction(ACTION_SAVE_REPLAY);
+        sendCommand(context, intent);
+    }
+
+    public static void captureFrames(Context context, int count, int intervalMs) {
+        Intent intent = new Intent(context, ScreenRecordService.class);
+        intent.setAction(ACTION_CAPTURE_FRAME);
+        intent.putExtra(CAPTURE_COUNT, count);
+        intent.putExtra(CAPTURE_INTERVAL, intervalMs);
         sendCommand(context, intent);
     }
 
@@ -76,24 +134,33 @@ public class ScreenRecordService extends Service {
         return null;
     }
 
-    private ScreenRecorder recorder;
-    private boolean isRecording = false;
+    // recorders by session id, a session is removed once its recorder is idle again.
+    // lifecycle work runs on the recorder thread, see ScreenRecorder#getState()
+    private final SparseArray<ScreenRecorder> sessions = new SparseArray<>();
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         String action = intent.getAction();
+        int session = intent.getIntExtra(SESSION_ID, ScreenRecordManager.DEFAULT_SESSION);
         if (ACTION_START.equals(action)) {
-            start(intent);
+            start(session, intent);
         } else if (ACTION_STOP.equals(action)) {
-            stop();
+            stop(session);
+        } else if (ACTION_PAUSE.equals(action)) {
+            pause(session);
+        } else if (ACTION_RESUME.equals(action)) {
+            resume(session);
+        } else if (ACTION_SAVE_REPLAY.equals(action)) {
+            saveReplay(session);
+        } else if (ACTION_CAPTURE_FRAME.equals(action)) {
+            captureFrames(session, intent.getIntExtra(CAPTURE_COUNT, 1), intent.getIntExtra(CAPTURE_INTERVAL, 0));
         }
 
         return super.onStartCommand(intent, flags, startId);
     }
 
-    private void start(Intent intent) {
-        if (isRecording) return;
-        isRecording = true;
+    private void start(int session, Intent intent) {
+        if (sessions.get(session) != null) return;
 
         RecordConfig config = (RecordConfig) intent.getSerializableExtra(RECORD_CONFIG);
 
@@ -101,67 +168,57 @@ public class ScreenRecordService extends Service {
 
         int resultCode = intent.getIntExtra(RESULT_CODE, 0);
         Intent resultData = intent.getParcelableExtra(RESULT_DATA);
-        MediaProjectionManager projectionManager = (MediaProjectionManager) getSystemService(Context.MEDIA_PROJECTION_SERVICE);
-        MediaProjection projection = projectionManager.getMediaProjection(resultCode, resultData);
+        MediaProjection projection;
+        if (resultData != null) {
+            MediaProjectionManager projectionManager = (MediaProjectionManager) getSystemService(Context.MEDIA_PROJECTION_SERVICE);
+            projection = projectionManager.getMediaProjection(resultCode, resultData);
+            if (projection != null) sharedProjection = projection;
+        } else {
+            projection = sharedProjection;
+        }
         if (projection == null) {
-            stopSelf();
-            notifyError(ErrorCode.RECORD_NOT_SUPPORT, "projection is null");
+            notifyError(session, ErrorCode.RECORD_NOT_SUPPORT, "projection is null");
+            // the session never started, free its slot
+            ScreenRecordManager.dispatchStateChanged(session, RecordState.IDLE);
+            stopIfIdle();
         } else {
-            startRecorder(projection, config);
+            startRecorder(session, projection, config);
         }
     }
 
-    private void startRecorder(MediaProjection projection, RecordConfig config) {
+    private void startRecorder(int session, MediaProjection projection, RecordConfig config) {
         ScreenRecorder.Builder builder = new ScreenRecorder.Builder(getApplicationContext(), projection);
 
         // config
         builder.setConfig(config);
-        builder.setCallback(new ScreenRecordCallback() {
+        if (session == ScreenRecordManager.DEFAULT_SESSION) ScreenRecordManager.applySampleSinks(builder);
+        ScreenRecordManager.applyRedactionMasks(builder);
+        ScreenRecordManager.applyOverlay(builder);
+        builder.setCallback(new ScreenRecordManager.SessionCallback(session) {
             @Override
-            public void onCompleted(@NonNull File file) {
-                notifyCompleted(file);
-            }
-
-            @Override
-            public void onError(int code, @NonNull String msg) {
-                notifyError(code, msg);
-            }
-
-            @Override
-            public void onDurationChanged(long duration) {
-                notifyDurationChanged(duration);
+            public void onStateChanged(int state) {
+                super.onStateChanged(state);
+                if (state == RecordState.IDLE) onSessionIdle(session);
             }
         });
-        recorder = builder.build();
+        ScreenRecorder recorder = builder.build();
+        sessions.put(session, recorder);
         recorder.start();
     }
 
-    private void notifyError(int code, String msg) {
-        Intent event = new Intent(EVENT_ACTION);
-
-        event.putExtra(EVENT_TYPE, EVENT_ERROR);
-        event.putExtra(ERROR_CODE, code);
-        event.putExtra(ERROR_MSG, msg);
-
-        LocalBroadcastManager.getInstance(getApplicationContext()).sendBroadcast(event);
+    private void onSessionIdle(int session) {
+        sessions.remove(session);
+        stopIfIdle();
     }
 
-    private void notifyDurationChanged(long duration) {
-        Intent event = new Intent(EVENT_ACTION);
-
-        event.putExtra(EVENT_TYPE, EVENT_DURATION_CHANGED);
-        event.putExtra(DURATION, duration);
-
-        LocalBroadcastManager.getInstance(getApplicationContext()).sendBroadcast(event);
+    private void stopIfIdle() {
+        if (sessions.size() == 0) stopSelf();
     }
 
-    private void notifyCompleted(File file) {
-        Intent event = new Intent(EVENT_ACTION);
-
-        event.putExtra(EVENT_TYPE, EVENT_COMPLETED);
-        event.putExtra(OUTPUT_PATH, file.getAbsolutePath());
+    // events go straight to ScreenRecordManager, the service always runs in the app process
 
-        LocalBroadcastManager.getInstance(getApplicationContext()).sendBroadcast(event);
+    private void notifyError(int session, int code, String msg) {
+        ScreenRecordManager.dispatchError(session, code, msg);
     }
 
     private void createNotification(RecordConfig config) {
@@ -187,20 +244,63 @@ public class ScreenRecordService extends Service {
         startForeground(777, builder.build());
     }
 
-    private void stop() {
+    private void pause(int session) {
+        ScreenRecorder recorder = sessions.get(session);
+        if (recorder == null) {
+            notifyError(session, ErrorCode.PAUSE_ERROR, "recorder not started");
+            stopIfIdle();
+            return;
+        }
+        recorder.pause();
+    }
+
+    private void resume(int session) {
+        ScreenRecorder recorder = sessions.get(session);
+        if (recorder == null) {
+            notifyError(session, ErrorCode.PAUSE_ERROR, "recorder not started");
+            stopIfIdle();
+            return;
+        }
+        recorder.resume();
+    }
+
+    private void saveReplay(int session) {
+        ScreenRecorder recorder = sessions.get(session);
+        if (recorder == null) {
+            notifyError(session, ErrorCode.REPLAY_ERROR, "recorder not started");
+            stopIfIdle();
+            return;
+        }
+        recorder.saveReplay();
+    }
+
+    private void captureFrames(int session, int count, int intervalMs) {
+        ScreenRecorder recorder = sessions.get(session);
+        if (recorder == null) {
+            notifyError(session, ErrorCode.CAPTURE_ERROR, "recorder not started");
+            stopIfIdle();
+            return;
+        }
+        recorder.captureFrames(count, intervalMs);
+    }
+
+    private void stop(int session) {
+        ScreenRecorder recorder = sessions.get(session);
         if (recorder != null) {
+            // stays until it is idle, the service stops with the last session
             recorder.stop();
-            recorder = null;
+        } else {
+            stopIfIdle();
         }
-        stopSelf();
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
-        if (recorder != null) {
-            recorder.stop();
-            recorder = null;
+        for (int i = 0; i < sessions.size(); i++) {
+            sessions.valueAt(i).stop();
         }
+        sessions.clear();
+        sharedProjection = null;
     }
 }
@@ -1,56 +1,128 @@
 package com.zrh.record.screen;
 
-import static android.media.MediaRecorder.MEDIA_RECORDER_INFO_MAX_DURATION_REACHED;
-import static android.media.MediaRecorder.MEDIA_RECORDER_INFO_MAX_FILESIZE_REACHED;
-
 import android.Manifest;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.hardware.display.DisplayManager;
 import android.hardware.display.VirtualDisplay;
-import android.media.MediaRecorder;
 import android.media.projection.MediaProjection;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.util.DisplayMetrics;
+import android.view.Display;
 import android.view.Surface;
 import android.view.WindowManager;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.core.content.ContextCompat;
 
 import java.io.File;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author zrh
  * @date 2023/7/14
  */
 public class ScreenRecorder {
+    static final int DEFAULT_FPS = 30;
+    private static final long STORAGE_CHECK_INTERVAL_MS = 1000;
+    // a few checks plus finishing the file
+    private static final long STORAGE_STOP_LEAD_MS = 3000;
+    private static final long MIN_STORAGE_MS = 10_000;
+
     private final int maxWidth;
     private final int maxHeight;
     private final int bitrate;
     private final int fps;
     private final boolean recordAudio;
+    private final int audioSource;
+    private final int idleFrameRate;
+    private final boolean frameCapture;
+    private final int captureFormat;
+    private final int captureQuality;
+    private final List<SampleSink> sampleSinks;
+    private final List<Integer> sinkPolicies;
     private final long maxDuration;
     private final File outputDir;
+    private final int encoderType;
+    private final int keyFrameIntervalSec;
+    private final long segmentDuration;
+    private final long segmentMaxBytes;
+    private final int containerFormat;
+    private final long fragmentDuration;
+    private final boolean preallocateOutput;
+    private final int syncPolicy;
+    private final long storageMarginBytes;
+    private final boolean resolveCapabilities;
+    private final int[] videoCodecs;
+    private final int[] cropRect;
+    private final int outputRotation;
+    private final int replayBufferBytes;
+    private final long replayDuration;
+    private final boolean adaptiveBitrate;
+    private final int minBitrate;
+    private final BitratePolicy bitratePolicy;
+    private final RecordEncoder customEncoder;
+    private final long progressInterval;
+    private final long metricsInterval;
+    private final int postProcessSteps;
+    private final long trimStartUs;
 
     private final Context context;
+    @Nullable
     private final MediaProjection projection;
+    // app owned display recorded instead of mirroring the screen, kept alive after recording
+    @Nullable
+    private final VirtualDisplay sourceDisplay;
+    @Nullable
+    private final RedactionMasks redactionMasks;
+    @Nullable
+    private final RecordOverlay overlay;
 
-    private ScreenRecordCallback callback;
+    private volatile ScreenRecordCallback callback;
 
-    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final RecorderStateMachine stateMachine;
+    // recording events run on the recorder thread, callbacks on the thread that built the recorder
+    private final Handler handler;
+    private final Handler callbackHandler;
 
-    private MediaRecorder mediaRecorder;
+    // recorder thread only, the volatile fields are also read by getMetrics() and isPaused()
     private VirtualDisplay virtualDisplay;
-    private Timer timer;
-    private File output;
+    private IdleScreenDetector idleDetector;
+    private FrameGrabber frameGrabber;
+    private int[] recordSize;
+    // what the virtual display renders, larger than recordSize when the compositor crops
+    private int[] displaySize;
+    private EncoderSettings settings;
+    private GlCompositor compositor;
+    private boolean idle;
+    private volatile boolean paused;
+    private volatile ProgressPublisher progressPublisher;
+    private ProgressPublisher metricsPublisher;
+    private ProgressPublisher storagePublisher;
+    private StorageEstimator storageEstimator;
+    // filled on the recorder thread, copied into deliveredMetrics on the callback thread
+    private final MetricsSnapshot metricsSnapshot = new MetricsSnapshot();
+    private final MetricsSnapshot deliveredMetrics = new MetricsSnapshot();
+    // guarded by metricsSnapshot
+    private boolean metricsPublished;
+    private final Runnable deliverMetrics = this::deliverMetrics;
+    private volatile long publishedDuration;
+    private final Runnable deliverDuration = this::deliverDuration;
+    // at most one delivery of each is queued, it picks up the latest value when it runs
+    private final AtomicBoolean metricsPending = new AtomicBoolean();
+    private final AtomicBoolean durationPending = new AtomicBoolean();
+    private volatile RecordEncoder encoder;
+    private volatile File output;
 
-    private boolean isRunning;
-    private long duration;
+    private boolean throttlingPostProcess;
+    // onStateChanged(IDLE) waits for the post processed recording, cleared on the post processor thread
+    private volatile boolean deferIdle;
+    private volatile long startNanos;
 
     private ScreenRecorder(Builder builder) {
         this.maxWidth = builder.maxWidth;
@@ -58,87 +130,460 @@ public class ScreenRecorder {
         this.bitrate = Math.min(builder.bitrate, maxWidth * maxHeight * 3);
         this.fps = builder.fps;
         this.recordAudio = builder.recordAudio;
+        this.audioSource = builder.audioSource;
+        this.idleFrameRate = builder.idleFrameRate;
+        this.frameCapture = builder.frameCapture;
+        this.captureFormat = builder.captureFormat;
+        this.captureQuality = builder.captureQuality;
+        this.sampleSinks = builder.sampleSinks;
+        this.sinkPolicies = builder.sinkPolicies;
         this.outputDir = builder.outputDir;
         this.maxDuration = builder.maxDurationSec * 1000L;
+        this.encoderType = builder.encoderType;
+        this.keyFrameIntervalSec = builder.keyFrameIntervalSec;
+        this.segmentDuration = builder.segmentDurationSec * 1000L;
+        this.segmentMaxBytes = builder.segmentMaxBytes;
+        this.containerFormat = builder.containerFormat;
+        this.fragmentDuration = builder.fragmentDurationMs;
+        this.preallocateOutput = builder.preallocateOutput;
+        this.syncPolicy = builder.syncPolicy;
+        this.storageMarginBytes = builder.storageMarginBytes;
+        this.resolveCapabilities = builder.resolveCapabilities;
+        this.videoCodecs = builder.videoCodecs;
+        this.cropRect = builder.cropRect;
+        this.outputRotation = builder.outputRotation;
+        this.replayBufferBytes = builder.replayBufferBytes;
+        this.replayDuration = builder.replayDurationSec * 1000L;
+        this.adaptiveBitrate = builder.adaptiveBitrate;
+        this.minBitrate = builder.minBitrate > 0 ? Math.min(builder.minBitrate, bitrate) : bitrate / 4;
+        this.bitratePolicy = builder.bitratePolicy;
+        this.customEncoder = builder.encoder;
+        this.progressInterval = builder.progressIntervalMs;
+        this.metricsInterval = builder.metricsIntervalMs;
+        this.postProcessSteps = builder.postProcessSteps;
+        this.trimStartUs = builder.trimStartMs * 1000L;
         this.callback = builder.callback;
         this.context = builder.context;
         this.projection = builder.projection;
+        this.sourceDisplay = builder.sourceDisplay;
+        this.redactionMasks = builder.redactionMasks;
+        this.overlay = builder.overlay;
+
+        Looper looper = builder.looper != null ? builder.looper : RecorderThread.getLooper();
+        this.stateMachine = new RecorderStateMachine(looper, new Lifecycle());
+        stateMachine.setStateListener(this::onStateChanged);
+        this.handler = new Handler(looper);
+        Looper callerLooper = Looper.myLooper();
+        this.callbackHandler = new Handler(callerLooper != null ? callerLooper : Looper.getMainLooper());
     }
 
+    /**
+     * Callbacks run on the looper of the thread that built this recorder, the main thread if it had none.
+     */
     public void setCallback(ScreenRecordCallback callback) {
         this.callback = callback;
     }
 
+    /**
+     * @return one of {@link RecordState}.
+     */
+    public int getState() {
+        return stateMachine.getState();
+    }
+
+    /**
+     * Creates the output file, prepares the encoder and a VirtualDisplay without a surface on the
+     * recorder thread, so {@link #start()} only has to attach the surface. start() prewarms by
+     * itself when this was not called before.
+     */
+    public void prewarm() {
+        stateMachine.prepare();
+    }
+
     public void start() {
-        if (isRunning) return;
-        cancel();
+        startNanos = System.nanoTime();
+        stateMachine.start();
+    }
 
-        initOutputFile();
+    /**
+     * Finishes the file on the recorder thread, the result is reported through the callback.
+     */
+    public void stop() {
+        stateMachine.stop();
+    }
 
-        int[] size = calculateRecordSize();
+    /**
+     * Stops recording and deletes the file.
+     */
+    public void cancel() {
+        stateMachine.cancel();
+    }
 
-        initMediaRecorder(size[0], size[1]);
+    private boolean prepareRecording() {
+        try {
+            output = createOutputFile();
+            if (!admitStorage()) {
+                output = null;
+                return false;
+            }
+            int[] screenSize = getScreenSize();
+            CropGeometry geometry = createCropGeometry(screenSize[0], screenSize[1]);
+            int[] targetSize = geometry != null ? new int[]{geometry.getOutputWidth(), geometry.getOutputHeight()}
+                    : calculateRecordSize(screenSize[0], screenSize[1]);
+            settings = new EncoderSettings(targetSize[0], targetSize[1], fps, bitrate);
+            encoder = createRecordEncoder();
+            if (resolveCapabilities) encoder.setSettingsResolver(this::resolveSettings);
+            encoder.prepare(output, settings.width, settings.height);
+            // aligned and limited for the encoder that was picked
+            if (encoder.getSettings() != null) settings = encoder.getSettings();
+            recordSize = new int[]{settings.width, settings.height};
+            displaySize = recordSize;
+            if (geometry != null) {
+                geometry = geometry.withOutputSize(recordSize[0], recordSize[1]);
+                compositor = new GlCompositor(encoder.getInputSurface(), recordSize[0], recordSize[1], geometry);
+                // masks go last, they also cover touch markers on hidden rects
+                if (overlay != null) compositor.addStage(new OverlayStage(overlay, geometry));
+                if (redactionMasks != null) compositor.addStage(new RedactionStage(redactionMasks, geometry));
+                compositor.start();
+                displaySize = new int[]{geometry.getDisplayWidth(), geometry.getDisplayHeight()};
+            }
+            virtualDisplay = createVirtualDisplay(displaySize[0], displaySize[1]);
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            cancelRecording();
+            notifyError(ErrorCode.RECORD_ERROR, e.toString());
+            return false;
+        }
+    }
 
+    private boolean startRecording() {
         try {
-            mediaRecorder.prepare();
-            initVirtualDisplay(size[0], size[1], mediaRecorder.getSurface());
-            mediaRecorder.start();
-            startTimer();
+            encoder.start();
+            virtualDisplay.setSurface(recordingSurface());
+            if (idleFrameRate > 0 && projection != null) startIdleDetection(recordSize[0], recordSize[1]);
+            RecordMetrics metrics = encoder.getMetrics();
+            if (metrics != null) metrics.setStartNanos(startNanos);
+            PostProcessor.getDefault().onRecordingStarted();
+            throttlingPostProcess = true;
+            startProgress();
+            return true;
         } catch (Exception e) {
             e.printStackTrace();
             release();
             notifyError(ErrorCode.RECORD_ERROR, e.toString());
+            return false;
         }
     }
 
-    private void startTimer() {
-        duration = 0;
-        timer = new Timer();
-        timer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                duration += 100;
-                notifyDurationChanged(duration);
+    private boolean isRecording() {
+        return stateMachine.getState() == RecordState.RECORDING;
+    }
+
+    private void onStateChanged(int state) {
+        if (state == RecordState.IDLE && deferIdle) return;
+        postCallback(callback -> callback.onStateChanged(state));
+    }
+
+    private boolean admitStorage() {
+        if (storageMarginBytes <= 0) {
+            storageEstimator = null;
+            return true;
+        }
+        storageEstimator = new StorageEstimator(storageMarginBytes, bitrate / 8);
+        long available = outputDir.getUsableSpace();
+        if (storageEstimator.canStart(available, MIN_STORAGE_MS)) return true;
+        notifyError(ErrorCode.STORAGE_FULL, "not enough storage, " + available + " bytes available");
+        return false;
+    }
+
+    private void checkStorage(long durationMs) {
+        if (!isRecording()) return;
+        RecordMetrics metrics = encoder.getMetrics();
+        long written = metrics != null ? metrics.getBytesWritten() : output.length();
+        storageEstimator.update(durationMs, written, outputDir.getUsableSpace());
+        if (!storageEstimator.isRunningOut(STORAGE_STOP_LEAD_MS)) return;
+        storagePublisher.stop();
+        notifyError(ErrorCode.STORAGE_FULL, "storage almost full, recording stopped");
+        stateMachine.stop();
+    }
+
+    private void startProgress() {
+        if (progressPublisher == null) {
+            progressPublisher = new ProgressPublisher(handler, progressInterval, this::notifyDurationChanged);
+        }
+        progressPublisher.start();
+        if (metricsInterval > 0) {
+            if (metricsPublisher == null) {
+                metricsPublisher = new ProgressPublisher(handler, metricsInterval, duration -> publishMetrics());
+            }
+            metricsPublisher.start();
+        }
+        if (storageEstimator != null) {
+            if (storagePublisher == null) {
+                storagePublisher = new ProgressPublisher(handler, STORAGE_CHECK_INTERVAL_MS, this::checkStorage);
             }
-        }, 100, 100);
+            storagePublisher.start();
+        }
+    }
+
+    private void publishMetrics() {
+        synchronized (metricsSnapshot) {
+            takeMetrics(metricsSnapshot);
+            metricsPublished = true;
+        }
+        if (metricsPending.compareAndSet(false, true)) callbackHandler.post(deliverMetrics);
+    }
+
+    private void deliverMetrics() {
+        metricsPending.set(false);
+        synchronized (metricsSnapshot) {
+            deliveredMetrics.set(metricsSnapshot);
+        }
+        ScreenRecordCallback callback = this.callback;
+        if (callback != null) callback.onMetrics(deliveredMetrics);
     }
 
-    private void initVirtualDisplay(int width, int height, Surface surface) {
+    /**
+     * Copies the latest stats published while recording, see {@link RecordConfig#setMetricsIntervalMs(int)}.
+     * May be called on any thread.
+     *
+     * @return false if none were published yet.
+     */
+    public boolean getMetrics(@NonNull MetricsSnapshot out) {
+        synchronized (metricsSnapshot) {
+            if (!metricsPublished) return false;
+            out.set(metricsSnapshot);
+            return true;
+        }
+    }
+
+    /**
+     * Fills {@code out} with the stats of the running recording, rates cover the time since the
+     * previous call, only the metrics publisher may call it.
+     */
+    private void takeMetrics(@NonNull MetricsSnapshot out) {
+        RecordEncoder encoder = this.encoder;
+        File output = this.output;
+        ProgressPublisher progressPublisher = this.progressPublisher;
+        RecordMetrics metrics = encoder != null ? encoder.getMetrics() : null;
+        if (metrics != null) {
+            metrics.snapshot(System.nanoTime(), out);
+        } else {
+            out.timeToFirstFrameMs = -1;
+        }
+        out.elapsedMs = progressPublisher != null ? progressPublisher.getElapsedMs() : 0;
+        out.fileSize = output != null ? output.length() : 0;
+        long stored = metrics != null ? out.bytesWritten : out.fileSize;
+        out.bytesPerMinute = out.elapsedMs > 0 ? stored * 60_000L / out.elapsedMs : 0;
+        out.videoMime = encoder != null ? encoder.getVideoMime() : null;
+        out.codecName = encoder != null ? encoder.getCodecName() : null;
+    }
+
+    private VirtualDisplay createVirtualDisplay(int width, int height) {
+        // the compositor scales the app display into the encoder surface
+        if (sourceDisplay != null) return sourceDisplay;
         DisplayMetrics displayMetrics = context.getResources().getDisplayMetrics();
         int flag = DisplayManager.VIRTUAL_DISPLAY_FLAG_AUTO_MIRROR;
-        virtualDisplay = projection.createVirtualDisplay("ScreenRecord", width, height, displayMetrics.densityDpi,
-                                                         flag, surface, null, null);
+        // composes nothing until start() attaches the encoder surface
+        return projection.createVirtualDisplay("ScreenRecord", width, height, displayMetrics.densityDpi,
+                                               flag, null, null, null);
     }
 
-    private void initMediaRecorder(int width, int height) {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-            mediaRecorder = new MediaRecorder(context);
-        } else {
-            mediaRecorder = new MediaRecorder();
+    private void startIdleDetection(int width, int height) {
+        int densityDpi = context.getResources().getDisplayMetrics().densityDpi;
+        idleDetector = new IdleScreenDetector(projection, width, height, densityDpi,
+                                              idle -> handler.post(() -> onIdleChanged(idle)));
+        if (!idleDetector.start()) idleDetector = null;
+    }
+
+    private void onIdleChanged(boolean idle) {
+        this.idle = idle;
+        if (virtualDisplay == null || encoder == null) return;
+        // a detached display sends nothing, reattaching composes the current screen again
+        virtualDisplay.setSurface(recordingSurface());
+    }
+
+    @Nullable
+    private Surface recordingSurface() {
+        if (idle || paused) return null;
+        return compositor != null ? compositor.getInputSurface() : encoder.getInputSurface();
+    }
+
+    /**
+     * Stops recording without finishing the file, the paused time is cut out of the recording and
+     * its duration.
+     */
+    public void pause() {
+        handler.post(this::pauseRecording);
+    }
+
+    public void resume() {
+        handler.post(this::resumeRecording);
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    private void pauseRecording() {
+        if (!isRecording()) {
+            notifyPauseError("recorder not started");
+            return;
+        }
+        if (paused) return;
+        if (!encoder.pause()) {
+            notifyPauseError("pause not supported");
+            return;
         }
+        paused = true;
+        if (virtualDisplay != null) virtualDisplay.setSurface(null);
+        if (progressPublisher != null) progressPublisher.pause();
+        if (storagePublisher != null) storagePublisher.pause();
+        notifyPauseChanged();
+    }
 
-        boolean isRecordAudio = recordAudio && checkAudioPermission();
-        if (isRecordAudio) {
-            mediaRecorder.setAudioSource(MediaRecorder.AudioSource.MIC);
-        }
-        mediaRecorder.setVideoSource(MediaRecorder.VideoSource.SURFACE);
-        mediaRecorder.setOutputFormat(MediaRecorder.OutputFormat.MPEG_4);
-        mediaRecorder.setVideoEncoder(MediaRecorder.VideoEncoder.H264);
-        if (isRecordAudio) {
-            mediaRecorder.setAudioEncoder(MediaRecorder.AudioEncoder.AAC);
-        }
-        mediaRecorder.setOutputFile(output.getAbsolutePath());
-        mediaRecorder.setVideoEncodingBitRate(bitrate);
-        mediaRecorder.setVideoSize(width, height);
-        mediaRecorder.setVideoFrameRate(fps);
-        mediaRecorder.setMaxDuration((int) maxDuration);
-
-        mediaRecorder.setOnInfoListener((mr, what, extra) -> {
-            if (what == MEDIA_RECORDER_INFO_MAX_DURATION_REACHED ||
-                    what == MEDIA_RECORDER_INFO_MAX_FILESIZE_REACHED) {
-                stop();
+    private void resumeRecording() {
+        if (!isRecording() || !paused) return;
+        paused = false;
+        // timestamps restart where the pause began before the display sends the next frame
+        encoder.resume();
+        if (virtualDisplay != null) virtualDisplay.setSurface(recordingSurface());
+        if (progressPublisher != null) progressPublisher.resume();
+        if (storagePublisher != null) storagePublisher.resume();
+        notifyPauseChanged();
+    }
+
+    private void notifyPauseChanged() {
+        boolean paused = this.paused;
+        postCallback(callback -> callback.onPauseChanged(paused));
+    }
+
+    private void notifyPauseError(String msg) {
+        postCallback(callback -> callback.onError(ErrorCode.PAUSE_ERROR, msg));
+    }
+
+    /**
+     * Saves {@code count} stills of the recording {@code intervalMs} apart, see
+     * {@link ScreenRecordCallback#onFrameCaptured(File)}. Needs {@link RecordConfig#setFrameCapture(boolean)},
+     * a still is the frame the encoder gets, cropped, masked and with the overlay.
+     */
+    public void captureFrames(int count, int intervalMs) {
+        handler.post(() -> grabFrames(count, intervalMs));
+    }
+
+    private void grabFrames(int count, int intervalMs) {
+        if (!isRecording()) {
+            notifyCaptureError("recorder not started");
+            return;
+        }
+        // stills are drawn by the compositor, next to the frames of the encoder
+        if (compositor == null) {
+            notifyCaptureError("frame capture not enabled");
+            return;
+        }
+        if (frameGrabber == null) {
+            frameGrabber = new FrameGrabber(recordSize[0], recordSize[1], outputDir, captureFormat, captureQuality,
+                                            compositor::requestSnapshot,
+                                            (file, error) -> handler.post(() -> onFrameCaptured(file, error)));
+            frameGrabber.start();
+        }
+        frameGrabber.capture(Math.max(1, count), Math.max(0, intervalMs));
+    }
+
+    private void onFrameCaptured(@Nullable File file, @Nullable Exception error) {
+        if (file == null || error != null) {
+            notifyCaptureError(error != null ? error.toString() : "capture failed");
+            return;
+        }
+        postCallback(callback -> callback.onFrameCaptured(file));
+    }
+
+    private void notifyCaptureError(String msg) {
+        postCallback(callback -> callback.onError(ErrorCode.CAPTURE_ERROR, msg));
+    }
+
+    private RecordEncoder createRecordEncoder() {
+        RecordEncoder encoder = customEncoder != null ? customEncoder : createEncoder();
+        encoder.setListener(new RecordEncoder.Listener() {
+            @Override
+            public void onMaxDurationReached() {
+                stateMachine.stop();
+            }
+
+            @Override
+            public void onStopped(@Nullable Exception error) {
+                stateMachine.onStopped(error);
+            }
+
+            @Override
+            public void onSegmentCompleted(@NonNull File segment, @NonNull File next) {
+                handler.post(() -> onEncoderSegmentCompleted(segment, next));
+            }
+
+            @Override
+            public void onSegmentFailed(@NonNull File segment, @NonNull File next, @NonNull Exception error) {
+                handler.post(() -> onEncoderSegmentFailed(segment, error, next));
+            }
+
+            @Override
+            public void onReplaySaved(@NonNull File file, @Nullable Exception error) {
+                handler.post(() -> onEncoderReplaySaved(file, error));
+            }
+
+            @Override
+            public void onError(@NonNull Exception error) {
+                // ends the recording like a failed stop
+                stateMachine.onStopped(error);
             }
         });
+        return encoder;
+    }
+
+    private RecordEncoder createEncoder() {
+        if (encoderType == EncoderType.MEDIA_CODEC) {
+            MediaCodecEncoder codecEncoder = new MediaCodecEncoder(settings.bitrate, settings.fps,
+                                                                   keyFrameIntervalSec, maxDuration);
+            codecEncoder.setContainerFormat(containerFormat, fragmentDuration * 1000L);
+            codecEncoder.setFileStorage(preallocateOutput, syncPolicy);
+            codecEncoder.setVideoCodecs(videoCodecs);
+            codecEncoder.setSegmentLimits(segmentDuration * 1000L, segmentMaxBytes);
+            codecEncoder.setReplayBuffer(replayBufferBytes, replayDuration * 1000L);
+            if (adaptiveBitrate) {
+                codecEncoder.setAdaptiveBitrate(Math.min(minBitrate, settings.bitrate), bitratePolicy);
+            }
+            if (idleFrameRate > 0) {
+                codecEncoder.setRepeatFrameInterval(1_000_000L / idleFrameRate);
+            }
+            for (int i = 0; i < sampleSinks.size(); i++) {
+                codecEncoder.addSampleSink(sampleSinks.get(i), sinkPolicies.get(i));
+            }
+            int source = AudioCapture.resolveSource(audioSource != AudioSource.NONE ? audioSource
+                                                            : recordAudio ? AudioSource.MIC : AudioSource.NONE);
+            if (projection == null) {
+                // playback capture needs a projection, an app display only records the microphone
+                source = source == AudioSource.PLAYBACK_AND_MIC ? AudioSource.MIC
+                        : source == AudioSource.PLAYBACK ? AudioSource.NONE : source;
+            }
+            if (source != AudioSource.NONE && checkAudioPermission()) {
+                codecEncoder.setAudioCapture(new AudioCapture(projection, source));
+            }
+            return codecEncoder;
+        }
+        for (SampleSink sink : sampleSinks) {
+            sink.onStopped(new IllegalStateException("sample sinks need EncoderType.MEDIA_CODEC"));
+        }
+        boolean isRecordAudio = recordAudio && checkAudioPermission();
+        MediaRecorderEncoder recorderEncoder = new MediaRecorderEncoder(context, settings.bitrate, settings.fps,
+                                                                        isRecordAudio, maxDuration);
+        recorderEncoder.setVideoCodecs(videoCodecs);
+        return recorderEncoder;
+    }
+
+    private EncoderSettings resolveSettings(String mime, String codecName, EncoderSettings requested) {
+        EncoderProfile profile = CapabilityProbe.getProfile(context, mime, codecName);
+        if (profile == null) return requested;
+        return new CapabilityResolver(profile).resolve(requested.width, requested.height, requested.fps, requested.bitrate);
     }
 
     private boolean checkAudioPermission() {
@@ -149,13 +594,30 @@ public class ScreenRecorder {
         return ContextCompat.checkSelfPermission(context, p) == PackageManager.PERMISSION_GRANTED;
     }
 
-    private int[] calculateRecordSize() {
+    private int[] getScreenSize() {
         WindowManager windowManager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
         DisplayMetrics displayMetrics = new DisplayMetrics();
-        windowManager.getDefaultDisplay().getRealMetrics(displayMetrics);
-        int screenWidth = displayMetrics.widthPixels;
-        int screenHeight = displayMetrics.heightPixels;
+        Display display = sourceDisplay != null ? sourceDisplay.getDisplay() : windowManager.getDefaultDisplay();
+        display.getRealMetrics(displayMetrics);
+        return new int[]{displayMetrics.widthPixels, displayMetrics.heightPixels};
+    }
 
+    /**
+     * @return null when the whole screen is recorded upright without masks or overlay, the display
+     * then renders straight into the encoder.
+     */
+    @Nullable
+    private CropGeometry createCropGeometry(int screenWidth, int screenHeight) {
+        boolean drawn = redactionMasks != null || overlay != null || frameCapture;
+        if (cropRect == null && outputRotation % 360 == 0 && !drawn) return null;
+        CropGeometry geometry = cropRect != null
+                ? new CropGeometry(screenWidth, screenHeight, cropRect[0], cropRect[1], cropRect[2], cropRect[3],
+                                   outputRotation, maxWidth, maxHeight)
+                : new CropGeometry(screenWidth, screenHeight, 0, 0, 0, 0, outputRotation, maxWidth, maxHeight);
+        return geometry.isFullScreen() && !drawn ? null : geometry;
+    }
+
+    private int[] calculateRecordSize(int screenWidth, int screenHeight) {
         float widthScale = (screenWidth <= maxWidth) ? 1f : 1f * maxWidth / screenWidth;
         float heightScale = (screenHeight <= maxHeight) ? 1f : 1f * maxHeight / screenHeight;
         float scale = Math.min(widthScale, heightScale);
@@ -168,102 +630,288 @@ public class ScreenRecorder {
         return new int[]{width, height};
     }
 
-    private void initOutputFile() {
+    private File createOutputFile() {
         if (!outputDir.exists()) {
             outputDir.mkdirs();
         }
         String fileName = System.currentTimeMillis() + ".temp";
-        output = new File(outputDir, fileName);
+        return new File(outputDir, fileName);
     }
 
-    public void cancel() {
+    private void cancelRecording() {
         release();
 
-        if (output != null && output.exists()) {
-            output.delete();
+        if (output != null) {
+            RecoveryInfo.sidecarOf(output).delete();
+            if (output.exists()) output.delete();
             output = null;
         }
     }
 
-    public void stop() {
-        Exception error = null;
-        try {
-            mediaRecorder.stop();
-        } catch (Exception e) {
-            error = e;
-        }
+    private void stopRecording() {
+        stopProgress();
+        encoder.stop();
+    }
 
+    private void finishRecording(@Nullable Exception error) {
         release();
 
         if (error == null && output != null && output.exists()) {
-            String fileName = System.currentTimeMillis() + ".mp4";
-            File newFile = new File(outputDir, fileName);
-            output.renameTo(newFile);
-            notifyCompleted(newFile);
+            File file = renameToMp4(output);
+            if (postProcessSteps == 0) {
+                notifyCompleted(file);
+                return;
+            }
+            // onCompleted waits for the steps, a failed step still delivers the recording
+            deferIdle = true;
+            PostProcessor.getDefault().process(file, postProcessSteps, trimStartUs, (processed, stepError) -> {
+                notifyCompleted(processed);
+                deliverDeferredIdle();
+            });
         } else {
             notifyError(ErrorCode.RECORD_ERROR, error != null ? error.toString() : "output not found");
         }
     }
 
-    private void release() {
-        mainHandler.removeCallbacksAndMessages(null);
-        if (timer != null) {
-            timer.cancel();
-            timer = null;
+    private void deliverDeferredIdle() {
+        deferIdle = false;
+        // a new recording may have started while the steps ran
+        if (stateMachine.getState() == RecordState.IDLE) onStateChanged(RecordState.IDLE);
+    }
+
+    private void onEncoderSegmentCompleted(File segment, File next) {
+        output = next;
+        File newFile = renameToMp4(segment);
+        postCallback(callback -> callback.onSegmentCompleted(newFile));
+    }
+
+    private void onEncoderSegmentFailed(File segment, Exception error, File next) {
+        // the file being written moves on, the broken one stays .temp
+        output = next;
+        notifyError(ErrorCode.SEGMENT_ERROR, segment.getName() + ": " + error);
+    }
+
+    /**
+     * Saves the last seconds kept by the replay buffer while recording continues, the file is
+     * delivered through {@link ScreenRecordCallback#onReplaySaved(File)}.
+     */
+    public void saveReplay() {
+        handler.post(this::saveReplayWindow);
+    }
+
+    private void saveReplayWindow() {
+        if (!isRecording()) {
+            notifyReplayError("recorder not started");
+            return;
+        }
+        File file = new File(outputDir, System.currentTimeMillis() + "_replay.temp");
+        if (!encoder.saveReplay(file)) {
+            notifyReplayError("replay buffer not enabled");
+        }
+    }
+
+    private void onEncoderReplaySaved(File file, Exception error) {
+        if (error != null) {
+            file.delete();
+            notifyReplayError(error.toString());
+            return;
         }
+        File newFile = renameToMp4(file);
+        postCallback(callback -> callback.onReplaySaved(newFile));
+    }
+
+    private void notifyReplayError(String msg) {
+        postCallback(callback -> callback.onError(ErrorCode.REPLAY_ERROR, msg));
+    }
 
-        if (mediaRecorder != null) {
-            mediaRecorder.release();
-            mediaRecorder = null;
+    private File renameToMp4(File file) {
+        String fileName = System.currentTimeMillis() + ".mp4";
+        File newFile = new File(outputDir, fileName);
+        if (newFile.exists()) {
+            newFile = new File(outputDir, System.currentTimeMillis() + "_" + System.nanoTime() + ".mp4");
         }
+        file.renameTo(newFile);
+        return newFile;
+    }
 
+    @NonNull
+    public static File getDefaultOutputDir(@NonNull Context context) {
+        File cache = context.getExternalCacheDir() == null ? context.getCacheDir() : context.getExternalCacheDir();
+        return new File(cache, "screen_record");
+    }
+
+    private void stopProgress() {
+        if (progressPublisher != null) {
+            progressPublisher.stop();
+        }
+        if (metricsPublisher != null) {
+            metricsPublisher.stop();
+        }
+        if (storagePublisher != null) {
+            storagePublisher.stop();
+        }
+    }
+
+    private void release() {
+        // only drops the events of this recording, commands queued on the state machine stay
+        handler.removeCallbacksAndMessages(null);
+        stopProgress();
+
+        if (idleDetector != null) {
+            idleDetector.release();
+            idleDetector = null;
+        }
+        if (frameGrabber != null) {
+            frameGrabber.release();
+            frameGrabber = null;
+        }
+        idle = false;
+        paused = false;
         if (virtualDisplay != null) {
-            virtualDisplay.release();
+            if (virtualDisplay == sourceDisplay) {
+                virtualDisplay.setSurface(null);
+            } else {
+                virtualDisplay.release();
+            }
             virtualDisplay = null;
         }
+        // stops drawing into the encoder surface before the encoder releases it
+        if (compositor != null) {
+            compositor.release();
+            compositor = null;
+        }
+
+        if (encoder != null) {
+            encoder.release();
+            encoder = null;
+        }
+
+        if (throttlingPostProcess) {
+            throttlingPostProcess = false;
+            PostProcessor.getDefault().onRecordingStopped();
+        }
     }
 
     private void notifyCompleted(File file) {
-        isRunning = false;
-
-        if (callback == null) return;
-        callback.onCompleted(file);
+        postCallback(callback -> callback.onCompleted(file));
     }
 
     private void notifyError(int code, String msg) {
-        isRunning = false;
-
-        if (callback == null) return;
-        callback.onError(code, msg);
+        postCallback(callback -> callback.onError(code, msg));
     }
 
     private void notifyDurationChanged(long duration) {
-        if (callback == null) return;
-        ScreenRecordCallback temp = callback;
-        mainHandler.post(() -> {
-            temp.onDurationChanged(duration);
+        // ticks while a delivery is still queued only update the duration it delivers
+        publishedDuration = duration;
+        if (durationPending.compareAndSet(false, true)) callbackHandler.post(deliverDuration);
+    }
+
+    private void deliverDuration() {
+        // cleared before reading, a later tick posts again
+        durationPending.set(false);
+        ScreenRecordCallback callback = this.callback;
+        if (callback != null) callback.onDurationChanged(publishedDuration);
+    }
+
+    private void postCallback(CallbackEvent event) {
+        callbackHandler.post(() -> {
+            ScreenRecordCallback callback = this.callback;
+            if (callback != null) event.dispatch(callback);
         });
     }
 
+    private interface CallbackEvent {
+        void dispatch(@NonNull ScreenRecordCallback callback);
+    }
+
+    private final class Lifecycle implements RecorderStateMachine.Actions {
+        @Override
+        public boolean prepare() {
+            return prepareRecording();
+        }
+
+        @Override
+        public boolean start() {
+            return startRecording();
+        }
+
+        @Override
+        public void stop() {
+            stopRecording();
+        }
+
+        @Override
+        public void finish(@Nullable Exception error) {
+            finishRecording(error);
+        }
+
+        @Override
+        public void cancel() {
+            cancelRecording();
+        }
+    }
+
     public static class Builder {
         private int maxWidth = 720;
         private int maxHeight = 1280;
         private int bitrate = 720 * 1280 * 3;
-        private int fps = 30;
+        private int fps = DEFAULT_FPS;
         private boolean recordAudio = false;
+        private int audioSource = AudioSource.NONE;
+        private int idleFrameRate = 0;
+        private boolean frameCapture = false;
+        private int captureFormat = CaptureFormat.JPEG;
+        private int captureQuality = 90;
+        private final List<SampleSink> sampleSinks = new ArrayList<>();
+        private final List<Integer> sinkPolicies = new ArrayList<>();
         private int maxDurationSec = 60;
         private File outputDir;
+        private int encoderType = EncoderType.MEDIA_RECORDER;
+        private int keyFrameIntervalSec = 1;
+        private int segmentDurationSec = 0;
+        private long segmentMaxBytes = 0;
+        private int containerFormat = ContainerFormat.MP4;
+        private int fragmentDurationMs = 1000;
+        private boolean preallocateOutput = false;
+        private int syncPolicy = SyncPolicy.ON_FINISH;
+        private long storageMarginBytes = 0;
+        private boolean resolveCapabilities = true;
+        private int[] videoCodecs = {VideoCodec.H264};
+        private int[] cropRect;
+        private int outputRotation = 0;
+        private int replayBufferBytes = 0;
+        private int replayDurationSec = 30;
+        private boolean adaptiveBitrate = false;
+        private int minBitrate = 0;
+        private BitratePolicy bitratePolicy;
+        private RecordEncoder encoder;
+        private int progressIntervalMs = 100;
+        private int metricsIntervalMs = 0;
+        private int postProcessSteps = 0;
+        private int trimStartMs = 1000;
 
         private final Context context;
         private final MediaProjection projection;
+        private VirtualDisplay sourceDisplay;
+        private RedactionMasks redactionMasks;
+        private RecordOverlay overlay;
 
         private ScreenRecordCallback callback;
+        private Looper looper;
 
         public Builder(@NonNull Context context, @NonNull MediaProjection projection) {
             this.context = context;
             this.projection = projection;
-            File cache = context.getExternalCacheDir() == null ? context.getCacheDir() : context.getExternalCacheDir();
-            outputDir = new File(cache, "screen_record");
+            outputDir = getDefaultOutputDir(context);
+        }
+
+        /**
+         * Records the display set by {@link #setVirtualDisplay(VirtualDisplay)}, no projection is needed.
+         */
+        public Builder(@NonNull Context context) {
+            this.context = context;
+            this.projection = null;
+            outputDir = getDefaultOutputDir(context);
         }
 
         public Builder setConfig(RecordConfig config) {
@@ -282,12 +930,102 @@ public class ScreenRecorder {
             if (config.getRecordAudio() != null) {
                 recordAudio = config.getRecordAudio();
             }
+            if (config.getAudioSource() != null) {
+                audioSource = config.getAudioSource();
+            }
+            if (config.getIdleFrameRate() != null) {
+                idleFrameRate = config.getIdleFrameRate();
+            }
+            if (config.getFrameCapture() != null) {
+                frameCapture = config.getFrameCapture();
+            }
+            if (config.getCaptureFormat() != null) {
+                captureFormat = config.getCaptureFormat();
+            }
+            if (config.getCaptureQuality() != null) {
+                captureQuality = config.getCaptureQuality();
+            }
             if (config.getMaxDurationSec() != null) {
                 maxDurationSec = config.getMaxDurationSec();
             }
             if (config.getOutputDir() != null) {
                 outputDir = config.getOutputDir();
             }
+            if (config.getEncoderType() != null) {
+                encoderType = config.getEncoderType();
+            }
+            if (config.getKeyFrameIntervalSec() != null) {
+                keyFrameIntervalSec = config.getKeyFrameIntervalSec();
+            }
+            if (config.getSegmentDurationSec() != null) {
+                segmentDurationSec = config.getSegmentDurationSec();
+            }
+            if (config.getSegmentMaxBytes() != null) {
+                segmentMaxBytes = config.getSegmentMaxBytes();
+            }
+            if (config.getContainerFormat() != null) {
+                containerFormat = config.getContainerFormat();
+            }
+            if (config.getFragmentDurationMs() != null) {
+                fragmentDurationMs = config.getFragmentDurationMs();
+            }
+            if (config.getPreallocateOutput() != null) {
+                preallocateOutput = config.getPreallocateOutput();
+            }
+            if (config.getSyncPolicy() != null) {
+                syncPolicy = config.getSyncPolicy();
+            }
+            if (config.getStorageMarginBytes() != null) {
+                storageMarginBytes = config.getStorageMarginBytes();
+            }
+            if (config.getResolveCapabilities() != null) {
+                resolveCapabilities = config.getResolveCapabilities();
+            }
+            if (config.getCropRect() != null) {
+                cropRect = config.getCropRect();
+            }
+            if (config.getOutputRotation() != null) {
+                outputRotation = config.getOutputRotation();
+            }
+            if (config.getVideoCodecs() != null && config.getVideoCodecs().length > 0) {
+                videoCodecs = config.getVideoCodecs();
+            }
+            if (config.getReplayBufferBytes() != null) {
+                replayBufferBytes = config.getReplayBufferBytes();
+            }
+            if (config.getReplayDurationSec() != null) {
+                replayDurationSec = config.getReplayDurationSec();
+            }
+            if (config.getProgressIntervalMs() != null) {
+                progressIntervalMs = config.getProgressIntervalMs();
+            }
+            if (config.getMetricsIntervalMs() != null) {
+                metricsIntervalMs = config.getMetricsIntervalMs();
+            }
+            if (config.getPostProcessSteps() != null) {
+                postProcessSteps = config.getPostProcessSteps();
+            }
+            if (config.getTrimStartMs() != null) {
+                trimStartMs = config.getTrimStartMs();
+            }
+            if (config.getAdaptiveBitrate() != null) {
+                adaptiveBitrate = config.getAdaptiveBitrate();
+            }
+            if (config.getMinBitrate() != null) {
+                minBitrate = config.getMinBitrate();
+            }
+            return this;
+        }
+
+        /**
+         * Streams a copy of the encoded samples to {@code sink} while recording, only with
+         * {@link EncoderType#MEDIA_CODEC}.
+         *
+         * @param policy one of {@link SinkPolicy}.
+         */
+        public Builder addSampleSink(@NonNull SampleSink sink, int policy) {
+            sampleSinks.add(sink);
+            sinkPolicies.add(policy);
             return this;
         }
 
@@ -296,7 +1034,64 @@ public class ScreenRecorder {
             return this;
         }
 
+        /**
+         * Use a custom encoder backend instead of the one selected by {@link RecordConfig#setEncoderType(int)}.
+         */
+        public Builder setEncoder(@NonNull RecordEncoder encoder) {
+            this.encoder = encoder;
+            return this;
+        }
+
+        /**
+         * Replaces {@link AimdBitratePolicy} of {@link RecordConfig#setAdaptiveBitrate(boolean)}.
+         */
+        public Builder setBitratePolicy(@NonNull BitratePolicy policy) {
+            this.bitratePolicy = policy;
+            return this;
+        }
+
+        /**
+         * Records a display the app created itself, a {@code Presentation} for example, instead of
+         * mirroring the screen. The recorder only attaches its surface while recording and never
+         * releases the display. Audio is limited to the microphone without a projection.
+         */
+        public Builder setVirtualDisplay(@NonNull VirtualDisplay display) {
+            this.sourceDisplay = display;
+            return this;
+        }
+
+        /**
+         * Hides the rects of {@code masks} from the recording or withholds frames while they are
+         * blocked. Frames then pass the GL compositor, stills of {@link ScreenRecorder#captureFrames(int, int)}
+         * are masked too.
+         */
+        public Builder setRedactionMasks(@NonNull RedactionMasks masks) {
+            this.redactionMasks = masks;
+            return this;
+        }
+
+        /**
+         * Draws the text, bitmaps and touches of {@code overlay} onto the recording, frames then
+         * pass the GL compositor. Stills of {@link ScreenRecorder#captureFrames(int, int)} show
+         * it too.
+         */
+        public Builder setOverlay(@NonNull RecordOverlay overlay) {
+            this.overlay = overlay;
+            return this;
+        }
+
+        /**
+         * Runs the recorder on {@code looper} instead of the shared {@link RecorderThread}.
+         */
+        public Builder setLooper(@NonNull Looper looper) {
+            this.looper = looper;
+            return this;
+        }
+
         public ScreenRecorder build() {
+            if (projection == null && sourceDisplay == null) {
+                throw new IllegalStateException("a MediaProjection or a VirtualDisplay is needed");
+            }
             return new ScreenRecorder(this);
         }
     }
@@ -0,0 +1,181 @@
+package com.zrh.record.screen;
+
+import android.media.MediaCodec;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splits the recording into several files. A new segment is opened on the first video keyframe
+ * after the duration or size limit is reached, so every segment starts with a keyframe and no
+ * sample is lost. Closed segments are finalized on a background thread while recording continues.
+ *
+ * @author zrh
+ * @date 2023/7/22
+ */
+public class SegmentedSampleWriter implements SampleWriter {
+    private static final long FINALIZE_TIMEOUT_SEC = 10;
+
+    private final File firstFile;
+    private final TrackFormat[] formats;
+    private final int[] trackMap;
+    private final long maxDurationUs;
+    private final long maxBytes;
+    private final SampleWriterFactory factory;
+    private final ExecutorService finalizer = Executors.newSingleThreadExecutor();
+
+    private Listener listener;
+
+    private SampleWriter current;
+    private File currentFile;
+    // the segment being finished, its tail is still written after the rotation
+    private SampleWriter closing;
+    private long closedWriteNanos;
+    private int segmentIndex;
+    private int addedTracks;
+    private int videoTrack = -1;
+    private long segmentStartUs = -1;
+    private long segmentBytes;
+
+    public SegmentedSampleWriter(@NonNull File firstFile, int trackCount, long maxDurationUs, long maxBytes,
+                                 @NonNull SampleWriterFactory factory) throws IOException {
+        this.firstFile = firstFile;
+        this.formats = new TrackFormat[trackCount];
+        this.trackMap = new int[trackCount];
+        this.maxDurationUs = maxDurationUs;
+        this.maxBytes = maxBytes;
+        this.factory = factory;
+        this.currentFile = firstFile;
+        this.current = factory.create(firstFile, trackCount);
+    }
+
+    public void setListener(@Nullable Listener listener) {
+        this.listener = listener;
+    }
+
+    @NonNull
+    public synchronized File getCurrentFile() {
+        return currentFile;
+    }
+
+    @Override
+    public synchronized int addTrack(@NonNull TrackFormat format) throws IOException {
+        int track = addedTracks++;
+        formats[track] = format;
+        trackMap[track] = current.addTrack(format);
+        if (videoTrack < 0 && format.isVideo()) {
+            videoTrack = track;
+        }
+        return track;
+    }
+
+    @Override
+    public synchronized boolean isStarted() {
+        return current.isStarted();
+    }
+
+    @Override
+    public synchronized void writeSampleData(int track, @NonNull ByteBuffer buffer, @NonNull SampleInfo info) throws IOException {
+        if (track == videoTrack) {
+            if (segmentStartUs < 0) {
+                segmentStartUs = info.presentationTimeUs;
+            } else if ((info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0 && isSegmentFull(info.presentationTimeUs)) {
+                rotate(info.presentationTimeUs);
+            }
+        }
+        current.writeSampleData(trackMap[track], buffer, info);
+        segmentBytes += info.size;
+    }
+
+    private boolean isSegmentFull(long presentationTimeUs) {
+        if (maxDurationUs > 0 && presentationTimeUs - segmentStartUs >= maxDurationUs) return true;
+        return maxBytes > 0 && segmentBytes >= maxBytes;
+    }
+
+    private void rotate(long presentationTimeUs) throws IOException {
+        SampleWriter closing = current;
+        File closingFile = currentFile;
+        if (this.closing != null) closedWriteNanos += Math.max(0, this.closing.getBackgroundWriteNanos());
+        this.closing = closing;
+
+        segmentIndex++;
+        currentFile = segmentFile(segmentIndex);
+        current = factory.create(currentFile, formats.length);
+        for (int i = 0; i < formats.length; i++) {
+            trackMap[i] = current.addTrack(formats[i]);
+        }
+        segmentStartUs = presentationTimeUs;
+        segmentBytes = 0;
+
+        File next = currentFile;
+        finalizer.execute(() -> finish(closing, closingFile, next));
+    }
+
+    private void finish(SampleWriter writer, File file, File next) {
+        try {
+            writer.stop();
+            if (listener != null) listener.onSegmentCompleted(file, next);
+        } catch (Exception e) {
+            // keep the unfinished file around, it can still be salvaged later
+            e.printStackTrace();
+            if (listener != null) listener.onSegmentFailed(file, next, e);
+        } finally {
+            writer.release();
+        }
+    }
+
+    private File segmentFile(int index) {
+        String name = firstFile.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot < 0 ? name : name.substring(0, dot);
+        String ext = dot < 0 ? "" : name.substring(dot);
+        return new File(firstFile.getParentFile(), base + "_" + index + ext);
+    }
+
+    @Override
+    public void stop() throws IOException {
+        synchronized (this) {
+            current.stop();
+        }
+        finalizer.shutdown();
+        try {
+            finalizer.awaitTermination(FINALIZE_TIMEOUT_SEC, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public synchronized void release() {
+        finalizer.shutdown();
+        current.release();
+    }
+
+    @Override
+    public synchronized long getBackgroundWriteNanos() {
+        long nanos = current.getBackgroundWriteNanos();
+        if (nanos < 0) return -1;
+        if (closing != null) nanos += Math.max(0, closing.getBackgroundWriteNanos());
+        return closedWriteNanos + nanos;
+    }
+
+    public interface Listener {
+        /**
+         * Called on the finalizer thread once {@code segment} is complete, {@code next} is the file now being written.
+         */
+        void onSegmentCompleted(@NonNull File segment, @NonNull File next);
+
+        /**
+         * Called on the finalizer thread if {@code segment} could not be completed, recording
+         * continues into {@code next} all the same.
+         */
+        void onSegmentFailed(@NonNull File segment, @NonNull File next, @NonNull Exception error);
+    }
+}
@@ -0,0 +1,102 @@
+package com.zrh.record.screen;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Caps the number of recording sessions encoding at the same time. Every session holds at least
+ * one encoder instance, and opening more than the codec allows fails in {@code configure()} or
+ * starves the sessions already running, so sessions beyond the cap wait in FIFO order and are
+ * admitted as running ones end. Not thread safe, {@link ScreenRecordManager} uses it on the main thread.
+ *
+ * @author zrh
+ * @date 2023/8/13
+ */
+public class SessionScheduler {
+    public static final int ADMITTED = 0;
+    public static final int QUEUED = 1;
+    public static final int REJECTED = 2;
+
+    // getMaxSupportedInstances counts instances of all apps and is optimistic on many devices
+    static final int MAX_SESSIONS = 4;
+    // what is assumed before Android 6.0, where the limit can not be queried
+    static final int FALLBACK_INSTANCES = 1;
+
+    private final int maxSessions;
+    private final int maxQueued;
+    private final Set<Integer> running = new LinkedHashSet<>();
+    private final ArrayDeque<Integer> queued = new ArrayDeque<>();
+
+    /**
+     * @param maxSessions sessions encoding at the same time, at least 1.
+     * @param maxQueued   sessions waiting for a slot, more are rejected.
+     */
+    public SessionScheduler(int maxSessions, int maxQueued) {
+        this.maxSessions = Math.max(1, maxSessions);
+        this.maxQueued = Math.max(0, maxQueued);
+    }
+
+    /**
+     * @param maxInstances the encoder instance limit of the codec, 0 or less if unknown.
+     * @return how many sessions may encode at the same time.
+     */
+    public static int capacityOf(int maxInstances) {
+        if (maxInstances <= 0) return FALLBACK_INSTANCES;
+        return Math.min(maxInstances, MAX_SESSIONS);
+    }
+
+    /**
+     * @return {@link #ADMITTED} if the session may start now, {@link #QUEUED} if it is started by a
+     * later {@link #release(int)}, or {@link #REJECTED}. A session already known is not added twice.
+     */
+    public int submit(int sessionId) {
+        if (running.contains(sessionId)) return ADMITTED;
+        if (queued.contains(sessionId)) return QUEUED;
+        if (running.size() < maxSessions) {
+            running.add(sessionId);
+            return ADMITTED;
+        }
+        if (queued.size() < maxQueued) {
+            queued.addLast(sessionId);
+            return QUEUED;
+        }
+        return REJECTED;
+    }
+
+    /**
+     * Ends a running session or drops a waiting one.
+     *
+     * @return the queued session admitted into the freed slot, or -1.
+     */
+    public int release(int sessionId) {
+        if (!running.remove(sessionId)) {
+            queued.remove(sessionId);
+            return -1;
+        }
+        Integer next = queued.pollFirst();
+        if (next == null) return -1;
+        running.add(next);
+        return next;
+    }
+
+    public boolean isRunning(int sessionId) {
+        return running.contains(sessionId);
+    }
+
+    public boolean isQueued(int sessionId) {
+        return queued.contains(sessionId);
+    }
+
+    public int getRunningCount() {
+        return running.size();
+    }
+
+    public int getQueuedCount() {
+        return queued.size();
+    }
+
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+}
@@ -0,0 +1,20 @@
+package com.zrh.record.screen;
+
+/**
+ * What a {@link SampleSink} queue does when its consumer falls behind.
+ *
+ * @author zrh
+ * @date 2023/8/8
+ */
+public interface SinkPolicy {
+    /**
+     * Drop whole GOPs from the head of the queue, the consumer skips to the next keyframe. The
+     * recording is never held up.
+     */
+    int DROP_OLDEST_GOP = 0;
+    /**
+     * Wait for the consumer, the recording is held up as long as the queue is full, at most
+     * {@link SinkQueue#MAX_BLOCK_MS} per sample before GOPs are dropped.
+     */
+    int BLOCK = 1;
+}
@@ -0,0 +1,222 @@
+package com.zrh.record.screen;
+
+import android.media.MediaCodec;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bounded FIFO of encoded samples between the drain thread and one {@link SampleSink} thread.
+ * Samples are copied into one preallocated direct {@link ByteBuffer} ring with their metadata in
+ * parallel primitive arrays, like {@link ReplayBuffer}. A full queue either waits for the consumer
+ * or drops GOPs from its head, see {@link SinkPolicy}.
+ *
+ * @author zrh
+ * @date 2023/8/8
+ */
+public class SinkQueue {
+    /**
+     * Returned by {@link #poll(ByteBuffer, SampleInfo, long)} when the destination is too small,
+     * see {@link #peekSize()}.
+     */
+    public static final int TOO_SMALL = -2;
+    /**
+     * How long {@link SinkPolicy#BLOCK} waits for the consumer before it drops like
+     * {@link SinkPolicy#DROP_OLDEST_GOP}. It does not wait again until the consumer takes a
+     * sample, so a stalled consumer holds up the file once and for no longer.
+     */
+    public static final long MAX_BLOCK_MS = 500;
+
+    private final ByteBuffer data;
+    private final ByteBuffer readView;
+    private final int capacity;
+    private final int maxSamples;
+    private final int policy;
+    private final long blockTimeoutMs;
+
+    private final int[] offsets;
+    private final int[] sizes;
+    private final int[] flags;
+    private final int[] tracks;
+    private final long[] timestamps;
+
+    private int videoTrack = -1;
+    private long head;
+    private long tail;
+    private int writePos;
+    private boolean waitForKeyFrame;
+    // a BLOCK wait timed out and the consumer has not polled since
+    private boolean stalled;
+    private boolean closed;
+    private long dropped;
+
+    public SinkQueue(int capacityBytes, int maxSamples, int policy) {
+        this(capacityBytes, maxSamples, policy, MAX_BLOCK_MS);
+    }
+
+    SinkQueue(int capacityBytes, int maxSamples, int policy, long blockTimeoutMs) {
+        this.blockTimeoutMs = blockTimeoutMs;
+        this.data = ByteBuffer.allocateDirect(capacityBytes);
+        this.readView = data.duplicate();
+        this.capacity = capacityBytes;
+        this.maxSamples = maxSamples;
+        this.policy = policy;
+        this.offsets = new int[maxSamples];
+        this.sizes = new int[maxSamples];
+        this.flags = new int[maxSamples];
+        this.tracks = new int[maxSamples];
+        this.timestamps = new long[maxSamples];
+    }
+
+    /**
+     * GOPs are cut at keyframes of this track.
+     */
+    public synchronized void setVideoTrack(int track) {
+        this.videoTrack = track;
+    }
+
+    /**
+     * Producer side, may wait up to {@link #MAX_BLOCK_MS} with {@link SinkPolicy#BLOCK}.
+     *
+     * @return false if the sample was dropped.
+     */
+    public synchronized boolean offer(int track, @NonNull ByteBuffer src, @NonNull SampleInfo info)
+            throws InterruptedException {
+        int size = src.remaining();
+        boolean keyFrame = track == videoTrack && (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+        if (closed || size > capacity) {
+            dropped++;
+            return false;
+        }
+        if (waitForKeyFrame) {
+            if (!keyFrame) {
+                dropped++;
+                return false;
+            }
+            waitForKeyFrame = false;
+        }
+
+        int offset = allocate(size);
+        long deadline = System.nanoTime() + blockTimeoutMs * 1_000_000L;
+        while (offset < 0 || size() == maxSamples) {
+            long waitMs = 0;
+            if (policy == SinkPolicy.BLOCK && !stalled) {
+                waitMs = (deadline - System.nanoTime()) / 1_000_000L;
+                if (waitMs <= 0) stalled = true;
+            }
+            if (waitMs > 0) {
+                wait(waitMs);
+                if (closed) {
+                    dropped++;
+                    return false;
+                }
+            } else if (!dropOldestGop()) {
+                // the GOP being queued does not fit, start over at the next keyframe
+                dropped += size();
+                head = tail;
+                if (!keyFrame) {
+                    waitForKeyFrame = true;
+                    dropped++;
+                    return false;
+                }
+            }
+            offset = allocate(size);
+        }
+
+        int slot = (int) (tail % maxSamples);
+        data.limit(offset + size);
+        data.position(offset);
+        data.put(src);
+        offsets[slot] = offset;
+        sizes[slot] = size;
+        flags[slot] = info.flags;
+        tracks[slot] = track;
+        timestamps[slot] = info.presentationTimeUs;
+        writePos = offset + size;
+        tail++;
+        notifyAll();
+        return true;
+    }
+
+    private int allocate(int size) {
+        if (size() == 0) {
+            writePos = 0;
+            return size <= capacity ? 0 : -1;
+        }
+        int oldest = offsets[(int) (head % maxSamples)];
+        if (writePos > oldest) {
+            if (capacity - writePos >= size) return writePos;
+            return oldest >= size ? 0 : -1;
+        }
+        return oldest - writePos >= size ? writePos : -1;
+    }
+
+    private boolean dropOldestGop() {
+        for (long seq = head + 1; seq < tail; seq++) {
+            int slot = (int) (seq % maxSamples);
+            if (tracks[slot] == videoTrack && (flags[slot] & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0) {
+                dropped += seq - head;
+                head = seq;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Consumer side, waits up to {@code timeoutMs} for the size of the next sample.
+     *
+     * @return -1 if the queue is empty.
+     */
+    public synchronized int peekSize(long timeoutMs) throws InterruptedException {
+        if (size() == 0 && !closed && timeoutMs > 0) wait(timeoutMs);
+        return size() == 0 ? -1 : sizes[(int) (head % maxSamples)];
+    }
+
+    /**
+     * Consumer side, moves the next sample into {@code dst}, which is flipped for reading.
+     *
+     * @return the track of the sample, -1 if none arrived within {@code timeoutMs}, or {@link #TOO_SMALL}.
+     */
+    public synchronized int poll(@NonNull ByteBuffer dst, @NonNull SampleInfo info, long timeoutMs)
+            throws InterruptedException {
+        if (size() == 0 && !closed && timeoutMs > 0) wait(timeoutMs);
+        if (size() == 0) return -1;
+        int slot = (int) (head % maxSamples);
+        if (sizes[slot] > dst.capacity()) return TOO_SMALL;
+        readView.limit(offsets[slot] + sizes[slot]);
+        readView.position(offsets[slot]);
+        dst.clear();
+        dst.put(readView);
+        dst.flip();
+        info.set(0, sizes[slot], timestamps[slot], flags[slot]);
+        head++;
+        stalled = false;
+        notifyAll();
+        return tracks[slot];
+    }
+
+    public synchronized int size() {
+        return (int) (tail - head);
+    }
+
+    /**
+     * Samples offered but never handed to the consumer.
+     */
+    public synchronized long getDroppedCount() {
+        return dropped;
+    }
+
+    /**
+     * Wakes up both sides, queued samples can still be polled.
+     */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+}
@@ -0,0 +1,79 @@
+package com.zrh.record.screen;
+
+/**
+ * Predicts how long a recording can go on before the free space of its volume falls to
+ * {@code marginBytes}. The write rate starts at the expected rate and follows the measured one with
+ * an exponential moving average, so a static screen that writes little buys more time and a burst
+ * of keyframes does not stop the recording at once. Pure Java, the caller measures the free space.
+ *
+ * @author zrh
+ * @date 2023/8/11
+ */
+public class StorageEstimator {
+    // weight of the newest measurement
+    private static final double SMOOTHING = 0.3;
+
+    private final long marginBytes;
+    private final long expectedBytesPerSec;
+
+    private double bytesPerSec;
+    private long availableBytes = -1;
+    private long lastMs = -1;
+    private long lastBytes;
+
+    /**
+     * @param expectedBytesPerSec rate assumed until the first measurement, e.g. bitrate / 8.
+     */
+    public StorageEstimator(long marginBytes, long expectedBytesPerSec) {
+        this.marginBytes = marginBytes;
+        this.expectedBytesPerSec = Math.max(1, expectedBytesPerSec);
+        this.bytesPerSec = this.expectedBytesPerSec;
+    }
+
+    /**
+     * @return true if at least {@code minDurationMs} at the expected rate fits above the margin.
+     */
+    public boolean canStart(long availableBytes, long minDurationMs) {
+        return availableBytes - marginBytes >= expectedBytesPerSec * minDurationMs / 1000L;
+    }
+
+    /**
+     * @param nowMs        recorded time, paused time left out.
+     * @param bytesWritten bytes written by the recording so far.
+     * @param availableBytes free space of the volume now.
+     */
+    public void update(long nowMs, long bytesWritten, long availableBytes) {
+        this.availableBytes = availableBytes;
+        if (lastMs >= 0 && nowMs > lastMs && bytesWritten >= lastBytes) {
+            double measured = (bytesWritten - lastBytes) * 1000.0 / (nowMs - lastMs);
+            bytesPerSec += (measured - bytesPerSec) * SMOOTHING;
+        }
+        // e.g. the byte count of a new segment starts over, measure from here
+        lastMs = nowMs;
+        lastBytes = bytesWritten;
+    }
+
+    public long getBytesPerSec() {
+        return (long) bytesPerSec;
+    }
+
+    /**
+     * @return predicted recording time left before the margin is reached, -1 before the first update.
+     */
+    public long getRemainingMs() {
+        if (availableBytes < 0) return -1;
+        long usable = availableBytes - marginBytes;
+        if (usable <= 0) return 0;
+        // a static screen may start moving any time, never count on less than a quarter of the expected rate
+        double rate = Math.max(bytesPerSec, expectedBytesPerSec / 4.0);
+        return (long) Math.min(Long.MAX_VALUE / 2, usable * 1000.0 / rate);
+    }
+
+    /**
+     * @return true once less than {@code leadMs} is left, enough to finish the file in time.
+     */
+    public boolean isRunningOut(long leadMs) {
+        long remaining = getRemainingMs();
+        return remaining >= 0 && remaining <= leadMs;
+    }
+}
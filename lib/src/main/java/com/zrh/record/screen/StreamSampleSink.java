@@ -0,0 +1,92 @@
+package com.zrh.record.screen;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes tracks and samples to an {@link OutputStream}, e.g. of a socket or a
+ * {@link java.io.PipedOutputStream}, as big endian records:
+ * <ul>
+ * <li>track: {@code 'T'}, track u8, mime UTF, width i32, height i32, sample rate i32,
+ * channel count i32, csd-0 and csd-1 each as length i32 followed by the bytes, length 0 if absent.</li>
+ * <li>sample: {@code 'S'}, track u8, flags i32, presentation time us i64, size i32, payload.</li>
+ * <li>end: {@code 'E'}.</li>
+ * </ul>
+ * Every record is flushed right away. The stream is closed when the sink stops.
+ *
+ * @author zrh
+ * @date 2023/8/8
+ */
+public class StreamSampleSink implements SampleSink {
+    public static final int TRACK = 'T';
+    public static final int SAMPLE = 'S';
+    public static final int END = 'E';
+
+    private final DataOutputStream out;
+    private final byte[] chunk = new byte[16 * 1024];
+
+    public StreamSampleSink(@NonNull OutputStream out) {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+    }
+
+    @Override
+    public void onTrackAdded(int track, @NonNull TrackFormat format) throws IOException {
+        out.writeByte(TRACK);
+        out.writeByte(track);
+        out.writeUTF(format.mime);
+        out.writeInt(format.width);
+        out.writeInt(format.height);
+        out.writeInt(format.sampleRate);
+        out.writeInt(format.channelCount);
+        writeBytes(format.csd0);
+        writeBytes(format.csd1);
+        out.flush();
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeInt(0);
+            return;
+        }
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    @Override
+    public void onSample(int track, @NonNull ByteBuffer data, @NonNull SampleInfo info) throws IOException {
+        out.writeByte(SAMPLE);
+        out.writeByte(track);
+        out.writeInt(info.flags);
+        out.writeLong(info.presentationTimeUs);
+        out.writeInt(data.remaining());
+        while (data.hasRemaining()) {
+            int length = Math.min(chunk.length, data.remaining());
+            data.get(chunk, 0, length);
+            out.write(chunk, 0, length);
+        }
+        out.flush();
+    }
+
+    @Override
+    public void onStopped(@Nullable Exception error) {
+        try {
+            if (error == null) {
+                out.writeByte(END);
+                out.flush();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                out.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+}
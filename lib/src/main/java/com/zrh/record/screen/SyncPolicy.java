@@ -0,0 +1,20 @@
+package com.zrh.record.screen;
+
+/**
+ * When a {@link ContainerFormat#FRAGMENTED_MP4} file is forced to storage with fsync.
+ *
+ * @author zrh
+ * @date 2023/8/11
+ */
+public interface SyncPolicy {
+    /**
+     * Leave writeback to the kernel and sync once when the file is finished. Cheapest, a power
+     * loss may take the last seconds of the recording with it.
+     */
+    int ON_FINISH = 0;
+    /**
+     * Sync after every fragment, so every fragment written survives a power loss. The sync runs
+     * on the write-behind thread and only holds up the recording when its queue fills up.
+     */
+    int PER_FRAGMENT = 1;
+}
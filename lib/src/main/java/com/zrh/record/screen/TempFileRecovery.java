@@ -0,0 +1,336 @@
+package com.zrh.record.screen;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Salvages {@code .temp} recordings left behind when the recording process died.
+ * <ul>
+ * <li>a fragmented MP4 is cut after its last complete fragment.</li>
+ * <li>a plain MP4 without {@code moov} gets its H.264 sample table rebuilt from the {@code mdat}
+ * payload and the formats saved in the {@link RecoveryInfo} sidecar. Timing assumes a constant
+ * frame rate since the real timestamps were lost with the process.</li>
+ * <li>a complete MP4 that was not renamed yet is only renamed.</li>
+ * </ul>
+ * Files are read through a small window, memory only grows with the number of samples.
+ * Unrecoverable files are deleted. A plain MP4 of another codec (HEVC, VP9, AV1) or with an audio
+ * track has no sample table that could be rebuilt, it is left in place with its sidecar.
+ *
+ * @author zrh
+ * @date 2023/7/28
+ */
+public class TempFileRecovery {
+    public static final String TEMP_SUFFIX = ".temp";
+
+    private static final int WINDOW_SIZE = 64 * 1024;
+    private static final int VIDEO_TIMESCALE = 90_000;
+    private static final int NAL_SLICE = 1;
+    private static final int NAL_IDR = 5;
+
+    private final int fps;
+    private final ByteBuffer window = ByteBuffer.allocateDirect(WINDOW_SIZE);
+    private long windowStart = -1;
+    private FileChannel channel;
+    private boolean unsupported;
+
+    public TempFileRecovery(int fps) {
+        this.fps = fps;
+    }
+
+    /**
+     * @return the recovered files, renamed to {@code .mp4}.
+     */
+    @NonNull
+    public List<File> recoverAll(@NonNull File dir) {
+        List<File> recovered = new ArrayList<>();
+        File[] files = dir.listFiles();
+        if (files == null) return recovered;
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TEMP_SUFFIX)) {
+                File result = null;
+                try {
+                    result = recover(file);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                if (result != null) {
+                    recovered.add(result);
+                } else if (unsupported) {
+                    continue;
+                } else {
+                    file.delete();
+                }
+                RecoveryInfo.sidecarOf(file).delete();
+            } else if (name.endsWith(TEMP_SUFFIX + RecoveryInfo.SUFFIX)) {
+                String tempName = name.substring(0, name.length() - RecoveryInfo.SUFFIX.length());
+                if (!new File(dir, tempName).exists()) file.delete();
+            }
+        }
+        return recovered;
+    }
+
+    /**
+     * @return the playable file, or null if nothing could be salvaged or the file is not supported,
+     * see {@link #isUnsupported()}.
+     */
+    @Nullable
+    public File recover(@NonNull File temp) throws IOException {
+        unsupported = false;
+        boolean recovered;
+        try (RandomAccessFile raf = new RandomAccessFile(temp, "rw")) {
+            channel = raf.getChannel();
+            windowStart = -1;
+            recovered = repair(temp);
+        } finally {
+            channel = null;
+        }
+        if (!recovered) return null;
+
+        String name = temp.getName();
+        File mp4 = new File(temp.getParentFile(), name.substring(0, name.length() - TEMP_SUFFIX.length()) + ".mp4");
+        return temp.renameTo(mp4) ? mp4 : null;
+    }
+
+    /**
+     * @return whether the last {@link #recover(File)} found a file it can not repair but which still
+     * holds the samples, e.g. an HEVC or an audio recording without {@code moov}.
+     */
+    public boolean isUnsupported() {
+        return unsupported;
+    }
+
+    private boolean repair(File temp) throws IOException {
+        long fileSize = channel.size();
+        long position = 0;
+        long moov = -1;
+        long mdat = -1;
+        int mdatHeader = 0;
+        long mdatEnd = -1;
+        boolean moovComplete = false;
+        boolean mdatComplete = false;
+        boolean fragmented = false;
+        long lastFragmentEnd = -1;
+        boolean inFragment = false;
+
+        while (position + 8 <= fileSize) {
+            long size = readInt(position) & 0xFFFFFFFFL;
+            int type = readInt(position + 4);
+            int header = 8;
+            if (size == 1) {
+                if (position + 16 > fileSize) break;
+                size = readLong(position + 8);
+                header = 16;
+            }
+            boolean complete = size >= header && position + size <= fileSize;
+            if (type == BoxBuffer.typeOf("mdat")) {
+                mdat = position;
+                mdatHeader = header;
+                mdatEnd = complete ? position + size : fileSize;
+                mdatComplete = complete;
+                if (complete && inFragment) lastFragmentEnd = mdatEnd;
+                inFragment = false;
+            } else if (type == BoxBuffer.typeOf("moov")) {
+                moov = position;
+                moovComplete = complete;
+                fragmented = complete && containsBox(position + 8, position + size, BoxBuffer.typeOf("mvex"));
+            } else if (type == BoxBuffer.typeOf("moof")) {
+                inFragment = complete;
+            }
+            if (!complete) break;
+            position += size;
+        }
+
+        if (fragmented) {
+            if (lastFragmentEnd < 0) return false;
+            channel.truncate(lastFragmentEnd);
+            return true;
+        }
+        if (moov >= 0) {
+            return moovComplete && mdatComplete;
+        }
+        if (mdat < 0) return false;
+
+        TrackFormat[] formats = RecoveryInfo.read(temp);
+        if (formats == null) return false;
+        if (formats.length != 1 || !CodecSelector.MIME_H264.equals(formats[0].mime)) {
+            // interleaved audio can not be told apart from video without the sample table
+            unsupported = true;
+            return false;
+        }
+        return rebuildSampleTable(formats[0], mdat, mdatHeader, mdatEnd);
+    }
+
+    private boolean containsBox(long from, long to, int type) throws IOException {
+        long position = from;
+        while (position + 8 <= to) {
+            long size = readInt(position) & 0xFFFFFFFFL;
+            if (readInt(position + 4) == type) return true;
+            if (size < 8) return false;
+            position += size;
+        }
+        return false;
+    }
+
+    private boolean rebuildSampleTable(TrackFormat format, long mdat, int mdatHeader, long mdatEnd) throws IOException {
+        long payload = mdat + mdatHeader;
+        SampleTable table = new SampleTable();
+        long position = payload;
+        boolean previousVcl = false;
+        long validEnd = payload;
+        while (position + 5 <= mdatEnd) {
+            long length = readInt(position) & 0xFFFFFFFFL;
+            if (length == 0 || position + 4 + length > mdatEnd) break;
+            int nalHeader = readByte(position + 4);
+            if ((nalHeader & 0x80) != 0) break;
+            int nalType = nalHeader & 0x1F;
+            boolean vcl = nalType == NAL_SLICE || nalType == NAL_IDR;
+
+            // a picture starts with its first slice, or with the parameter sets and SEI in front of it
+            boolean startsSample = vcl ? length < 2 || (readByte(position + 5) & 0x80) != 0 : previousVcl;
+            if (startsSample && table.pendingHasVcl) {
+                table.commit();
+                validEnd = position;
+            }
+            table.add((int) (4 + length), nalType == NAL_IDR, vcl);
+            previousVcl = vcl;
+            position += 4 + length;
+        }
+        if (table.pendingHasVcl) {
+            table.commit();
+            validEnd = position;
+        }
+        if (table.count == 0) return false;
+
+        long mdatSize = validEnd - mdat;
+        if (mdatHeader == 8 && mdatSize > 0xFFFFFFFFL) return false;
+        channel.truncate(validEnd);
+        ByteBuffer header = ByteBuffer.allocate(8);
+        if (mdatHeader == 8) {
+            header.putInt((int) mdatSize).flip();
+            channel.write(header, mdat);
+        } else {
+            header.putLong(mdatSize).flip();
+            channel.write(header, mdat + 8);
+        }
+
+        ByteBuffer moov = buildMoov(format, table, payload);
+        long writePosition = validEnd;
+        while (moov.hasRemaining()) {
+            writePosition += channel.write(moov, writePosition);
+        }
+        return true;
+    }
+
+    private ByteBuffer buildMoov(TrackFormat format, SampleTable table, long chunkOffset) {
+        int delta = VIDEO_TIMESCALE / Math.max(1, fps);
+        long duration = (long) delta * table.count;
+        long durationMs = duration * Mp4Boxes.MOVIE_TIMESCALE / VIDEO_TIMESCALE;
+        boolean co64 = chunkOffset > 0xFFFFFFFFL;
+
+        BoxBuffer box = new BoxBuffer(ByteBuffer.allocate(4096 + table.count * 4 + table.keyCount * 4));
+        box.start("moov");
+        Mp4Boxes.writeMvhd(box, durationMs, 2);
+        Mp4Boxes.startTrak(box, 1, VIDEO_TIMESCALE, format, durationMs, duration);
+        box.startFull("stts", 0, 0).putInt(1).putInt(table.count).putInt(delta).end();
+        box.startFull("stss", 0, 0).putInt(table.keyCount);
+        for (int i = 0; i < table.keyCount; i++) {
+            box.putInt(table.keySamples[i]);
+        }
+        box.end();
+        box.startFull("stsc", 0, 0).putInt(1).putInt(1).putInt(table.count).putInt(1).end();
+        box.startFull("stsz", 0, 0).putInt(0).putInt(table.count);
+        for (int i = 0; i < table.count; i++) {
+            box.putInt(table.sizes[i]);
+        }
+        box.end();
+        if (co64) {
+            box.startFull("co64", 0, 0).putInt(1).putLong(chunkOffset).end();
+        } else {
+            box.startFull("stco", 0, 0).putInt(1).putInt((int) chunkOffset).end();
+        }
+        Mp4Boxes.endTrak(box);
+        box.end();
+
+        ByteBuffer buffer = box.buffer();
+        buffer.flip();
+        return buffer;
+    }
+
+    private void fill(long position, int length) throws IOException {
+        if (windowStart >= 0 && position >= windowStart && position + length <= windowStart + window.limit()) {
+            return;
+        }
+        window.clear();
+        windowStart = position;
+        while (window.hasRemaining()) {
+            if (channel.read(window, position + window.position()) <= 0) break;
+        }
+        window.flip();
+        if (window.limit() < length) throw new IOException("unexpected end of file");
+    }
+
+    private int readByte(long position) throws IOException {
+        fill(position, 1);
+        return window.get((int) (position - windowStart)) & 0xFF;
+    }
+
+    private int readInt(long position) throws IOException {
+        fill(position, 4);
+        return window.getInt((int) (position - windowStart));
+    }
+
+    private long readLong(long position) throws IOException {
+        fill(position, 8);
+        return window.getLong((int) (position - windowStart));
+    }
+
+    /**
+     * Sizes and sync samples collected from the {@code mdat} walk, the only state that grows with the file.
+     */
+    private static final class SampleTable {
+        int[] sizes = new int[1024];
+        int[] keySamples = new int[64];
+        int count;
+        int keyCount;
+
+        int pendingSize;
+        boolean pendingKey;
+        boolean pendingHasVcl;
+
+        void add(int size, boolean key, boolean vcl) {
+            pendingSize += size;
+            pendingKey |= key;
+            pendingHasVcl |= vcl;
+        }
+
+        void commit() {
+            if (count == sizes.length) {
+                int[] grown = new int[count * 2];
+                System.arraycopy(sizes, 0, grown, 0, count);
+                sizes = grown;
+            }
+            sizes[count++] = pendingSize;
+            if (pendingKey) {
+                if (keyCount == keySamples.length) {
+                    int[] grown = new int[keyCount * 2];
+                    System.arraycopy(keySamples, 0, grown, 0, keyCount);
+                    keySamples = grown;
+                }
+                // sample numbers are 1 based
+                keySamples[keyCount++] = count;
+            }
+            pendingSize = 0;
+            pendingKey = false;
+            pendingHasVcl = false;
+        }
+    }
+}
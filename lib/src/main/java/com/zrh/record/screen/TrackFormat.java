@@ -0,0 +1,57 @@
+package com.zrh.record.screen;
+
+import android.media.MediaFormat;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Track description handed from an encoder to a {@link SampleWriter}. The plain fields are
+ * enough for library-owned writers, {@link #mediaFormat} is kept for {@link android.media.MediaMuxer}.
+ *
+ * @author zrh
+ * @date 2023/7/20
+ */
+public final class TrackFormat {
+    @NonNull
+    public final String mime;
+    public final int width;
+    public final int height;
+    public final int sampleRate;
+    public final int channelCount;
+    @Nullable
+    public final byte[] csd0;
+    @Nullable
+    public final byte[] csd1;
+    @Nullable
+    public final MediaFormat mediaFormat;
+
+    public TrackFormat(@NonNull String mime, int width, int height, int sampleRate, int channelCount,
+                       @Nullable byte[] csd0, @Nullable byte[] csd1, @Nullable MediaFormat mediaFormat) {
+        this.mime = mime;
+        this.width = width;
+        this.height = height;
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        this.csd0 = csd0;
+        this.csd1 = csd1;
+        this.mediaFormat = mediaFormat;
+    }
+
+    public static TrackFormat video(@NonNull String mime, int width, int height,
+                                    @Nullable byte[] csd0, @Nullable byte[] csd1) {
+        return new TrackFormat(mime, width, height, 0, 0, csd0, csd1, null);
+    }
+
+    public static TrackFormat audio(@NonNull String mime, int sampleRate, int channelCount, @Nullable byte[] csd0) {
+        return new TrackFormat(mime, 0, 0, sampleRate, channelCount, csd0, null, null);
+    }
+
+    public boolean isVideo() {
+        return mime.startsWith("video/");
+    }
+
+    public boolean isAudio() {
+        return mime.startsWith("audio/");
+    }
+}
@@ -0,0 +1,20 @@
+package com.zrh.record.screen;
+
+/**
+ * Video codecs a recording may be encoded with, see {@link RecordConfig#setVideoCodecs(int...)}.
+ *
+ * @author zrh
+ * @date 2023/8/12
+ */
+public interface VideoCodec {
+    int H264 = 0;
+    /**
+     * Android 7.0 and above, not with {@link ContainerFormat#FRAGMENTED_MP4}.
+     */
+    int HEVC = 1;
+    /**
+     * Android 10 and above with {@link EncoderType#MEDIA_CODEC}, not with
+     * {@link ContainerFormat#FRAGMENTED_MP4}.
+     */
+    int AV1 = 2;
+}
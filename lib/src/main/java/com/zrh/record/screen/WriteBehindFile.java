@@ -0,0 +1,261 @@
+package com.zrh.record.screen;
+
+import android.system.ErrnoException;
+import android.system.Os;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Appends to a file from its own thread, so a slow flash write or fsync does not stall the thread
+ * draining the encoder. Data is handed over in buffers of a {@link DirectBufferPool} through a
+ * bounded queue: the producer only waits when the queue is full, and every buffer goes back to the
+ * pool once written. The write thread takes everything queued at once and writes it with one
+ * gathering write, the pooled direct buffers go to the kernel without another copy.
+ * <p>
+ * The file can be preallocated with {@code posix_fallocate}, which reserves the blocks up front
+ * and keeps the file from fragmenting on a full device. The unused tail is cut off when the file
+ * is finished, a killed process leaves it zero filled, which {@link TempFileRecovery} skips.
+ *
+ * @author zrh
+ * @date 2023/8/11
+ */
+public class WriteBehindFile {
+    private static final ByteBuffer SYNC = ByteBuffer.allocate(0);
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+    private static final Allocator POSIX_ALLOCATOR = (fd, bytes) -> Os.posix_fallocate(fd, 0, bytes);
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final DirectBufferPool pool;
+    private final Allocator allocator;
+    private final BlockingQueue<ByteBuffer> queue;
+    private final Thread thread;
+    // write thread only
+    private final List<ByteBuffer> batch;
+    private final ByteBuffer[] gather;
+
+    private long queuedBytes;
+    private long preallocatedBytes;
+    private boolean finished;
+    private volatile IOException failure;
+    // written by the write thread only
+    private volatile long busyNanos;
+
+    public WriteBehindFile(@NonNull File file, @NonNull DirectBufferPool pool, int maxQueuedBuffers) throws IOException {
+        this(file, pool, maxQueuedBuffers, POSIX_ALLOCATOR);
+    }
+
+    /**
+     * @param allocator reserves storage in {@link #preallocate(long)}, tests on the JVM have no
+     *                  posix_fallocate.
+     */
+    WriteBehindFile(@NonNull File file, @NonNull DirectBufferPool pool, int maxQueuedBuffers,
+                    @NonNull Allocator allocator) throws IOException {
+        this.file = new RandomAccessFile(file, "rw");
+        this.file.setLength(0);
+        this.channel = this.file.getChannel();
+        this.pool = pool;
+        this.allocator = allocator;
+        this.queue = new ArrayBlockingQueue<>(maxQueuedBuffers);
+        this.batch = new ArrayList<>(maxQueuedBuffers + 1);
+        this.gather = new ByteBuffer[maxQueuedBuffers + 1];
+        this.thread = new Thread(this::run, "ScreenRecorder-Write");
+        thread.start();
+    }
+
+    /**
+     * Reserves {@code bytes} on storage, call before the first write.
+     */
+    public void preallocate(long bytes) throws IOException {
+        if (bytes <= 0 || queuedBytes > 0) return;
+        try {
+            allocator.allocate(file.getFD(), bytes);
+        } catch (ErrnoException e) {
+            // e.g. EOPNOTSUPP on FUSE mounts, a sparse file at least skips growing it on every write
+            file.setLength(bytes);
+        }
+        preallocatedBytes = bytes;
+    }
+
+    /**
+     * Queues a copy of the remaining bytes of {@code src}.
+     */
+    public void write(@NonNull ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            ByteBuffer buffer = pool.acquire();
+            int limit = src.limit();
+            src.limit(src.position() + Math.min(src.remaining(), buffer.remaining()));
+            buffer.put(src);
+            src.limit(limit);
+            buffer.flip();
+            submit(buffer);
+        }
+    }
+
+    /**
+     * Queues {@code buffer}, which must come from the pool and be flipped for reading. It is owned
+     * by this file afterwards and released to the pool once written.
+     */
+    public void submit(@NonNull ByteBuffer buffer) throws IOException {
+        int size = buffer.remaining();
+        enqueue(buffer);
+        queuedBytes += size;
+    }
+
+    /**
+     * Forces everything queued so far to storage, without waiting for it.
+     */
+    public void sync() throws IOException {
+        enqueue(SYNC);
+    }
+
+    /**
+     * @return the bytes queued so far, the size of the file once finished.
+     */
+    public long getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    /**
+     * @return the time the write thread spent writing and syncing so far, grows with a slow or
+     * stalling storage while the producer only waits when the queue is full.
+     */
+    public long getBusyNanos() {
+        return busyNanos;
+    }
+
+    private void enqueue(ByteBuffer buffer) throws IOException {
+        IOException error = failure;
+        if (error != null || finished) {
+            if (buffer != SYNC) pool.release(buffer);
+            throw error != null ? error : new IOException("file already finished");
+        }
+        try {
+            queue.put(buffer);
+        } catch (InterruptedException e) {
+            if (buffer != SYNC) pool.release(buffer);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Waits for the queued writes, cuts off the preallocated tail and syncs the file.
+     */
+    public void finish() throws IOException {
+        if (finished) return;
+        finished = true;
+        try {
+            queue.put(END);
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        IOException error = failure;
+        if (error != null) throw error;
+        if (preallocatedBytes > queuedBytes) {
+            channel.truncate(queuedBytes);
+        }
+        channel.force(true);
+    }
+
+    /**
+     * Finishes the file if needed and closes it, errors are only logged.
+     */
+    public void close() {
+        try {
+            finish();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        try {
+            file.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void run() {
+        boolean end = false;
+        while (!end) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                continue;
+            }
+            queue.drainTo(batch);
+            int count = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                ByteBuffer buffer = batch.get(i);
+                if (buffer == SYNC || buffer == END) {
+                    // everything queued before a marker is written before it applies
+                    flush(count);
+                    count = 0;
+                    if (buffer == END) {
+                        end = true;
+                        break;
+                    }
+                    force();
+                } else {
+                    gather[count++] = buffer;
+                }
+            }
+            flush(count);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Writes the first {@code count} gathered buffers in order and releases them to the pool.
+     */
+    private void flush(int count) {
+        if (count == 0) return;
+        try {
+            // a dead file is still drained, the producer never blocks on it
+            if (failure == null) {
+                long start = System.nanoTime();
+                int first = 0;
+                while (first < count) {
+                    channel.write(gather, first, count - first);
+                    while (first < count && !gather[first].hasRemaining()) first++;
+                }
+                busyNanos += System.nanoTime() - start;
+            }
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            for (int i = 0; i < count; i++) {
+                pool.release(gather[i]);
+                gather[i] = null;
+            }
+        }
+    }
+
+    private void force() {
+        if (failure != null) return;
+        long start = System.nanoTime();
+        try {
+            channel.force(false);
+            busyNanos += System.nanoTime() - start;
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    interface Allocator {
+        void allocate(@NonNull FileDescriptor fd, long bytes) throws ErrnoException, IOException;
+    }
+}
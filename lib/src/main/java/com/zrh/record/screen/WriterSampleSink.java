@@ -0,0 +1,44 @@
+package com.zrh.record.screen;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Adapts a {@link SampleWriter} to {@link SampleSink}, e.g. to write a second file on another
+ * volume without holding up the recording.
+ *
+ * @author zrh
+ * @date 2023/8/8
+ */
+public class WriterSampleSink implements SampleSink {
+    private final SampleWriter writer;
+    private final int[] trackMap = new int[4];
+
+    public WriterSampleSink(@NonNull SampleWriter writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public void onTrackAdded(int track, @NonNull TrackFormat format) throws IOException {
+        trackMap[track] = writer.addTrack(format);
+    }
+
+    @Override
+    public void onSample(int track, @NonNull ByteBuffer data, @NonNull SampleInfo info) throws IOException {
+        writer.writeSampleData(trackMap[track], data, info);
+    }
+
+    @Override
+    public void onStopped(@Nullable Exception error) {
+        try {
+            if (error == null && writer.isStarted()) writer.stop();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            writer.release();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.zrh.record.screen;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class AtlasPackerTest {
+
+    @Test
+    public void fillsShelvesLeftToRight() {
+        AtlasPacker packer = new AtlasPacker(64, 64, 1);
+        int[] out = new int[2];
+        assertTrue(packer.insert(20, 10, out));
+        assertArrayEquals(new int[]{0, 0}, out);
+        assertTrue(packer.insert(20, 14, out));
+        assertArrayEquals(new int[]{21, 0}, out);
+        // 42 + 23 passes the width, the next shelf starts below the tallest rect
+        assertTrue(packer.insert(22, 10, out));
+        assertArrayEquals(new int[]{0, 15}, out);
+        assertEquals(26, packer.getUsedHeight());
+    }
+
+    @Test
+    public void refusesWhatDoesNotFit() {
+        AtlasPacker packer = new AtlasPacker(32, 32, 1);
+        int[] out = new int[2];
+        assertFalse(packer.insert(32, 4, out));
+        assertFalse(packer.insert(0, 4, out));
+        assertTrue(packer.insert(31, 20, out));
+        assertFalse(packer.insert(10, 20, out));
+        // a failed insert leaves the shelf as it was
+        assertTrue(packer.insert(10, 10, out));
+        assertArrayEquals(new int[]{0, 21}, out);
+    }
+
+    @Test
+    public void resetStartsOver() {
+        AtlasPacker packer = new AtlasPacker(32, 32, 0);
+        int[] out = new int[2];
+        assertTrue(packer.insert(32, 32, out));
+        assertFalse(packer.insert(1, 1, out));
+        packer.reset();
+        assertEquals(0, packer.getUsedHeight());
+        assertTrue(packer.insert(1, 1, out));
+        assertArrayEquals(new int[]{0, 0}, out);
+    }
+}
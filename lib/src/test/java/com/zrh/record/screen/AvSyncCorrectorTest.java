@@ -0,0 +1,64 @@
+package com.zrh.record.screen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class AvSyncCorrectorTest {
+    private static final int RATE = 48_000;
+    private static final int FRAMES = 960;
+    private static final long CHUNK_US = 20_000;
+
+    @Test
+    public void ignoresJitterWithinTolerance() {
+        AvSyncCorrector corrector = new AvSyncCorrector(RATE, 5_000, 500_000);
+        long start = 10_000_000;
+        for (int i = 0; i < 100; i++) {
+            long jitter = i % 2 == 0 ? 3_000 : -3_000;
+            long pts = corrector.onChunk((long) i * FRAMES, FRAMES, start + i * CHUNK_US + (i == 0 ? 0 : jitter));
+            assertEquals(start + i * CHUNK_US, pts);
+        }
+    }
+
+    @Test
+    public void slewsTowardsADriftingClock() {
+        AvSyncCorrector corrector = new AvSyncCorrector(RATE, 5_000, 500_000);
+        long previous = -1;
+        long captureUs = 0;
+        for (int i = 0; i < 1000; i++) {
+            long pts = corrector.onChunk((long) i * FRAMES, FRAMES, captureUs);
+            if (previous >= 0) {
+                long step = pts - previous;
+                // never faster or slower than the slew limit
+                assertTrue(step >= CHUNK_US - CHUNK_US / 20 && step <= CHUNK_US + CHUNK_US / 20);
+            }
+            previous = pts;
+            // the audio clock runs 1% slow compared to the video clock
+            captureUs += CHUNK_US * 101 / 100;
+        }
+        assertTrue(Math.abs(corrector.getDriftUs()) <= 5_000 + CHUNK_US / 20);
+    }
+
+    @Test
+    public void jumpsOverLostAudio() {
+        AvSyncCorrector corrector = new AvSyncCorrector(RATE, 5_000, 500_000);
+        corrector.onChunk(0, FRAMES, 0);
+        corrector.onChunk(FRAMES, FRAMES, CHUNK_US);
+        // a second of audio was never read
+        long pts = corrector.onChunk(2 * FRAMES, FRAMES, 2 * CHUNK_US + 1_000_000);
+
+        assertEquals(2 * CHUNK_US + 1_000_000, pts);
+        assertEquals(0, corrector.getDriftUs());
+    }
+
+    @Test
+    public void staysMonotonicWhenTheClockJumpsBack() {
+        AvSyncCorrector corrector = new AvSyncCorrector(RATE, 5_000, 500_000);
+        corrector.onChunk(0, FRAMES, 2_000_000);
+        long first = corrector.onChunk(FRAMES, FRAMES, 2_000_000 + CHUNK_US);
+        long second = corrector.onChunk(2 * FRAMES, FRAMES, 0);
+
+        assertEquals(first + CHUNK_US, second);
+    }
+}
@@ -0,0 +1,118 @@
+package com.zrh.record.screen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class BitrateControllerTest {
+    private static final int FPS = 30;
+    private static final long WINDOW_US = 1_000_000;
+    private static final int MIN = 1_000_000;
+    private static final int MAX = 8_000_000;
+
+    private long nowUs;
+
+    /**
+     * Feeds one second of frames, {@code usage} is the share of the current bitrate the encoder produces
+     * and {@code writeBytesPerSec} the storage speed, 0 for instant writes.
+     */
+    private int second(BitrateController controller, float usage, long latencyUs, long writeBytesPerSec) {
+        int frameBytes = (int) (controller.getBitrate() * usage / 8 / FPS);
+        long writeNanos = writeBytesPerSec <= 0 ? 0 : frameBytes * 1_000_000_000L / writeBytesPerSec;
+        int changed = -1;
+        for (int i = 0; i < FPS; i++) {
+            nowUs += WINDOW_US / FPS + 1;
+            controller.onFrameEncoded(frameBytes, latencyUs, writeNanos);
+            int result = controller.update(nowUs);
+            if (result > 0) changed = result;
+        }
+        return changed;
+    }
+
+    private BitrateController controller(int initial) {
+        BitrateController controller = new BitrateController(initial, MIN, MAX, WINDOW_US, new AimdBitratePolicy());
+        controller.update(nowUs);
+        return controller;
+    }
+
+    @Test
+    public void keepsBitrateWhileHealthy() {
+        BitrateController controller = controller(4_000_000);
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(-1, second(controller, 0.5f, 30_000, 0));
+        }
+        assertEquals(4_000_000, controller.getBitrate());
+        assertEquals(BitrateController.STATE_STEADY, controller.getState());
+    }
+
+    @Test
+    public void backsOffWhenEncoderFallsBehind() {
+        BitrateController controller = controller(4_000_000);
+
+        assertEquals(3_000_000, second(controller, 1f, 500_000, 0));
+        assertEquals(BitrateController.STATE_BACKOFF, controller.getState());
+        assertEquals(2_250_000, second(controller, 1f, 500_000, 0));
+
+        // recovered, but increases wait for the hold and then the probe windows
+        int windows = 0;
+        while (second(controller, 1f, 30_000, 0) < 0) {
+            windows++;
+            assertTrue(windows < 20);
+        }
+        assertEquals(BitrateController.HOLD_WINDOWS + BitrateController.PROBE_WINDOWS - 2, windows);
+        assertEquals(2_950_000, controller.getBitrate());
+        assertEquals(BitrateController.STATE_STEADY, controller.getState());
+    }
+
+    @Test
+    public void climbsBackToMaxUnderSteadyLoad() {
+        BitrateController controller = controller(MIN);
+
+        for (int i = 0; i < 100; i++) {
+            second(controller, 1f, 30_000, 0);
+        }
+        assertEquals(MAX, controller.getBitrate());
+    }
+
+    @Test
+    public void capsBitrateToStorageSpeed() {
+        BitrateController controller = controller(8_000_000);
+
+        // 600KB/s storage, 1MB/s encoded
+        int bitrate = second(controller, 1f, 30_000, 600_000);
+
+        assertEquals((int) (600_000 * 8 / 1.5f), bitrate);
+    }
+
+    @Test
+    public void lowersBitrateOnStaticScreen() {
+        BitrateController controller = controller(8_000_000);
+
+        for (int i = 0; i < 30; i++) {
+            second(controller, 0.1f, 30_000, 0);
+        }
+        assertEquals(MIN, controller.getBitrate());
+    }
+
+    @Test
+    public void ignoresTinyChanges() {
+        BitrateController controller = new BitrateController(4_000_000, MIN, MAX, WINDOW_US,
+                                                              (stats, current, min, max) -> current - 10_000);
+        controller.update(nowUs);
+
+        assertEquals(-1, second(controller, 1f, 0, 0));
+        assertEquals(4_000_000, controller.getBitrate());
+    }
+
+    @Test
+    public void clampsPolicyResult() {
+        BitrateController controller = new BitrateController(4_000_000, MIN, MAX, WINDOW_US,
+                                                              (stats, current, min, max) -> 1);
+        controller.update(nowUs);
+
+        assertEquals(MIN, second(controller, 1f, 0, 0));
+        assertEquals(-1, second(controller, 1f, 0, 0));
+    }
+}
@@ -0,0 +1,70 @@
+package com.zrh.record.screen;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link BlockChecksum#update(ByteBuffer, int)} on the side-tap frame of a 720x1280
+ * recording. Not part of the unit tests, run the main method from the IDE.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlockChecksumBenchmark {
+    private static final int WIDTH = 180;
+    private static final int HEIGHT = 320;
+    private static final int ROW_STRIDE = WIDTH * 4 + 64;
+
+    @Param({"8", "16", "32"})
+    public int blockSize;
+
+    private BlockChecksum checksum;
+    private ByteBuffer frame;
+    private int tick;
+
+    @Setup
+    public void setUp() {
+        checksum = new BlockChecksum(WIDTH, HEIGHT, blockSize);
+        frame = ByteBuffer.allocateDirect(ROW_STRIDE * HEIGHT);
+        Random random = new Random(1);
+        while (frame.hasRemaining()) {
+            frame.put((byte) random.nextInt());
+        }
+        frame.clear();
+        checksum.update(frame, ROW_STRIDE);
+    }
+
+    @Benchmark
+    public int unchangedFrame() {
+        return checksum.update(frame, ROW_STRIDE);
+    }
+
+    @Benchmark
+    public int changedFrame() {
+        frame.putInt((tick++ % HEIGHT) * ROW_STRIDE, tick);
+        return checksum.update(frame, ROW_STRIDE);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(BlockChecksumBenchmark.class.getSimpleName()).build()).run();
+    }
+}
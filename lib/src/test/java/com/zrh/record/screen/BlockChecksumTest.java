@@ -0,0 +1,66 @@
+package com.zrh.record.screen;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class BlockChecksumTest {
+    private static final int WIDTH = 50;
+    private static final int HEIGHT = 34;
+    // padded rows like an image plane
+    private static final int ROW_STRIDE = WIDTH * 4 + 24;
+
+    @Test
+    public void countsChangedBlocks() {
+        BlockChecksum checksum = new BlockChecksum(WIDTH, HEIGHT, 16);
+        ByteBuffer frame = frame();
+        // 4 x 3 blocks, the last column and row are partial
+        assertEquals(12, checksum.getBlockCount());
+        assertEquals(12, checksum.update(frame, ROW_STRIDE));
+        assertEquals(0, checksum.update(frame, ROW_STRIDE));
+
+        setPixel(frame, 0, 0, 1);
+        setPixel(frame, 49, 33, 1);
+        assertEquals(2, checksum.update(frame, ROW_STRIDE));
+
+        // the odd last pixel of a row, read on its own
+        setPixel(frame, 49, 20, 7);
+        assertEquals(1, checksum.update(frame, ROW_STRIDE));
+    }
+
+    @Test
+    public void ignoresRowPadding() {
+        BlockChecksum checksum = new BlockChecksum(WIDTH, HEIGHT, 16);
+        ByteBuffer frame = frame();
+        checksum.update(frame, ROW_STRIDE);
+        for (int y = 0; y < HEIGHT; y++) {
+            frame.put(y * ROW_STRIDE + WIDTH * 4, (byte) 0x55);
+        }
+        assertEquals(0, checksum.update(frame, ROW_STRIDE));
+
+        checksum.reset();
+        assertEquals(12, checksum.update(frame, ROW_STRIDE));
+    }
+
+    @Test
+    public void detectsMovedContent() {
+        BlockChecksum checksum = new BlockChecksum(WIDTH, HEIGHT, 16);
+        ByteBuffer frame = frame();
+        setPixel(frame, 3, 3, 9);
+        checksum.update(frame, ROW_STRIDE);
+        // same pixels in a block, different positions
+        setPixel(frame, 3, 3, 0);
+        setPixel(frame, 4, 3, 9);
+        assertEquals(1, checksum.update(frame, ROW_STRIDE));
+    }
+
+    private static ByteBuffer frame() {
+        return ByteBuffer.allocateDirect(ROW_STRIDE * HEIGHT);
+    }
+
+    private static void setPixel(ByteBuffer frame, int x, int y, int value) {
+        frame.putInt(y * ROW_STRIDE + x * 4, value);
+    }
+}
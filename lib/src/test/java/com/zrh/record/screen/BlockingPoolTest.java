@@ -0,0 +1,57 @@
+package com.zrh.record.screen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BlockingPoolTest {
+
+    @Test
+    public void createsUpToMaxCountAndReuses() throws Exception {
+        BlockingPool<int[]> pool = new BlockingPool<>(2, () -> new int[16]);
+        int[] first = pool.acquire(0);
+        int[] second = pool.acquire(0);
+        assertNotNull(first);
+        assertNotNull(second);
+        assertNull(pool.acquire(20));
+
+        pool.release(first);
+        assertSame(first, pool.acquire(0));
+        assertEquals(2, pool.getCreatedCount());
+    }
+
+    @Test
+    public void repeatedBurstsKeepTheCountFlat() throws Exception {
+        BlockingPool<int[]> pool = new BlockingPool<>(3, () -> new int[16]);
+        ExecutorService compressor = Executors.newSingleThreadExecutor();
+        AtomicInteger saved = new AtomicInteger();
+        for (int burst = 0; burst < 20; burst++) {
+            for (int i = 0; i < 10; i++) {
+                int[] item = pool.acquire(5000);
+                assertNotNull(item);
+                compressor.execute(() -> {
+                    // slower than the grabber
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException ignore) {
+                    }
+                    saved.incrementAndGet();
+                    pool.release(item);
+                });
+            }
+        }
+        compressor.shutdown();
+        compressor.awaitTermination(10, TimeUnit.SECONDS);
+
+        assertEquals(200, saved.get());
+        assertEquals(3, pool.getCreatedCount());
+    }
+}
@@ -0,0 +1,59 @@
+package com.zrh.record.screen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+public class CapabilityResolverTest {
+
+    @Test
+    public void keepsSupportedSettings() {
+        CapabilityResolver resolver = new CapabilityResolver(EncoderProfileFixtures.EXYNOS);
+        assertEquals(new EncoderSettings(720, 1280, 30, 5_000_000), resolver.resolve(720, 1280, 30, 5_000_000));
+        assertEquals(new EncoderSettings(1080, 2400, 60, 20_000_000), resolver.resolve(1080, 2400, 60, 20_000_000));
+    }
+
+    @Test
+    public void scalesUnderTheHeightLimitAndAligns() {
+        CapabilityResolver resolver = new CapabilityResolver(EncoderProfileFixtures.MEDIATEK);
+        // 1088 / 2400 of the width is 489, aligned down to 480
+        assertEquals(new EncoderSettings(480, 1088, 30, 14_000_000), resolver.resolve(1080, 2400, 60, 20_000_000));
+        // raised to the smallest supported size
+        assertEquals(new EncoderSettings(160, 128, 30, 64_000), resolver.resolve(100, 100, 30, 10_000));
+    }
+
+    @Test
+    public void lowersFrameRateToThePixelRate() {
+        CapabilityResolver resolver = new CapabilityResolver(EncoderProfileFixtures.QUALCOMM);
+        // 886x1920 at 1080p30 pixel rate leaves 36 fps
+        assertEquals(new EncoderSettings(886, 1920, 36, 12_000_000), resolver.resolve(1080, 2340, 60, 12_000_000));
+        // under the pixel limit by scaling both sides
+        EncoderSettings landscape = resolver.resolve(2400, 1200, 30, 8_000_000);
+        assertEquals(1920, landscape.width);
+        assertEquals(960, landscape.height);
+        assertEquals(30, landscape.fps);
+    }
+
+    @Test
+    public void cachesProfilesPerBuild() throws Exception {
+        File file = File.createTempFile("encoder_profile", "");
+        try {
+            EncoderProfileCache.write(file, "video/avc|build-1", EncoderProfileFixtures.MEDIATEK);
+            assertEquals(EncoderProfileFixtures.MEDIATEK.toString(),
+                         String.valueOf(EncoderProfileCache.read(file, "video/avc|build-1")));
+            // an OS update probes again
+            assertNull(EncoderProfileCache.read(file, "video/avc|build-2"));
+
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                out.write(new byte[]{0x53, 0x52, 0x43});
+            }
+            assertNull(EncoderProfileCache.read(file, "video/avc|build-1"));
+        } finally {
+            file.delete();
+        }
+    }
+}
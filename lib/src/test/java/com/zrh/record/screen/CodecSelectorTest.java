@@ -0,0 +1,55 @@
+package com.zrh.record.screen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class CodecSelectorTest {
+    // codec list order of a device with hardware H.264 and HEVC, AV1 in software only
+    private static final List<CodecSelector.Encoder> DEVICE = Arrays.asList(
+            new CodecSelector.Encoder("c2.qti.avc.encoder", CodecSelector.MIME_H264, true),
+            new CodecSelector.Encoder("c2.qti.hevc.encoder", CodecSelector.MIME_HEVC, true),
+            new CodecSelector.Encoder("c2.android.avc.encoder", CodecSelector.MIME_H264, false),
+            new CodecSelector.Encoder("c2.android.hevc.encoder", CodecSelector.MIME_HEVC, false),
+            new CodecSelector.Encoder("c2.android.av1.encoder", CodecSelector.MIME_AV1, false),
+            new CodecSelector.Encoder("c2.qti.vp8.encoder", "video/x-vnd.on2.vp8", true));
+
+    private static String names(List<CodecSelector.Encoder> chain) {
+        StringBuilder builder = new StringBuilder();
+        for (CodecSelector.Encoder encoder : chain) {
+            if (builder.length() > 0) builder.append(", ");
+            builder.append(encoder.name);
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void triesHardwareInPreferenceOrderFirst() {
+        List<CodecSelector.Encoder> chain = CodecSelector.select(
+                DEVICE, new int[]{VideoCodec.AV1, VideoCodec.HEVC, VideoCodec.H264});
+        assertEquals("c2.qti.hevc.encoder, c2.qti.avc.encoder, c2.android.av1.encoder, "
+                     + "c2.android.hevc.encoder, c2.android.avc.encoder", names(chain));
+    }
+
+    @Test
+    public void alwaysEndsWithH264() {
+        List<CodecSelector.Encoder> chain = CodecSelector.select(DEVICE, new int[]{VideoCodec.HEVC});
+        assertEquals("c2.qti.hevc.encoder, c2.qti.avc.encoder, c2.android.hevc.encoder, c2.android.avc.encoder",
+                     names(chain));
+        assertEquals("c2.qti.avc.encoder, c2.android.avc.encoder", names(CodecSelector.select(DEVICE, new int[0])));
+    }
+
+    @Test
+    public void ignoresUnknownAndMissingCodecs() {
+        List<CodecSelector.Encoder> h264Only = Arrays.asList(
+                new CodecSelector.Encoder("OMX.MTK.VIDEO.ENCODER.AVC", CodecSelector.MIME_H264, true));
+        assertEquals("OMX.MTK.VIDEO.ENCODER.AVC",
+                     names(CodecSelector.select(h264Only, new int[]{VideoCodec.AV1, 42, VideoCodec.HEVC})));
+        assertNull(CodecSelector.mimeOf(42));
+        assertEquals(0, CodecSelector.select(Arrays.<CodecSelector.Encoder>asList(), new int[]{VideoCodec.HEVC}).size());
+    }
+}
@@ -0,0 +1,131 @@
+package com.zrh.record.screen;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CropGeometryTest {
+    private static final float EPSILON = 1e-5f;
+
+    @Test
+    public void cropsABandAndScalesTheDisplayAlong() {
+        CropGeometry geometry = new CropGeometry(1080, 2400, 0, 600, 1080, 1200, 0, 720, 1280);
+        assertFalse(geometry.isFullScreen());
+        assertEquals(720, geometry.getOutputWidth());
+        assertEquals(400, geometry.getOutputHeight());
+        // the band reaches the compositor at the output resolution
+        assertEquals(720, geometry.getDisplayWidth());
+        assertEquals(1600, geometry.getDisplayHeight());
+
+        float[] matrix = new float[16];
+        geometry.getTextureMatrix(matrix);
+        assertEquals(1f, matrix[0], EPSILON);
+        assertEquals(0f, matrix[12], EPSILON);
+        // output bottom is screen y 1200, output top screen y 600
+        assertEquals(0.25f, matrix[5], EPSILON);
+        assertEquals(0.5f, matrix[13], EPSILON);
+    }
+
+    @Test
+    public void smallRegionsKeepFullDetail() {
+        CropGeometry geometry = new CropGeometry(1440, 3200, 100, 100, 501, 401, 0, 720, 1280);
+        assertEquals(400, geometry.getOutputWidth());
+        assertEquals(300, geometry.getOutputHeight());
+        assertEquals(1440, geometry.getDisplayWidth());
+        assertEquals(3200, geometry.getDisplayHeight());
+    }
+
+    @Test
+    public void rotationSwapsTheOutputSize() {
+        CropGeometry geometry = new CropGeometry(1000, 500, 0, 0, 0, 0, 90, 720, 1280);
+        assertFalse(geometry.isFullScreen());
+        assertEquals(500, geometry.getOutputWidth());
+        assertEquals(1000, geometry.getOutputHeight());
+        assertEquals(1000, geometry.getDisplayWidth());
+        assertEquals(500, geometry.getDisplayHeight());
+
+        float[] point = new float[2];
+        // the top left of the screen ends up top right
+        geometry.mapToOutput(0, 0, point);
+        assertArrayEquals(new float[]{500, 0}, point, EPSILON);
+        geometry.mapToOutput(1000, 0, point);
+        assertArrayEquals(new float[]{500, 1000}, point, EPSILON);
+    }
+
+    @Test
+    public void textureMatrixSamplesWhereMapToOutputPuts() {
+        float[][] points = {{200, 300}, {800, 300}, {200, 1100}, {500, 700}};
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            CropGeometry geometry = new CropGeometry(1080, 1920, 200, 300, 800, 1100, rotation, 720, 1280);
+            float[] matrix = new float[16];
+            geometry.getTextureMatrix(matrix);
+            float[] output = new float[2];
+            for (float[] point : points) {
+                geometry.mapToOutput(point[0], point[1], output);
+                float s = output[0] / geometry.getOutputWidth();
+                float t = 1 - output[1] / geometry.getOutputHeight();
+                float u = matrix[0] * s + matrix[4] * t + matrix[12];
+                float v = matrix[1] * s + matrix[5] * t + matrix[13];
+                assertEquals("u at rotation " + rotation, point[0] / 1080, u, EPSILON);
+                assertEquals("v at rotation " + rotation, 1 - point[1] / 1920, v, EPSILON);
+            }
+        }
+    }
+
+    @Test
+    public void emptyOrOutsideRectsFallBackToTheScreen() {
+        assertTrue(new CropGeometry(1080, 1920, 500, 500, 500, 900, 0, 720, 1280).isFullScreen());
+        assertTrue(new CropGeometry(1080, 1920, -50, -50, 5000, 5000, 0, 720, 1280).isFullScreen());
+
+        CropGeometry clipped = new CropGeometry(1080, 1920, 880, -100, 1400, 200, 0, 720, 1280);
+        assertEquals(200, clipped.getOutputWidth());
+        assertEquals(200, clipped.getOutputHeight());
+    }
+
+    @Test
+    public void alignedOutputSizeKeepsTheRegion() {
+        CropGeometry geometry = new CropGeometry(1080, 2400, 0, 600, 1080, 1200, 0, 720, 1280);
+        CropGeometry aligned = geometry.withOutputSize(720, 400);
+        assertSame(geometry, aligned);
+        aligned = geometry.withOutputSize(704, 384);
+        assertEquals(704, aligned.getOutputWidth());
+        assertEquals(geometry.getDisplayHeight(), aligned.getDisplayHeight());
+
+        float[] expected = new float[16];
+        float[] actual = new float[16];
+        geometry.getTextureMatrix(expected);
+        aligned.getTextureMatrix(actual);
+        assertArrayEquals(expected, actual, EPSILON);
+    }
+
+    @Test
+    public void rectsMapOutwardsAndClipToTheOutput() {
+        CropGeometry geometry = new CropGeometry(1080, 2400, 0, 600, 1080, 1200, 0, 720, 1280);
+        int[] out = new int[4];
+        // two thirds of the screen scale, the edges round outwards
+        assertTrue(geometry.mapRectToOutput(100, 700, 200, 800.5f, out));
+        assertArrayEquals(new int[]{66, 66, 134, 134}, out);
+        assertTrue(geometry.mapRectToOutput(-100, 0, 270, 900, out));
+        assertArrayEquals(new int[]{0, 0, 180, 200}, out);
+        assertFalse(geometry.mapRectToOutput(0, 0, 1080, 500, out));
+    }
+
+    @Test
+    public void rectsTurnWithTheOutput() {
+        CropGeometry geometry = new CropGeometry(1000, 500, 0, 0, 0, 0, 90, 720, 1280);
+        int[] out = new int[4];
+        float[] corner = new float[2];
+        assertTrue(geometry.mapRectToOutput(100, 50, 300, 150, out));
+        // the rect covers the points its corners map to
+        geometry.mapToOutput(100, 150, corner);
+        assertEquals(out[0], corner[0], EPSILON);
+        assertEquals(out[1], corner[1], EPSILON);
+        geometry.mapToOutput(300, 50, corner);
+        assertEquals(out[2], corner[0], EPSILON);
+        assertEquals(out[3], corner[1], EPSILON);
+    }
+}
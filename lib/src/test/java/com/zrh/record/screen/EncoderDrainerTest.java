@@ -0,0 +1,94 @@
+package com.zrh.record.screen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.media.MediaCodec;
+
+import org.junit.Test;
+
+public class EncoderDrainerTest {
+
+    @Test
+    public void drainsEverySampleUntilEndOfStream() throws Exception {
+        FakeEncoderOutput output = new FakeEncoderOutput(10, 5, 33_333);
+        RecordingSampleWriter writer = new RecordingSampleWriter();
+        EncoderDrainer drainer = new EncoderDrainer(output, writer);
+
+        assertTrue(drainer.drain(0));
+
+        assertEquals(1, writer.formats.size());
+        assertEquals(0, drainer.getTrack());
+        assertEquals(10, writer.samples.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(FakeEncoderOutput.frameSize(i), writer.samples.get(i).length);
+            assertEquals(i, writer.samples.get(i)[0]);
+            assertEquals(i * 33_333L, (long) writer.timestamps.get(i));
+        }
+        assertTrue((writer.flags.get(0) & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0);
+        assertTrue((writer.flags.get(5) & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0);
+        assertEquals(output.dequeued, output.released);
+    }
+
+    @Test
+    public void skipsCodecConfig() throws Exception {
+        FakeEncoderOutput output = new FakeEncoderOutput(3, 3, 1000);
+        RecordingSampleWriter writer = new RecordingSampleWriter();
+        new EncoderDrainer(output, writer).drain(0);
+
+        for (int flags : writer.flags) {
+            assertEquals(0, flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG);
+        }
+        assertEquals(3, writer.samples.size());
+    }
+
+    @Test
+    public void reportsEverySample() throws Exception {
+        FakeEncoderOutput output = new FakeEncoderOutput(4, 2, 1000);
+        EncoderDrainer drainer = new EncoderDrainer(output, new RecordingSampleWriter());
+        long[] last = new long[]{-1, 0};
+        drainer.setCallback((track, info) -> {
+            last[0] = info.presentationTimeUs;
+            last[1]++;
+        });
+        drainer.drain(0);
+
+        assertEquals(3000, last[0]);
+        assertEquals(4, last[1]);
+    }
+
+    @Test
+    public void cancelStopsWithoutEndOfStream() throws Exception {
+        FakeEncoderOutput output = new FakeEncoderOutput(100, 10, 1000);
+        EncoderDrainer drainer = new EncoderDrainer(output, new RecordingSampleWriter());
+        drainer.setCallback((track, info) -> {
+            if (info.presentationTimeUs == 5000) drainer.cancel();
+        });
+
+        assertFalse(drainer.drain(0));
+        assertEquals(output.dequeued, output.released);
+    }
+
+    @Test
+    public void cutsPausesOutAndRestartsAtKeyframe() throws Exception {
+        FakeEncoderOutput output = new FakeEncoderOutput(20, 5, 1000);
+        RecordingSampleWriter writer = new RecordingSampleWriter();
+        EncoderDrainer drainer = new EncoderDrainer(output, writer);
+        PauseTimeline timeline = new PauseTimeline();
+        timeline.pause(6500);
+        timeline.resume(12500);
+        drainer.setPauseTimeline(timeline);
+
+        assertTrue(drainer.drain(0));
+
+        // frames 7-12 were paused, 13 and 14 depend on them
+        assertEquals(12, writer.samples.size());
+        assertEquals(6, writer.samples.get(6)[0]);
+        assertEquals(15, writer.samples.get(7)[0]);
+        assertTrue((writer.flags.get(7) & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0);
+        assertEquals(6000L, (long) writer.timestamps.get(6));
+        assertEquals(9000L, (long) writer.timestamps.get(7));
+        assertEquals(6000L, drainer.getLastOffsetUs());
+    }
+}
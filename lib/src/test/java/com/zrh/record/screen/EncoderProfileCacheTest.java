@@ -0,0 +1,41 @@
+package com.zrh.record.screen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+public class EncoderProfileCacheTest {
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("encoder_profile", "");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void keepsTheInstanceLimitWithTheProfile() throws Exception {
+        EncoderProfile profile = new EncoderProfile("c2.exynos.h264.encoder", 2, 2, 32, 4096, 32, 4096,
+                                                    4096L * 2304, 4096L * 2304 * 60, 120, 1, 120_000_000, 32);
+        EncoderProfileCache.write(file, "video/avc|build", profile);
+
+        EncoderProfile read = EncoderProfileCache.read(file, "video/avc|build");
+        assertEquals(profile.toString(), read.toString());
+        assertEquals(32, read.maxInstances);
+    }
+
+    @Test
+    public void readsAnotherBuildAsMissing() throws Exception {
+        EncoderProfileCache.write(file, "video/avc|build", EncoderProfileFixtures.QUALCOMM);
+        assertNull(EncoderProfileCache.read(file, "video/avc|update"));
+    }
+}
@@ -0,0 +1,19 @@
+package com.zrh.record.screen;
+
+/**
+ * Profiles as {@link CapabilityProbe#probe(String, String)} reads them, modelled on the limits of common encoders.
+ */
+final class EncoderProfileFixtures {
+    // level 5.1, 4K30 pixel rate
+    static final EncoderProfile EXYNOS = new EncoderProfile("c2.exynos.h264.encoder", 2, 2, 32, 4096, 32, 4096,
+                                                            8_912_896, 267_386_880, 240, 1, 40_000_000);
+    // heights stop at 1088, portrait 1080p does not fit
+    static final EncoderProfile MEDIATEK = new EncoderProfile("OMX.MTK.VIDEO.ENCODER.AVC", 16, 16, 160, 1920, 128, 1088,
+                                                              2_088_960, 62_668_800, 30, 64_000, 14_000_000);
+    // level 4, the pixel rate stops at 1080p30
+    static final EncoderProfile QUALCOMM = new EncoderProfile("OMX.qcom.video.encoder.avc", 2, 2, 96, 1920, 96, 1920,
+                                                              2_073_600, 62_208_000, 120, 1, 20_000_000);
+
+    private EncoderProfileFixtures() {
+    }
+}
@@ -0,0 +1,77 @@
+package com.zrh.record.screen;
+
+import android.media.MediaCodec;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Emits a synthetic H.264 stream: codec config, then frames with a keyframe every {@code gop} frames
+ * and a fixed frame interval, followed by end of stream.
+ */
+class FakeEncoderOutput implements EncoderOutput {
+    private final int frameCount;
+    private final int gop;
+    private final long frameIntervalUs;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+
+    private int step;
+    int released;
+    int dequeued;
+
+    FakeEncoderOutput(int frameCount, int gop, long frameIntervalUs) {
+        this.frameCount = frameCount;
+        this.gop = gop;
+        this.frameIntervalUs = frameIntervalUs;
+    }
+
+    static int frameSize(int frame) {
+        return 16 + frame % 7;
+    }
+
+    @Override
+    public int dequeueOutputBuffer(@NonNull SampleInfo info, long timeoutUs) {
+        int current = step++;
+        if (current == 0) return MediaCodec.INFO_TRY_AGAIN_LATER;
+        if (current == 1) return MediaCodec.INFO_OUTPUT_FORMAT_CHANGED;
+        dequeued++;
+        if (current == 2) {
+            info.set(0, 8, 0, MediaCodec.BUFFER_FLAG_CODEC_CONFIG);
+            return 0;
+        }
+        int frame = current - 3;
+        if (frame == frameCount) {
+            info.set(0, 0, frame * frameIntervalUs, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            return 0;
+        }
+        int size = frameSize(frame);
+        buffer.clear();
+        for (int i = 0; i < size; i++) {
+            buffer.put(i, (byte) frame);
+        }
+        int flags = frame % gop == 0 ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+        info.set(0, size, frame * frameIntervalUs, flags);
+        return 0;
+    }
+
+    @NonNull
+    @Override
+    public ByteBuffer getOutputBuffer(int index) {
+        buffer.clear();
+        return buffer;
+    }
+
+    @NonNull
+    @Override
+    public TrackFormat getOutputFormat() {
+        return TrackFormat.video("video/avc", 320, 240,
+                                 new byte[]{0, 0, 0, 1, 0x67, 0x42, (byte) 0xC0, 0x1E},
+                                 new byte[]{0, 0, 0, 1, 0x68, (byte) 0xCE, 0x3C, (byte) 0x80});
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index) {
+        released++;
+    }
+}
@@ -0,0 +1,125 @@
+package com.zrh.record.screen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class FastStartTest {
+    private File file;
+    private File temp;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("faststart", ".mp4");
+        temp = new File(file.getPath() + ".post");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        temp.delete();
+    }
+
+    private static void write(File file, ByteBuffer content) throws Exception {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.getChannel().write(content);
+        }
+    }
+
+    private static ByteBuffer read(File file) throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining()) channel.read(buffer);
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    /**
+     * ftyp, mdat with two chunks, moov pointing at them with stco or co64, free.
+     */
+    private static ByteBuffer movieAtEnd(boolean co64) {
+        BoxBuffer box = new BoxBuffer(ByteBuffer.allocate(1024));
+        box.start("ftyp").putType("isom").putInt(0).putType("isom").end();
+        int mdat = box.position();
+        box.start("mdat");
+        for (int i = 0; i < 100; i++) box.putByte(i);
+        box.end();
+        box.start("moov").start("trak").start("mdia").start("minf").start("stbl");
+        if (co64) {
+            box.startFull("co64", 0, 0).putInt(2).putLong(mdat + 8).putLong(mdat + 58).end();
+        } else {
+            box.startFull("stco", 0, 0).putInt(2).putInt(mdat + 8).putInt(mdat + 58).end();
+        }
+        box.end().end().end().end().end();
+        box.start("free").putInt(0).end();
+        ByteBuffer buffer = box.buffer();
+        buffer.flip();
+        return buffer;
+    }
+
+    private void assertRelocated(String offsets) throws Exception {
+        ByteBuffer result = read(file);
+        assertEquals("ftyp moov[trak[mdia[minf[stbl[" + offsets + "]]]]] mdat free", Mp4Layout.of(result));
+        int table = Mp4Layout.find(result, 0, result.limit(), "moov/trak/mdia/minf/stbl/" + offsets);
+        boolean co64 = offsets.equals("co64");
+        long first = co64 ? result.getLong(table + 16) : result.getInt(table + 16);
+        long second = co64 ? result.getLong(table + 24) : result.getInt(table + 20);
+        assertEquals(0, result.get((int) first));
+        assertEquals(50, result.get((int) second));
+        assertEquals(99, result.get((int) second + 49));
+    }
+
+    @Test
+    public void movesMoovInFrontAndShiftsChunkOffsets() throws Exception {
+        ByteBuffer movie = movieAtEnd(false);
+        int length = movie.limit();
+        write(file, movie);
+
+        assertTrue(new FastStart(null).process(file, temp));
+
+        assertEquals(length, file.length());
+        assertFalse(temp.exists());
+        assertRelocated("stco");
+    }
+
+    @Test
+    public void shiftsCo64Offsets() throws Exception {
+        write(file, movieAtEnd(true));
+
+        assertTrue(new FastStart(new IoThrottle(1024 * 1024)).process(file, temp));
+
+        assertRelocated("co64");
+    }
+
+    @Test
+    public void leavesFaststartFileAlone() throws Exception {
+        write(file, movieAtEnd(false));
+        assertTrue(new FastStart(null).process(file, temp));
+        ByteBuffer before = read(file);
+
+        assertFalse(new FastStart(null).process(file, temp));
+
+        assertEquals(before, read(file));
+    }
+
+    @Test
+    public void rejectsTruncatedFile() throws Exception {
+        ByteBuffer movie = movieAtEnd(false);
+        movie.limit(movie.limit() - 20);
+        write(file, movie);
+
+        assertFalse(new FastStart(null).process(file, temp));
+    }
+}
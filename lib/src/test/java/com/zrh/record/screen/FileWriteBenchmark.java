@@ -0,0 +1,132 @@
+package com.zrh.record.screen;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a synthetic 1080p60 stream at 40 Mbps frame sizes to a local file as fast as storage
+ * takes it, once directly from the calling thread and once through a {@link WriteBehindFile}. The
+ * p0.99 row of the sample time is the write latency the drain thread sees, the sustained MB/s of
+ * each iteration, the final drain and sync included, is printed when it ends. posix_fallocate is
+ * not available on the JVM, preallocation is left out. Not part of the unit tests, run the main
+ * method from the IDE.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileWriteBenchmark {
+    private static final int FPS = 60;
+    private static final int BITRATE = 40_000_000;
+    private static final int KEY_FRAME_SIZE = BITRATE / 8 / FPS * 4;
+    private static final int FRAME_SIZE = (BITRATE / 8 - KEY_FRAME_SIZE) / (FPS - 1);
+
+    @Param({"false", "true"})
+    public boolean writeBehind;
+
+    @Param({"0", "1"})
+    public int syncPolicy;
+
+    private final DirectBufferPool pool = new DirectBufferPool(64 * 1024, 256);
+    private ByteBuffer keyFrame;
+    private ByteBuffer frame;
+
+    private File file;
+    private RandomAccessFile directFile;
+    private FileChannel directChannel;
+    private WriteBehindFile output;
+    private long frameIndex;
+    private long bytes;
+    private long startNanos;
+
+    @Setup
+    public void setUp() {
+        keyFrame = randomFrame(KEY_FRAME_SIZE);
+        frame = randomFrame(FRAME_SIZE);
+    }
+
+    private static ByteBuffer randomFrame(int size) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        Random random = new Random(size);
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) random.nextInt());
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @Setup(Level.Iteration)
+    public void open() throws IOException {
+        file = File.createTempFile("write-benchmark", ".temp");
+        if (writeBehind) {
+            output = new WriteBehindFile(file, pool, 128);
+        } else {
+            directFile = new RandomAccessFile(file, "rw");
+            directChannel = directFile.getChannel();
+        }
+        frameIndex = 0;
+        bytes = 0;
+        startNanos = System.nanoTime();
+    }
+
+    @Benchmark
+    public long writeFrame() throws IOException {
+        // one GOP and one fragment per second
+        boolean fragmentEnd = ++frameIndex % FPS == 0;
+        ByteBuffer sample = frameIndex % FPS == 1 ? keyFrame : frame;
+        sample.rewind();
+        bytes += sample.remaining();
+        if (writeBehind) {
+            output.write(sample);
+            if (fragmentEnd && syncPolicy == SyncPolicy.PER_FRAGMENT) output.sync();
+        } else {
+            while (sample.hasRemaining()) {
+                directChannel.write(sample);
+            }
+            if (fragmentEnd && syncPolicy == SyncPolicy.PER_FRAGMENT) directChannel.force(false);
+        }
+        return bytes;
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() throws IOException {
+        if (writeBehind) {
+            output.finish();
+            output.close();
+        } else {
+            directChannel.force(true);
+            directFile.close();
+        }
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        System.out.printf("%n%.1f MB/s sustained, %d MB%n", bytes / 1e6 / seconds, bytes / 1_000_000);
+        file.delete();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(FileWriteBenchmark.class.getSimpleName()).build()).run();
+    }
+}
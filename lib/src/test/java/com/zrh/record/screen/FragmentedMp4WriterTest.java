@@ -0,0 +1,138 @@
+package com.zrh.record.screen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.media.MediaCodec;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class FragmentedMp4WriterTest {
+    private static final String VIDEO_TRAK = "trak[tkhd mdia[mdhd hdlr minf[vmhd dinf[dref[url ]] "
+            + "stbl[stsd[avc1[avcC]] stts stsc stsz stco]]]]";
+    private static final String AUDIO_TRAK = "trak[tkhd mdia[mdhd hdlr minf[smhd dinf[dref[url ]] "
+            + "stbl[stsd[mp4a[esds]] stts stsc stsz stco]]]]";
+
+    private final DirectBufferPool pool = new DirectBufferPool(64, 32);
+    private final SampleInfo info = new SampleInfo();
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("fragmented", ".mp4");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private ByteBuffer readFile() throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining()) {
+                channel.read(buffer);
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    private static ByteBuffer annexB(int frame, int nalSize) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + nalSize + 3 + nalSize);
+        buffer.putInt(1);
+        for (int i = 0; i < nalSize; i++) buffer.put((byte) (frame + 1));
+        buffer.put((byte) 0).put((byte) 0).put((byte) 1);
+        for (int i = 0; i < nalSize; i++) buffer.put((byte) (frame + 1));
+        buffer.flip();
+        return buffer;
+    }
+
+    @Test
+    public void writesInitSegmentAndFragments() throws Exception {
+        FragmentedMp4Writer writer = new FragmentedMp4Writer(file, 2, 500_000, pool);
+        FakeEncoderOutput video = new FakeEncoderOutput(0, 1, 0);
+        writer.addTrack(video.getOutputFormat());
+        writer.addTrack(TrackFormat.audio("audio/mp4a-latm", 44100, 2, new byte[]{0x12, 0x10}));
+        assertTrue(writer.isStarted());
+
+        // 2 seconds of 30 fps video with a keyframe every 15 frames, audio every 1024 samples
+        int audioFrames = 0;
+        for (int frame = 0; frame < 60; frame++) {
+            long pts = frame * 1_000_000L / 30;
+            while (audioFrames * 1024 * 1_000_000L / 44100 <= pts) {
+                ByteBuffer audio = ByteBuffer.allocate(10);
+                info.set(0, 10, audioFrames * 1024 * 1_000_000L / 44100, 0);
+                writer.writeSampleData(1, audio, info);
+                audioFrames++;
+            }
+            info.set(0, 0, pts, frame % 15 == 0 ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0);
+            writer.writeSampleData(0, annexB(frame, 40), info);
+        }
+        writer.stop();
+        writer.release();
+
+        ByteBuffer mp4 = readFile();
+        String moov = "moov[mvhd " + VIDEO_TRAK + " " + AUDIO_TRAK + " mvex[trex trex]]";
+        String fragment = "moof[mfhd traf[tfhd tfdt trun] traf[tfhd tfdt trun]] mdat";
+        assertEquals("ftyp " + moov + " " + fragment + " " + fragment + " " + fragment + " " + fragment,
+                     Mp4Layout.of(mp4));
+        assertEquals(writer.getBytesWritten(), mp4.limit());
+
+        int moof = Mp4Layout.find(mp4, 0, mp4.limit(), "moof");
+        int trun = Mp4Layout.find(mp4, moof, mp4.limit(), "moof/traf/trun");
+        assertEquals(15, mp4.getInt(trun + 12));
+        int dataOffset = mp4.getInt(trun + 16);
+        // first sample: two length prefixed NAL units
+        assertEquals(40, mp4.getInt(moof + dataOffset));
+        assertEquals(1, mp4.get(moof + dataOffset + 4));
+        assertEquals(40, mp4.getInt(moof + dataOffset + 44));
+        assertEquals(88, mp4.getInt(trun + 24));
+        assertEquals(0x02000000, mp4.getInt(trun + 28));
+        assertEquals(0x01010000, mp4.getInt(trun + 28 + 12));
+        assertEquals(3000, mp4.getInt(trun + 20));
+    }
+
+    @Test
+    public void fragmentsAreContinuous() throws Exception {
+        FragmentedMp4Writer writer = new FragmentedMp4Writer(file, 1, 1_000_000, pool);
+        writer.addTrack(new FakeEncoderOutput(0, 1, 0).getOutputFormat());
+        for (int frame = 0; frame < 90; frame++) {
+            info.set(0, 0, frame * 33_333L, frame % 30 == 0 ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0);
+            writer.writeSampleData(0, annexB(frame, 5), info);
+        }
+        writer.stop();
+        writer.release();
+
+        ByteBuffer mp4 = readFile();
+        long expectedBase = 0;
+        int position = Mp4Layout.find(mp4, 0, mp4.limit(), "moof");
+        int fragments = 0;
+        while (position >= 0 && position < mp4.limit()) {
+            int size = mp4.getInt(position);
+            if (Mp4Layout.type(mp4, position).equals("moof")) {
+                int tfdt = Mp4Layout.find(mp4, position, position + size, "moof/traf/tfdt");
+                int trun = Mp4Layout.find(mp4, position, position + size, "moof/traf/trun");
+                assertEquals(expectedBase, mp4.getLong(tfdt + 12));
+                int count = mp4.getInt(trun + 12);
+                for (int i = 0; i < count; i++) {
+                    expectedBase += mp4.getInt(trun + 20 + i * 12);
+                }
+                fragments++;
+            }
+            position += size;
+        }
+        assertEquals(3, fragments);
+        assertTrue(expectedBase >= 89 * 2999);
+        // all pooled chunks went back to the pool
+        assertTrue(pool.getPooledCount() > 0);
+    }
+}
@@ -0,0 +1,39 @@
+package com.zrh.record.screen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class FrameGateTest {
+    private static final long MS = 1_000_000L;
+
+    @Test
+    public void turnsIdleAfterUnchangedFramesAndBackOnChange() {
+        List<Boolean> events = new ArrayList<>();
+        FrameGate gate = new FrameGate(500 * MS, 2, events::add);
+
+        gate.onFrame(100, 0);
+        for (long t = 16; t < 500; t += 16) {
+            gate.onFrame(0, t * MS);
+        }
+        assertFalse(gate.isIdle());
+        // a single changed block is below the threshold
+        gate.onFrame(1, 500 * MS);
+        assertTrue(gate.isIdle());
+        gate.onFrame(0, 516 * MS);
+
+        gate.onFrame(3, 532 * MS);
+        assertFalse(gate.isIdle());
+        gate.onFrame(0, 600 * MS);
+        assertFalse(gate.isIdle());
+
+        assertEquals(2, events.size());
+        assertTrue(events.get(0));
+        assertFalse(events.get(1));
+    }
+}
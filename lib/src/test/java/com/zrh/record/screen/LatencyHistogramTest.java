@@ -0,0 +1,66 @@
+package com.zrh.record.screen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverValuesWithSmallRelativeError() {
+        int previous = -1;
+        for (long value = 0; value <= LatencyHistogram.MAX_VALUE; value = value < 100 ? value + 1 : value * 11 / 10) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(index >= previous);
+            assertTrue(index < LatencyHistogram.BUCKET_COUNT);
+            long highest = LatencyHistogram.highestValueOf(index);
+            assertTrue(highest >= value);
+            assertTrue(highest - value <= Math.max(1, value / 50));
+            previous = index;
+        }
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.indexOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void reportsPercentilesOfDrainedWindow() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 100L);
+        }
+        long[] window = new long[LatencyHistogram.BUCKET_COUNT];
+        histogram.drainTo(window);
+
+        assertEquals(1000, LatencyHistogram.totalCount(window));
+        assertNear(50_000, LatencyHistogram.valueAtPercentile(window, 50));
+        assertNear(90_000, LatencyHistogram.valueAtPercentile(window, 90));
+        assertNear(99_000, LatencyHistogram.valueAtPercentile(window, 99));
+        assertNear(100_000, LatencyHistogram.valueAtPercentile(window, 100));
+
+        // drained counts are gone from the histogram
+        long[] next = new long[LatencyHistogram.BUCKET_COUNT];
+        histogram.drainTo(next);
+        assertEquals(0, LatencyHistogram.totalCount(next));
+        assertEquals(0, LatencyHistogram.valueAtPercentile(next, 50));
+    }
+
+    @Test
+    public void concurrentRecordsAreNotLost() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        long[] window = new long[LatencyHistogram.BUCKET_COUNT];
+        Thread recorder = new Thread(() -> {
+            for (int i = 0; i < 200_000; i++) histogram.record(i % 5000);
+        });
+        recorder.start();
+        while (recorder.isAlive()) {
+            histogram.drainTo(window);
+        }
+        histogram.drainTo(window);
+
+        assertEquals(200_000, LatencyHistogram.totalCount(window));
+    }
+
+    private static void assertNear(long expected, long actual) {
+        assertTrue("expected ~" + expected + " got " + actual, Math.abs(actual - expected) <= expected / 50);
+    }
+}
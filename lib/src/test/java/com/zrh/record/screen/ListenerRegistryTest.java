@@ -0,0 +1,76 @@
+package com.zrh.record.screen;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+public class ListenerRegistryTest {
+
+    @Test
+    public void addsAndRemovesByIdentity() {
+        ListenerRegistry<Object> registry = new ListenerRegistry<>(new Object[0]);
+        Object a = new Object();
+        Object b = new Object();
+
+        assertTrue(registry.isEmpty());
+        assertTrue(registry.add(a));
+        assertFalse(registry.add(a));
+        assertTrue(registry.add(b));
+        assertArrayEquals(new Object[]{a, b}, registry.snapshot());
+
+        assertTrue(registry.remove(a));
+        assertFalse(registry.remove(a));
+        assertArrayEquals(new Object[]{b}, registry.snapshot());
+    }
+
+    @Test
+    public void snapshotKeepsComponentTypeAndIsStable() {
+        ListenerRegistry<Runnable> registry = new ListenerRegistry<>(new Runnable[0]);
+        Runnable first = () -> {
+        };
+        registry.add(first);
+
+        Runnable[] snapshot = registry.snapshot();
+        registry.add(() -> {
+        });
+
+        assertEquals(1, snapshot.length);
+        assertSame(first, snapshot[0]);
+        assertEquals(2, registry.snapshot().length);
+    }
+
+    @Test
+    public void concurrentUpdatesAreNotLost() throws Exception {
+        ListenerRegistry<Object> registry = new ListenerRegistry<>(new Object[0]);
+        int threads = 4;
+        int perThread = 500;
+        Object[][] listeners = new Object[threads][perThread];
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            Object[] own = listeners[t];
+            for (int i = 0; i < perThread; i++) own[i] = new Object();
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (Object listener : own) registry.add(listener);
+                // remove every other one again while the others keep adding
+                for (int i = 0; i < own.length; i += 2) registry.remove(own[i]);
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) worker.join();
+
+        assertEquals(threads * perThread / 2, registry.snapshot().length);
+    }
+}
@@ -0,0 +1,84 @@
+package com.zrh.record.screen;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Prints the box tree of a small MP4 file, e.g. {@code ftyp moov[mvhd trak[...]]}.
+ */
+final class Mp4Layout {
+    private static final List<String> CONTAINERS = Arrays.asList(
+            "moov", "trak", "mdia", "minf", "dinf", "stbl", "mvex", "moof", "traf", "edts");
+
+    private Mp4Layout() {
+    }
+
+    static String of(ByteBuffer file) {
+        StringBuilder builder = new StringBuilder();
+        append(builder, file, 0, file.limit());
+        return builder.toString();
+    }
+
+    static String type(ByteBuffer file, int position) {
+        byte[] type = new byte[4];
+        for (int i = 0; i < 4; i++) {
+            type[i] = file.get(position + 4 + i);
+        }
+        return new String(type);
+    }
+
+    /**
+     * @return position of the first box of {@code type} at this level, searching recursively.
+     */
+    static int find(ByteBuffer file, int from, int to, String path) {
+        String[] parts = path.split("/", 2);
+        int position = from;
+        while (position + 8 <= to) {
+            int size = file.getInt(position);
+            if (size < 8) throw new AssertionError("bad box size " + size + " at " + position);
+            if (type(file, position).equals(parts[0])) {
+                if (parts.length == 1) return position;
+                return find(file, position + 8, position + size, parts[1]);
+            }
+            position += size;
+        }
+        return -1;
+    }
+
+    private static void append(StringBuilder builder, ByteBuffer file, int from, int to) {
+        int position = from;
+        boolean first = true;
+        while (position + 8 <= to) {
+            int size = file.getInt(position);
+            if (size < 8 || position + size > to) throw new AssertionError("bad box size " + size + " at " + position);
+            String type = type(file, position);
+            if (!first) builder.append(' ');
+            first = false;
+            builder.append(type);
+            int childOffset = childOffset(type);
+            if (childOffset > 0) {
+                builder.append('[');
+                append(builder, file, position + childOffset, position + size);
+                builder.append(']');
+            }
+            position += size;
+        }
+        if (position != to) throw new AssertionError("trailing bytes at " + position);
+    }
+
+    private static int childOffset(String type) {
+        if (CONTAINERS.contains(type)) return 8;
+        switch (type) {
+            case "stsd":
+            case "dref":
+                return 16;
+            case "avc1":
+                return 86;
+            case "mp4a":
+                return 36;
+            default:
+                return 0;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.zrh.record.screen;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class OverlayLayoutTest {
+    private static final float EPSILON = 1e-5f;
+
+    @Test
+    public void itemsStackAwayFromTheirEdge() {
+        OverlayLayout layout = new OverlayLayout(720, 1280, 10);
+        int[] out = new int[2];
+        layout.place(OverlayGravity.TOP_LEFT, 100, 30, out);
+        assertArrayEquals(new int[]{10, 10}, out);
+        layout.place(OverlayGravity.TOP_LEFT, 100, 30, out);
+        assertArrayEquals(new int[]{10, 50}, out);
+        layout.place(OverlayGravity.BOTTOM_RIGHT, 200, 40, out);
+        assertArrayEquals(new int[]{510, 1230}, out);
+        layout.place(OverlayGravity.BOTTOM_RIGHT, 200, 40, out);
+        assertArrayEquals(new int[]{510, 1180}, out);
+        layout.place(OverlayGravity.CENTER, 300, 100, out);
+        assertArrayEquals(new int[]{210, 590}, out);
+
+        // the next frame starts at the edges again
+        layout.reset();
+        layout.place(OverlayGravity.TOP_LEFT, 100, 30, out);
+        assertArrayEquals(new int[]{10, 10}, out);
+        layout.place(99, 100, 30, out);
+        assertArrayEquals(new int[]{10, 50}, out);
+    }
+
+    @Test
+    public void linesAdvanceGlyphByGlyph() {
+        OverlayLayout.Glyphs glyphs = c -> c == ' ' ? 4 : 10;
+        float[] x = new float[5];
+        float width = OverlayLayout.layoutLine("12 34", glyphs, x);
+        assertEquals(44, width, EPSILON);
+        assertArrayEquals(new float[]{0, 10, 20, 24, 34}, x, EPSILON);
+    }
+
+    @Test
+    public void touchesFadeInTheSecondHalf() {
+        assertEquals(1, OverlayLayout.touchAlpha(0, 600), EPSILON);
+        assertEquals(1, OverlayLayout.touchAlpha(300, 600), EPSILON);
+        assertEquals(0.5f, OverlayLayout.touchAlpha(450, 600), EPSILON);
+        assertEquals(0, OverlayLayout.touchAlpha(600, 600), EPSILON);
+        assertEquals(0, OverlayLayout.touchAlpha(-1, 600), EPSILON);
+    }
+}
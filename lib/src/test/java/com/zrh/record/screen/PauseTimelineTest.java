@@ -0,0 +1,66 @@
+package com.zrh.record.screen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PauseTimelineTest {
+
+    @Test
+    public void shiftsSamplesBackByEarlierPauses() {
+        PauseTimeline timeline = new PauseTimeline();
+        assertEquals(0, timeline.getOffsetUs(100));
+
+        timeline.pause(1000);
+        timeline.resume(3000);
+        timeline.pause(5000);
+        timeline.resume(5500);
+
+        assertEquals(0, timeline.getOffsetUs(999));
+        assertEquals(2000, timeline.getOffsetUs(3000));
+        assertEquals(2000, timeline.getOffsetUs(4999));
+        assertEquals(2500, timeline.getOffsetUs(5500));
+        assertEquals(2500, timeline.getPausedUs());
+    }
+
+    @Test
+    public void dropsSamplesStampedWhilePaused() {
+        PauseTimeline timeline = new PauseTimeline();
+        timeline.pause(1000);
+        assertTrue(timeline.isPaused());
+        // the open pause has no end yet
+        assertEquals(-1, timeline.getOffsetUs(1000));
+        assertEquals(-1, timeline.getOffsetUs(90_000));
+        assertEquals(0, timeline.getOffsetUs(999));
+
+        timeline.resume(3000);
+        assertEquals(-1, timeline.getOffsetUs(2999));
+        assertEquals(2000, timeline.getOffsetUs(3000));
+    }
+
+    @Test
+    public void ignoresRepeatedCalls() {
+        PauseTimeline timeline = new PauseTimeline();
+        assertFalse(timeline.resume(10));
+        assertTrue(timeline.pause(100));
+        assertFalse(timeline.pause(200));
+        assertTrue(timeline.resume(300));
+        assertFalse(timeline.resume(400));
+        assertEquals(200, timeline.getPausedUs());
+    }
+
+    @Test
+    public void keepsEveryPause() {
+        PauseTimeline timeline = new PauseTimeline();
+        for (int i = 0; i < 100; i++) {
+            timeline.pause(i * 100 + 50);
+            timeline.resume(i * 100 + 100);
+        }
+        assertEquals(5000, timeline.getPausedUs());
+        assertEquals(50, timeline.getOffsetUs(120));
+        assertEquals(-1, timeline.getOffsetUs(60));
+        assertEquals(5000, timeline.getOffsetUs(10_000));
+    }
+}
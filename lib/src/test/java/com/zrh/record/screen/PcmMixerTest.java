@@ -0,0 +1,27 @@
+package com.zrh.record.screen;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Test;
+
+public class PcmMixerTest {
+
+    @Test
+    public void mixesWithGainAndClips() {
+        PcmMixer mixer = new PcmMixer(1f, 0.5f);
+        short[] primary = {100, -100, 30_000, -30_000, 0};
+        short[] secondary = {200, 200, 10_000, -10_000, -3};
+        short[] out = new short[5];
+        mixer.mix(primary, secondary, out, 5);
+
+        assertArrayEquals(new short[]{200, 0, Short.MAX_VALUE, Short.MIN_VALUE, -1}, out);
+    }
+
+    @Test
+    public void upmixesInPlace() {
+        short[] samples = {1, 2, 3, 0, 0, 0};
+        PcmMixer.monoToStereo(samples, 3, samples);
+
+        assertArrayEquals(new short[]{1, 1, 2, 2, 3, 3}, samples);
+    }
+}
@@ -0,0 +1,101 @@
+package com.zrh.record.screen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PcmRingBufferTest {
+    private static final int RATE = 1000;
+
+    @Test
+    public void mapsReadPositionToChunkTimestamps() {
+        // mono at 1000 Hz, one sample per millisecond
+        PcmRingBuffer buffer = new PcmRingBuffer(64, RATE, 1, 8);
+        assertEquals(-1, buffer.nextPresentationTimeUs());
+        buffer.write(ramp(0, 10), 0, 10, 1_000_000);
+        // a gap before the second chunk, e.g. after the capture was resynced
+        buffer.write(ramp(10, 10), 0, 10, 2_000_000);
+
+        short[] out = new short[20];
+        assertEquals(1_000_000, buffer.nextPresentationTimeUs());
+        assertEquals(4, buffer.read(out, 0, 4));
+        assertEquals(1_004_000, buffer.nextPresentationTimeUs());
+        assertEquals(6, buffer.read(out, 4, 6));
+        assertEquals(2_000_000, buffer.nextPresentationTimeUs());
+        assertEquals(10, buffer.read(out, 10, 20));
+        assertEquals(0, buffer.available());
+        for (int i = 0; i < 20; i++) assertEquals(i, out[i]);
+    }
+
+    @Test
+    public void wrapsAroundAndDropsChunksWhenFull() {
+        PcmRingBuffer buffer = new PcmRingBuffer(16, RATE, 2, 4);
+        short[] out = new short[16];
+        short next = 0;
+        short expected = 0;
+        for (int round = 0; round < 10; round++) {
+            assertTrue(buffer.write(ramp(next, 6), 0, 6, round * 3000L));
+            next += 6;
+            assertEquals(6, buffer.read(out, 0, 6));
+            for (int i = 0; i < 6; i++) assertEquals(expected++, out[i]);
+        }
+
+        assertTrue(buffer.write(ramp(0, 12), 0, 12, 0));
+        assertFalse(buffer.write(ramp(0, 6), 0, 6, 6000));
+        assertEquals(1, buffer.getOverruns());
+        assertEquals(12, buffer.available());
+    }
+
+    @Test
+    public void boundsChunkMetadataToo() {
+        PcmRingBuffer buffer = new PcmRingBuffer(64, RATE, 1, 2);
+        assertTrue(buffer.write(ramp(0, 2), 0, 2, 0));
+        assertTrue(buffer.write(ramp(0, 2), 0, 2, 2000));
+        assertFalse(buffer.write(ramp(0, 2), 0, 2, 4000));
+
+        short[] out = new short[4];
+        buffer.nextPresentationTimeUs();
+        buffer.read(out, 0, 2);
+        // the reader moves on to the second chunk, freeing the first slot
+        assertEquals(2000, buffer.nextPresentationTimeUs());
+        assertTrue(buffer.write(ramp(0, 2), 0, 2, 4000));
+    }
+
+    @Test
+    public void consumerSeesEverySampleInOrder() throws Exception {
+        PcmRingBuffer buffer = new PcmRingBuffer(4096, RATE, 2, 64);
+        int chunks = 20_000;
+        Thread producer = new Thread(() -> {
+            short[] chunk = new short[64];
+            int value = 0;
+            for (int i = 0; i < chunks; i++) {
+                for (int j = 0; j < chunk.length; j++) chunk[j] = (short) (value + j);
+                while (!buffer.write(chunk, 0, chunk.length, i * 32_000L)) Thread.yield();
+                value += chunk.length;
+            }
+        });
+        producer.start();
+
+        short[] out = new short[100];
+        int expected = 0;
+        long lastPts = -1;
+        while (expected < chunks * 64) {
+            if (buffer.await(10) == 0) continue;
+            long pts = buffer.nextPresentationTimeUs();
+            assertTrue(pts > lastPts);
+            assertEquals(expected / 2 * 1000L, pts);
+            lastPts = pts;
+            int count = buffer.read(out, 0, out.length);
+            for (int i = 0; i < count; i++) assertEquals((short) expected++, out[i]);
+        }
+        producer.join();
+    }
+
+    private static short[] ramp(int from, int count) {
+        short[] samples = new short[count];
+        for (int i = 0; i < count; i++) samples[i] = (short) (from + i);
+        return samples;
+    }
+}
@@ -0,0 +1,96 @@
+package com.zrh.record.screen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RecordMetricsTest {
+    private static final long FRAME_US = 33_333;
+
+    @Test
+    public void reportsWindowRatesAndTotals() {
+        RecordMetrics metrics = new RecordMetrics(30, 4_000_000);
+        MetricsSnapshot snapshot = new MetricsSnapshot();
+        metrics.snapshot(0, snapshot);
+
+        for (int i = 0; i < 30; i++) {
+            metrics.onFrameEncoded(1000, i * FRAME_US, 20_000);
+        }
+        metrics.snapshot(1_000_000_000L, snapshot);
+
+        assertEquals(30, snapshot.fps, 0.01);
+        assertEquals(30, snapshot.targetFps);
+        assertEquals(30_000, snapshot.bytesPerSec);
+        assertEquals(30, snapshot.framesEncoded);
+        assertEquals(30_000, snapshot.bytesWritten);
+        assertEquals(0, snapshot.droppedFrames);
+        assertEquals(4_000_000, snapshot.bitrate);
+        assertTrue(Math.abs(snapshot.latencyP50Us - 20_000) <= 400);
+
+        for (int i = 30; i < 45; i++) {
+            metrics.onFrameEncoded(2000, i * FRAME_US, 80_000);
+        }
+        metrics.snapshot(2_000_000_000L, snapshot);
+
+        assertEquals(15, snapshot.fps, 0.01);
+        assertEquals(30_000, snapshot.bytesPerSec);
+        assertEquals(45, snapshot.framesEncoded);
+        // latencies only cover the last window
+        assertTrue(Math.abs(snapshot.latencyP50Us - 80_000) <= 1600);
+    }
+
+    @Test
+    public void countsDroppedAndDuplicatedFrames() {
+        RecordMetrics metrics = new RecordMetrics(30, 4_000_000);
+        MetricsSnapshot snapshot = new MetricsSnapshot();
+
+        metrics.onFrameEncoded(100, 0, 0);
+        metrics.onFrameEncoded(100, FRAME_US, 0);
+        // two frames missing
+        metrics.onFrameEncoded(100, 4 * FRAME_US, 0);
+        // not moving forward
+        metrics.onFrameEncoded(100, 4 * FRAME_US, 0);
+        // static screen, not a drop
+        metrics.onFrameEncoded(100, 4 * FRAME_US + 3_000_000, 0);
+        metrics.snapshot(0, snapshot);
+
+        assertEquals(2, snapshot.droppedFrames);
+        assertEquals(1, snapshot.duplicatedFrames);
+        assertEquals(5, snapshot.framesEncoded);
+    }
+
+    @Test
+    public void repeatedFramesAtIdleRateAreNotDrops() {
+        RecordMetrics metrics = new RecordMetrics(30, 4_000_000);
+        metrics.setIdleGapUs(180_000);
+        MetricsSnapshot snapshot = new MetricsSnapshot();
+
+        metrics.onFrameEncoded(100, 0, 0);
+        metrics.onFrameEncoded(100, 200_000, 0);
+        metrics.onFrameEncoded(100, 400_000, 0);
+        metrics.onFrameEncoded(100, 400_000 + 3 * FRAME_US, 0);
+        metrics.snapshot(0, snapshot);
+
+        assertEquals(2, snapshot.droppedFrames);
+    }
+
+    @Test
+    public void measuresTimeToFirstFrame() {
+        RecordMetrics metrics = new RecordMetrics(30, 4_000_000);
+        MetricsSnapshot snapshot = new MetricsSnapshot();
+        metrics.setStartNanos(System.nanoTime() - 250_000_000L);
+        metrics.snapshot(0, snapshot);
+        assertEquals(-1, snapshot.timeToFirstFrameMs);
+
+        metrics.onFrameEncoded(100, 0, 0);
+        metrics.snapshot(0, snapshot);
+        long first = snapshot.timeToFirstFrameMs;
+        assertTrue(first >= 250 && first < 5000);
+
+        // later frames do not move it
+        metrics.onFrameEncoded(100, FRAME_US, 0);
+        metrics.snapshot(0, snapshot);
+        assertEquals(first, snapshot.timeToFirstFrameMs);
+    }
+}
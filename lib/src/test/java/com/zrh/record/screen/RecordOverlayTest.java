@@ -0,0 +1,50 @@
+package com.zrh.record.screen;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class RecordOverlayTest {
+    private static final float EPSILON = 1e-5f;
+
+    @Test
+    public void changesReplaceTheItems() {
+        RecordOverlay overlay = new RecordOverlay();
+        int text = overlay.addText("Pixel 7", OverlayGravity.TOP_LEFT);
+        int time = overlay.addTimestamp("HH:mm:ss", OverlayGravity.TOP_RIGHT);
+        RecordOverlay.Item[] before = overlay.getItems();
+        assertEquals(2, before.length);
+
+        overlay.setText(text, "Pixel 8");
+        RecordOverlay.Item[] after = overlay.getItems();
+        // the render thread keeps reading the array it has
+        assertEquals("Pixel 7", before[0].text);
+        assertEquals("Pixel 8", after[0].text);
+        assertSame(before[1], after[1]);
+
+        overlay.remove(text);
+        assertEquals(1, overlay.getItems().length);
+        assertEquals(time, overlay.getItems()[0].id);
+    }
+
+    @Test
+    public void onlyRecentTouchesAreShown() {
+        RecordOverlay overlay = new RecordOverlay();
+        for (int i = 0; i < RecordOverlay.MAX_TOUCHES + 4; i++) {
+            overlay.addTouch(i, i, 1000 + i * 10);
+        }
+        float[] positions = new float[RecordOverlay.MAX_TOUCHES * 2];
+        long[] ages = new long[RecordOverlay.MAX_TOUCHES];
+        int count = overlay.copyTouches(1190, positions, ages);
+        assertEquals(RecordOverlay.MAX_TOUCHES, count);
+        // the oldest four were overwritten
+        assertEquals(4, positions[0], EPSILON);
+        assertEquals(150, ages[0]);
+
+        count = overlay.copyTouches(1000 + 17 * 10 + RecordOverlay.TOUCH_DURATION_MS, positions, ages);
+        assertEquals(2, count);
+        assertArrayEquals(new float[]{18, 18, 19, 19}, new float[]{positions[0], positions[1], positions[2], positions[3]}, EPSILON);
+    }
+}
@@ -0,0 +1,253 @@
+package com.zrh.record.screen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.os.Looper;
+
+import androidx.annotation.Nullable;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.LooperMode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Commands are queued on the paused main looper and run by {@code idle()}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class RecorderStateMachineTest {
+    private final FakeActions actions = new FakeActions();
+    private final RecorderStateMachine machine = new RecorderStateMachine(Looper.getMainLooper(), actions);
+
+    @Test
+    public void startPreparesThenRecords() {
+        machine.start();
+        assertEquals(RecordState.IDLE, machine.getState());
+
+        idle();
+        assertEquals(RecordState.RECORDING, machine.getState());
+        assertEquals(Arrays.asList("prepare", "start"), actions.calls);
+    }
+
+    @Test
+    public void startAfterPrewarmOnlyStarts() {
+        machine.prepare();
+        idle();
+        assertEquals(RecordState.PREPARING, machine.getState());
+
+        machine.start();
+        idle();
+        assertEquals(RecordState.RECORDING, machine.getState());
+        assertEquals(Arrays.asList("prepare", "start"), actions.calls);
+    }
+
+    @Test
+    public void stopWaitsForTheEncoder() {
+        machine.start();
+        machine.stop();
+        idle();
+        assertEquals(RecordState.STOPPING, machine.getState());
+
+        machine.onStopped(null);
+        idle();
+        assertEquals(RecordState.IDLE, machine.getState());
+        assertEquals(Arrays.asList("prepare", "start", "stop", "finish"), actions.calls);
+        assertNull(actions.finishError);
+    }
+
+    @Test
+    public void stopBeforeStartReportsError() {
+        machine.stop();
+        idle();
+        assertEquals(Arrays.asList("finish"), actions.calls);
+        assertTrue(actions.finishError instanceof IllegalStateException);
+
+        actions.calls.clear();
+        machine.prepare();
+        machine.stop();
+        idle();
+        assertEquals(RecordState.IDLE, machine.getState());
+        assertEquals(Arrays.asList("prepare", "cancel", "finish"), actions.calls);
+    }
+
+    @Test
+    public void startWhileStoppingRecordsAgainOnceStopped() {
+        machine.start();
+        machine.stop();
+        machine.start();
+        idle();
+        assertEquals(RecordState.STOPPING, machine.getState());
+
+        machine.onStopped(null);
+        idle();
+        assertEquals(RecordState.RECORDING, machine.getState());
+        assertEquals(Arrays.asList("prepare", "start", "stop", "finish", "prepare", "start"), actions.calls);
+    }
+
+    @Test
+    public void stopDropsPendingRestart() {
+        machine.start();
+        machine.stop();
+        machine.start();
+        machine.stop();
+        machine.onStopped(null);
+        idle();
+        assertEquals(RecordState.IDLE, machine.getState());
+        assertEquals(Arrays.asList("prepare", "start", "stop", "finish"), actions.calls);
+    }
+
+    @Test
+    public void cancelIgnoresLateEncoderStop() {
+        machine.start();
+        machine.stop();
+        machine.cancel();
+        machine.onStopped(null);
+        idle();
+        assertEquals(RecordState.IDLE, machine.getState());
+        assertEquals(Arrays.asList("prepare", "start", "stop", "cancel"), actions.calls);
+    }
+
+    @Test
+    public void encoderErrorEndsTheRecording() {
+        machine.start();
+        idle();
+        Exception error = new IllegalStateException("codec died");
+        machine.onStopped(error);
+        idle();
+        assertEquals(RecordState.IDLE, machine.getState());
+        assertEquals(error, actions.finishError);
+    }
+
+    @Test
+    public void failedPrepareStaysIdle() {
+        actions.prepareResult = false;
+        machine.start();
+        idle();
+        assertEquals(RecordState.IDLE, machine.getState());
+        assertEquals(Arrays.asList("prepare"), actions.calls);
+
+        actions.prepareResult = true;
+        actions.startResult = false;
+        machine.start();
+        idle();
+        assertEquals(RecordState.IDLE, machine.getState());
+    }
+
+    @Test
+    public void listenerSeesIdleAfterTheResult() {
+        List<String> events = actions.calls;
+        machine.setStateListener(state -> events.add("state " + state));
+        machine.start();
+        machine.stop();
+        machine.onStopped(null);
+        idle();
+        assertEquals(Arrays.asList("state " + RecordState.PREPARING, "prepare", "start", "state " + RecordState.RECORDING,
+                                   "state " + RecordState.STOPPING, "stop", "finish", "state " + RecordState.IDLE),
+                     events);
+    }
+
+    @Test
+    public void racingCommandsRunOneAtATime() throws Exception {
+        for (int round = 0; round < 50; round++) {
+            actions.calls.clear();
+            CountDownLatch go = new CountDownLatch(1);
+            Thread starter = new Thread(() -> {
+                await(go);
+                machine.start();
+            });
+            Thread stopper = new Thread(() -> {
+                await(go);
+                machine.stop();
+            });
+            starter.start();
+            stopper.start();
+            go.countDown();
+            starter.join();
+            stopper.join();
+            idle();
+
+            // either order leaves a consistent state
+            if (machine.getState() == RecordState.STOPPING) {
+                assertEquals(Arrays.asList("prepare", "start", "stop"), actions.calls);
+                machine.onStopped(null);
+            } else {
+                assertEquals(RecordState.RECORDING, machine.getState());
+                assertEquals(Arrays.asList("finish", "prepare", "start"), actions.calls);
+                machine.cancel();
+            }
+            idle();
+            assertEquals(RecordState.IDLE, machine.getState());
+            assertFalse(actions.overlapped);
+        }
+    }
+
+    private static void idle() {
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class FakeActions implements RecorderStateMachine.Actions {
+        final List<String> calls = new ArrayList<>();
+        boolean prepareResult = true;
+        boolean startResult = true;
+        Exception finishError;
+        boolean overlapped;
+        private boolean busy;
+
+        private void enter(String call) {
+            if (busy) overlapped = true;
+            busy = true;
+            calls.add(call);
+        }
+
+        @Override
+        public boolean prepare() {
+            enter("prepare");
+            busy = false;
+            return prepareResult;
+        }
+
+        @Override
+        public boolean start() {
+            enter("start");
+            busy = false;
+            return startResult;
+        }
+
+        @Override
+        public void stop() {
+            enter("stop");
+            busy = false;
+        }
+
+        @Override
+        public void finish(@Nullable Exception error) {
+            enter("finish");
+            finishError = error;
+            busy = false;
+        }
+
+        @Override
+        public void cancel() {
+            enter("cancel");
+            busy = false;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.zrh.record.screen;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps every written sample in memory so tests can inspect what reached the writer.
+ */
+class RecordingSampleWriter implements SampleWriter {
+    final List<TrackFormat> formats = new ArrayList<>();
+    final List<byte[]> samples = new ArrayList<>();
+    final List<Long> timestamps = new ArrayList<>();
+    final List<Integer> flags = new ArrayList<>();
+    boolean stopped;
+    boolean released;
+    // >= 0 to pose as a writer with its own write thread, one nano per byte
+    long backgroundWriteNanos = -1;
+    // thrown by stop() when set
+    IOException stopFailure;
+
+    private final int trackCount;
+
+    RecordingSampleWriter() {
+        this(1);
+    }
+
+    RecordingSampleWriter(int trackCount) {
+        this.trackCount = trackCount;
+    }
+
+    @Override
+    public int addTrack(@NonNull TrackFormat format) {
+        formats.add(format);
+        return formats.size() - 1;
+    }
+
+    @Override
+    public boolean isStarted() {
+        return formats.size() == trackCount;
+    }
+
+    @Override
+    public void writeSampleData(int track, @NonNull ByteBuffer buffer, @NonNull SampleInfo info) {
+        byte[] data = new byte[info.size];
+        buffer.duplicate().get(data);
+        samples.add(data);
+        timestamps.add(info.presentationTimeUs);
+        flags.add(info.flags);
+        if (backgroundWriteNanos >= 0) backgroundWriteNanos += info.size;
+    }
+
+    @Override
+    public void stop() throws IOException {
+        if (stopFailure != null) throw stopFailure;
+        stopped = true;
+    }
+
+    @Override
+    public void release() {
+        released = true;
+    }
+
+    @Override
+    public long getBackgroundWriteNanos() {
+        return backgroundWriteNanos;
+    }
+}
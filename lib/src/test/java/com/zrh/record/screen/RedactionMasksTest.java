@@ -0,0 +1,92 @@
+package com.zrh.record.screen;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+public class RedactionMasksTest {
+    private static final float EPSILON = 1e-5f;
+
+    @Test
+    public void readerSeesTheLatestPublish() {
+        RedactionMasks masks = new RedactionMasks();
+        masks.setRects(new float[]{0, 0, 10, 10}, 1);
+        masks.setRects(new float[]{5, 5, 20, 30, 40, 40, 50, 50}, 2);
+        masks.setStyle(RedactionStyle.BLUR);
+
+        RedactionMasks.Frame frame = masks.acquire();
+        assertEquals(2, frame.getRectCount());
+        float[] rect = new float[4];
+        frame.getRect(1, rect);
+        assertArrayEquals(new float[]{40, 40, 50, 50}, rect, EPSILON);
+        assertEquals(RedactionStyle.BLUR, frame.getStyle());
+        assertFalse(frame.isBlocked());
+
+        // nothing new, the reader keeps its frame
+        assertSame(frame, masks.acquire());
+        masks.clear();
+        assertEquals(0, masks.acquire().getRectCount());
+    }
+
+    @Test
+    public void tooManyRectsBlockFrames() {
+        RedactionMasks masks = new RedactionMasks();
+        int count = RedactionMasks.MAX_RECTS + 1;
+        masks.setRects(new float[count * 4], count);
+        assertTrue(masks.acquire().isBlocked());
+        masks.setRects(new float[4], 1);
+        assertFalse(masks.acquire().isBlocked());
+
+        masks.setBlocked(true);
+        assertTrue(masks.acquire().isBlocked());
+        masks.setBlocked(false);
+        assertFalse(masks.acquire().isBlocked());
+    }
+
+    @Test
+    public void readerNeverSeesAHalfWrittenFrame() throws InterruptedException {
+        RedactionMasks masks = new RedactionMasks();
+        int publishes = 200_000;
+        AtomicReference<String> failure = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            float[] rects = new float[RedactionMasks.MAX_RECTS * 4];
+            for (int i = 1; i <= publishes; i++) {
+                // every value of a publish is the same, a mix shows a torn frame
+                int count = 1 + i % RedactionMasks.MAX_RECTS;
+                for (int j = 0; j < count * 4; j++) {
+                    rects[j] = i;
+                }
+                masks.setRects(rects, count);
+            }
+        });
+        writer.start();
+
+        float[] rect = new float[4];
+        long lastSequence = 0;
+        while (writer.isAlive() && failure.get() == null) {
+            RedactionMasks.Frame frame = masks.acquire();
+            long sequence = frame.getSequence();
+            if (sequence < lastSequence) failure.set("sequence went back from " + lastSequence + " to " + sequence);
+            lastSequence = sequence;
+            if (sequence == 0) continue;
+            int count = frame.getRectCount();
+            if (count != 1 + sequence % RedactionMasks.MAX_RECTS) failure.set("count " + count + " in frame " + sequence);
+            for (int i = 0; i < count; i++) {
+                frame.getRect(i, rect);
+                for (float value : rect) {
+                    if (value != sequence) failure.set("value " + value + " in frame " + sequence);
+                }
+            }
+        }
+        writer.join();
+        assertNull(failure.get());
+        assertEquals(publishes, masks.acquire().getSequence());
+    }
+}
@@ -0,0 +1,125 @@
+package com.zrh.record.screen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.media.MediaCodec;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+public class ReplayBufferTest {
+    private final ByteBuffer sample = ByteBuffer.allocateDirect(256);
+    private final SampleInfo info = new SampleInfo();
+
+    private boolean write(ReplayBuffer buffer, int frame, int size, boolean keyFrame) {
+        sample.clear();
+        for (int i = 0; i < size; i++) {
+            sample.put((byte) frame);
+        }
+        sample.flip();
+        info.set(0, size, frame * 100_000L, keyFrame ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0);
+        return buffer.write(0, sample, info);
+    }
+
+    @Test
+    public void dropsSamplesBeforeFirstKeyFrame() {
+        ReplayBuffer buffer = new ReplayBuffer(1024, 64, 0);
+        buffer.setVideoTrack(0);
+
+        assertFalse(write(buffer, 0, 10, false));
+        assertTrue(write(buffer, 1, 10, true));
+        assertTrue(write(buffer, 2, 10, false));
+        assertEquals(2, buffer.size());
+    }
+
+    @Test
+    public void evictsWholeGopsWhenFull() {
+        // room for 9 samples of 100 bytes, gop of 4
+        ReplayBuffer buffer = new ReplayBuffer(900, 64, 0);
+        buffer.setVideoTrack(0);
+
+        for (int frame = 0; frame < 30; frame++) {
+            assertTrue(write(buffer, frame, 100, frame % 4 == 0));
+            long first = buffer.getFirstSequence();
+            ByteBuffer dst = ByteBuffer.allocate(256);
+            SampleInfo out = new SampleInfo();
+            assertEquals(0, buffer.read(first, dst, out));
+            assertTrue((out.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0);
+        }
+        assertTrue(buffer.size() <= 9);
+        assertTrue(buffer.size() >= 5);
+    }
+
+    @Test
+    public void keepsWindowDuration() {
+        ReplayBuffer buffer = new ReplayBuffer(64 * 1024, 256, 1_000_000);
+        buffer.setVideoTrack(0);
+        for (int frame = 0; frame < 100; frame++) {
+            write(buffer, frame, 10, frame % 5 == 0);
+        }
+        long duration = buffer.getBufferedDurationUs();
+        assertTrue(duration >= 1_000_000);
+        assertTrue(duration < 1_500_000);
+    }
+
+    @Test
+    public void readsBackSampleData() {
+        ReplayBuffer buffer = new ReplayBuffer(300, 64, 0);
+        buffer.setVideoTrack(0);
+        for (int frame = 0; frame < 20; frame++) {
+            write(buffer, frame, 50 + frame, frame % 2 == 0);
+        }
+        ByteBuffer dst = ByteBuffer.allocate(256);
+        SampleInfo out = new SampleInfo();
+        for (long seq = buffer.getFirstSequence(); seq < buffer.getNextSequence(); seq++) {
+            assertEquals(0, buffer.read(seq, dst, out));
+            int frame = (int) (out.presentationTimeUs / 100_000L);
+            assertEquals(50 + frame, dst.remaining());
+            while (dst.hasRemaining()) {
+                assertEquals(frame, dst.get());
+            }
+        }
+        assertEquals(-1, buffer.read(buffer.getFirstSequence() - 1, dst, out));
+    }
+
+    @Test
+    public void restartsWhenGopExceedsCapacity() {
+        ReplayBuffer buffer = new ReplayBuffer(250, 64, 0);
+        buffer.setVideoTrack(0);
+        assertTrue(write(buffer, 0, 100, true));
+        assertTrue(write(buffer, 1, 100, false));
+        assertFalse(write(buffer, 2, 100, false));
+        assertEquals(0, buffer.size());
+        assertFalse(write(buffer, 3, 100, false));
+        assertTrue(write(buffer, 4, 100, true));
+        assertEquals(1, buffer.size());
+    }
+
+    @Test
+    public void savesBufferedWindowWithoutStopping() throws Exception {
+        ReplayBuffer buffer = new ReplayBuffer(4096, 128, 1_000_000);
+        RecordingSampleWriter[] saved = new RecordingSampleWriter[1];
+        ReplaySampleWriter writer = new ReplaySampleWriter(new File("out.temp"), 1, buffer, (file, trackCount) -> {
+            saved[0] = new RecordingSampleWriter(trackCount);
+            return saved[0];
+        });
+        new EncoderDrainer(new FakeEncoderOutput(50, 5, 100_000), writer).drain(0);
+
+        writer.save(new File("replay.mp4"));
+
+        RecordingSampleWriter out = saved[0];
+        assertTrue(out.stopped);
+        assertTrue(out.released);
+        assertEquals(1, out.formats.size());
+        assertTrue((out.flags.get(0) & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0);
+        assertEquals(buffer.size(), out.samples.size());
+        assertEquals(4_900_000L, (long) out.timestamps.get(out.timestamps.size() - 1));
+        assertEquals(3_500_000L, (long) out.timestamps.get(0));
+        // the buffer is untouched by saving
+        assertEquals(15, buffer.size());
+    }
+}
@@ -0,0 +1,153 @@
+package com.zrh.record.screen;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.media.MediaCodec;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records to an in-memory writer while a local {@link ServerSocket} stands in for the stream consumer.
+ */
+public class SampleStreamLoopbackTest {
+    private static final int GOP = 10;
+    private static final byte[] SPS = {0, 0, 0, 1, 0x67, 0x42};
+
+    private final ExecutorService consumer = Executors.newSingleThreadExecutor();
+
+    @After
+    public void tearDown() {
+        consumer.shutdownNow();
+    }
+
+    @Test
+    public void streamsEverySampleNextToTheFile() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Future<List<long[]>> received = consumer.submit(reader(server, 0));
+            Socket socket = new Socket(server.getInetAddress(), server.getLocalPort());
+
+            RecordingSampleWriter file = new RecordingSampleWriter();
+            SampleWriter writer = fanOut(file, new StreamSampleSink(socket.getOutputStream()), SinkPolicy.BLOCK);
+            writeSamples(writer, 300, 1000);
+            writer.stop();
+
+            List<long[]> samples = received.get(10, TimeUnit.SECONDS);
+            assertEquals(300, samples.size());
+            assertEquals(300, file.samples.size());
+            for (int i = 0; i < 300; i++) {
+                assertEquals(i * 33_333L, samples.get(i)[0]);
+                assertEquals(i % GOP == 0 ? 1 : 0, samples.get(i)[1]);
+            }
+            writer.release();
+        }
+    }
+
+    @Test
+    public void slowConsumerDropsGopsWithoutStallingTheFile() throws Exception {
+        try (ServerSocket server = new ServerSocket()) {
+            server.setReceiveBufferSize(8 * 1024);
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1);
+            Future<List<long[]>> received = consumer.submit(reader(server, 500));
+            Socket socket = new Socket(server.getInetAddress(), server.getLocalPort());
+            socket.setSendBufferSize(8 * 1024);
+
+            RecordingSampleWriter file = new RecordingSampleWriter();
+            SampleWriter writer = fanOut(file, new StreamSampleSink(socket.getOutputStream()),
+                                         SinkPolicy.DROP_OLDEST_GOP);
+            long start = System.nanoTime();
+            writeSamples(writer, 400, 32 * 1024);
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+            writer.stop();
+
+            // the consumer sleeps for 500ms before reading anything
+            assertTrue("file writer stalled for " + elapsedMs + "ms", elapsedMs < 400);
+            assertEquals(400, file.samples.size());
+
+            List<long[]> samples = received.get(10, TimeUnit.SECONDS);
+            assertTrue(samples.size() < 400);
+            long previous = -1;
+            for (long[] sample : samples) {
+                long index = sample[0] / 33_333L;
+                // every gap in the stream ends at a keyframe
+                if (index != previous + 1) assertEquals(1, sample[1]);
+                previous = index;
+            }
+            assertEquals(399, previous);
+            writer.release();
+        }
+    }
+
+    private static SampleWriter fanOut(SampleWriter file, SampleSink sink, int policy) throws Exception {
+        QueuedSink queued = new QueuedSink(sink, policy, 1024 * 1024, 256);
+        SampleWriter writer = new FanOutSampleWriter(file, Collections.singletonList(queued));
+        writer.addTrack(TrackFormat.video("video/avc", 720, 1280, SPS, null));
+        return writer;
+    }
+
+    private static void writeSamples(SampleWriter writer, int count, int size) throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        SampleInfo info = new SampleInfo();
+        for (int i = 0; i < count; i++) {
+            buffer.clear();
+            for (int j = 0; j < size; j += 1024) buffer.put(j, (byte) i);
+            info.set(0, size, i * 33_333L, i % GOP == 0 ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0);
+            writer.writeSampleData(0, buffer, info);
+        }
+    }
+
+    /**
+     * Parses the stream into {presentation time, key flag} pairs until the end record.
+     */
+    private static Callable<List<long[]>> reader(ServerSocket server, long delayMs) {
+        return () -> {
+            try (Socket socket = server.accept();
+                 DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+                Thread.sleep(delayMs);
+                List<long[]> samples = new ArrayList<>();
+                while (true) {
+                    int type = in.readByte();
+                    if (type == StreamSampleSink.END) return samples;
+                    int track = in.readByte();
+                    assertEquals(0, track);
+                    if (type == StreamSampleSink.TRACK) {
+                        assertEquals("video/avc", in.readUTF());
+                        assertEquals(720, in.readInt());
+                        assertEquals(1280, in.readInt());
+                        in.readInt();
+                        in.readInt();
+                        byte[] csd0 = new byte[in.readInt()];
+                        in.readFully(csd0);
+                        assertArrayEquals(SPS, csd0);
+                        assertEquals(0, in.readInt());
+                        continue;
+                    }
+                    int flags = in.readInt();
+                    long pts = in.readLong();
+                    byte[] payload = new byte[in.readInt()];
+                    in.readFully(payload);
+                    assertEquals((byte) (pts / 33_333L), payload[0]);
+                    samples.add(new long[]{pts, flags & MediaCodec.BUFFER_FLAG_KEY_FRAME});
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,148 @@
+package com.zrh.record.screen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.media.MediaCodec;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SegmentedSampleWriterTest {
+    private final List<RecordingSampleWriter> writers = new ArrayList<>();
+    private final List<File> files = new ArrayList<>();
+
+    private SegmentedSampleWriter create(long maxDurationUs, long maxBytes) throws Exception {
+        return new SegmentedSampleWriter(new File("out/1000.temp"), 1, maxDurationUs, maxBytes, (file, trackCount) -> {
+            RecordingSampleWriter writer = new RecordingSampleWriter(trackCount);
+            writers.add(writer);
+            files.add(file);
+            return writer;
+        });
+    }
+
+    @Test
+    public void rotatesAtKeyframeAfterDurationLimit() throws Exception {
+        SegmentedSampleWriter writer = create(1_000_000, 0);
+        List<File> completed = new ArrayList<>();
+        writer.setListener(new SegmentedSampleWriter.Listener() {
+            @Override
+            public void onSegmentCompleted(@NonNull File segment, @NonNull File next) {
+                completed.add(segment);
+            }
+
+            @Override
+            public void onSegmentFailed(@NonNull File segment, @NonNull File next, @NonNull Exception error) {
+                throw new AssertionError(error);
+            }
+        });
+
+        // 10 fps, keyframe every 15 frames, 40 frames
+        EncoderDrainer drainer = new EncoderDrainer(new FakeEncoderOutput(40, 15, 100_000), writer);
+        assertTrue(drainer.drain(0));
+        writer.stop();
+
+        // limit reached at 1s, first keyframe after it is frame 15 and then frame 30
+        assertEquals(3, writers.size());
+        assertEquals(15, writers.get(0).samples.size());
+        assertEquals(15, writers.get(1).samples.size());
+        assertEquals(10, writers.get(2).samples.size());
+        for (RecordingSampleWriter w : writers) {
+            assertEquals(1, w.formats.size());
+            assertTrue((w.flags.get(0) & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0);
+            assertTrue(w.stopped);
+        }
+        assertEquals(2, completed.size());
+        assertEquals("1000.temp", completed.get(0).getName());
+        assertEquals("1000_1.temp", completed.get(1).getName());
+        assertEquals("1000_2.temp", writer.getCurrentFile().getName());
+    }
+
+    @Test
+    public void reportsTheNextFileWhenASegmentFails() throws Exception {
+        SegmentedSampleWriter writer = new SegmentedSampleWriter(new File("out/1000.temp"), 1, 1_000_000, 0, (file, trackCount) -> {
+            RecordingSampleWriter segment = new RecordingSampleWriter(trackCount);
+            if (writers.isEmpty()) segment.stopFailure = new IOException("moov not written");
+            writers.add(segment);
+            return segment;
+        });
+        List<File> completed = new ArrayList<>();
+        List<File> failed = new ArrayList<>();
+        List<File> current = new ArrayList<>();
+        writer.setListener(new SegmentedSampleWriter.Listener() {
+            @Override
+            public void onSegmentCompleted(@NonNull File segment, @NonNull File next) {
+                completed.add(segment);
+                current.add(next);
+            }
+
+            @Override
+            public void onSegmentFailed(@NonNull File segment, @NonNull File next, @NonNull Exception error) {
+                failed.add(segment);
+                current.add(next);
+            }
+        });
+        new EncoderDrainer(new FakeEncoderOutput(40, 15, 100_000), writer).drain(0);
+        writer.stop();
+
+        assertEquals(1, failed.size());
+        assertEquals("1000.temp", failed.get(0).getName());
+        assertEquals(1, completed.size());
+        assertEquals("1000_1.temp", completed.get(0).getName());
+        // the recorder always learns which file is written now
+        assertEquals("1000_2.temp", current.get(current.size() - 1).getName());
+        assertTrue(writers.get(0).released);
+    }
+
+    @Test
+    public void rotatesAtKeyframeAfterSizeLimit() throws Exception {
+        SegmentedSampleWriter writer = create(0, 50);
+        EncoderDrainer drainer = new EncoderDrainer(new FakeEncoderOutput(12, 4, 100_000), writer);
+        drainer.drain(0);
+        writer.stop();
+
+        // every frame is at least 16 bytes, so each gop of 4 frames fills a segment
+        assertEquals(3, writers.size());
+        int total = 0;
+        for (RecordingSampleWriter w : writers) {
+            assertEquals(4, w.samples.size());
+            total += w.samples.size();
+        }
+        assertEquals(12, total);
+    }
+
+    @Test
+    public void sumsBackgroundWriteTimeOverSegments() throws Exception {
+        SegmentedSampleWriter writer = new SegmentedSampleWriter(new File("out/1000.temp"), 1, 0, 50, (file, trackCount) -> {
+            RecordingSampleWriter segment = new RecordingSampleWriter(trackCount);
+            segment.backgroundWriteNanos = 0;
+            writers.add(segment);
+            return segment;
+        });
+        new EncoderDrainer(new FakeEncoderOutput(12, 4, 100_000), writer).drain(0);
+
+        assertEquals(3, writers.size());
+        long bytes = 0;
+        for (RecordingSampleWriter w : writers) {
+            for (byte[] sample : w.samples) bytes += sample.length;
+        }
+        assertEquals(bytes, writer.getBackgroundWriteNanos());
+        writer.stop();
+    }
+
+    @Test
+    public void keepsSingleFileWithoutLimitHit() throws Exception {
+        SegmentedSampleWriter writer = create(60_000_000, 0);
+        new EncoderDrainer(new FakeEncoderOutput(20, 5, 100_000), writer).drain(0);
+        writer.stop();
+
+        assertEquals(1, writers.size());
+        assertEquals(20, writers.get(0).samples.size());
+    }
+}
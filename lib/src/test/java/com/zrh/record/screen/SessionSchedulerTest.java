@@ -0,0 +1,64 @@
+package com.zrh.record.screen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SessionSchedulerTest {
+
+    @Test
+    public void capsRunningSessionsAndAdmitsWaitingOnesInOrder() {
+        SessionScheduler scheduler = new SessionScheduler(2, 2);
+        assertEquals(SessionScheduler.ADMITTED, scheduler.submit(0));
+        assertEquals(SessionScheduler.ADMITTED, scheduler.submit(1));
+        assertEquals(SessionScheduler.QUEUED, scheduler.submit(2));
+        assertEquals(SessionScheduler.QUEUED, scheduler.submit(3));
+        assertEquals(SessionScheduler.REJECTED, scheduler.submit(4));
+        assertEquals(2, scheduler.getRunningCount());
+        assertEquals(2, scheduler.getQueuedCount());
+
+        assertEquals(2, scheduler.release(1));
+        assertTrue(scheduler.isRunning(2));
+        assertEquals(3, scheduler.release(0));
+        assertEquals(-1, scheduler.release(2));
+        assertEquals(1, scheduler.getRunningCount());
+        assertEquals(0, scheduler.getQueuedCount());
+    }
+
+    @Test
+    public void droppingAWaitingSessionFreesNoSlot() {
+        SessionScheduler scheduler = new SessionScheduler(1, 2);
+        scheduler.submit(0);
+        scheduler.submit(1);
+        scheduler.submit(2);
+
+        assertEquals(-1, scheduler.release(1));
+        assertFalse(scheduler.isQueued(1));
+        assertTrue(scheduler.isRunning(0));
+        assertEquals(2, scheduler.release(0));
+        // released twice, or never submitted
+        assertEquals(-1, scheduler.release(0));
+        assertEquals(-1, scheduler.release(7));
+    }
+
+    @Test
+    public void submittingTwiceKeepsOneEntry() {
+        SessionScheduler scheduler = new SessionScheduler(1, 1);
+        assertEquals(SessionScheduler.ADMITTED, scheduler.submit(5));
+        assertEquals(SessionScheduler.ADMITTED, scheduler.submit(5));
+        assertEquals(SessionScheduler.QUEUED, scheduler.submit(6));
+        assertEquals(SessionScheduler.QUEUED, scheduler.submit(6));
+        assertEquals(1, scheduler.getRunningCount());
+        assertEquals(1, scheduler.getQueuedCount());
+    }
+
+    @Test
+    public void capacityFollowsTheInstanceLimit() {
+        assertEquals(SessionScheduler.FALLBACK_INSTANCES, SessionScheduler.capacityOf(0));
+        assertEquals(2, SessionScheduler.capacityOf(2));
+        assertEquals(SessionScheduler.MAX_SESSIONS, SessionScheduler.capacityOf(32));
+        assertEquals(1, new SessionScheduler(0, 0).getMaxSessions());
+    }
+}
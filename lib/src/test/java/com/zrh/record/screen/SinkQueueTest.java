@@ -0,0 +1,166 @@
+package com.zrh.record.screen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.media.MediaCodec;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class SinkQueueTest {
+    private static final int VIDEO = 0;
+    private static final int AUDIO = 1;
+
+    private final SampleInfo info = new SampleInfo();
+
+    @Test
+    public void handsOutSamplesInOrder() throws Exception {
+        SinkQueue queue = new SinkQueue(1000, 16, SinkPolicy.DROP_OLDEST_GOP);
+        queue.setVideoTrack(VIDEO);
+        ByteBuffer dst = ByteBuffer.allocate(1000);
+        // wraps around the ring several times
+        for (int i = 0; i < 50; i++) {
+            assertTrue(offer(queue, VIDEO, 300, i, i % 5 == 0));
+            assertTrue(offer(queue, AUDIO, 100, i, false));
+            assertEquals(VIDEO, queue.poll(dst, info, 0));
+            assertSample(dst, 300, i);
+            assertEquals(AUDIO, queue.poll(dst, info, 0));
+            assertSample(dst, 100, i);
+        }
+        assertEquals(-1, queue.poll(dst, info, 0));
+        assertEquals(0, queue.getDroppedCount());
+    }
+
+    @Test
+    public void dropsOldestGopsWhenFull() throws Exception {
+        SinkQueue queue = new SinkQueue(1000, 64, SinkPolicy.DROP_OLDEST_GOP);
+        queue.setVideoTrack(VIDEO);
+        // GOPs of 4 samples of 100 bytes, the queue holds two and a half
+        for (int i = 0; i < 20; i++) {
+            assertTrue(offer(queue, VIDEO, 100, i, i % 4 == 0));
+        }
+        ByteBuffer dst = ByteBuffer.allocate(100);
+        assertEquals(VIDEO, queue.poll(dst, info, 0));
+        assertEquals(12, info.presentationTimeUs);
+        assertTrue((info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0);
+        assertEquals(12, queue.getDroppedCount());
+        assertEquals(7, queue.size());
+    }
+
+    @Test
+    public void restartsAtKeyframeWhenGopDoesNotFit() throws Exception {
+        SinkQueue queue = new SinkQueue(250, 64, SinkPolicy.DROP_OLDEST_GOP);
+        queue.setVideoTrack(VIDEO);
+        assertTrue(offer(queue, VIDEO, 100, 0, true));
+        assertTrue(offer(queue, VIDEO, 100, 1, false));
+        assertFalse(offer(queue, VIDEO, 100, 2, false));
+        assertFalse(offer(queue, VIDEO, 100, 3, false));
+        assertTrue(offer(queue, VIDEO, 100, 4, true));
+
+        ByteBuffer dst = ByteBuffer.allocate(100);
+        assertEquals(VIDEO, queue.poll(dst, info, 0));
+        assertEquals(4, info.presentationTimeUs);
+        assertEquals(4, queue.getDroppedCount());
+    }
+
+    @Test
+    public void blocksUntilConsumerCatchesUp() throws Exception {
+        SinkQueue queue = new SinkQueue(300, 64, SinkPolicy.BLOCK);
+        queue.setVideoTrack(VIDEO);
+        Thread producer = new Thread(() -> {
+            try {
+                for (int i = 0; i < 10; i++) {
+                    offer(queue, VIDEO, 100, i, i == 0);
+                }
+            } catch (InterruptedException ignore) {
+            }
+        });
+        producer.start();
+        Thread.sleep(100);
+        assertTrue(producer.isAlive());
+        assertEquals(3, queue.size());
+
+        ByteBuffer dst = ByteBuffer.allocate(100);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(VIDEO, queue.poll(dst, info, 1000));
+            assertEquals(i, info.presentationTimeUs);
+        }
+        producer.join(1000);
+        assertFalse(producer.isAlive());
+        assertEquals(0, queue.getDroppedCount());
+    }
+
+    @Test
+    public void stalledConsumerHoldsUpOnlyOnce() throws Exception {
+        SinkQueue queue = new SinkQueue(300, 64, SinkPolicy.BLOCK, 50);
+        queue.setVideoTrack(VIDEO);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(offer(queue, VIDEO, 100, i, i == 0));
+        }
+        long start = System.nanoTime();
+        // nobody polls, the wait times out and the old GOP goes
+        assertTrue(offer(queue, VIDEO, 100, 3, true));
+        assertTrue(System.nanoTime() - start >= 40_000_000L);
+        assertEquals(3, queue.getDroppedCount());
+
+        assertTrue(offer(queue, VIDEO, 100, 4, false));
+        assertTrue(offer(queue, VIDEO, 100, 5, false));
+        start = System.nanoTime();
+        // still stalled, the next full queue drops at once
+        assertTrue(offer(queue, VIDEO, 100, 6, true));
+        assertTrue(System.nanoTime() - start < 40_000_000L);
+        assertEquals(6, queue.getDroppedCount());
+    }
+
+    @Test
+    public void closeWakesABlockedProducer() throws Exception {
+        SinkQueue queue = new SinkQueue(100, 64, SinkPolicy.BLOCK, 10_000);
+        queue.setVideoTrack(VIDEO);
+        assertTrue(offer(queue, VIDEO, 100, 0, true));
+        boolean[] result = {true};
+        Thread producer = new Thread(() -> {
+            try {
+                result[0] = offer(queue, VIDEO, 100, 1, false);
+            } catch (InterruptedException ignore) {
+            }
+        });
+        producer.start();
+        Thread.sleep(50);
+        queue.close();
+        producer.join(1000);
+        assertFalse(producer.isAlive());
+        assertFalse(result[0]);
+    }
+
+    @Test
+    public void reportsSizeOfLargeSamples() throws Exception {
+        SinkQueue queue = new SinkQueue(1000, 8, SinkPolicy.BLOCK);
+        offer(queue, VIDEO, 500, 0, true);
+        ByteBuffer dst = ByteBuffer.allocate(100);
+        assertEquals(SinkQueue.TOO_SMALL, queue.poll(dst, info, 0));
+        assertEquals(500, queue.peekSize(0));
+
+        queue.close();
+        // closing keeps what is queued
+        assertEquals(VIDEO, queue.poll(ByteBuffer.allocate(500), info, 0));
+        assertEquals(-1, queue.poll(dst, info, 0));
+    }
+
+    private boolean offer(SinkQueue queue, int track, int size, long pts, boolean key) throws InterruptedException {
+        ByteBuffer src = ByteBuffer.allocate(size);
+        for (int i = 0; i < size; i++) src.put((byte) (pts + i));
+        src.flip();
+        SampleInfo sample = new SampleInfo();
+        sample.set(0, size, pts, key ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0);
+        return queue.offer(track, src, sample);
+    }
+
+    private void assertSample(ByteBuffer dst, int size, long pts) {
+        assertEquals(size, dst.remaining());
+        assertEquals(pts, info.presentationTimeUs);
+        for (int i = 0; i < size; i++) assertEquals((byte) (pts + i), dst.get(i));
+    }
+}
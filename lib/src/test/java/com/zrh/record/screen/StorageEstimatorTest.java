@@ -0,0 +1,87 @@
+package com.zrh.record.screen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class StorageEstimatorTest {
+    private static final long MB = 1_000_000;
+
+    @Test
+    public void admitsOnlyWhenTheMinimumFitsAboveTheMargin() {
+        StorageEstimator estimator = new StorageEstimator(50 * MB, MB);
+        assertTrue(estimator.canStart(60 * MB, 10_000));
+        assertFalse(estimator.canStart(60 * MB - 1, 10_000));
+        assertFalse(estimator.canStart(10 * MB, 0));
+        assertEquals(-1, estimator.getRemainingMs());
+
+        estimator.update(0, 0, 40 * MB);
+        assertEquals(0, estimator.getRemainingMs());
+        assertTrue(estimator.isRunningOut(0));
+    }
+
+    @Test
+    public void stopsAheadOfTheMarginAtASteadyRate() {
+        // 2 MB/s against 1 MB/s expected, 100 MB free above a 20 MB margin
+        StorageEstimator estimator = new StorageEstimator(20 * MB, MB);
+        long available = 120 * MB;
+        long written = 0;
+        long stoppedAtMs = -1;
+        for (long ms = 0; ms <= 60_000; ms += 1000) {
+            estimator.update(ms, written, available);
+            if (estimator.isRunningOut(3000)) {
+                stoppedAtMs = ms;
+                break;
+            }
+            written += 2 * MB;
+            available -= 2 * MB;
+        }
+        // 100 MB last 50s, the check fires 3s ahead
+        assertEquals(47_000, stoppedAtMs);
+        assertTrue(Math.abs(estimator.getBytesPerSec() - 2 * MB) < MB / 100);
+        assertTrue(available > 20 * MB);
+    }
+
+    @Test
+    public void followsAChangingRate() {
+        StorageEstimator estimator = new StorageEstimator(0, MB);
+        long written = 0;
+        for (long ms = 0; ms <= 10_000; ms += 1000) {
+            estimator.update(ms, written, 1000 * MB);
+            written += MB;
+        }
+        assertEquals(1000_000, estimator.getRemainingMs(), 1000);
+
+        // the screen starts moving, four times the rate
+        for (long ms = 11_000; ms <= 30_000; ms += 1000) {
+            written += 4 * MB;
+            estimator.update(ms, written, 1000 * MB);
+        }
+        assertEquals(250_000, estimator.getRemainingMs(), 2000);
+    }
+
+    @Test
+    public void keepsAFloorWhenNothingIsWritten() {
+        StorageEstimator estimator = new StorageEstimator(0, 4 * MB);
+        for (long ms = 0; ms <= 30_000; ms += 1000) {
+            estimator.update(ms, 0, 100 * MB);
+        }
+        // nothing written, still counted at a quarter of the expected rate
+        assertEquals(100_000, estimator.getRemainingMs());
+    }
+
+    @Test
+    public void restartsTheMeasurementWhenTheByteCountStartsOver() {
+        StorageEstimator estimator = new StorageEstimator(0, MB);
+        estimator.update(0, 0, 100 * MB);
+        estimator.update(1000, 50 * MB, 100 * MB);
+        long rate = estimator.getBytesPerSec();
+        // a new segment counts from zero again
+        estimator.update(2000, MB, 100 * MB);
+        assertEquals(rate, estimator.getBytesPerSec());
+        estimator.update(3000, 2 * MB, 100 * MB);
+        assertTrue(estimator.getBytesPerSec() < rate);
+    }
+}
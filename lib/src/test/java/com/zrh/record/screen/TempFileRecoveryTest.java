@@ -0,0 +1,225 @@
+package com.zrh.record.screen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.media.MediaCodec;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+public class TempFileRecoveryTest {
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("recovery", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        dir.delete();
+    }
+
+    private static ByteBuffer read(File file) throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining()) channel.read(buffer);
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    private static void nal(ByteBuffer out, int header, int firstPayloadByte, int length) {
+        out.putInt(length);
+        out.put((byte) header);
+        out.put((byte) firstPayloadByte);
+        for (int i = 2; i < length; i++) out.put((byte) 0x11);
+    }
+
+    /**
+     * Same layout MediaMuxer leaves behind when killed: ftyp, then an mdat whose size was never patched.
+     */
+    private File writeUnfinishedMp4(int frames, int gop, boolean truncateTail) throws Exception {
+        File file = new File(dir, "1000.temp");
+        ByteBuffer out = ByteBuffer.allocate(64 * 1024);
+        out.putInt(24).put("ftyp".getBytes()).put("isom".getBytes()).putInt(0x200)
+           .put("isom".getBytes()).put("mp41".getBytes());
+        out.putInt(0).put("mdat".getBytes());
+        for (int frame = 0; frame < frames; frame++) {
+            if (frame % gop == 0) {
+                nal(out, 0x67, 0x42, 10);
+                nal(out, 0x68, 0xCE, 4);
+                nal(out, 0x65, 0x88, 200);
+            } else {
+                nal(out, 0x41, 0x9A, 50 + frame);
+            }
+        }
+        if (truncateTail) {
+            nal(out, 0x41, 0x9A, 100);
+            out.position(out.position() - 60);
+        }
+        out.flip();
+        try (FileOutputStream stream = new FileOutputStream(file)) {
+            stream.getChannel().write(out);
+        }
+        TrackFormat format = new FakeEncoderOutput(0, 1, 0).getOutputFormat();
+        RecoveryInfo.write(file, new TrackFormat[]{format});
+        return file;
+    }
+
+    @Test
+    public void rebuildsSampleTableFromMdat() throws Exception {
+        writeUnfinishedMp4(25, 10, true);
+
+        List<File> recovered = new TempFileRecovery(30).recoverAll(dir);
+
+        assertEquals(1, recovered.size());
+        File mp4 = recovered.get(0);
+        assertEquals("1000.mp4", mp4.getName());
+        assertFalse(new File(dir, "1000.temp").exists());
+        assertFalse(new File(dir, "1000.temp.meta").exists());
+
+        ByteBuffer file = read(mp4);
+        assertEquals("ftyp mdat moov[mvhd trak[tkhd mdia[mdhd hdlr minf[vmhd dinf[dref[url ]] "
+                     + "stbl[stsd[avc1[avcC]] stts stss stsc stsz stco]]]]]", Mp4Layout.of(file));
+
+        int stsz = Mp4Layout.find(file, 0, file.limit(), "moov/trak/mdia/minf/stbl/stsz");
+        assertEquals(25, file.getInt(stsz + 16));
+        // keyframe: sps + pps + idr
+        assertEquals(14 + 8 + 204, file.getInt(stsz + 20));
+        assertEquals(4 + 51, file.getInt(stsz + 24));
+
+        int stss = Mp4Layout.find(file, 0, file.limit(), "moov/trak/mdia/minf/stbl/stss");
+        assertEquals(3, file.getInt(stss + 12));
+        assertEquals(1, file.getInt(stss + 16));
+        assertEquals(11, file.getInt(stss + 20));
+        assertEquals(21, file.getInt(stss + 24));
+
+        int stco = Mp4Layout.find(file, 0, file.limit(), "moov/trak/mdia/minf/stbl/stco");
+        assertEquals(32, file.getInt(stco + 16));
+        int mdat = Mp4Layout.find(file, 0, file.limit(), "mdat");
+        assertEquals(24, mdat);
+        assertEquals(0x67, file.get(32 + 4));
+    }
+
+    @Test
+    public void cutsFragmentedFileAfterLastCompleteFragment() throws Exception {
+        File file = new File(dir, "2000.temp");
+        DirectBufferPool pool = new DirectBufferPool(256, 8);
+        FragmentedMp4Writer writer = new FragmentedMp4Writer(file, 1, 1_000_000, pool);
+        writer.addTrack(new FakeEncoderOutput(0, 1, 0).getOutputFormat());
+        SampleInfo info = new SampleInfo();
+        for (int frame = 0; frame < 75; frame++) {
+            ByteBuffer sample = ByteBuffer.allocate(20);
+            sample.putInt(1).put((byte) 0x41);
+            sample.position(0);
+            info.set(0, 20, frame * 33_334L, frame % 30 == 0 ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0);
+            writer.writeSampleData(0, sample, info);
+        }
+        // killed before the last fragment was flushed, with a partial moof at the end
+        writer.release();
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[]{0, 0, 1, 0, 'm', 'o', 'o', 'f', 0, 0});
+        }
+
+        List<File> recovered = new TempFileRecovery(30).recoverAll(dir);
+
+        assertEquals(1, recovered.size());
+        String layout = Mp4Layout.of(read(recovered.get(0)));
+        assertTrue(layout.endsWith("mdat"));
+        assertEquals(2, layout.split("moof").length - 1);
+    }
+
+    @Test
+    public void cutsZeroFilledPreallocatedTail() throws Exception {
+        File file = new File(dir, "2500.temp");
+        DirectBufferPool pool = new DirectBufferPool(256, 8);
+        FragmentedMp4Writer writer = new FragmentedMp4Writer(file, 1, 1_000_000, pool);
+        writer.addTrack(new FakeEncoderOutput(0, 1, 0).getOutputFormat());
+        SampleInfo info = new SampleInfo();
+        for (int frame = 0; frame < 45; frame++) {
+            ByteBuffer sample = ByteBuffer.allocate(20);
+            sample.putInt(1).put((byte) 0x41);
+            sample.position(0);
+            info.set(0, 20, frame * 33_334L, frame % 30 == 0 ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0);
+            writer.writeSampleData(0, sample, info);
+        }
+        writer.release();
+        long written = file.length();
+        // killed before the preallocated space was given back
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(written + 64 * 1024);
+        }
+
+        List<File> recovered = new TempFileRecovery(30).recoverAll(dir);
+
+        assertEquals(1, recovered.size());
+        assertEquals(written, recovered.get(0).length());
+        assertTrue(Mp4Layout.of(read(recovered.get(0))).endsWith("mdat"));
+    }
+
+    @Test
+    public void deletesUnrecoverableFiles() throws Exception {
+        File noSidecar = writeUnfinishedMp4(5, 5, false);
+        RecoveryInfo.sidecarOf(noSidecar).delete();
+        File orphan = RecoveryInfo.sidecarOf(new File(dir, "3000.temp"));
+        RecoveryInfo.write(new File(dir, "3000.temp"), new TrackFormat[0]);
+
+        List<File> recovered = new TempFileRecovery(30).recoverAll(dir);
+
+        assertEquals(0, recovered.size());
+        assertFalse(noSidecar.exists());
+        assertFalse(orphan.exists());
+    }
+
+    @Test
+    public void keepsFilesOfOtherCodecs() throws Exception {
+        File hevc = writeUnfinishedMp4(5, 5, false);
+        RecoveryInfo.write(hevc, new TrackFormat[]{TrackFormat.video("video/hevc", 720, 1280, null, null)});
+        TempFileRecovery recovery = new TempFileRecovery(30);
+
+        List<File> recovered = recovery.recoverAll(dir);
+
+        assertEquals(0, recovered.size());
+        assertTrue(recovery.isUnsupported());
+        assertTrue(hevc.exists());
+        assertTrue(RecoveryInfo.sidecarOf(hevc).exists());
+    }
+
+    @Test
+    public void renamesFinishedFile() throws Exception {
+        File file = new File(dir, "4000.temp");
+        ByteBuffer out = ByteBuffer.allocate(64);
+        out.putInt(16).put("ftyp".getBytes()).put("isom".getBytes()).putInt(0);
+        out.putInt(12).put("mdat".getBytes()).putInt(7);
+        out.putInt(8).put("moov".getBytes());
+        out.flip();
+        try (FileOutputStream stream = new FileOutputStream(file)) {
+            stream.getChannel().write(out);
+        }
+
+        File mp4 = new TempFileRecovery(30).recover(file);
+
+        assertEquals("4000.mp4", mp4.getName());
+        assertEquals(36, mp4.length());
+        assertNull(new TempFileRecovery(30).recover(new File(dir, "missing.temp")));
+    }
+}
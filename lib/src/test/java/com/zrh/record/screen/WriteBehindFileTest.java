@@ -0,0 +1,110 @@
+package com.zrh.record.screen;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+
+public class WriteBehindFileTest {
+    private final DirectBufferPool pool = new DirectBufferPool(64, 8);
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("write-behind", ".temp");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void keepsOrderThroughASmallQueue() throws Exception {
+        // two buffers of queue, the producer keeps waiting for the write thread
+        WriteBehindFile output = new WriteBehindFile(file, pool, 2);
+        byte[] expected = new byte[10_000];
+        new Random(1).nextBytes(expected);
+        int position = 0;
+        while (position < expected.length) {
+            int length = Math.min(expected.length - position, 1 + position % 150);
+            if (position % 3 == 0) {
+                output.write(ByteBuffer.wrap(expected, position, length));
+                position += length;
+            } else {
+                ByteBuffer buffer = pool.acquire();
+                length = Math.min(length, buffer.remaining());
+                buffer.put(expected, position, length).flip();
+                output.submit(buffer);
+                position += length;
+            }
+            if (position % 7 == 0) output.sync();
+        }
+        output.finish();
+        output.close();
+
+        assertEquals(expected.length, output.getQueuedBytes());
+        assertArrayEquals(expected, Files.readAllBytes(file.toPath()));
+        // every buffer went back to the pool
+        assertTrue(pool.getPooledCount() > 0);
+    }
+
+    @Test
+    public void gathersAFullQueueIntoThePreallocatedFile() throws Exception {
+        DirectBufferPool largePool = new DirectBufferPool(64, 64);
+        // posix_fallocate is not available on the JVM, a sized file stands in for the reserved blocks
+        WriteBehindFile output = new WriteBehindFile(file, largePool, 64, (fd, bytes) -> {
+            try (RandomAccessFile sized = new RandomAccessFile(file, "rw")) {
+                sized.setLength(bytes);
+            }
+        });
+        output.preallocate(64 * 1024);
+        assertEquals(64 * 1024, file.length());
+        byte[] expected = new byte[64 * 50 + 17];
+        new Random(2).nextBytes(expected);
+        // queued faster than written, the write thread takes many buffers at once
+        output.write(ByteBuffer.wrap(expected));
+        output.finish();
+        output.close();
+
+        // the preallocated tail is cut off
+        assertArrayEquals(expected, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void timesTheWriteThread() throws Exception {
+        WriteBehindFile output = new WriteBehindFile(file, pool, 4);
+        assertEquals(0, output.getBusyNanos());
+        output.write(ByteBuffer.wrap(new byte[1000]));
+        output.sync();
+        output.finish();
+        output.close();
+        assertTrue(output.getBusyNanos() > 0);
+    }
+
+    @Test
+    public void rejectsWritesAfterFinish() throws Exception {
+        WriteBehindFile output = new WriteBehindFile(file, pool, 4);
+        output.write(ByteBuffer.wrap(new byte[100]));
+        output.finish();
+        try {
+            output.write(ByteBuffer.wrap(new byte[1]));
+            fail();
+        } catch (IOException expected) {
+            // the file is complete
+        }
+        output.close();
+        assertEquals(100, file.length());
+    }
+}